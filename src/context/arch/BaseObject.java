@@ -2,6 +2,7 @@ package context.arch;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -25,6 +26,7 @@ import context.arch.comm.protocol.RequestData;
 import context.arch.discoverer.ComponentDescription;
 import context.arch.discoverer.Discoverer;
 import context.arch.discoverer.DiscovererDescription;
+import context.arch.discoverer.DiscovererQueryResults;
 import context.arch.discoverer.lease.Lease;
 import context.arch.discoverer.querySystem.AbstractQueryItem;
 import context.arch.handler.AsyncServiceHandler;
@@ -325,6 +327,37 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
     return parser.encodeData(communicationData);
   }
   
+  /**
+   * Stub method that encodes the given data to a writer using ParserObject
+   *
+   * @param communicationData DataObject to be encoded
+   * @param out Writer the encoded data is written to
+   * @param accept Content types accepted by the receiver, or null if unknown
+   * @return the content type of the encoded data
+   * @exception context.arch.comm.language.EncodeException thrown if the parser can't encode the given data
+   * @exception context.arch.comm.language.InvalidEncoderException thrown if the parser can't create the necessary encoder
+   * @exception java.io.IOException thrown if the writer fails
+   * @see context.arch.comm.language.ParserObject#encodeData(context.arch.comm.DataObject, java.io.Writer, String)
+   */
+  public String encodeData(DataObject communicationData, Writer out, String accept) throws EncodeException, InvalidEncoderException, IOException {
+    return parser.encodeData(communicationData, out, accept);
+  }
+  
+  /**
+   * Encodes the data of a request for the component it is sent to: the
+   * encoding of the parser is used if that component is known to accept it,
+   * XML otherwise.
+   *
+   * @param request The request to encode
+   * @return the encoded data
+   * @exception context.arch.comm.language.EncodeException thrown if the parser can't encode the data
+   * @exception context.arch.comm.language.InvalidEncoderException thrown if the parser can't create the necessary encoder
+   * @see context.arch.comm.CommunicationsObject#getAccept(RequestObject)
+   */
+  private String encodeRequest(RequestObject request) throws EncodeException, InvalidEncoderException {
+    return parser.encodeData(request.getNonEncodedData(), communications.getAccept(request));
+  }
+  
   /**
    * Method that submits a user request for polling/subscription.  The request
    * is in the form of a DataObject.  It is encoded, sent out and the reply is
@@ -345,7 +378,7 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   public DataObject userRequest(DataObject data, String requestType) throws EncodeException, InvalidProtocolException, ProtocolException, DecodeException, InvalidDecoderException, InvalidEncoderException, IOException {
     DataObject decoded = null;
     RequestObject request = new RequestObject(data, requestType);
-    request.setEncodedData(encodeData(request.getNonEncodedData()));
+    request.setEncodedData(encodeRequest(request));
     
     RequestData replydata = communications.sendRequest(request);
     //println("BaseObject <userRequest deprecated> : wants to send \n"+data + "\nto "+requestType);
@@ -369,7 +402,7 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
     RequestData replydata = null;
     DataObject decoded = null;
     //Encode if necessary
-    request.setEncodedData( encodeData(request.getNonEncodedData()));
+    request.setEncodedData(encodeRequest(request));
     debugprintln(DEBUG, "userRequest=" + request);
     replydata = communications.sendRequest(request);
     if (replydata != null && replydata.getType().equals(RequestData.DECODE)) {
@@ -399,7 +432,7 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   public DataObject userRequest(DataObject data, String requestType, String remoteHostname) throws EncodeException, InvalidProtocolException, ProtocolException, DecodeException, InvalidDecoderException, InvalidEncoderException, IOException {
     DataObject decoded = null;
     RequestObject request = new RequestObject(data, requestType, remoteHostname);
-    request.setEncodedData(encodeData(request.getNonEncodedData()));
+    request.setEncodedData(encodeRequest(request));
     RequestData replydata = communications.sendRequest(request);
     
     if (replydata.getType().equals(RequestData.DECODE)) {
@@ -428,7 +461,7 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   public DataObject userRequest(DataObject data, String requestType, String remoteHostname, int remotePort) throws EncodeException, ProtocolException, InvalidProtocolException, DecodeException, InvalidDecoderException, InvalidEncoderException, IOException {
     DataObject decoded = null;
     RequestObject request = new RequestObject(data, requestType, remoteHostname, remotePort);
-    request.setEncodedData(encodeData(request.getNonEncodedData()));
+    request.setEncodedData(encodeRequest(request));
     
     RequestData replydata = communications.sendRequest(request);
     
@@ -471,7 +504,7 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   throws EncodeException, InvalidEncoderException {
     DataObject dobj = (request.getRequest()).getNonEncodedData();
     if (dobj != null){
-      (request.getRequest()).setEncodedData(encodeData(dobj));
+      (request.getRequest()).setEncodedData(encodeRequest(request.getRequest()));
     }
     communications.sendIndependentRequest(request);
   }
@@ -1098,8 +1131,8 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   public DataObject askInterpreter(String remoteHost, int remotePort, String remoteId,
   Attributes data) {
     debugprintln(DEBUG, "\nBaseObject askInterpreter");
-    Vector v = new Vector();
-    DataObject interpret = new DataObject(Constants.INTERPRET, v);
+    DataObject interpret = new DataObject(Constants.INTERPRET);
+    Vector v = interpret.getValue();
     v.addElement(new DataObject(ID, remoteId));
     v.addElement(data.toDataObject());
     System.out.println(data.toDataObject());
@@ -1140,8 +1173,8 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   public DataObject runComponentMethod(String remoteHost, int remotePort, String remoteId,
   String methodName,Attributes parameters, Attributes attributes) {
     debugprintln(DEBUG, "\nBaseObject runcomponentMethod");
-    Vector v = new Vector();
-    DataObject method = new DataObject(methodName, v);
+    DataObject method = new DataObject(methodName);
+    Vector v = method.getValue();
     v.addElement(new DataObject(ID, remoteId));
     if (parameters != null) {
       v.addElement(parameters.toDataObject());
@@ -1186,8 +1219,8 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   public DataObject executeAsynchronousWidgetService(AsyncServiceHandler handler, String serviceHost, int servicePort,
   String serviceId, String service, String function, Attributes input, String requestTag) {
     debugprintln(DEBUG, "\nBaseObject executeAsynchronousWidgetService");
-    Vector v = new Vector();
-    DataObject request = new DataObject(Service.SERVICE_REQUEST, v);
+    DataObject request = new DataObject(Service.SERVICE_REQUEST);
+    Vector v = request.getValue();
     v.addElement(new DataObject(ID, serviceId));
     v.addElement(new DataObject(FunctionDescription.FUNCTION_TIMING, Service.ASYNCHRONOUS));
     v.addElement(new ServiceInput(serviceId,service,function,input,getHostAddress(),communications.getServerPort(),
@@ -1231,8 +1264,8 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
    */
   public DataObject executeSynchronousWidgetService(String remoteHost, int remotePort, String remoteId,
   String service, String function, Attributes input) {
-    Vector v = new Vector();
-    DataObject request = new DataObject(Service.SERVICE_REQUEST, v);
+    DataObject request = new DataObject(Service.SERVICE_REQUEST);
+    Vector v = request.getValue();
     v.addElement(new DataObject(ID, remoteId));
     v.addElement(new DataObject(FunctionDescription.FUNCTION_TIMING, Service.SYNCHRONOUS));
     v.addElement(new ServiceInput(service,function,input).toDataObject());
@@ -1267,8 +1300,8 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
    * @return DataObject containing the results of the ping
    */
   public DataObject pingComponent(String remoteHost, int remotePort, String remoteId, boolean independentCom) {
-    Vector v = new Vector();
-    DataObject ping = new DataObject(PING, v);
+    DataObject ping = new DataObject(PING);
+    Vector v = ping.getValue();
     v.addElement(new DataObject(ID, remoteId));
     try {
       return userRequest(new RequestObject(ping, PING, remoteHost, remotePort));
@@ -1293,8 +1326,8 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
   
   public void pingComponent(IndependentCommunication independentCommunication){
     debugprintln(DEBUG, "baseObject <ping independent> ");
-    Vector v = new Vector();
-    DataObject ping = new DataObject(PING, v);
+    DataObject ping = new DataObject(PING);
+    Vector v = ping.getValue();
     v.addElement(new DataObject(ID, independentCommunication.getRequest().getReceiverId()));
     independentCommunication.getRequest().setUrl(BaseObject.PING);
     independentCommunication.getRequest().setData(ping);
@@ -1815,6 +1848,93 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
     return error;
   }
   
+  /**
+   * This method is used by a process hosting several components to send
+   * their descriptions to the discoverer in one DISCOVERER_BATCH_REGISTRATION
+   * message. The descriptions of the components that haven't found a
+   * discoverer name the discoverer of this object, and the ones without lease
+   * are sent with the default lease. The components are not modified.
+   *
+   * @param components The BaseObject components to register
+   * @return Error The first error of the registrations, or NO_ERROR
+   * @see context.arch.discoverer.Discoverer#DISCOVERER_BATCH_REGISTRATION
+   */
+  public Error discovererRegistration(Vector components){
+    return discovererBatch(components, true);
+  }
+  
+  /**
+   * This method is used by a process hosting several components to update
+   * their descriptions stored in the discoverer with one
+   * DISCOVERER_BATCH_REGISTRATION message. Their leases are not changed.
+   *
+   * @param components The BaseObject components to update
+   * @return Error The first error of the updates, or NO_ERROR
+   * @see context.arch.discoverer.Discoverer#DISCOVERER_BATCH_REGISTRATION
+   */
+  public Error discovererUpdate(Vector components){
+    return discovererBatch(components, false);
+  }
+  
+  /**
+   * Sends the descriptions of several components to the discoverer in one
+   * DISCOVERER_BATCH_REGISTRATION message, with their leases to register
+   * them, or without to update them.
+   *
+   * @param components The BaseObject components
+   * @param registration True to register the components, false to update them
+   * @return Error The first error, or NO_ERROR
+   */
+  private Error discovererBatch(Vector components, boolean registration){
+    // If discoverer == null, we don't register, because it has not been found
+    if (discoverer == null){
+      return new Error("Discoverer not enabled");
+    }
+    Vector v = new Vector();
+    v.addElement(new DataObject(ID, discoverer.getName()));
+    for (int i = 0; i < components.size(); i++) {
+      BaseObject component = (BaseObject) components.elementAt(i);
+      DiscovererDescription disco = component.discoverer;
+      if (disco == null){
+        disco = discoverer;
+      }
+      DataObject description = component.getDescription(disco, component.getLease());
+      if (! registration){
+        // Without lease, the discoverer updates the description
+        Vector children = new Vector();
+        children.addElement(description.getDataObject(ID));
+        children.addElement(description.getDataObject(Discoverer.REGISTERER));
+        description = new DataObject(Discoverer.DISCOVERER_REGISTRATION, children);
+      }
+      v.addElement(description);
+    }
+    Error error = null;
+    try {
+      DataObject result = userRequest(new RequestObject(new DataObject(Discoverer.DISCOVERER_BATCH_REGISTRATION, v),
+                                                        Discoverer.DISCOVERER_BATCH_REGISTRATION,discoverer.getHostname(),discoverer.getPort()));
+      error = new Error(result);
+      debugprintln(DEBUG, "\nBaseObject <discovererBatch> error:" + error.toString());
+      return error;
+      
+    } catch (EncodeException ee) {
+      System.out.println("BaseObject discovererBatch EncodeException: "+ee);
+    } catch (DecodeException de) {
+      System.out.println("BaseObject discovererBatch DecodeException: "+de);
+    } catch (InvalidEncoderException iee) {
+      System.out.println("BaseObject discovererBatch InvalidEncoderException: "+iee);
+    } catch (InvalidDecoderException ide) {
+      System.out.println("BaseObject discovererBatch InvalidDecoderException: "+ide);
+    } catch (InvalidProtocolException ipe) {
+      System.out.println("BaseObject discovererBatch InvalidProtocolException: "+ipe);
+    } catch (ProtocolException pe) {
+      System.out.println("BaseObject discovererBatch ProtocolException: "+pe);
+    } catch (IOException ioe) {
+      System.out.println("BaseObject discovererBatch IOException: "+ioe);
+      error = new Error(Error.IO_ERROR);
+    }
+    return error;
+  }
+  
   public ComponentDescription getComponentDescription() {
     return ComponentDescription.dataObjectToComponentDescription(getDescription());
   }
@@ -1828,6 +1948,19 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
    * @author Agathe
    */
   public synchronized DataObject getDescription(){
+    return getDescription(discoverer, myLease);
+  }
+
+  /**
+   * Returns the common description of the component, sent to the given
+   * discoverer with the given lease.
+   *
+   * @param discoverer The discoverer the description is sent to
+   * @param lease The lease of the registration
+   * @return DataObject It contains the component description
+   * @see #getDescription()
+   */
+  protected synchronized DataObject getDescription(DiscovererDescription discoverer, Lease lease){
     if (discoverer==null){
       return null;
     }
@@ -1877,7 +2010,7 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
       Vector v2 = new Vector();
       v2.addElement(discoId); // the disco Id
       v2.addElement(regist); // the description
-      v2.addElement(myLease.toDataObject()); // the lease
+      v2.addElement(lease.toDataObject()); // the lease
       
       DataObject result = new DataObject(Discoverer.DISCOVERER_REGISTRATION, v2);
       return result;
@@ -2241,6 +2374,53 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
     return null;
   }
   
+  /**
+   * This method allows to send a query to the discoverer and to read the
+   * results page by page: the discoverer returns the first pageSize results,
+   * and the next pages are asked for while the returned enumeration is read.
+   *
+   * @param query The Query object containing the request for the discoverer
+   * @param pageSize The number of results asked for in each message
+   * @return DiscovererQueryResults An enumeration of the ComponentDescription
+   * objects fitting the request, or null if the query failed
+   * @see #discovererQueryNext(String,int)
+   */
+  public DiscovererQueryResults discovererQuery(AbstractQueryItem query, int pageSize){
+    if (discoverer == null){
+      return null;
+    }
+    debugprintln(DEBUG, "BO discovererQuery pageSize=" + pageSize);
+    Vector options = new Vector();
+    options.addElement(new DataObject(Discoverer.DISCOVERER_QUERY_TYPE, Discoverer.FIRST_RESULT));
+    options.addElement(new DataObject(Discoverer.MAXIMUM_RESULTS, Integer.toString(pageSize)));
+    DataObject result = discovererQuery(query.toDataObject(), options);
+    if (result == null || result.getDataObject(Error.ERROR_CODE) != null){
+      debugprintln(DEBUG, "BO discoverer Query error = " + result);
+      return null;
+    }
+    return new DiscovererQueryResults(this, result.getDataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENTS), pageSize);
+  }
+  
+  /**
+   * This method asks the discoverer for the next results of a query sent
+   * with discovererQuery(AbstractQueryItem,int). It sends a DISCOVERER_QUERY
+   * message with the NEXT_RESULT type.
+   *
+   * @param queryId The QUERY_ID returned with the previous results
+   * @param maximum The maximum number of results
+   * @return DataObject The result from the discoverer
+   */
+  public DataObject discovererQueryNext(String queryId, int maximum){
+    if (discoverer == null){
+      return null;
+    }
+    Vector options = new Vector();
+    options.addElement(new DataObject(Discoverer.DISCOVERER_QUERY_TYPE, Discoverer.NEXT_RESULT));
+    options.addElement(new DataObject(Discoverer.QUERY_ID, queryId));
+    options.addElement(new DataObject(Discoverer.MAXIMUM_RESULTS, Integer.toString(maximum)));
+    return discovererQuery(null, options);
+  }
+  
   /**
    * This method allows to send a query to the discoverer containing the
    * description of the context component the object would like to know.
@@ -2253,6 +2433,20 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
    * @author Agathe
    */
   protected DataObject discovererQuery(DataObject data){
+    return discovererQuery(data, null);
+  }
+  
+  /**
+   * This method allows to send a query to the discoverer, with options
+   * such as the DISCOVERER_QUERY_TYPE or MAXIMUM_RESULTS.
+   * It sends a DISCOVERER_QUERY message
+   *
+   * @param data The Query containing the asked component description, or null
+   * @param options Vector of DataObjects added to the message, or null
+   * @return DataObject The result from the discoverer
+   * @see context.arch.discoverer.Discoverer
+   */
+  protected DataObject discovererQuery(DataObject data, Vector options){
     DataObject result;
     
     // Adds the tag ID
@@ -2265,9 +2459,16 @@ public class BaseObject implements MessageHandler, CommunicationsHandler {
     v2.addElement(new DataObject(Discoverer.PORT, new Integer(communications.getServerPort()).toString()));
     v1.addElement(new DataObject(Discoverer.CALLER, v2));
     
-    Vector v = new Vector();
-    v.addElement(data);
-    v1.addElement(new DataObject(Discoverer.DISCOVERER_QUERY_CONTENT, v));
+    if (data != null){
+      Vector v = new Vector();
+      v.addElement(data);
+      v1.addElement(new DataObject(Discoverer.DISCOVERER_QUERY_CONTENT, v));
+    }
+    if (options != null){
+      for (int i = 0; i < options.size(); i++){
+        v1.addElement(options.elementAt(i));
+      }
+    }
     
     DataObject toSend = new DataObject(Discoverer.DISCOVERER_QUERY, v1);
     
@@ -6,7 +6,10 @@ import context.arch.comm.protocol.ProtocolException;
 import context.arch.comm.protocol.RequestData;
 import context.arch.comm.protocol.HTTPServerSocket;
 import context.arch.comm.protocol.HTTPClientSocket;
+import context.arch.comm.protocol.TCPClientSocket;
 import context.arch.comm.protocol.HTTPMulticastUDPSocket;
+import context.arch.comm.protocol.ConnectionPool;
+import context.arch.comm.protocol.PersistentConnection;
 import context.arch.comm.language.MessageHandler;
 import context.arch.comm.language.DecodeException;
 import context.arch.comm.language.EncodeException;
@@ -24,9 +27,14 @@ import context.arch.BaseObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.Socket;
-import java.io.PrintWriter;
+import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Hashtable;
 import java.util.Vector;
 import java.net.DatagramPacket;
 
@@ -82,6 +90,11 @@ public class CommunicationsObject {
    */
   public static final String HTTP_CLIENT = "context.arch.comm.protocol.HTTPClientSocket";
   
+  /**
+   * The HTTP server protocol class based on a non-blocking selector.
+   */
+  public static final String NIO_HTTP_SERVER = "context.arch.comm.protocol.NIOHTTPServerSocket";
+  
   /**
    * The default HTTP multicast server/client protocol class
    */
@@ -123,6 +136,30 @@ public class CommunicationsObject {
    */
   private int poolClientsNumber;
   
+  /**
+   * The idle client connections, kept alive to be reused by the next
+   * requests sent to the same host and port.
+   */
+  private ConnectionPool connectionPool = new ConnectionPool();
+  
+  /**
+   * The content types accepted by the remote servers, as given by the
+   * Accept header of their replies, per host:port
+   */
+  private Hashtable serversAccept = new Hashtable();
+  
+  /**
+   * The buffer each thread encodes its replies in, reused from one reply to
+   * the next so that the reply length is known without building a String.
+   */
+  private static ThreadLocal replyBuffer = new ThreadLocal();
+  
+  /**
+   * The largest reply buffer kept for the next reply, in characters. Larger
+   * buffers are dropped after use.
+   */
+  public static int MAX_REPLY_BUFFER_SIZE = 1 << 20;
+  
   
   /**
    * Basic constructor for CommunicationsObject using given
@@ -599,6 +636,9 @@ public class CommunicationsObject {
       client = createCommunicationsClient(CommunicationsObject.DEFAULT_REMOTE_SERVER, CommunicationsObject.DEFAULT_REMOTE_PORT);
     }
     BaseObject.debugprintln(DEBUG, "client=" + client);
+    if (request.getTimeout() > 0 && client instanceof TCPClientSocket) {
+      ((TCPClientSocket) client).setTimeout(request.getTimeout());
+    }
     return sendRequest(client, request);
   }
   
@@ -642,6 +682,66 @@ public class CommunicationsObject {
    */
   public void quit() {
     server.quit();
+    connectionPool.closeAll();
+  }
+  
+  /**
+   * Returns the pool of kept-alive client connections used by the
+   * communications clients.
+   *
+   * @return the connection pool
+   * @see context.arch.comm.protocol.HTTPClientSocket#sendRequest(String)
+   */
+  public ConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+  
+  /**
+   * Returns the content types accepted by the remote server a request is
+   * sent to, or null if that server hasn't said it yet
+   *
+   * @param request The request
+   * @return the accepted content types or null
+   * @see #sendRequest(RequestObject)
+   */
+  public String getAccept(RequestObject request) {
+    if (request.getServerHostname() == null) {
+      return getAccept(DEFAULT_REMOTE_SERVER, DEFAULT_REMOTE_PORT);
+    }
+    if (request.portDefined()) {
+      return getAccept(request.getServerHostname(), request.getPort());
+    }
+    return getAccept(request.getServerHostname(), DEFAULT_REMOTE_PORT);
+  }
+  
+  /**
+   * Returns the content types accepted by a remote server, or null if that
+   * server hasn't said it yet
+   *
+   * @param host Hostname of the remote server
+   * @param port Port number of the remote server
+   * @return the accepted content types or null
+   */
+  public String getAccept(String host, int port) {
+    return (String) serversAccept.get(PersistentConnection.getKey(host, port));
+  }
+  
+  /**
+   * Records the content types accepted by a remote server, as given by the
+   * Accept header of its replies.  It is called by the communications clients.
+   *
+   * @param host Hostname of the remote server
+   * @param port Port number of the remote server
+   * @param accept The accepted content types, or null if not given
+   */
+  public void setAccept(String host, int port, String accept) {
+    String key = PersistentConnection.getKey(host, port);
+    if (accept == null) {
+      serversAccept.remove(key);
+    }
+    else {
+      serversAccept.put(key, accept);
+    }
   }
   
   /**
@@ -663,15 +763,108 @@ public class CommunicationsObject {
    * object
    *
    * @param socket Socket on which the request is being received
-   * @see context.arch.comm.language.MessageHandler#runMethod(String, DataObject)
+   * @see #handleIncomingRequest(RequestData, Writer)
    */
   public void handleIncomingRequest(Socket socket) {
     
-    String reply = null;
+    RequestData data = null;
+    try {
+      data = server.stripRequestProtocol(socket);
+    } catch (ProtocolException pe) {
+      System.out.println("CommunicationsObject handleIncomingRequest Protocol: "+pe);
+    }
+    try {
+      Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), HTTPServerSocket.REPLY_CHARSET));
+      handleIncomingRequest(data, out);
+    } catch (IOException ioe) {
+      System.out.println("CommunicationsObject handleIncomingRequest IO: "+ioe);
+      // what do I do here??
+    }
+  }
+  
+  /**
+   * This method handles an incoming request whose protocol has already been
+   * stripped away and returns the reply with the protocol added.
+   *
+   * @param data The request with its protocol stripped away, or null if the
+   * protocol couldn't be stripped
+   * @return the reply to send back, with the protocol added
+   * @see #handleIncomingRequest(RequestData, Writer)
+   */
+  public String handleIncomingRequest(RequestData data) {
+    StringWriter out = new StringWriter();
+    try {
+      handleIncomingRequest(data, out);
+    } catch (IOException ioe) {
+      System.out.println("CommunicationsObject handleIncomingRequest IO: "+ioe);
+    }
+    return out.toString();
+  }
+  
+  /**
+   * This method handles an incoming request whose protocol has already been
+   * stripped away and writes the reply with the protocol added.  The reply is
+   * encoded in a buffer reused by the current thread, and written after the
+   * protocol without being copied in a String.  It should only be called by
+   * the underlying CommunicationsServer object.
+   *
+   * @param data The request with its protocol stripped away, or null if the
+   * protocol couldn't be stripped
+   * @param out The writer to write the reply to
+   * @exception java.io.IOException if the reply can't be written
+   * @see context.arch.comm.language.MessageHandler#runMethod(String, DataObject)
+   * @see context.arch.comm.CommunicationsServer#addReplyProtocol(CharArrayWriter, String, Writer)
+   */
+  public void handleIncomingRequest(RequestData data, Writer out) throws IOException {
+    
+    DataObject results = runRequest(data);
+    
+    CharArrayWriter buffer = (CharArrayWriter) replyBuffer.get();
+    if (buffer == null) {
+      buffer = new CharArrayWriter();
+      replyBuffer.set(buffer);
+    }
+    buffer.reset();
+    try {
+      String accept = null;
+      if (data != null) {
+        accept = data.getAccept();
+      }
+      String contentType = handler.encodeData(results, buffer, accept);
+      server.addReplyProtocol(buffer, contentType, out);
+      BaseObject.debugprintln(DEBUG, "reply = "+buffer);
+      
+    } catch (EncodeException ee) {
+      System.out.println("CommunicationsObject handleIncomingRequest Encode: "+ee);
+      out.write(server.getFatalMessage());
+    } catch (InvalidEncoderException iee) {
+      System.out.println("CommunicationsObject handleIncomingRequest InvalidEncoder: "+iee);
+      out.write(server.getFatalMessage());
+    } catch (ProtocolException ee) {
+      System.out.println("CommunicationsObject handleIncomingRequest Protocol: "+ee);
+      out.write(server.getFatalMessage());
+    } finally {
+      if (buffer.size() > MAX_REPLY_BUFFER_SIZE) {
+        replyBuffer.set(null);
+      }
+    }
+    out.flush();
+  }
+  
+  /**
+   * This method decodes an incoming request and runs it with the MessageHandler
+   *
+   * @param data The request with its protocol stripped away, or null if the
+   * protocol couldn't be stripped
+   * @return the result of the request, or the error message of the server
+   * @see context.arch.comm.language.MessageHandler#runMethod(String, DataObject)
+   */
+  private DataObject runRequest(RequestData data) {
     DataObject results = null;
-    String encoded = null;
     try {
-      RequestData data = server.stripRequestProtocol(socket);
+      if (data == null) {
+        throw new ProtocolException();
+      }
       
       BaseObject.debugprintln(DEBUG, "\n\nCommObject data received " + data.getData());
       
@@ -701,32 +894,7 @@ public class CommunicationsObject {
       System.out.println("CommunicationsObject handleIncomingRequest Method: "+me);
       results = server.getErrorMessage();
     }
-    
-    try {
-      encoded = encodeData(results);
-      
-      reply = server.addReplyProtocol(encoded);
-      BaseObject.debugprintln(DEBUG, "reply = "+reply);
-      
-    } catch (EncodeException ee) {
-      System.out.println("CommunicationsObject handleIncomingRequest Encode: "+ee);
-      reply = server.getFatalMessage();
-    } catch (InvalidEncoderException iee) {
-      System.out.println("CommunicationsObject handleIncomingRequest InvalidEncoder: "+iee);
-      reply = server.getFatalMessage();
-    } catch (ProtocolException ee) {
-      System.out.println("CommunicationsObject handleIncomingRequest Protocol: "+ee);
-      reply = server.getFatalMessage();
-    }
-    try {
-      PrintWriter printWriter = new PrintWriter(socket.getOutputStream());
-      printWriter.println(reply);
-      printWriter.flush();
-      BaseObject.debugprintln(DEBUG, "wrote this reply to socket: " +reply);
-    } catch (IOException ioe) {
-      System.out.println("CommunicationsObject handleIncomingRequest IO: "+ioe);
-      // what do I do here??
-    }
+    return results;
   }
   
   /**
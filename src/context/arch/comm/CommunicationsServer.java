@@ -1,6 +1,9 @@
 package context.arch.comm;
 
 import java.net.Socket;
+import java.io.CharArrayWriter;
+import java.io.Writer;
+import java.io.IOException;
 
 import context.arch.comm.protocol.ProtocolException;
 import context.arch.comm.protocol.RequestData;
@@ -54,6 +57,19 @@ public interface CommunicationsServer {
    */
   public abstract String addReplyProtocol(String reply) throws ProtocolException;
 
+  /** 
+   * This abstract method writes the protocol followed by an encoded reply
+   * to the given writer, without building the whole reply in a String
+   * 
+   * @param reply The encoded reply
+   * @param contentType The content type of the encoded reply
+   * @param out The writer to write the reply with the protocol added to
+   * @exception context.arch.comm.protocol.ProtocolException thrown if protocol can't be added
+   * @exception java.io.IOException thrown if the writer fails
+   * @see #addReplyProtocol(String)
+   */
+  public abstract void addReplyProtocol(CharArrayWriter reply, String contentType, Writer out) throws ProtocolException, IOException;
+
   /** 
    * This abstract method handles incoming requests on a given socket
    * 
@@ -6,6 +6,17 @@ import java.util.Vector;
 /**
  * This class implements the DataObject class.  It stores the data used for
  * sending messages between components.
+ *
+ * The values of an element are kept in the Vector returned by getValue().
+ * A Vector given to setValue or to a constructor is copied: adding values
+ * to it afterwards doesn't change the element, the values are added to
+ * getValue() instead. The DataObject children found among the values are
+ * also kept in an array, built the first time they are looked for, and
+ * rebuilt after any change of the values, which the value Vector counts.
+ * Elements with many children also get an index from child name to child,
+ * built the first time a child is looked for by name; renaming a child with
+ * setName after that is seen once the values change. Element names are
+ * interned, so they are usually compared by reference.
  */
 public class DataObject {
 
@@ -16,19 +27,27 @@ public class DataObject {
   private DataObject parent;
   private DataObject attribute;
   private String currentElement;
+  // The DataObject children of value, null until they are looked for
+  private Children children = null;
   
   /**
    * Debug flag. Set to true to see debug messages.
    */
   public static boolean DEBUG = false;
 
+  /**
+   * Number of children from which an element gets an index of its children
+   * by name
+   */
+  public static int INDEX_THRESHOLD = 8;
+
   /** 
    * Basic constructor.  Sets up necessary internal variables.
    */
   public DataObject() { 
     currentObject = this;
     currentObject.parent = null;
-    this.value = new Vector();
+    this.value = new Values();
   }
 
   /**
@@ -38,7 +57,7 @@ public class DataObject {
    */
   public DataObject(String name) {
     this();
-    this.name = name;
+    this.name = intern(name);
   }
 
   /**
@@ -58,19 +77,20 @@ public class DataObject {
 	
   /**
    * Constructor that sets the name of the DataObject element and a vector
-   * of values for the element
+   * of values for the element.  The values are copied.
    *
    * @param name Name of the DataObject element
    * @param value Vector of values for the DataObject element
    */
   public DataObject(String name, Vector value) {
     this(name);
-    this.value = value;	
+    this.value = copy(value);
   }
 	
   /**
    * Constructor that sets the name of the DataObject element, a vector
-   * of values for the element, and a list of attributes
+   * of values for the element, and a list of attributes.  The values are
+   * copied.
    *
    * @param name Name of the DataObject element
    * @param atts Hashtable of attributes for the DataObject element
@@ -114,7 +134,7 @@ public class DataObject {
    * @param name Name of the DataObject element
    */	
   public void setName(String name) {
-    this.name = name;
+    this.name = intern(name);
   }
 
   /**
@@ -132,17 +152,32 @@ public class DataObject {
    * @param value Value for the DataObject element
    */	
   public void setValue(String value) {
-    this.value = new Vector();
+    this.value = new Values();
     this.value.addElement(value);
   }
 
   /**
-   * Sets the values for the DataObject element
+   * Sets the values for the DataObject element.  The values are copied.
    *
    * @param value Vector of values for the DataObject element
    */	
   public void setValue(Vector value) {
-    this.value = value;
+    this.value = copy(value);
+  }
+
+  /**
+   * Returns a Values holding the given values
+   *
+   * @param value Vector of values, or null
+   * @return the copy, or null
+   */
+  private static Vector copy(Vector value) {
+    if (value == null) {
+      return null;
+    }
+    Values values = new Values();
+    values.addAll(value);
+    return values;
   }
 
   /**
@@ -151,16 +186,23 @@ public class DataObject {
    * @return int the number of children
    */	
   public int countChildren() {
-    Vector v = getValue();
-    int ct = 0; // the result
-    
-    for (int i = 0; i < v.size(); i++) {
-      if (v.elementAt(i).getClass().getName().equals("context.arch.comm.DataObject")) {
-        ct++;
-      }
+    return getChildList().count;
+  }
+
+  /**
+   * Returns the child of the current DataObject with the given index among
+   * the children, without creating any object
+   *
+   * @param index Index of the child, between 0 and countChildren()-1
+   * @return the child
+   * @exception ArrayIndexOutOfBoundsException if there is no such child
+   */
+  public DataObject getChildAt(int index) {
+    Children list = getChildList();
+    if (index >= list.count) {
+      throw new ArrayIndexOutOfBoundsException(index);
     }
-    
-    return ct;
+    return list.list[index];
   }
 
 
@@ -172,9 +214,9 @@ public class DataObject {
    */	
   public Vector getChild(int i) {
     Vector v = getValue();
-    Vector r = new Vector (); // result
+    Vector r = new Vector (1); // result
     
-  	if (v.elementAt(i).getClass().getName().equals("context.arch.comm.DataObject")) {
+  	if (v.elementAt(i) instanceof DataObject) {
       r.addElement (v.elementAt(i));
     }
   
@@ -182,16 +224,18 @@ public class DataObject {
   }
 
 
+  /**
+   * Returns the first child of the current DataObject with the specified name
+   *
+   * @param name Name of the child
+   * @return the child or null, if not found
+   */
   public DataObject getChild(String name) {
     if (name != null) {
-      Vector v = getValue();
-      for (int i=0;i<v.size(); i++) {
-        if (v.elementAt(i).getClass().getName().equals("context.arch.comm.DataObject")) {
-          DataObject obj = ((DataObject)(v.elementAt(i)));
-          if (name.equals(obj.getName())) {
-            return obj;
-          }
-        }
+      Children list = getChildList();
+      int first = list.indexOf(name);
+      if (first >= 0) {
+        return list.list[first];
       }
     }
     return null;
@@ -203,13 +247,11 @@ public class DataObject {
    * @return Vector a vector containing the children
    */	
   public Vector getChildren() {
-    Vector v = getValue();
-    Vector r = new Vector (); // result
+    Children list = getChildList();
+    Vector r = new Vector (Math.max(list.count, 1)); // result
     
-    for (int i = 0; i < v.size(); i++) {
-    	if (v.elementAt(i).getClass().getName().equals("context.arch.comm.DataObject")) {
-        r.addElement (v.elementAt(i));
-      }
+    for (int i = 0; i < list.count; i++) {
+      r.addElement (list.list[i]);
     }
     
     return r;
@@ -224,14 +266,11 @@ public class DataObject {
   public DataObject getDataObject(String string) {
     DataObject result = null;
 
-    if (!(this.name.equals(string))) { 
-      Vector v = getValue();
-      for (int i=0;i<v.size(); i++) {
-        if (v.elementAt(i).getClass().getName().equals("context.arch.comm.DataObject")) {
-          DataObject obj = ((DataObject)(v.elementAt(i)));
-          if ((result = obj.getDataObject(string)) != null) {
-            return result;
-          }
+    if (! sameName(this.name, string)) { 
+      Children list = getChildList();
+      for (int i=0;i<list.count; i++) {
+        if ((result = list.list[i].getDataObject(string)) != null) {
+          return result;
         }
       }
     }
@@ -252,25 +291,25 @@ public class DataObject {
    * @return DataObject with the specified name or null, if not found
    */ 
   public DataObject getNthDataObject(String string, int n) {
-    DataObject result = null;
     int ct = 0;
 
-    Vector v = getValue();
-    // NB: optimization: compute v.size () in advance and return null if n is <
-    for (int i=0;i<v.size(); i++) {
-      if (v.elementAt(i).getClass().getName().equals("context.arch.comm.DataObject")) {
-        DataObject obj = ((DataObject)(v.elementAt(i)));
+    Children list = getChildList();
+    int first = list.indexOf(string);
+    if (first < 0) {
+      return null;
+    }
+    for (int i=first;i<list.count; i++) {
+      DataObject obj = list.list[i];
+      if (DEBUG) {
+        System.out.println ("Found a DataObject: "+obj);
+      }
+      if (sameName(obj.name, string)) {  // found one
+        ct++;
         if (DEBUG) {
-          System.out.println ("Found a DataObject: "+obj);
+          System.out.println ("It has the right name! ct = "+ct);
         }
-        if (obj.name.equals (string)) {  // found one
-          ct++;
-          if (DEBUG) {
-            System.out.println ("It has the right name! ct = "+ct);
-          }
-          if (ct >= n) {  // it's the nth!
-            return obj;
-          }
+        if (ct >= n) {  // it's the nth!
+          return obj;
         }
       }
     }
@@ -284,16 +323,16 @@ public class DataObject {
    * @return boolean true if there is an element by that name, else false
    */
   public boolean existsElement(String name) {
-    int n = this.countChildren();
+    Children list = getChildList();
+    int n = list.count;
     boolean result = false;
 
     if (n > 0) {
-      Vector children = this.getChildren();
       for (int i = 0; i < n; i++) {
-        DataObject currentChild = (DataObject)children.elementAt (i);
+        DataObject currentChild = list.list[i];
         String currentName = currentChild.getName();
 				
-        if (currentName.equals (name)) {
+        if (sameName(currentName, name)) {
           // sounds like we've found it
           result = true;
         }
@@ -317,7 +356,7 @@ public class DataObject {
    * @param name Name of an element
    */
   public void addElement(String name) {
-    currentObject.name = name;
+    currentObject.name = intern(name);
     DataObject tmp = new DataObject();
     tmp.parent = currentObject;
     if (currentObject.parent != null) {
@@ -336,7 +375,7 @@ public class DataObject {
     if (atts.size() != 0) {
     	currentObject.attributes = atts;
     }
-    currentObject.name = name;
+    currentObject.name = intern(name);
     DataObject tmp = new DataObject();
     tmp.parent = currentObject;
     if (currentObject.parent != null) {
@@ -389,6 +428,180 @@ public class DataObject {
     return null;
   }
 
+  /**
+   * Returns the DataObject children of the values, building them again if
+   * the values have been replaced or changed
+   *
+   * @return the children
+   */
+  private Children getChildList() {
+    Vector v = getValue();
+    Children list = children;
+    if (list == null || !list.isValid(v)) {
+      list = new Children(v);
+      children = list;
+    }
+    return list;
+  }
+
+  /**
+   * Returns the interned version of an element name
+   *
+   * @param name The name, or null
+   * @return the interned name, or null
+   */
+  private static String intern(String name) {
+    if (name == null) {
+      return null;
+    }
+    return name.intern();
+  }
+
+  /**
+   * Returns true if two element names are equal
+   *
+   * @param name1 The first name, or null
+   * @param name2 The second name, or null
+   * @return whether the names are equal
+   */
+  private static boolean sameName(String name1, String name2) {
+    return name1 == name2 || (name1 != null && name1.equals(name2));
+  }
+
+  /**
+   * The Vector of values created by DataObject. Its other methods count
+   * their changes in modCount; set and setElementAt count them too, so that
+   * any change of the values is seen by the children found in them.
+   */
+  private static class Values extends Vector {
+
+    public synchronized Object set(int index, Object element) {
+      modCount++;
+      return super.set(index, element);
+    }
+
+    public synchronized void setElementAt(Object obj, int index) {
+      modCount++;
+      super.setElementAt(obj, index);
+    }
+
+    /**
+     * Returns the number of changes of the values
+     *
+     * @return modCount
+     */
+    synchronized int getModCount() {
+      return modCount;
+    }
+  }
+
+  /**
+   * The DataObject children found in a vector of values, and the index of
+   * the first child with each name once it is needed
+   */
+  private static class Children {
+
+    /**
+     * The vector of values the children were found in
+     */
+    final Vector values;
+
+    /**
+     * The number of changes of values when the children were found
+     */
+    final int modCount;
+
+    /**
+     * The children, in the first count elements
+     */
+    final DataObject[] list;
+
+    /**
+     * The number of children
+     */
+    final int count;
+
+    // child name -> Integer index of the first child with that name, or null
+    private Hashtable index = null;
+
+    /**
+     * Finds the DataObject children in a vector of values
+     *
+     * @param values The values
+     */
+    Children(Vector values) {
+      this.values = values;
+      synchronized (values) {
+        int size = values.size();
+        this.modCount = ((Values) values).getModCount();
+        DataObject[] found = new DataObject[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+          Object o = values.elementAt(i);
+          if (o instanceof DataObject) {
+            found[n++] = (DataObject) o;
+          }
+        }
+        this.list = found;
+        this.count = n;
+      }
+    }
+
+    /**
+     * Returns true if the given values are the values the children were
+     * found in, unchanged
+     *
+     * @param v The values of the element
+     * @return whether the children are still the children of v
+     */
+    boolean isValid(Vector v) {
+      return v == values && ((Values) v).getModCount() == modCount;
+    }
+
+    /**
+     * Returns the index of the first child with the given name
+     *
+     * @param name The name of the child
+     * @return the index in list, or -1 if there is no child with that name
+     */
+    int indexOf(String name) {
+      if (count >= INDEX_THRESHOLD) {
+        Integer i = (Integer) getIndex(false).get(name);
+        if (i != null && !sameName(list[i.intValue()].name, name)) {
+          // the child has been renamed since the index was built
+          i = (Integer) getIndex(true).get(name);
+        }
+        return (i == null) ? -1 : i.intValue();
+      }
+      for (int i = 0; i < count; i++) {
+        if (sameName(list[i].name, name)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Returns the index of the children by name, building it the first time
+     * or when rebuild is true
+     *
+     * @param rebuild Whether to build the index again
+     * @return the index
+     */
+    private synchronized Hashtable getIndex(boolean rebuild) {
+      if (index == null || rebuild) {
+        Hashtable names = new Hashtable(count * 2);
+        for (int i = count - 1; i >= 0; i--) {
+          if (list[i].name != null) {
+            names.put(list[i].name, new Integer(i));
+          }
+        }
+        index = names;
+      }
+      return index;
+    }
+  }
+
   /**
    * This method creates a string version of the recursive DataObject
    *
@@ -403,7 +616,7 @@ public class DataObject {
       //System.out.println("\n" + sb.toString ());
       // (getValue() != null && getValue().elementAt(i) != null){
       if(getValue().elementAt(i) != null){
-          if (getValue().elementAt(i).getClass().getName().equals("java.lang.String")) {
+          if (getValue().elementAt(i) instanceof String) {
               sb.append((String)(getValue().elementAt(i)));
           }
           else {
@@ -0,0 +1,121 @@
+package context.arch.comm;
+
+import java.lang.reflect.Method;
+
+/**
+ * This class selects how the communications objects run the blocking
+ * work of each message: incoming requests served by the server sockets
+ * and IndependentCommunication requests sent by the ClientsPool.
+ *
+ * With PLATFORM_THREADS (the default), incoming requests run on a new
+ * platform thread and outgoing independent requests are funnelled through
+ * the fixed set of Client threads. With VIRTUAL_THREADS, each of them runs
+ * on its own virtual thread, so blocking socket I/O doesn't make the number
+ * of threads the limit of the number of messages in progress.
+ *
+ * Virtual threads are looked up at run time; when the Java runtime doesn't
+ * support them, VIRTUAL_THREADS falls back to one platform thread per message.
+ *
+ * @see context.arch.comm.protocol.TCPServerSocket
+ * @see context.arch.comm.protocol.NIOHTTPServerSocket
+ * @see context.arch.comm.clients.ClientsPool
+ */
+public class ExecutionMode {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * Mode using platform threads and the fixed pool of Client threads
+   */
+  public static final int PLATFORM_THREADS = 0;
+
+  /**
+   * Mode using one virtual thread per message
+   */
+  public static final int VIRTUAL_THREADS = 1;
+
+  private static int mode = PLATFORM_THREADS;
+
+  // Thread.ofVirtual(), Thread.Builder.name(String) and Thread.Builder.start(Runnable),
+  // null if the runtime has no virtual threads
+  private static Method ofVirtual = null;
+  private static Method name = null;
+  private static Method start = null;
+
+  static {
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual", new Class[0]);
+      Class builder = Class.forName("java.lang.Thread$Builder");
+      name = builder.getMethod("name", new Class[] {String.class});
+      start = builder.getMethod("start", new Class[] {Runnable.class});
+    } catch (Exception e) {
+      ofVirtual = null;
+    }
+  }
+
+  /**
+   * Sets the execution mode. It applies to the communications objects
+   * started after this call.
+   *
+   * @param executionMode PLATFORM_THREADS or VIRTUAL_THREADS
+   */
+  public static void setMode(int executionMode) {
+    mode = executionMode;
+  }
+
+  /**
+   * Returns the execution mode
+   *
+   * @return PLATFORM_THREADS or VIRTUAL_THREADS
+   */
+  public static int getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns true if each message runs on its own thread instead of a pooled one
+   *
+   * @return whether the mode is VIRTUAL_THREADS
+   */
+  public static boolean isThreadPerMessage() {
+    return mode == VIRTUAL_THREADS;
+  }
+
+  /**
+   * Returns true if the Java runtime supports virtual threads
+   *
+   * @return whether virtual threads are available
+   */
+  public static boolean isVirtualThreadSupported() {
+    return ofVirtual != null;
+  }
+
+  /**
+   * Starts a thread running the given task: a virtual thread in the
+   * VIRTUAL_THREADS mode when supported, a platform thread otherwise.
+   *
+   * @param task The task to run
+   * @param threadName The name of the thread
+   * @return the started thread
+   */
+  public static Thread startThread(Runnable task, String threadName) {
+    if (mode == VIRTUAL_THREADS && ofVirtual != null) {
+      try {
+        Object builder = ofVirtual.invoke(null, new Object[0]);
+        builder = name.invoke(builder, new Object[] {threadName});
+        return (Thread) start.invoke(builder, new Object[] {task});
+      } catch (Exception e) {
+        if (DEBUG) {
+          System.out.println("ExecutionMode startThread: no virtual thread " + e);
+        }
+      }
+    }
+    Thread thread = new Thread(task, threadName);
+    thread.start();
+    return thread;
+  }
+
+}
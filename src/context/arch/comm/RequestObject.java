@@ -44,6 +44,9 @@ public class RequestObject {
   /** The id of the receiver to whom this message is sent*/
   private String receiverId;
   
+  /** The time in milliseconds to wait for the connection and the reply, 0 for no limit */
+  private int timeout = 0;
+  
   /**
    * Creates new RequestObject with the dataobject to send and the message
    * url.
@@ -229,6 +232,26 @@ public class RequestObject {
     return receiverId;
   }
   
+  /**
+   * Sets the time to wait for the connection to the destination server and
+   * for its reply
+   *
+   * @param timeout The time in milliseconds, 0 for no limit
+   */
+  public void setTimeout(int timeout){
+    this.timeout = timeout;
+  }
+  
+  /**
+   * Returns the time to wait for the connection to the destination server and
+   * for its reply
+   *
+   * @return int The time in milliseconds, 0 for no limit
+   */
+  public int getTimeout(){
+    return timeout;
+  }
+  
   /**
    * Tests if 2 request objects are equal or not
    *
@@ -70,21 +70,7 @@ public class Client extends ClientsPool {
   public void run () {
     while (true){
       waitForRequest();
-      debugprintln("\n\nThread will send its message" + this.id);
-      try {
-        RequestObject ro = indComm.getRequest ();
-        RequestData reply = comm.sendRequest (ro);
-        
-        debugprintln("\nThread has got the reply" + this.id);
-        indComm.setNonDecodedReply (reply);
-      }
-      catch (Exception e) {
-        System.out.println(id + " exception in run " + e);
-        indComm.addException(e);
-      }
-
-      // sends the results to the baseobject
-      sendReply();
+      handleRequest();
       // adds this thread back to the pool or not
       synchronized (ClientsPool.threads) {
         if (! (ClientsPool.threads.size () >= ClientsPool.clientsNumber)) {
@@ -95,6 +81,41 @@ public class Client extends ClientsPool {
     }
   }
   
+  /**
+   * This method sends the RequestObject of the current IndependentCommunication,
+   * adds the reply and the exception occured in it, and sends the results
+   * to the BaseObject.
+   */
+  protected void handleRequest () {
+    debugprintln("\n\nThread will send its message" + this.id);
+    sendRequest (comm, indComm, id);
+    debugprintln("\nThread has got the reply" + this.id);
+
+    // sends the results to the baseobject
+    sendReply();
+  }
+  
+  /**
+   * This method sends the RequestObject of an IndependentCommunication, and
+   * adds the reply or the exception occured in it. It is used by the Clients
+   * and by the requests sent on their own thread by the ClientsPool.
+   *
+   * @param comm The communications object sending the request
+   * @param indComm The IndependentCommunication object
+   * @param id The id of the client or thread sending the request
+   */
+  static void sendRequest (CommunicationsObject comm, IndependentCommunication indComm, String id) {
+    try {
+      RequestObject ro = indComm.getRequest ();
+      RequestData reply = comm.sendRequest (ro);
+      indComm.setNonDecodedReply (reply);
+    }
+    catch (Exception e) {
+      System.out.println(id + " exception in run " + e);
+      indComm.addException(e);
+    }
+  }
+  
   /**
    * This method allows to wait for the next IndependentCommunication object
    */
@@ -138,13 +159,24 @@ public class Client extends ClientsPool {
    * and the exceptions of the communication.
    */
   public void sendReply (){
+    sendReply (comm, indComm);
+    releaseRequest();
+    //System.out.println(" The sendReply of" + id + " has ended");
+  }
+  
+  /**
+   * This method sends the result of an IndependentCommunication to the
+   * BaseObject, if the client requires the response.
+   *
+   * @param comm The communications object that sent the request
+   * @param indComm The IndependentCommunication object
+   */
+  static void sendReply (CommunicationsObject comm, IndependentCommunication indComm){
     if (indComm.getResponseRequired ()){ //Send the response to the handler of communications
       // call the base object handleIndependentReply
       comm.handleIndependentReply(indComm);
       //System.out.println("handleIndependentReply sent");
     }
-    releaseRequest();
-    //System.out.println(" The sendReply of" + id + " has ended");
   }
   
   /**
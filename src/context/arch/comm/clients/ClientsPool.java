@@ -7,6 +7,7 @@
 package context.arch.comm.clients;
 
 import context.arch.comm.CommunicationsObject;
+import context.arch.comm.ExecutionMode;
 import context.arch.comm.CommunicationsHandler;
 import context.arch.comm.DataObject;
 import context.arch.util.SynchFIFO;
@@ -57,6 +58,11 @@ import java.util.Vector;
  * a new one, add the IndependentCommunication object in it, and send it to 
  * the BaseObject handleIndependentReply method.
  *
+ * When the ExecutionMode is VIRTUAL_THREADS, no Client thread is started in
+ * advance: each IndependentCommunication is sent by its own Runnable on a
+ * virtual thread, so the number of clients doesn't limit the number of
+ * requests in progress.
+ *
  * @author  Agathe
  * @see context.arch.comm.clients.Client
  * @see context.arch.util.SynchFIFO
@@ -92,6 +98,16 @@ public class ClientsPool extends Thread {
    */
   protected SynchFIFO fifo;
   
+  /**
+   * True if each request is sent on its own thread instead of by the pooled clients
+   */
+  protected boolean threadPerRequest = false;
+  
+  /**
+   * The number of requests sent on their own thread, used to name the threads
+   */
+  private int requestsNumber = 0;
+  
   /** 
    * Creates a generic ClientsPool. It creates the pool of numberOfClients threads.
    *
@@ -103,8 +119,9 @@ public class ClientsPool extends Thread {
     comm = commObject;
     
     fifo = new SynchFIFO();
+    threadPerRequest = ExecutionMode.isThreadPerMessage();
     // start clients
-    for (int i = 0; i < clientsNumber; i++) {
+    for (int i = 0; i < clientsNumber && ! threadPerRequest; i++) {
       Client c = new Client(comm, "client#" + i);
       threads.put(c);
       c.start ();
@@ -140,6 +157,10 @@ public class ClientsPool extends Thread {
    * @see context.arch.comm.clients.Client
    */
   public void run(){
+    if (threadPerRequest) {
+      // requests don't go through the fifo
+      return;
+    }
     while (true){
       // Get the next request or is blocked waiting for the next
       IndependentCommunication request = (IndependentCommunication) fifo.getNext ();
@@ -161,7 +182,20 @@ public class ClientsPool extends Thread {
    * @see context.arch.util.SynchFIFO
    */
   public synchronized void addRequest(IndependentCommunication request) {
-    fifo.put (request);
+    if (threadPerRequest) {
+      // no Client thread object is needed: the request is sent by a Runnable
+      final IndependentCommunication indComm = request;
+      final String id = "client#v" + (requestsNumber++);
+      ExecutionMode.startThread(new Runnable() {
+        public void run() {
+          Client.sendRequest(comm, indComm, id);
+          Client.sendReply(comm, indComm);
+        }
+      }, id);
+    }
+    else {
+      fifo.put (request);
+    }
   }
  
   
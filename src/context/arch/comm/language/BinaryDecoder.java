@@ -0,0 +1,216 @@
+package context.arch.comm.language;
+
+import java.io.Reader;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import context.arch.comm.DataObject;
+
+/**
+ * This class decodes the messages encoded by BinaryEncoder into DataObjects.
+ * The characters following the root element, such as the end of lines added
+ * by the HTTP protocol, are ignored.
+ *
+ * @see context.arch.comm.language.BinaryEncoder
+ * @see context.arch.comm.language.DecoderInterface
+ */
+public class BinaryDecoder implements DecoderInterface {
+
+  /**
+   * Language used to decode
+   */
+  public static final String LANGUAGE = BinaryEncoder.LANGUAGE;
+
+  /**
+   * The maximum length of a string in a message is 1M characters
+   */
+  public static int MAX_STRING = 1 << 20;
+
+  /**
+   * The maximum nesting of elements in a message is 256
+   */
+  public static int MAX_DEPTH = 256;
+
+  // string table of the message being decoded
+  private Vector names = new Vector();
+  // buffer for the strings read
+  private char[] chars = new char[64];
+
+  /**
+   * Constructor for BinaryDecoder
+   */
+  public BinaryDecoder() {
+  }
+
+  /**
+   * Method to decode a message
+   *
+   * @param message Message to be decoded
+   * @return the decoded message in a DataObject
+   * @exception context.arch.comm.language.DecodeException thrown when the given
+   *		data can not be decoded successfully
+   */
+  public DataObject decodeData(Reader message) throws DecodeException {
+    names.removeAllElements();
+    try {
+      if (message.read() != BinaryEncoder.MAGIC) {
+        throw new DecodeException("not a binary message");
+      }
+      int version = message.read();
+      if (version != BinaryEncoder.VERSION) {
+        throw new DecodeException("unknown binary version " + version);
+      }
+      return readElement(message, 1);
+    } catch (IOException ioe) {
+      System.out.println("BinaryDecoder decodeData IOException: "+ioe);
+      throw new DecodeException(ioe.toString());
+    } finally {
+      names.removeAllElements();
+    }
+  }
+
+  /**
+   * Reads an element, its attributes and its values. The counts read are not
+   * trusted: the tables grow with the attributes and values actually read.
+   *
+   * @param in Reader the element is read from
+   * @param depth Nesting level of the element, 1 for the root
+   * @return the element in a DataObject
+   * @exception context.arch.comm.language.DecodeException if the element is not valid
+   * @exception java.io.IOException if the reader fails
+   */
+  private DataObject readElement(Reader in, int depth) throws DecodeException, IOException {
+    if (depth > MAX_DEPTH) {
+      throw new DecodeException("elements nested too deep");
+    }
+    String name = readName(in);
+    Hashtable atts = null;
+    int count = readNumber(in);
+    if (count > 0) {
+      atts = new Hashtable();
+      for (int i = 0; i < count; i++) {
+        String key = readName(in);
+        atts.put(key, readString(in));
+      }
+    }
+    count = readNumber(in);
+    // the values are added to the Vector created by the DataObject
+    DataObject elt = new DataObject(name);
+    elt.setAttributes(atts);
+    Vector val = elt.getValue();
+    for (int i = 0; i < count; i++) {
+      int tag = readNumber(in);
+      if (tag == BinaryEncoder.TEXT) {
+        val.addElement(readString(in));
+      }
+      else if (tag == BinaryEncoder.ELEMENT) {
+        val.addElement(readElement(in, depth + 1));
+      }
+      else {
+        throw new DecodeException("unknown value tag " + tag);
+      }
+    }
+    return elt;
+  }
+
+  /**
+   * Reads a tag or attribute name from the string table, adding it to the
+   * table the first time it is read
+   *
+   * @param in Reader the name is read from
+   * @return the name
+   * @exception context.arch.comm.language.DecodeException if the name index is not valid
+   * @exception java.io.IOException if the reader fails
+   */
+  private String readName(Reader in) throws DecodeException, IOException {
+    int index = readNumber(in);
+    if (index == 0) {
+      String name = readString(in).intern();
+      names.addElement(name);
+      return name;
+    }
+    if (index > names.size()) {
+      throw new DecodeException("unknown name index " + index);
+    }
+    return (String) names.elementAt(index - 1);
+  }
+
+  /**
+   * Reads a string: its length followed by its characters. The buffer grows
+   * with the characters actually read, not with the length announced.
+   *
+   * @param in Reader the string is read from
+   * @return the string
+   * @exception context.arch.comm.language.DecodeException if the message is truncated
+   *            or the string is longer than MAX_STRING
+   * @exception java.io.IOException if the reader fails
+   */
+  private String readString(Reader in) throws DecodeException, IOException {
+    int length = readNumber(in);
+    if (length > MAX_STRING) {
+      throw new DecodeException("string too long: " + length);
+    }
+    int read = 0;
+    while (read < length) {
+      if (read == chars.length) {
+        char[] bigger = new char[Math.min(length, chars.length * 2)];
+        System.arraycopy(chars, 0, bigger, 0, read);
+        chars = bigger;
+      }
+      int n = in.read(chars, read, Math.min(length, chars.length) - read);
+      if (n < 0) {
+        throw new DecodeException("message truncated");
+      }
+      read += n;
+    }
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * Reads a positive number written 6 bits per character
+   *
+   * @param in Reader the number is read from
+   * @return the number
+   * @exception context.arch.comm.language.DecodeException if the message is truncated
+   * @exception java.io.IOException if the reader fails
+   */
+  private int readNumber(Reader in) throws DecodeException, IOException {
+    int n = 0;
+    int shift = 0;
+    while (true) {
+      int c = in.read();
+      if (c < 0) {
+        throw new DecodeException("message truncated");
+      }
+      n |= (c & 0x3F) << shift;
+      if ((c & 0x40) == 0) {
+        return n;
+      }
+      shift += 6;
+      if (shift > 30) {
+        throw new DecodeException("number too large");
+      }
+    }
+  }
+
+  /**
+   * Returns the language being used in decoding
+   *
+   * @return the language being used in decoding
+   * @see #LANGUAGE
+   */
+  public String getLanguage() {
+    return LANGUAGE;
+  }
+
+  /**
+   * Returns the name of the class being used in decoding
+   *
+   * @return the name of the class being used in decoding
+   */
+  public String getClassName() {
+    return this.getClass().getName();
+  }
+
+}
@@ -0,0 +1,248 @@
+package context.arch.comm.language;
+
+import java.io.CharArrayWriter;
+import java.io.Writer;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import context.arch.comm.DataObject;
+
+/**
+ * This class encodes a DataObject in a compact, length-prefixed format
+ * instead of XML. There are no closing tags and no escaping: every string is
+ * written as its length followed by its characters, and every tag or
+ * attribute name is written once per message in a string table and then
+ * referred to by its index, so that repeated tags such as attributeNameValue,
+ * attributeName or attributeValue cost one or two characters.
+ *
+ * A message is made of the MAGIC and VERSION characters followed by the
+ * root element. An element is:
+ * <ul>
+ * <li>its name: the index of the name in the string table plus one, or 0
+ *     followed by the name string the first time the name is used,
+ * <li>the number of attributes, then the name and the value string of each one,
+ * <li>the number of values, then for each value: TEXT followed by a string,
+ *     or ELEMENT followed by an element. Like in XML, an element without value
+ *     is decoded with an empty vector of values.
+ * </ul>
+ * Numbers are written 6 bits per character, with the 7th bit set on every
+ * character but the last, so the structure of the message only uses 7-bit
+ * characters and goes through the same HTTP transport as XML messages.
+ *
+ * @see context.arch.comm.language.BinaryDecoder
+ * @see context.arch.comm.language.StreamEncoderInterface
+ */
+public class BinaryEncoder implements StreamEncoderInterface {
+
+  /**
+   * Language used to encode
+   */
+  public static final String LANGUAGE = "BINARY";
+
+  /**
+   * Content type of the messages, used for the HTTP content negotiation
+   */
+  public static final String CONTENT_TYPE = "application/x-context-binary";
+
+  /**
+   * First character of every message. An XML message can't start with it.
+   */
+  public static final char MAGIC = '\u0001';
+
+  /**
+   * Version of the format, second character of every message
+   */
+  public static final char VERSION = '1';
+
+  /**
+   * Tag of a text value
+   */
+  static final int TEXT = 0;
+
+  /**
+   * Tag of an element value
+   */
+  static final int ELEMENT = 1;
+
+  // name -> Integer index in the string table of the message being encoded
+  private Hashtable names = new Hashtable();
+  // Buffer reused by encodeData(DataObject)
+  private CharArrayWriter buffer = null;
+
+  /**
+   * Constructor for BinaryEncoder
+   */
+  public BinaryEncoder() {
+  }
+
+  /**
+   * Method used to encode data in a String
+   *
+   * @param data Data to be encoded
+   * @return the encoding
+   * @exception context.arch.comm.language.EncodeException if the data can't be encoded
+   * @see #encodeData(DataObject,Writer)
+   */
+  public String encodeData(DataObject data) throws EncodeException {
+    if (buffer == null) {
+      buffer = new CharArrayWriter();
+    }
+    buffer.reset();
+    try {
+      encodeData(data, buffer);
+    } catch (IOException ioe) {
+      throw new EncodeException(ioe.toString());
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Method used to encode data to a Writer
+   *
+   * @param data Data to be encoded
+   * @param out Writer the encoding is written to
+   * @exception context.arch.comm.language.EncodeException if the data can't be encoded
+   * @exception java.io.IOException if the writer fails
+   */
+  public void encodeData(DataObject data, Writer out) throws EncodeException, IOException {
+    names.clear();
+    out.write(MAGIC);
+    out.write(VERSION);
+    try {
+      writeElement(data, out);
+    } finally {
+      names.clear();
+    }
+  }
+
+  /**
+   * Writes a DataObject element, its attributes and its values
+   *
+   * @param elt DataObject element being written
+   * @param out Writer the element is written to
+   * @exception context.arch.comm.language.EncodeException if the element has no name
+   * @exception java.io.IOException if the writer fails
+   */
+  private void writeElement(DataObject elt, Writer out) throws EncodeException, IOException {
+    String name = elt.getName ();
+    if (name == null) {
+      throw new EncodeException("tag is null");
+    }
+    Hashtable atts = elt.getAttributes ();
+    Vector val = elt.getValue ();
+
+    writeName(name, out);
+    if (atts == null) {
+      writeNumber(0, out);
+    }
+    else {
+      writeNumber(atts.size(), out);
+      for (Enumeration keys = atts.keys(); keys.hasMoreElements();) {
+        Object k = keys.nextElement();
+        writeName(k.toString(), out);
+        writeString(atts.get(k).toString(), out);
+      }
+    }
+    if (val == null) {
+      writeNumber(0, out);
+      return;
+    }
+    int count = 0;
+    for (int i = 0; i < val.size (); i++) {
+      if (val.elementAt (i) != null) {
+        count++;
+      }
+    }
+    writeNumber(count, out);
+    for (int i = 0; i < val.size (); i++) {
+      Object currentElt = val.elementAt (i);
+      if (currentElt instanceof String) {
+        writeNumber(TEXT, out);
+        writeString((String) currentElt, out);
+      }
+      else if (currentElt != null) {
+        writeNumber(ELEMENT, out);
+        writeElement((DataObject) currentElt, out);
+      }
+    }
+  }
+
+  /**
+   * Writes a tag or attribute name: its index in the string table if it has
+   * already been written, the name itself otherwise
+   *
+   * @param name Name to write
+   * @param out Writer the name is written to
+   * @exception java.io.IOException if the writer fails
+   */
+  private void writeName(String name, Writer out) throws IOException {
+    Integer index = (Integer) names.get(name);
+    if (index != null) {
+      writeNumber(index.intValue() + 1, out);
+    }
+    else {
+      names.put(name, new Integer(names.size()));
+      writeNumber(0, out);
+      writeString(name, out);
+    }
+  }
+
+  /**
+   * Writes a string: its length followed by its characters
+   *
+   * @param text String to write
+   * @param out Writer the string is written to
+   * @exception java.io.IOException if the writer fails
+   */
+  private void writeString(String text, Writer out) throws IOException {
+    writeNumber(text.length(), out);
+    out.write(text);
+  }
+
+  /**
+   * Writes a positive number, 6 bits per character
+   *
+   * @param n Number to write
+   * @param out Writer the number is written to
+   * @exception java.io.IOException if the writer fails
+   */
+  static void writeNumber(int n, Writer out) throws IOException {
+    while (n >= 0x40) {
+      out.write(0x40 | (n & 0x3F));
+      n >>>= 6;
+    }
+    out.write(n);
+  }
+
+  /**
+   * Returns true if the given message has been encoded by this encoder
+   *
+   * @param message Encoded message
+   * @return whether the message starts with MAGIC
+   */
+  public static boolean isEncoded(String message) {
+    return message != null && message.length() > 0 && message.charAt(0) == MAGIC;
+  }
+
+  /**
+   * Returns language used to encode
+   *
+   * @return language used to encode
+   * @see #LANGUAGE
+   */
+  public String getLanguage() {
+    return LANGUAGE;
+  }
+
+  /**
+   * Returns name of class used to encode
+   *
+   * @return name of class used to encode
+   */
+  public String getClassName() {
+    return this.getClass().getName();
+  }
+
+}
@@ -0,0 +1,134 @@
+package context.arch.comm.language;
+
+import java.util.Hashtable;
+
+import context.arch.comm.DataObject;
+
+/**
+ * This class builds a DataObject from the events of a SAX parser. Unlike
+ * DataObject.addElement and closeElement, it keeps the open elements in
+ * an explicit stack, so it only creates the DataObjects of the message.
+ * The character data of an element is collected in a reusable buffer and
+ * added to the element as one trimmed String when a tag starts or ends.
+ *
+ * A builder is reset at the start of every document, so the same builder
+ * can build successive messages, one at a time.
+ *
+ * @see context.arch.comm.language.SAX_XMLDecoder
+ */
+public class DataObjectBuilder {
+
+  // the open elements, the root at position 0
+  private DataObject[] stack = new DataObject[16];
+  private int depth = 0;
+  private DataObject root = null;
+  // character data of the current element not yet added as a value
+  private char[] chars = new char[256];
+  private int length = 0;
+
+  /**
+   * Constructor for DataObjectBuilder
+   */
+  public DataObjectBuilder() {
+  }
+
+  /**
+   * Starts a new message, dropping the message being built
+   */
+  public void reset() {
+    for (int i = 0; i < depth; i++) {
+      stack[i] = null;
+    }
+    depth = 0;
+    root = null;
+    length = 0;
+  }
+
+  /**
+   * Opens a new element as the last value of the current element
+   *
+   * @param name Name of the element
+   * @param atts Hashtable of attributes of the element, or null if it has none
+   */
+  public void startElement(String name, Hashtable atts) {
+    flushText();
+    DataObject elt = new DataObject(name);
+    if (atts != null && atts.size() != 0) {
+      elt.setAttributes(atts);
+    }
+    if (depth == 0) {
+      root = elt;
+    }
+    else {
+      stack[depth - 1].getValue().addElement(elt);
+    }
+    if (depth == stack.length) {
+      DataObject[] bigger = new DataObject[depth * 2];
+      System.arraycopy(stack, 0, bigger, 0, depth);
+      stack = bigger;
+    }
+    stack[depth++] = elt;
+  }
+
+  /**
+   * Closes the current element
+   */
+  public void endElement() {
+    flushText();
+    if (depth > 0) {
+      stack[--depth] = null;
+    }
+  }
+
+  /**
+   * Adds character data to the current element
+   *
+   * @param ch array of characters
+   * @param start start position in the array
+   * @param count number of characters
+   */
+  public void characters(char[] ch, int start, int count) {
+    if (depth == 0) {
+      return;
+    }
+    if (length + count > chars.length) {
+      char[] bigger = new char[Math.max(length + count, chars.length * 2)];
+      System.arraycopy(chars, 0, bigger, 0, length);
+      chars = bigger;
+    }
+    System.arraycopy(ch, start, chars, length, count);
+    length += count;
+  }
+
+  /**
+   * Adds the character data collected since the last tag to the current
+   * element, without the leading and trailing whitespace, unless it is only
+   * whitespace
+   */
+  private void flushText() {
+    int start = 0;
+    int end = length;
+    while (start < end && chars[start] <= ' ') {
+      start++;
+    }
+    while (end > start && chars[end - 1] <= ' ') {
+      end--;
+    }
+    if (start < end) {
+      stack[depth - 1].getValue().addElement(new String(chars, start, end - start));
+    }
+    length = 0;
+  }
+
+  /**
+   * Returns the message built, and drops it from the builder
+   *
+   * @return the root element of the message, or null if no element was read
+   */
+  public DataObject getResult() {
+    DataObject result = root;
+    reset();
+    return result;
+  }
+
+}
@@ -5,7 +5,9 @@ import context.arch.comm.DataObject;
 
 /**
  * This interface specifies all the methods an DecoderInterface object must support.  This
- * allows the details of the decoding to be abstracted away.
+ * allows the details of the decoding to be abstracted away.  A decoder
+ * must be able to decode successive messages, one at a time: ParserObject
+ * reuses decoders.
  */
 public interface DecoderInterface {
 
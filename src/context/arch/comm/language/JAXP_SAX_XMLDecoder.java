@@ -0,0 +1,23 @@
+package context.arch.comm.language;
+
+/**
+ * This class decodes XML messages like SAX_XMLDecoder, using the SAX parser
+ * of the Java runtime (obtained through JAXP) instead of the AElfred driver.
+ *
+ * @see context.arch.comm.language.SAX_XMLDecoder
+ * @see context.arch.comm.language.ParserObject#JAXP_XML_DECODER
+ */
+public class JAXP_SAX_XMLDecoder extends SAX_XMLDecoder {
+
+  /**
+   * Basic constructor which uses the SAX parser of the Java runtime
+   *
+   * @exception context.arch.comm.language.InvalidDecoderException when the
+   *		parser can not be created
+   * @see context.arch.comm.language.SAX_XMLDecoder#JAXP_SAX_XML_DECODER
+   */
+  public JAXP_SAX_XMLDecoder() throws InvalidDecoderException {
+    super(JAXP_SAX_XML_DECODER);
+  }
+
+}
@@ -6,6 +6,8 @@ import context.arch.InvalidMethodException;
 import context.arch.comm.clients.IndependentCommunication;
 
 import java.io.Reader;
+import java.io.Writer;
+import java.io.IOException;
 
 /**
  * This interface specifies all the methods for encoding outgoing messages
@@ -38,6 +40,22 @@ public interface MessageHandler {
    */
   public abstract String encodeData(DataObject data) throws EncodeException, InvalidEncoderException;
 
+  /** 
+   * Method to encode the incoming data to a writer, for a receiver accepting
+   * the given content types
+   *
+   * @param data Data to be encoded
+   * @param out Writer the encoded message is written to
+   * @param accept Content types accepted by the receiver, or null if unknown
+   * @return the content type of the encoded message
+   * @exception context.arch.comm.language.EncodeException thrown when the given
+   *		data can not be encoded successfully
+   * @exception context.arch.comm.language.InvalidEncoderException thrown when the
+   *		encoder can not be run successfully
+   * @exception java.io.IOException thrown when the writer fails
+   */
+  public abstract String encodeData(DataObject data, Writer out, String accept) throws EncodeException, InvalidEncoderException, IOException;
+
   /**
    * This method handles both the system-defined, callbacks and user-defined RPCs.  
    *
@@ -1,11 +1,30 @@
 package context.arch.comm.language;
 
+import java.io.PushbackReader;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Vector;
 
 import context.arch.comm.DataObject;
 
 /**
  * This class handles the encoding and decoding for the BaseObject class.
+ *
+ * Decoders, and encoders implementing StreamEncoderInterface, are kept in
+ * pools once used, so that successive messages don't create and
+ * initialize a new one each time. A pooled object is used by one thread at
+ * a time.
+ *
+ * When the encoder is BINARY_ENCODER, the binary encoding is only used for
+ * the messages sent to a component that accepts it (see the HTTP Accept
+ * header); the other messages are encoded in XML. The decoder recognizes
+ * binary messages by their first character and decodes them with
+ * BINARY_DECODER whatever the decoder class, so that components using XML and
+ * components using the binary encoding can talk to each other.
  */
 public class ParserObject {
 
@@ -25,18 +44,62 @@ public class ParserObject {
   public static final String AELFRED_XML_DECODER = "context.arch.comm.language.SAX_XMLDecoder";
 
   /**
-   * The default encoder class to use is "context.arch.comm.language.XMLEncoder".
+   * The SAX XML decoder class using the parser of the Java runtime is
+   * "context.arch.comm.language.JAXP_SAX_XMLDecoder".
    */
-  public static final String DEFAULT_ENCODER = "context.arch.comm.language.XMLEncoder";
+  public static final String JAXP_XML_DECODER = "context.arch.comm.language.JAXP_SAX_XMLDecoder";
+
+  /**
+   * The default encoder class to use is "context.arch.comm.language.StreamingXMLEncoder".
+   */
+  public static final String DEFAULT_ENCODER = "context.arch.comm.language.StreamingXMLEncoder";
 
   /**
    * The XML encoder class is "context.arch.comm.language.XMLEncoder".
    */
   public static final String XML_ENCODER = "context.arch.comm.language.XMLEncoder";
 
+  /**
+   * The streaming XML encoder class is "context.arch.comm.language.StreamingXMLEncoder".
+   */
+  public static final String STREAMING_XML_ENCODER = "context.arch.comm.language.StreamingXMLEncoder";
+
+  /**
+   * The binary encoder class is "context.arch.comm.language.BinaryEncoder".
+   */
+  public static final String BINARY_ENCODER = "context.arch.comm.language.BinaryEncoder";
+
+  /**
+   * The binary decoder class is "context.arch.comm.language.BinaryDecoder".
+   */
+  public static final String BINARY_DECODER = "context.arch.comm.language.BinaryDecoder";
+
+  /**
+   * Content type of the XML messages
+   */
+  public static final String XML_CONTENT_TYPE = "text/xml";
+
+  /**
+   * Content types of the messages any ParserObject can decode, as sent
+   * in the HTTP Accept header
+   */
+  public static final String ACCEPT = BinaryEncoder.CONTENT_TYPE + ", " + XML_CONTENT_TYPE;
+
+  /**
+   * The maximum number of idle decoders, or encoders, kept per class
+   */
+  public static int MAX_POOLED = 16;
+
   private String encoderClass = null;
   private String decoderClass = null;
 
+  // class name -> Class, so that classes are looked up once
+  private static Hashtable classes = new Hashtable();
+  // class name -> Vector of idle DecoderInterface
+  private Hashtable decoders = new Hashtable();
+  // class name -> Vector of idle StreamEncoderInterface
+  private Hashtable encoders = new Hashtable();
+
   /**
    * Basic constructor for ParserObject using the default encoder and decoder
    *
@@ -82,6 +145,59 @@ public class ParserObject {
     }
   }
  
+  /** 
+   * Returns the class with the given name, loading it the first time
+   * 
+   * @param className Name of the class
+   * @return the class
+   * @exception ClassNotFoundException if the class can't be found
+   */
+  private static Class getClass(String className) throws ClassNotFoundException {
+    Class c = (Class) classes.get(className);
+    if (c == null) {
+      c = Class.forName(className);
+      classes.put(className, c);
+    }
+    return c;
+  }
+
+  /** 
+   * Takes an idle object of the given class from a pool
+   * 
+   * @param pool Pool of idle objects, per class name
+   * @param className Class of the object
+   * @return an idle object or null
+   */
+  private static Object borrow(Hashtable pool, String className) {
+    synchronized (pool) {
+      Vector idle = (Vector) pool.get(className);
+      if (idle == null || idle.isEmpty()) {
+        return null;
+      }
+      return idle.remove(idle.size() - 1);
+    }
+  }
+
+  /** 
+   * Gives back an object to a pool once it has been used
+   * 
+   * @param pool Pool of idle objects, per class name
+   * @param className Class of the object
+   * @param object The object
+   */
+  private static void giveBack(Hashtable pool, String className, Object object) {
+    synchronized (pool) {
+      Vector idle = (Vector) pool.get(className);
+      if (idle == null) {
+        idle = new Vector();
+        pool.put(className, idle);
+      }
+      if (idle.size() < MAX_POOLED) {
+        idle.addElement(object);
+      }
+    }
+  }
+
   /** 
    * This private method creates a DecoderInterface object.
    * 
@@ -93,7 +209,7 @@ public class ParserObject {
   private DecoderInterface createDecoder(String className) throws InvalidDecoderException {
     DecoderInterface decoder = null;
     try {
-      decoder = (DecoderInterface)Class.forName(className).newInstance();
+      decoder = (DecoderInterface)getClass(className).newInstance();
     } catch (IllegalAccessException iae) {
         System.out.println("ParserObject IllegalAccess: "+iae);
         throw new InvalidDecoderException();
@@ -118,7 +234,7 @@ public class ParserObject {
   private EncoderInterface createEncoder(String className) throws InvalidEncoderException {
     EncoderInterface encoder = null;
     try {
-      encoder = (EncoderInterface)Class.forName(className).newInstance();
+      encoder = (EncoderInterface)getClass(className).newInstance();
     } catch (IllegalAccessException iae) {
         System.out.println("ParserObject IllegalAccess: "+iae);
         throw new InvalidEncoderException();
@@ -134,7 +250,7 @@ public class ParserObject {
 
   /**
    * This method tries to create a DecoderInterface object and decode the given
-   * message in the Reader.
+   * message in the Reader. Binary messages are decoded with BINARY_DECODER.
    *
    * @param message Reader containing a message to be decoded
    * @return decoded message in a DataObject
@@ -143,6 +259,27 @@ public class ParserObject {
    * @see context.arch.comm.language.DecoderInterface#decodeData(Reader)
    */
   public DataObject decodeData(Reader message) throws DecodeException, InvalidDecoderException {
+    try {
+      int first;
+      if (message.markSupported()) {
+        message.mark(1);
+        first = message.read();
+        message.reset();
+      }
+      else {
+        PushbackReader pushback = new PushbackReader(message, 1);
+        first = pushback.read();
+        if (first != -1) {
+          pushback.unread(first);
+        }
+        message = pushback;
+      }
+      if (first == BinaryEncoder.MAGIC) {
+        return decodeData(BINARY_DECODER, message);
+      }
+    } catch (IOException ioe) {
+      throw new DecodeException(ioe.toString());
+    }
     return decodeData(decoderClass, message);
   }
 
@@ -158,13 +295,20 @@ public class ParserObject {
    * @see context.arch.comm.language.DecoderInterface#decodeData(Reader)
    */
   public DataObject decodeData(String className, Reader message) throws DecodeException, InvalidDecoderException {
-    DecoderInterface decoder = createDecoder(className);
-    return decoder.decodeData(message);
+    DecoderInterface decoder = (DecoderInterface) borrow(decoders, className);
+    if (decoder == null) {
+      decoder = createDecoder(className);
+    }
+    DataObject result = decoder.decodeData(message);
+    // a decoder that failed is not reused
+    giveBack(decoders, className, decoder);
+    return result;
   }
 
   /**
    * This method tries to create a EncoderInterface object and encode the given
-   * message in the DataObject.
+   * message in the DataObject. The receivers of the message are unknown, so
+   * a binary encoder isn't used.
    *
    * @param message DataObject containing a message to be encoded
    * @return encoded message as a String
@@ -173,7 +317,22 @@ public class ParserObject {
    * @see context.arch.comm.language.EncoderInterface#encodeData(DataObject)
    */
   public String encodeData(DataObject message) throws EncodeException, InvalidEncoderException {
-    return encodeData(encoderClass, message);
+    return encodeData(message, (String) null);
+  }
+
+  /**
+   * This method tries to create a EncoderInterface object and encode the given
+   * message in the DataObject for a receiver accepting the given content types.
+   *
+   * @param message DataObject containing a message to be encoded
+   * @param accept Content types accepted by the receiver, or null if unknown
+   * @return encoded message as a String
+   * @exception context.arch.comm.language.EncodeException if the message can't be encoded
+   * @exception context.arch.comm.language.InvalidEncoderException if the encoder can't be created
+   * @see #getEncoderClass(String)
+   */
+  public String encodeData(DataObject message, String accept) throws EncodeException, InvalidEncoderException {
+    return encodeData(getEncoderClass(accept), message);
   }
 
   /**
@@ -188,8 +347,311 @@ public class ParserObject {
    * @see context.arch.comm.language.EncoderInterface#encodeData(DataObject)
    */
   public String encodeData(String className, DataObject message) throws EncodeException, InvalidEncoderException {
-    EncoderInterface encoder = createEncoder(className);
-    return encoder.encodeData(message);
+    EncoderInterface encoder = getEncoder(className);
+    String result = encoder.encodeData(message);
+    releaseEncoder(className, encoder);
+    return result;
+  }
+
+  /**
+   * Returns an encoder of the given class: an idle pooled one if there is
+   * one, a new one otherwise
+   *
+   * @param className Class of the encoder
+   * @return the encoder
+   * @exception context.arch.comm.language.InvalidEncoderException if the encoder can't be created
+   */
+  private EncoderInterface getEncoder(String className) throws InvalidEncoderException {
+    EncoderInterface encoder = (EncoderInterface) borrow(encoders, className);
+    if (encoder == null) {
+      encoder = createEncoder(className);
+    }
+    return encoder;
   }
-}
 
+  /**
+   * Gives back an encoder once a message has been encoded. Only encoders
+   * implementing StreamEncoderInterface can be reused.
+   *
+   * @param className Class of the encoder
+   * @param encoder The encoder
+   */
+  private void releaseEncoder(String className, EncoderInterface encoder) {
+    if (encoder instanceof StreamEncoderInterface) {
+      giveBack(encoders, className, encoder);
+    }
+  }
+
+  /**
+   * This method tries to create a EncoderInterface object and encode the given
+   * message in the DataObject to the given writer, for a receiver accepting
+   * the given content types. If the encoder is a StreamEncoderInterface, the
+   * message is written without being built in a String first.
+   *
+   * @param message DataObject containing a message to be encoded
+   * @param out Writer the encoded message is written to
+   * @param accept Content types accepted by the receiver, or null if unknown
+   * @return the content type of the encoded message
+   * @exception context.arch.comm.language.EncodeException if the message can't be encoded
+   * @exception context.arch.comm.language.InvalidEncoderException if the encoder can't be created
+   * @exception java.io.IOException if the writer fails
+   * @see context.arch.comm.language.StreamEncoderInterface#encodeData(DataObject,Writer)
+   */
+  public String encodeData(DataObject message, Writer out, String accept) throws EncodeException, InvalidEncoderException, IOException {
+    String className = getEncoderClass(accept);
+    EncoderInterface encoder = getEncoder(className);
+    if (encoder instanceof StreamEncoderInterface) {
+      ((StreamEncoderInterface) encoder).encodeData(message, out);
+    }
+    else {
+      out.write(encoder.encodeData(message));
+    }
+    releaseEncoder(className, encoder);
+    return getContentType(className);
+  }
+
+  /**
+   * Returns the encoder class to use for a receiver accepting the given
+   * content types: the encoder class of this object, or DEFAULT_ENCODER if
+   * the encoder is BINARY_ENCODER and the receiver doesn't accept it
+   *
+   * @param accept Content types accepted by the receiver, or null if unknown
+   * @return the encoder class
+   */
+  public String getEncoderClass(String accept) {
+    if (encoderClass.equals(BINARY_ENCODER) && ! accepts(accept, BinaryEncoder.CONTENT_TYPE)) {
+      return DEFAULT_ENCODER;
+    }
+    return encoderClass;
+  }
+
+  /**
+   * Returns the content type of the messages encoded by the given encoder class
+   *
+   * @param className Class of the encoder
+   * @return BinaryEncoder.CONTENT_TYPE or XML_CONTENT_TYPE
+   */
+  public static String getContentType(String className) {
+    if (className.equals(BINARY_ENCODER)) {
+      return BinaryEncoder.CONTENT_TYPE;
+    }
+    return XML_CONTENT_TYPE;
+  }
+
+  /**
+   * Returns the content type of an encoded message
+   *
+   * @param message The encoded message
+   * @return BinaryEncoder.CONTENT_TYPE or XML_CONTENT_TYPE
+   */
+  public static String getMessageContentType(String message) {
+    if (BinaryEncoder.isEncoded(message)) {
+      return BinaryEncoder.CONTENT_TYPE;
+    }
+    return XML_CONTENT_TYPE;
+  }
+
+  /**
+   * Returns true if a content type is in a list of accepted content types
+   *
+   * @param accept Content types, as in the HTTP Accept header, or null
+   * @param contentType Content type looked for
+   * @return whether contentType is accepted
+   */
+  public static boolean accepts(String accept, String contentType) {
+    return accept != null && accept.indexOf(contentType) >= 0;
+  }
+
+  /**
+   * Encodes sample messages with the XML and binary encoders, decodes them
+   * and checks that the decoded DataObjects are the same as the original
+   * ones: nested elements, attributes, empty values and non-ASCII text.
+   * Then checks that truncated binary messages, and binary messages
+   * announcing huge strings, counts or nesting, are refused.
+   * The XML decoder class can be given as argument, JAXP_XML_DECODER by
+   * default.
+   */
+  public static void main(String args[]) {
+    String decoder = args.length > 0 ? args[0] : JAXP_XML_DECODER;
+    String[] encoders = { STREAMING_XML_ENCODER, BINARY_ENCODER };
+    Vector samples = new Vector();
+
+    // nested elements, as in a subscription callback
+    Vector atts = new Vector();
+    for (int i = 0; i < 3; i++) {
+      Vector att = new Vector();
+      att.addElement(new DataObject("attributeName", "name" + i));
+      att.addElement(new DataObject("attributeValue", "value " + i));
+      Hashtable type = new Hashtable();
+      type.put("attributeType", "String");
+      atts.addElement(new DataObject("attributeNameValue", type, att));
+    }
+    Vector callback = new Vector();
+    callback.addElement(new DataObject("subscriberId", "PersonPresence_rigatoni_1520"));
+    callback.addElement(new DataObject("callbackName", "update"));
+    callback.addElement(new DataObject("attributeNameValues", atts));
+    samples.addElement(new DataObject("subscriptionCallback", callback));
+
+    // empty values: empty text, no value, empty attribute value
+    Vector empty = new Vector();
+    empty.addElement(new DataObject("emptyText", ""));
+    empty.addElement(new DataObject("noValue"));
+    Hashtable emptyAtt = new Hashtable();
+    emptyAtt.put("attributeType", "");
+    empty.addElement(new DataObject("emptyAttribute", emptyAtt, new Vector()));
+    empty.addElement(new DataObject("nested", new Vector()));
+    samples.addElement(new DataObject("empty", empty));
+
+    // non-ASCII text and markup characters
+    Vector text = new Vector();
+    text.addElement(new DataObject("name", "Zo\u00eb M\u00fcller"));
+    text.addElement(new DataObject("location", "\u6771\u4eac \u2013 \u20ac 5"));
+    text.addElement(new DataObject("surrogates", "\ud83d\ude00"));
+    text.addElement(new DataObject("markup", "a < b && c > \"d\""));
+    Hashtable textAtt = new Hashtable();
+    textAtt.put("caf\u00e9", "cr\u00e8me br\u00fbl\u00e9e");
+    text.addElement(new DataObject("attributes", textAtt, new Vector()));
+    samples.addElement(new DataObject("text", text));
+
+    int failed = 0;
+    for (int i = 0; i < encoders.length; i++) {
+      ParserObject parser = new ParserObject(encoders[i], decoder);
+      for (int j = 0; j < samples.size(); j++) {
+        DataObject sample = (DataObject) samples.elementAt(j);
+        String result;
+        try {
+          String message = parser.encodeData(sample, ACCEPT);
+          DataObject decoded = parser.decodeData(new StringReader(message));
+          if (!getMessageContentType(message).equals(getContentType(encoders[i]))) {
+            result = "FAILED: encoded as " + getMessageContentType(message);
+          }
+          else {
+            result = isSame(sample, decoded) ? "ok" : "FAILED: " + decoded;
+          }
+        } catch (Exception e) {
+            result = "FAILED: " + e;
+        }
+        if (!result.equals("ok")) {
+          failed++;
+        }
+        System.out.println(encoders[i] + " " + sample.getName() + ": " + result);
+      }
+    }
+    System.out.println(failed == 0 ? "all round trips ok" : failed + " round trips failed");
+
+    // malformed binary messages must be refused without allocating the
+    // sizes they announce
+    Vector malformed = new Vector();
+    Vector names = new Vector();
+    try {
+      String message = new ParserObject(BINARY_ENCODER, decoder).encodeData((DataObject) samples.elementAt(0), ACCEPT);
+      names.addElement("truncated");
+      malformed.addElement(message.substring(0, message.length() / 2));
+      StringWriter out = new StringWriter();
+      out.write(BinaryEncoder.MAGIC);
+      out.write(BinaryEncoder.VERSION);
+      BinaryEncoder.writeNumber(0, out);
+      BinaryEncoder.writeNumber(1 << 29, out);
+      out.write("abc");
+      names.addElement("oversized string");
+      malformed.addElement(out.toString());
+      String header = "" + BinaryEncoder.MAGIC + BinaryEncoder.VERSION;
+      out = new StringWriter();
+      BinaryEncoder.writeNumber(0, out);
+      BinaryEncoder.writeNumber(1, out);
+      out.write("a");
+      String element = out.toString();
+      out = new StringWriter();
+      BinaryEncoder.writeNumber(1 << 29, out);
+      names.addElement("oversized attribute count");
+      malformed.addElement(header + element + out.toString());
+      out = new StringWriter();
+      BinaryEncoder.writeNumber(0, out);
+      BinaryEncoder.writeNumber(1 << 29, out);
+      names.addElement("oversized value count");
+      malformed.addElement(header + element + out.toString());
+      StringBuffer nested = new StringBuffer(header);
+      for (int i = 0; i < 100000; i++) {
+        nested.append(element).append("\u0000\u0001\u0001");
+      }
+      names.addElement("nested too deep");
+      malformed.addElement(nested.toString());
+    } catch (Exception e) {
+        System.out.println("ParserObject main Exception: "+e);
+        failed++;
+    }
+    ParserObject parser = new ParserObject(STREAMING_XML_ENCODER, decoder);
+    for (int i = 0; i < malformed.size(); i++) {
+      String result;
+      try {
+        result = "FAILED: decoded " + parser.decodeData(new StringReader((String) malformed.elementAt(i))).getName();
+      } catch (DecodeException de) {
+          result = "ok, " + de.getMessage();
+      } catch (Throwable t) {
+          result = "FAILED: " + t;
+      }
+      if (!result.startsWith("ok")) {
+        failed++;
+      }
+      System.out.println(BINARY_DECODER + " " + names.elementAt(i) + ": " + result);
+    }
+    System.out.println(failed == 0 ? "all tests ok" : failed + " tests failed");
+  }
+
+  /**
+   * Returns true if two DataObjects have the same name, attributes and values.
+   * An empty text value is the same as no value, as XML can't tell them apart.
+   *
+   * @param a First DataObject
+   * @param b Second DataObject
+   * @return whether the DataObjects are the same
+   */
+  private static boolean isSame(DataObject a, DataObject b) {
+    if (!a.getName().equals(b.getName())) {
+      return false;
+    }
+    Hashtable aAtts = a.getAttributes() == null ? new Hashtable() : a.getAttributes();
+    Hashtable bAtts = b.getAttributes() == null ? new Hashtable() : b.getAttributes();
+    if (!aAtts.equals(bAtts)) {
+      return false;
+    }
+    Vector aValues = getValues(a);
+    Vector bValues = getValues(b);
+    if (aValues.size() != bValues.size()) {
+      return false;
+    }
+    for (int i = 0; i < aValues.size(); i++) {
+      Object aValue = aValues.elementAt(i);
+      Object bValue = bValues.elementAt(i);
+      if (aValue instanceof DataObject && bValue instanceof DataObject) {
+        if (!isSame((DataObject) aValue, (DataObject) bValue)) {
+          return false;
+        }
+      }
+      else if (!aValue.equals(bValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the values of a DataObject, without the null and empty values
+   *
+   * @param data The DataObject
+   * @return Vector of Strings and DataObjects
+   */
+  private static Vector getValues(DataObject data) {
+    Vector values = new Vector();
+    if (data.getValue() != null) {
+      for (int i = 0; i < data.getValue().size(); i++) {
+        Object value = data.getValue().elementAt(i);
+        if (value != null && !"".equals(value)) {
+          values.addElement(value);
+        }
+      }
+    }
+    return values;
+  }
+
+}
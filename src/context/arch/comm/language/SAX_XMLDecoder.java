@@ -7,6 +7,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.HandlerBase;
 import org.xml.sax.AttributeList;
 import org.xml.sax.InputSource;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.parsers.ParserConfigurationException;
 
 import java.io.IOException;
 import java.io.Reader;
@@ -39,6 +41,11 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
    */
   public static final String AELFRED_SAX_XML_DECODER = "com.microstar.xml.SAXDriver";
 
+  /**
+   * The SAX XML decoder of the Java runtime, obtained through JAXP
+   */
+  public static final String JAXP_SAX_XML_DECODER = "javax.xml.parsers.SAXParserFactory";
+
   /**
    * The language for this class is XML
    */
@@ -46,7 +53,7 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
 
   private Parser parser;
   private String decoderDriver;
-  private DataObject data;
+  private DataObjectBuilder builder = new DataObjectBuilder();
 
   /**
    * Basic constructor which uses the default XML parser and sets the
@@ -57,9 +64,28 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
    * @see #DEFAULT_SAX_XML_DECODER
    */
   public SAX_XMLDecoder() throws InvalidDecoderException {
-    decoderDriver = DEFAULT_SAX_XML_DECODER;
+    this(DEFAULT_SAX_XML_DECODER);
+  }
+
+  /**
+   * Constructor which uses the given XML parser driver and sets the
+   * document handler to this class
+   *
+   * @param decoderDriver Class name of the SAX parser driver, or JAXP_SAX_XML_DECODER
+   * @exception context.arch.comm.language.InvalidDecoderException when the
+   *		given decoder can not be created
+   * @see #AELFRED_SAX_XML_DECODER
+   * @see #JAXP_SAX_XML_DECODER
+   */
+  public SAX_XMLDecoder(String decoderDriver) throws InvalidDecoderException {
+    this.decoderDriver = decoderDriver;
     try { 
-      parser = ParserFactory.makeParser(decoderDriver);
+      if (decoderDriver.equals(JAXP_SAX_XML_DECODER)) {
+        parser = SAXParserFactory.newInstance().newSAXParser().getParser();
+      }
+      else {
+        parser = ParserFactory.makeParser(decoderDriver);
+      }
       DocumentHandler handler = this;
       parser.setDocumentHandler(handler);
     } catch (IllegalAccessException iae) {
@@ -71,12 +97,19 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
     } catch (ClassNotFoundException cnfe) {
         System.out.println("SAX_XMLDecoder ClassNotFound: "+cnfe);
         throw new InvalidDecoderException();
+    } catch (ParserConfigurationException pce) {
+        System.out.println("SAX_XMLDecoder ParserConfiguration: "+pce);
+        throw new InvalidDecoderException();
+    } catch (SAXException se) {
+        System.out.println("SAX_XMLDecoder SAXException: "+se);
+        throw new InvalidDecoderException();
     }
   }
 
   /**
    * This method decodes the given XML data and returns the result in
-   * a DataObject.  It calls the parser created in the constructor
+   * a DataObject.  It calls the parser created in the constructor, so
+   * the same decoder can decode successive messages, one at a time.
    *
    * @param XMLdata XML data to be decoded
    * @return the DataObject containing the results of the decoded XML data
@@ -87,13 +120,16 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
   public DataObject decodeData(Reader XMLdata) throws DecodeException {
     try {
       parser.parse(new InputSource(XMLdata));
-      return data;
+      // the decoder is reused: getResult doesn't keep the message
+      return builder.getResult();
     } catch (IOException ioe) {
         System.out.println("SAX_XMLParser parse IOException: "+ioe);
         throw new DecodeException();
     } catch (SAXException se) {
         System.out.println("SAX_XMLParser parse SAXException: "+se);
         throw new DecodeException();
+    } finally {
+      builder.reset();
     }
   }
 
@@ -118,12 +154,12 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
 
   /**
    * Receive notification of the beginning of the document.
-   * Creates a new DataObject
+   * Starts a new DataObject
    *
-   * @see context.arch.comm.DataObject
+   * @see context.arch.comm.language.DataObjectBuilder#reset()
    */
   public void startDocument() {
-    data = new DataObject();
+    builder.reset();
   }
 
   /**
@@ -134,42 +170,44 @@ public class SAX_XMLDecoder extends HandlerBase implements DecoderInterface {
 
   /**
    * Receive notification of the start of a new element.
-   * Adds attributes to the DataObject
+   * Adds a new element and its attributes to the DataObject
    *
    * @param name String name of new element
    * @param attributes AttributeList object containing attributes for new element
-   * @see context.arch.comm.DataObject#addElement(String,Hashtable)
+   * @see context.arch.comm.language.DataObjectBuilder#startElement(String,Hashtable)
    */
   public void startElement(String name, AttributeList attributes) {
-    Hashtable hash = new Hashtable();
-    for (int i=0; i<attributes.getLength(); i++) {
-      hash.put(attributes.getName(i).trim(), attributes.getValue(i).trim());
+    Hashtable hash = null;
+    int count = attributes.getLength();
+    if (count > 0) {
+      hash = new Hashtable(count * 2);
+      for (int i=0; i<count; i++) {
+        hash.put(attributes.getName(i).trim().intern(), attributes.getValue(i).trim());
+      }
     }
-    data.addElement(name.trim(), hash);
+    builder.startElement(name.trim(), hash);
   }
 
   /**
-   * Receive notification of the end of an element.  Closes the DataObject.
+   * Receive notification of the end of an element.  Closes the current element.
    *
    * @param name String name of ended element
-   * @see context.arch.comm.DataObject#closeElement(String)
+   * @see context.arch.comm.language.DataObjectBuilder#endElement()
    */
   public void endElement(String name) {
-    data.closeElement(name.trim());
+    builder.endElement();
   }
 
  /**
   * Receive notification of non-element and non-attribute characters ignoring whitespace.
-  * Adds the value to the current element
+  * Collects the characters, added as one value of the current element at the next tag
   *
   * @param ch array of characters read in
   * @param start start position in the array
   * @param length number of characters to read in from the array
-  * @see context.arch.comm.DataObject#addValue(String)
+  * @see context.arch.comm.language.DataObjectBuilder#characters(char[],int,int)
   */
  public void characters(char ch[], int start, int length) {
-   if ((new String(ch,start,length)).trim().length() != 0) {
-     data.addValue(new String(ch,start,length).trim());
-   }
+   builder.characters(ch, start, length);
  }
 }
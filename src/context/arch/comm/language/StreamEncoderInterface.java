@@ -0,0 +1,29 @@
+package context.arch.comm.language;
+
+import java.io.Writer;
+import java.io.IOException;
+
+import context.arch.comm.DataObject;
+
+/**
+ * This interface specifies the methods an encoder must support to write
+ * its encoding directly to a stream, instead of building the whole message
+ * in a String first. An encoder implementing this interface can encode
+ * successive messages, one at a time, and is reused by ParserObject.
+ *
+ * @see context.arch.comm.language.EncoderInterface
+ */
+public interface StreamEncoderInterface extends EncoderInterface {
+
+  /** 
+   * Method to encode the incoming data to the given writer
+   *
+   * @param data Data to be encoded
+   * @param out Writer the encoded message is written to
+   * @exception context.arch.comm.language.EncodeException thrown when the given
+   *		data can not be encoded successfully
+   * @exception java.io.IOException thrown when the writer fails
+   */
+  public abstract void encodeData(DataObject data, Writer out) throws EncodeException, IOException;
+
+}
@@ -0,0 +1,182 @@
+package context.arch.comm.language;
+
+import java.io.CharArrayWriter;
+import java.io.Writer;
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Enumeration;
+import java.util.Vector;
+
+import context.arch.comm.DataObject;
+
+/**
+ * This class encodes a DataObject in XML like XMLEncoder, but writes the
+ * tags and values straight to a Writer instead of concatenating Strings for
+ * every element. Text values and attribute values are escaped.
+ *
+ * @see context.arch.comm.language.XMLEncoder
+ * @see context.arch.comm.language.StreamEncoderInterface
+ */
+public class StreamingXMLEncoder implements StreamEncoderInterface {
+
+  /**
+   * Language used to encode
+   */ 
+  public static final String LANGUAGE = "XML";
+
+  /**
+   * Tag to mark end of line
+   */
+  private static final String END_OF_LINE = "\r\n";
+
+  /**
+   * XML version number is 1.0
+   */
+  private static final String XML_VERSION = "1.0";
+
+  /**
+   * Header to use for XML message
+   */
+  private static final String	XML_HEADER = "<?xml version=\"" + XML_VERSION + "\"?>" + END_OF_LINE;
+
+  // Buffer reused by encodeData(DataObject)
+  private CharArrayWriter buffer = null;
+
+  /**
+   * Constructor for StreamingXMLEncoder
+   */
+  public StreamingXMLEncoder() {
+  }
+
+  /**
+   * Method used to encode data in a String
+   *
+   * @param data Data to be encoded
+   * @return the XML encoding
+   * @exception context.arch.comm.language.EncodeException if the data can't be encoded
+   * @see #encodeData(DataObject,Writer)
+   */
+  public String encodeData(DataObject data) throws EncodeException {
+    if (buffer == null) {
+      buffer = new CharArrayWriter();
+    }
+    buffer.reset();
+    try {
+      encodeData(data, buffer);
+    } catch (IOException ioe) {
+      throw new EncodeException(ioe.toString());
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Method used to encode data to a Writer
+   *
+   * @param data Data to be encoded
+   * @param out Writer the XML encoding is written to
+   * @exception context.arch.comm.language.EncodeException if the data can't be encoded
+   * @exception java.io.IOException if the writer fails
+   */
+  public void encodeData(DataObject data, Writer out) throws EncodeException, IOException {
+    out.write(XML_HEADER);
+    writeElement(data, out);
+  }
+
+  /**
+   * Writes a DataObject element, its attributes and its values
+   *
+   * @param elt DataObject element being written
+   * @param out Writer the element is written to
+   * @exception context.arch.comm.language.EncodeException if the element has no name
+   * @exception java.io.IOException if the writer fails
+   */
+  private void writeElement(DataObject elt, Writer out) throws EncodeException, IOException {
+    String name = elt.getName ();
+    if (name == null) {
+      throw new EncodeException("tag is null");
+    }
+    Hashtable atts = elt.getAttributes ();
+    Vector val = elt.getValue ();
+
+    out.write('<');
+    out.write(name);
+    if (atts != null) {
+      for (Enumeration keys = atts.keys(); keys.hasMoreElements();) {
+        Object k = keys.nextElement();
+        out.write(' ');
+        out.write(k.toString());
+        out.write("=\"");
+        writeEscaped(atts.get(k).toString(), out, true);
+        out.write('"');
+      }
+    }
+    if (val == null) {
+      out.write("/>");
+      out.write(END_OF_LINE);
+      return;
+    }
+    out.write('>');
+    for (int i = 0; i < val.size (); i++) {
+      Object currentElt = val.elementAt (i);
+      if (currentElt instanceof String) {
+        writeEscaped((String) currentElt, out, false);
+      }
+      else if (currentElt != null) {
+        writeElement((DataObject) currentElt, out);
+      }
+    }
+    out.write("</");
+    out.write(name);
+    out.write('>');
+    out.write(END_OF_LINE);
+  }
+
+  /**
+   * Writes a text or attribute value, escaping the XML markup characters
+   *
+   * @param text Value to write
+   * @param out Writer the value is written to
+   * @param attribute true if the value is an attribute value
+   * @exception java.io.IOException if the writer fails
+   */
+  private void writeEscaped(String text, Writer out, boolean attribute) throws IOException {
+    int length = text.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      String entity;
+      switch (text.charAt(i)) {
+        case '<': entity = "&lt;"; break;
+        case '>': entity = "&gt;"; break;
+        case '&': entity = "&amp;"; break;
+        case '"': entity = attribute ? "&quot;" : null; break;
+        default: entity = null;
+      }
+      if (entity != null) {
+        out.write(text, start, i - start);
+        out.write(entity);
+        start = i + 1;
+      }
+    }
+    out.write(text, start, length - start);
+  }
+
+  /**
+   * Returns language used to encode XML
+   *
+   * @return language used to encode XML
+   * @see #LANGUAGE
+   */		
+  public String getLanguage() {
+    return LANGUAGE;
+  }
+
+  /**
+   * Returns name of class used to encode XML
+   *
+   * @return name of class used to encode XML
+   */		
+  public String getClassName() {
+    return this.getClass().getName();
+  }
+
+}
@@ -0,0 +1,160 @@
+package context.arch.comm.protocol;
+
+import java.util.Hashtable;
+import java.util.Enumeration;
+import java.util.Vector;
+
+/**
+ * This class keeps the idle client connections of a CommunicationsObject so
+ * that successive requests sent to the same host and port reuse the same
+ * socket instead of opening a new one for every message.
+ *
+ * Connections are kept per (host,port). A connection is dropped when it has
+ * been idle for more than the idle timeout, when it has carried the maximum
+ * number of requests, or when there are already enough idle connections to
+ * the same host.
+ *
+ * @see context.arch.comm.protocol.PersistentConnection
+ * @see context.arch.comm.protocol.HTTPClientSocket
+ */
+public class ConnectionPool {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * The default maximum number of idle connections kept per host is 4
+   */
+  public static int DEFAULT_MAX_IDLE_PER_HOST = 4;
+
+  /**
+   * The default idle timeout is 10 seconds. It must stay below the server
+   * keep-alive timeout so the client drops a connection before the server does.
+   *
+   * @see context.arch.comm.protocol.HTTPServerSocket#KEEP_ALIVE_TIMEOUT
+   */
+  public static long DEFAULT_IDLE_TIMEOUT = 10000;
+
+  /**
+   * The default maximum number of requests sent on one connection is 100
+   */
+  public static int DEFAULT_MAX_REQUESTS = 100;
+
+  // host:port -> Vector of idle PersistentConnection
+  private Hashtable idle;
+  private int maxIdlePerHost;
+  private long idleTimeout;
+  private int maxRequests;
+
+  /**
+   * Basic constructor using the default limits
+   *
+   * @see #DEFAULT_MAX_IDLE_PER_HOST
+   * @see #DEFAULT_IDLE_TIMEOUT
+   * @see #DEFAULT_MAX_REQUESTS
+   */
+  public ConnectionPool() {
+    this(DEFAULT_MAX_IDLE_PER_HOST, DEFAULT_IDLE_TIMEOUT, DEFAULT_MAX_REQUESTS);
+  }
+
+  /**
+   * Constructor with user-specified limits
+   *
+   * @param maxIdlePerHost Maximum number of idle connections kept per host
+   * @param idleTimeout Time in milliseconds after which an idle connection is closed
+   * @param maxRequests Maximum number of requests sent on one connection
+   */
+  public ConnectionPool(int maxIdlePerHost, long idleTimeout, int maxRequests) {
+    this.idle = new Hashtable();
+    this.maxIdlePerHost = maxIdlePerHost;
+    this.idleTimeout = idleTimeout;
+    this.maxRequests = maxRequests;
+  }
+
+  /**
+   * Returns an idle connection to the given host and port, or null if there
+   * is none. Expired connections found on the way are closed.
+   *
+   * @param host Hostname of the remote server
+   * @param port Port number of the remote server
+   * @return an idle connection or null
+   */
+  public synchronized PersistentConnection getConnection(String host, int port) {
+    Vector connections = (Vector) idle.get(PersistentConnection.getKey(host, port));
+    if (connections == null) {
+      return null;
+    }
+    while (! connections.isEmpty()) {
+      PersistentConnection connection = (PersistentConnection) connections.remove(connections.size() - 1);
+      if (connection.isExpired(idleTimeout) || connection.getSocket().isClosed()) {
+        connection.close();
+      }
+      else {
+        if (DEBUG) {
+          System.out.println("ConnectionPool reusing " + connection);
+        }
+        return connection;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gives back a connection after a complete request/reply exchange. The
+   * connection is kept for later use, or closed if a limit is reached.
+   *
+   * @param connection The connection to give back
+   */
+  public synchronized void releaseConnection(PersistentConnection connection) {
+    if (connection.getRequests() >= maxRequests) {
+      connection.close();
+      return;
+    }
+    String key = connection.getKey();
+    Vector connections = (Vector) idle.get(key);
+    if (connections == null) {
+      connections = new Vector();
+      idle.put(key, connections);
+    }
+    if (connections.size() >= maxIdlePerHost) {
+      connection.close();
+    }
+    else {
+      connections.addElement(connection);
+    }
+  }
+
+  /**
+   * Returns the maximum number of requests sent on one connection
+   *
+   * @return maximum number of requests per connection
+   */
+  public int getMaxRequests() {
+    return maxRequests;
+  }
+
+  /**
+   * Returns the idle timeout of the connections
+   *
+   * @return idle timeout in milliseconds
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Closes all the idle connections
+   */
+  public synchronized void closeAll() {
+    for (Enumeration e = idle.elements(); e.hasMoreElements();) {
+      Vector connections = (Vector) e.nextElement();
+      for (int i = 0; i < connections.size(); i++) {
+        ((PersistentConnection) connections.elementAt(i)).close();
+      }
+    }
+    idle.clear();
+  }
+
+}
@@ -3,11 +3,11 @@ package context.arch.comm.protocol;
 import java.util.StringTokenizer;
 import java.util.Date;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
-import java.io.BufferedReader;
-import java.io.StringReader;
-import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.DataOutputStream;
@@ -16,6 +16,7 @@ import java.io.IOException;
 import context.arch.comm.CommunicationsClient;
 import context.arch.comm.CommunicationsObject;
 import context.arch.comm.DataObject;
+import context.arch.comm.language.ParserObject;
 
 /**
  * This class subclasses TCPClientSocket, creating and sending HTTP requests.
@@ -53,6 +54,14 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
 
   private CommunicationsObject commObject;
 
+  // The connection the current request is sent on
+  private PersistentConnection connection = null;
+  // Whether the connection was taken from the connection pool
+  private boolean reused = false;
+  // The last request sent, kept to resend a GET request if a pooled connection was closed
+  // by the server before it replied
+  private String lastRequest = null;
+
   /** 
    * Basic constructor for HTTPClientSocket that calls TCPClientSocket
    * 
@@ -123,8 +132,12 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
     }
     text.append("User-Agent: Context Client" + eol);
     text.append("Host: " + thisMachine + eol);
+    if (getConnectionPool() != null) {
+      text.append("Connection: keep-alive" + eol);
+    }
+    text.append("Accept: " + ParserObject.ACCEPT + eol);
     if (type.equals (POST)) {
-      text.append("Content-Type: text/xml" + eol);
+      text.append("Content-Type: " + ParserObject.getMessageContentType(data) + eol);
       text.append("Content-Length: " + xmlLen + eol);
       text.append(eol);
       text.append(data + eol);
@@ -135,7 +148,9 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
   }
 
   /** 
-   * Method that strips away the HTTP protocol from a reply message
+   * Method that strips away the HTTP protocol from a reply message.  The body
+   * of the reply is read once as bytes, and decoded with the charset of the
+   * reply when it is read.
    *
    * @param socket Socket on which reply is coming from
    * @return the reply with the HTTP protocol stripped away
@@ -144,74 +159,152 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
    */
   public RequestData stripReplyProtocol(Socket data) throws ProtocolException {
   
-    BufferedReader bufferedReader = null;
     try {
-      bufferedReader = new BufferedReader(new InputStreamReader(data.getInputStream()));
-      String get = bufferedReader.readLine();
-      StringTokenizer tokenizer = new StringTokenizer(get);
-      int bytesRead = 0;
-      int bytesReadThisTime = 0;
-      char [] tempdata;
-
-      while (!(get.toLowerCase().startsWith("content-length:"))) {
-        get = bufferedReader.readLine();
+      PersistentConnection replyConnection = connection;
+      if (replyConnection == null || replyConnection.getSocket() != data) {
+        replyConnection = new PersistentConnection(data);
       }
-      int length = 0;
+      String get = null;
       try {
-        length = new Integer(get.substring(15).trim()).intValue();
-      } catch (NumberFormatException nfe) {
-        System.out.println("RequestServerSocket run error: "+nfe);
+        get = replyConnection.readLine();
+        // skip the end of line left after the previous reply on a kept-alive connection
+        while (get != null && get.trim().equals("")) {
+          get = replyConnection.readLine();
+        }
+      } catch (IOException ioe) {
+        // a timeout means the server may be running the request: it isn't sent again
+        if (! reused || replyConnection.hasReceived() || ioe instanceof SocketTimeoutException) {
+          throw ioe;
+        }
+      }
+      if (get == null) {
+        if (reused && ! replyConnection.hasReceived() && isIdempotent(lastRequest)) {
+          // the server closed the pooled connection without replying: send the
+          // request again on a new one. A POST may have been run by the server,
+          // so it isn't sent twice
+          if (DEBUG) {
+            System.out.println("HTTPClientSocket <stripReplyProtocol> stale connection, retrying " + connection);
+          }
+          connection.close();
+          return stripReplyProtocol(sendRequest(lastRequest, false));
+        }
+        throw new IOException("connection closed by " + remoteServer + ":" + portNumber);
+      }
+
+      int length = -1;
+      boolean keepAlive = false;
+      String accept = null;
+      String contentType = null;
+      while (get != null && get.length() > 0) {
+        if (HTTPServerSocket.isHeader(get, "Content-Length:")) {
+          try {
+            length = Integer.parseInt(get.substring(15).trim());
+          } catch (NumberFormatException nfe) {
+            System.out.println("RequestServerSocket run error: "+nfe);
+            throw new ProtocolException();
+          }
+        }
+        else if (HTTPServerSocket.isHeader(get, "Connection:")) {
+          keepAlive = get.substring(11).trim().equalsIgnoreCase("keep-alive");
+        }
+        else if (HTTPServerSocket.isHeader(get, "Accept:")) {
+          accept = get.substring(7).trim();
+        }
+        else if (HTTPServerSocket.isHeader(get, "Content-Type:")) {
+          contentType = get.substring(13).trim();
+        }
+        get = replyConnection.readLine();
+      }
+      if (length < 0) {
+        System.out.println("HTTPClientSocket stripReplyProtocol: no Content-Length");
         throw new ProtocolException();
       }
 
       if (DEBUG) {
         System.out.println ("Content-Length is: " + length);
       }
-					
-      while (!(get.trim().equals(""))) {
-        get = bufferedReader.readLine();
-      }
-
-      char[] postdata = new char[length];
-       
-      tempdata = new char [length];
-
-      while (bytesRead < length) {
-        if (bufferedReader.ready()){
-          int ix = bytesRead;	// index to current end of tempdata
-          bytesReadThisTime = bufferedReader.read(postdata, 0, length);  // DS: check we've read what we should
-          bytesRead += bytesReadThisTime;
-        		
-          if (DEBUG) {
-            System.out.println ("read " + bytesReadThisTime + " more bytes, "+bytesRead);
-          }
-
-          for (int i = 0; (i < bytesReadThisTime) && (ix + i < length); i++) {
-            tempdata[ix + i] = postdata[i];
-          }
 
-          postdata = new char[length];
+      // the reply is decoded after the connection is given back to the pool, so
+      // it can't be read in the buffer of the connection
+      byte[] body = replyConnection.readBody(length, false);
 
-        }
+      releaseConnection(data, keepAlive);
+      if (commObject != null) {
+        commObject.setAccept(remoteServer, portNumber, accept);
       }
 
-      String readerData = new String(tempdata);
-      //if (DEBUG) commObject.println("\nHTTPClientSocket : stripReplyProtocol :" + readerData);
-
-      StringReader sreader = new StringReader(readerData);
-      
-      return new RequestData(RequestData.DECODE,null,sreader);
+      // the replies of servers that don't give their charset use the default one
+      Reader reader = HTTPServerSocket.getReader(body, length, HTTPServerSocket.getCharset(contentType, null));
+      RequestData reply = new RequestData(RequestData.DECODE,null,reader);
+      reply.setAccept(accept);
+      return reply;
       
     } catch (IOException ioe) {
+        closeQuietly(data);
         System.out.println("HTTPClientSocket stripReplyProtocol IOException: "+ioe);
         throw new ProtocolException();
+    } catch (ProtocolException pe) {
+        closeQuietly(data);
+        throw pe;
     } catch (Exception e) {		// DS, 9/1/98: catch all (the request failed)
+        closeQuietly(data);
         e.printStackTrace ();
         System.out.println("HTTPClientSocket stripReplyProtocol Exception: "+e);
         throw new ProtocolException();
     }
   }
 
+  /**
+   * Returns the connection pool of the communications object, or null if
+   * connections are not kept alive
+   *
+   * @return the connection pool or null
+   */
+  private ConnectionPool getConnectionPool() {
+    if (commObject == null) {
+      return null;
+    }
+    return commObject.getConnectionPool();
+  }
+
+  /**
+   * Gives the connection back to the pool once the reply has been read if the
+   * server keeps it alive, and closes it otherwise.
+   *
+   * @param socket Socket the reply was read from
+   * @param keepAlive Whether the server keeps the connection alive
+   */
+  private void releaseConnection(Socket socket, boolean keepAlive) {
+    ConnectionPool pool = getConnectionPool();
+    if (keepAlive && pool != null && connection != null && connection.getSocket() == socket) {
+      if (timeout > 0) {
+        try {
+          socket.setSoTimeout(0);
+        } catch (IOException ioe) {
+        }
+      }
+      connection.requestDone();
+      pool.releaseConnection(connection);
+    }
+    else {
+      closeQuietly(socket);
+    }
+    connection = null;
+  }
+
+  /**
+   * Closes a socket, ignoring errors
+   *
+   * @param socket Socket to close
+   */
+  private void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ioe) {
+    }
+    connection = null;
+  }
+
   /** 
    * This method generates an error message if a request can't
    * be handled properly, to the point where a contextual error message 
@@ -246,9 +339,22 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
    * @return socket for the connection
    */
   public Socket sendRequest(String content) throws IOException{
+    return sendRequest(content, true);
+  }
+
+  /** 
+   * This method sends a request to a remote server, on a pooled connection
+   * if one is available and allowed, or on a new connection otherwise
+   * 
+   * @param content The request to send
+   * @param usePool Whether an idle connection from the pool can be used
+   * @return socket for the connection
+   */
+  private Socket sendRequest(String content, boolean usePool) throws IOException{
     
     OutputStream rawOut = null;
     String requestToSend = content;
+    lastRequest = content;
 			
     //if (content == null)
     //  throw new RPCException("No XML content set for request");
@@ -257,14 +363,47 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
       //System.out.println("HTTPClientSocket <sendRequest> about to create socket " + remoteServer + " " + portNumber);
       System.out.println("HTTPClientSocket <sendRequest> CONTENT is:\n" + requestToSend);
     }
+
+    // TODO Create table in BaseObject to make this mapping
+    // remoteServer keeps the name given by the request: it is the key of the
+    // Accept header of the server in the communications object
+    String host = remoteServer;
+    if(host.equals("LT001")){
+        host = "192.168.1.10";
+    }
+
+    ConnectionPool pool = getConnectionPool();
+    connection = null;
+    reused = false;
+    if (usePool && pool != null) {
+      connection = pool.getConnection(host, portNumber);
+      if (connection != null) {
+        try {
+          if (timeout > 0) {
+            connection.getSocket().setSoTimeout(timeout);
+          }
+          writeRequest(connection.getSocket().getOutputStream(), content);
+          reused = true;
+          return connection.getSocket();
+        } catch (IOException ioe) {
+          // the server closed the connection before it got the request: open a new one
+          connection.close();
+          connection = null;
+        }
+      }
+    }
     
     Socket s = null;
     try {
-        // TODO Create table in BaseObject to make this mapping
-        if(remoteServer.equals("LT001")){
-            remoteServer = "192.168.1.10";
-        }
-      s = new Socket(remoteServer, portNumber);
+      if (timeout > 0) {
+        s = new Socket();
+        s.connect(new InetSocketAddress(host, portNumber), timeout);
+        s.setSoTimeout(timeout);
+      }
+      else {
+        s = new Socket(host, portNumber);
+      }
+      connection = new PersistentConnection(s, host, portNumber);
     }
     catch (IOException ioe){
         ioe.printStackTrace();
@@ -283,11 +422,8 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
       }
       
       if (rawOut != null){
-        BufferedOutputStream buffOut = new BufferedOutputStream(rawOut);
-        DataOutputStream out = new DataOutputStream(buffOut);
         try {
-          out.writeBytes(content);
-          out.flush();
+          writeRequest(rawOut, content);
         } catch (Exception e) {
             System.out.println ("While creating socket in sendRequest: " + e);
         }
@@ -296,6 +432,31 @@ public class HTTPClientSocket extends TCPClientSocket implements CommunicationsC
     return s;
   }
 
+  /**
+   * Tells whether a request can be sent again without effect on the server:
+   * only the GET requests can
+   *
+   * @param request The request, with the HTTP protocol
+   * @return true if the request is a GET request
+   */
+  private static boolean isIdempotent(String request) {
+    return request != null && request.startsWith(GET + " ");
+  }
+
+  /**
+   * Writes a request on the output stream of a socket
+   *
+   * @param rawOut The output stream of the socket
+   * @param content The request to send
+   * @exception IOException if the request can't be written
+   */
+  private void writeRequest(OutputStream rawOut, String content) throws IOException {
+    BufferedOutputStream buffOut = new BufferedOutputStream(rawOut);
+    DataOutputStream out = new DataOutputStream(buffOut);
+    out.writeBytes(content);
+    out.flush();
+  }
+
   /** 
    * Method to get the communications protocol being used
    *
@@ -1,16 +1,21 @@
 package context.arch.comm.protocol;
 
 import java.net.Socket;
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.StringTokenizer;
 import java.util.Date;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.CharArrayWriter;
+import java.io.Writer;
 
 import context.arch.comm.CommunicationsServer;
 import context.arch.comm.CommunicationsObject;
 import context.arch.comm.DataObject;
+import context.arch.comm.language.ParserObject;
 
 /**
  * This class subclasses TCPServerSocket, listening for and handling HTTP requests.
@@ -46,9 +51,40 @@ public class HTTPServerSocket extends TCPServerSocket implements CommunicationsS
    */
   public static final String POST = "POST";
 
+  /**
+   * Whether connections are kept open for several requests when the client asks for it
+   */
+  public static boolean KEEP_ALIVE = true;
+
+  /**
+   * Time in milliseconds a kept-alive connection waits for the next request (15 seconds)
+   */
+  public static int KEEP_ALIVE_TIMEOUT = 15000;
+
+  /**
+   * Maximum number of requests served on one connection
+   */
+  public static int MAX_KEEP_ALIVE_REQUESTS = 100;
+
+  /**
+   * The charset of the requests whose Content-Type has no charset.
+   * HTTPClientSocket writes the low byte of each character, so one byte is
+   * one character.
+   */
+  public static final String REQUEST_CHARSET = "ISO-8859-1";
+
+  /**
+   * The charset of the replies
+   */
+  public static final String REPLY_CHARSET = "UTF-8";
+
   private int port;
   private CommunicationsObject commObject;
 
+  // The connection handled by the current thread. Each accepted socket is
+  // served by its own clone, on its own thread.
+  private static ThreadLocal currentConnection = new ThreadLocal();
+
   /** 
    * Basic constructor for HTTPServerSocket that calls TCPServerSocket
    * 
@@ -78,13 +114,30 @@ public class HTTPServerSocket extends TCPServerSocket implements CommunicationsS
 
   /** 
    * Stub method that handles incoming HTTP requests.  It calls the equivalent
-   * method in the CommunicationsObject and then closes the socket.
+   * method in the CommunicationsObject for each request received on the socket,
+   * as long as the client keeps the connection alive, and then closes the socket.
    *
    * @param dataSocket Socket to receive HTTP data from
    * @see context.arch.comm.CommunicationsObject#handleIncomingRequest(java.net.Socket)
+   * @see #KEEP_ALIVE
    */
   public void handleIncomingRequest(Socket dataSocket) {
-    commObject.handleIncomingRequest(dataSocket);
+    PersistentConnection connection = new PersistentConnection(dataSocket);
+    currentConnection.set(connection);
+    try {
+      do {
+        connection.setKeepAlive(false);
+        commObject.handleIncomingRequest(dataSocket);
+        connection.requestDone();
+        if (connection.isKeepAlive()) {
+          dataSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+        }
+      } while (connection.isKeepAlive() && connection.awaitData());
+    } catch (IOException ioe) {
+      System.out.println("HTTPServerSocket handleIncomingRequest IOException: "+ioe);
+    } finally {
+      currentConnection.set(null);
+    }
     try {
       dataSocket.close();
     } catch (IOException ioe) {
@@ -92,6 +145,22 @@ public class HTTPServerSocket extends TCPServerSocket implements CommunicationsS
     }
   }
 
+  /**
+   * Returns the connection handled by the current thread for the given socket.
+   * A socket that is not served by handleIncomingRequest gets a connection
+   * that won't be kept alive.
+   *
+   * @param socket Socket the request is coming from
+   * @return the connection wrapping the socket
+   */
+  private PersistentConnection getConnection(Socket socket) {
+    PersistentConnection connection = (PersistentConnection) currentConnection.get();
+    if (connection == null || connection.getSocket() != socket) {
+      connection = new PersistentConnection(socket);
+    }
+    return connection;
+  }
+
   /** 
    * Method that takes a reply message and adds the necessary HTTP protocol
    *
@@ -101,22 +170,56 @@ public class HTTPServerSocket extends TCPServerSocket implements CommunicationsS
    *		can not be added
    */
   public String addReplyProtocol(String data) throws ProtocolException {
+    StringBuffer sb = new StringBuffer();
+    sb.append(getReplyHeader(getByteLength(data), ParserObject.getMessageContentType(data)));
+    sb.append(data);
+    //commObject.println("\nHTTPServerSocket addReplyProtocol:\n"+sb.toString());
+    return (sb.toString());
+  }
+
+  /** 
+   * Method that writes the HTTP protocol followed by the reply message
+   *
+   * @param reply Encoded reply to a received request
+   * @param contentType Content type of the encoded reply
+   * @param out Writer to write the reply with the added HTTP protocol to
+   * @exception context.arch.comm.protocol.ProtocolException if the protocol
+   *		can not be added
+   * @exception java.io.IOException if the writer fails
+   */
+  public void addReplyProtocol(CharArrayWriter reply, String contentType, Writer out) throws ProtocolException, IOException {
+    out.write(getReplyHeader(getByteLength(reply), contentType));
+    reply.writeTo(out);
+  }
+
+  /** 
+   * Returns the HTTP header of a reply
+   *
+   * @param length Length of the reply in bytes
+   * @param contentType Content type of the reply
+   * @return the HTTP header, ending with an empty line
+   */
+  private String getReplyHeader(int length, String contentType) {
     StringBuffer sb = new StringBuffer();
     sb.append("HTTP/1.0 200 OK\r\n");
     Date now = new Date();
     sb.append("Date: "+now+"\r\n");
     sb.append("Server: context/1.0\r\n");
-    sb.append("Content-type: text/xml\r\n");
-    sb.append("Content-length: "+data.length()+"\r\n\r\n"); // AKD added
-    sb.append(data);
-    //commObject.println("\nHTTPServerSocket addReplyProtocol:\n"+sb.toString());
-    return (sb.toString());
+    PersistentConnection connection = (PersistentConnection) currentConnection.get();
+    if (connection != null && connection.isKeepAlive()) {
+      sb.append(getKeepAliveHeaders(connection.getRequests()));
+    }
+    sb.append("Content-type: "+contentType+"; charset="+REPLY_CHARSET+"\r\n");
+    sb.append("Accept: "+ParserObject.ACCEPT+"\r\n");
+    sb.append("Content-length: "+length+"\r\n\r\n"); // AKD added
+    return sb.toString();
   }
 
   /** 
    * Method that strips the HTTP protocol from a request message.  This only
    * deals with GET and POST headers.  If any other header is received, it will
-   * throw a ProtocolException
+   * throw a ProtocolException.  The body of a POST request is read in the
+   * buffer of the connection and decoded from it when the request is handled.
    *
    * @param data Socket the request is coming from
    * @return the request with the HTTP protocol stripped away
@@ -126,98 +229,258 @@ public class HTTPServerSocket extends TCPServerSocket implements CommunicationsS
   public RequestData stripRequestProtocol(Socket data) throws ProtocolException {
     String method;
     String version = "";
-    BufferedReader bufferedReader = null;
+    PersistentConnection connection = getConnection(data);
     try {
-      bufferedReader = new BufferedReader(new InputStreamReader(data.getInputStream()), 2048);
-      String get = bufferedReader.readLine();
+      String get = connection.readLine();
+      // skip the end of line left after the previous request on a kept-alive connection
+      while (get != null && get.trim().equals("")) {
+        get = connection.readLine();
+      }
+      if (get == null) {
+        System.out.println("HTTPServerSocket stripRequestProtocol: connection closed");
+        throw new ProtocolException();
+      }
       StringTokenizer tokenizer = new StringTokenizer(get);
-      int bytesRead = 0;
-      int bytesReadThisTime = 0;
-      char [] tempdata;
 
       method = tokenizer.nextToken();
-      if (method.equals("GET")) { 
-        String file= tokenizer.nextToken();
-        if (tokenizer.hasMoreTokens()) {
-          version = tokenizer.nextToken();
+      if (! method.equals(GET) && ! method.equals(POST)) {
+        System.out.println("HTTPServerSocket stripRequestProtocol: invalid protocol use");
+        throw new ProtocolException();
+      }
+      String file= tokenizer.nextToken();
+      if (tokenizer.hasMoreTokens()) {
+        version = tokenizer.nextToken();
+      }
+      // DS, 10/27/1998: I found out that some clients don't capitalize Content-Length correctly.
+      // Thus, the headers are compared ignoring case.
+      int length = -1;
+      String connectionHeader = null;
+      String accept = null;
+      String contentType = null;
+      while ((get = connection.readLine()) != null) {
+        if (get.length() == 0) {
+          break;
         }
-    
-        while ((get = bufferedReader.readLine()) != null) {
-          if (get.trim().equals("")) {
-            break;
+        if (isHeader(get, "Content-Length:")) {
+          try {
+            length = Integer.parseInt(get.substring(15).trim());
+          } catch (NumberFormatException nfe) {
+            System.out.println("HTTPServerSocket <stripRequestProtocol> RequestServerSocket run error: "+nfe);
+            throw new ProtocolException();
           }
         }
-        //commObject.println("HTTPServerSocket stripRequestProtocol:GET\n"+file);
-        return new RequestData(GET,file,null);
-      }
-      else if (method.equals(POST)) {
-        String file= tokenizer.nextToken();
-        if (tokenizer.hasMoreTokens()) {
-          version = tokenizer.nextToken();
+        else if (isHeader(get, "Connection:")) {
+          connectionHeader = get.substring(11).trim();
+        }
+        else if (isHeader(get, "Accept:")) {
+          accept = get.substring(7).trim();
         }
-        // DS, 10/27/1998: I found out that some clients don't capitalize Content-Length correctly.
-        // Thus, I've modified the following line from:
-        // while (!(get.startsWith("Content-Length:"))) { to:
-        while (!(get.toLowerCase().startsWith("content-length:"))) {
-          get = bufferedReader.readLine();
+        else if (isHeader(get, "Content-Type:")) {
+          contentType = get.substring(13).trim();
         }
-        int length = 0;
-        try {
-          length = new Integer(get.substring(15).trim()).intValue();
-        } catch (NumberFormatException nfe) {
-          System.out.println("HTTPServerSocket <stripReplyProtocol> RequestServerSocket run error: "+nfe);
+      }
+
+      RequestData request;
+      if (method.equals(GET)) {
+        //commObject.println("HTTPServerSocket stripRequestProtocol:GET\n"+file);
+        request = new RequestData(GET,file,null);
+      }
+      else {
+        if (length < 0) {
+          System.out.println("HTTPServerSocket stripRequestProtocol: no Content-Length");
           throw new ProtocolException();
         }
+        // the request is handled before the next one is read, so the buffer of the connection can be used
+        byte[] body = connection.readBody(length, connection == currentConnection.get());
+        request = new RequestData(RequestData.DECODE, file,
+                                  getReader(body, length, getCharset(contentType, REQUEST_CHARSET)));
+      }
+      setKeepAlive(connection, version, connectionHeader);
+      request.setAccept(accept);
+      return request;
+    } catch (IOException ioe) {
+        System.out.println("HTTPServerSocket stripRequestProtocol IOException: "+ioe);
+        throw new ProtocolException();
+    }
+  }
 
-        if (DEBUG) {
+  /**
+   * Returns true if a header line is the given header, ignoring case
+   *
+   * @param line The header line
+   * @param header The header name, followed by ':'
+   * @return whether the line starts with the header
+   */
+  static boolean isHeader(String line, String header) {
+    return line.regionMatches(true, 0, header, 0, header.length());
+  }
+
+  /**
+   * Returns the charset given in a Content-Type header
+   *
+   * @param contentType The value of the Content-Type header, or null
+   * @param defaultCharset The charset to return if there is none in the header
+   * @return the charset
+   */
+  static String getCharset(String contentType, String defaultCharset) {
+    if (contentType != null) {
+      int index = contentType.toLowerCase().indexOf("charset=");
+      if (index >= 0) {
+        String charset = contentType.substring(index + 8).trim();
+        int end = charset.indexOf(';');
+        if (end >= 0) {
+          charset = charset.substring(0, end).trim();
         }
-					
-        while (!(get.trim().equals(""))) {
-          get = bufferedReader.readLine();
+        if (charset.startsWith("\"") && charset.endsWith("\"") && charset.length() > 1) {
+          charset = charset.substring(1, charset.length() - 1);
         }
+        return charset;
+      }
+    }
+    return defaultCharset;
+  }
 
-        char[] postdata = new char[length];
-        
-        tempdata = new char [length];
-
-        while (bytesRead < length) {
-          if (bufferedReader.ready()){
-            int ix = bytesRead;	// index to current end of tempdata
-
-            bytesReadThisTime = bufferedReader.read(postdata, 0, length);  // DS: check we've read what we should
-            bytesRead += bytesReadThisTime;
-        		
-            if (DEBUG) {
-              System.out.println("HTTPServerSocket <stripReplyProtocol> read " + bytesReadThisTime + " more bytes, "+bytesRead);
-            }
-		
-            for (int i = 0; i < bytesReadThisTime; i++) {
-              tempdata[ix + i] = postdata[i];
-            }
-
-            postdata = new char[length];
-
-//          Not sure why this is commented out // Daniel, 9/30/1998
-//            if (bytesRead < length) {
-//              System.out.println ("HTTPServerSocket stripRequestProtocol: could read only " + bytesRead + " bytes instead of " + length);
-//              throw new ProtocolException ();
-//            }
-          }
-        }
+  /**
+   * Returns a reader decoding the characters of a message body as they are read
+   *
+   * @param body The array holding the body
+   * @param length The length of the body in bytes
+   * @param charset The charset of the body, or null for the default charset
+   * @return the reader of the body
+   * @exception java.io.UnsupportedEncodingException if the charset isn't supported
+   */
+  static Reader getReader(byte[] body, int length, String charset) throws UnsupportedEncodingException {
+    InputStream in = new ByteArrayInputStream(body, 0, length);
+    if (charset == null) {
+      return new InputStreamReader(in);
+    }
+    return new InputStreamReader(in, charset);
+  }
+
+  /**
+   * Returns the number of bytes of a reply written in the REPLY_CHARSET
+   *
+   * @param reply The reply
+   * @return the number of bytes of the reply
+   */
+  static int getByteLength(CharArrayWriter reply) {
+    ByteCounter counter = new ByteCounter();
+    try {
+      // writeTo passes the internal array of the reply, without copying it
+      reply.writeTo(counter);
+    } catch (IOException ioe) {
+      // ByteCounter doesn't throw any
+    }
+    return counter.count;
+  }
 
-        String readerData = new String(tempdata);
-	      StringReader reader = new StringReader(readerData);
-        //commObject.println("\nHTTPServerSocket stripRequestProtocol -POST- file:\n"+ file + "\ndata:\n"+readerData);
-        return new RequestData(RequestData.DECODE,file, reader);
+  /**
+   * Returns the number of bytes of a reply written in the REPLY_CHARSET
+   *
+   * @param reply The reply
+   * @return the number of bytes of the reply
+   */
+  static int getByteLength(String reply) {
+    ByteCounter counter = new ByteCounter();
+    counter.write(reply, 0, reply.length());
+    return counter.count;
+  }
+
+  /**
+   * Writer counting the number of bytes of the characters written to it
+   * once encoded in UTF-8, the REPLY_CHARSET
+   */
+  private static class ByteCounter extends Writer {
+
+    /**
+     * The number of bytes counted
+     */
+    int count = 0;
+
+    /**
+     * Counts the bytes of the given characters
+     */
+    public void write(char[] chars, int offset, int length) {
+      for (int i = offset; i < offset + length; i++) {
+        count(chars[i]);
+      }
+    }
+
+    /**
+     * Counts the bytes of the given characters
+     */
+    public void write(String text, int offset, int length) {
+      for (int i = offset; i < offset + length; i++) {
+        count(text.charAt(i));
+      }
+    }
+
+    // a surrogate pair is 4 bytes, 2 per surrogate
+    private void count(char c) {
+      if (c < 0x80) {
+        count += 1;
+      }
+      else if (c < 0x800 || (c >= 0xD800 && c <= 0xDFFF)) {
+        count += 2;
       }
       else {
-        System.out.println("HTTPServerSocket stripRequestProtocol: invalid protocol use");
-        throw new ProtocolException();
+        count += 3;
       }
-    } catch (IOException ioe) {
-        System.out.println("HTTPServerSocket stripRequestProtocol IOException: "+ioe);
-        throw new ProtocolException();
     }
+
+    /**
+     * Does nothing, nothing is written
+     */
+    public void flush() {
+    }
+
+    /**
+     * Does nothing, nothing is written
+     */
+    public void close() {
+    }
+  }
+
+  /**
+   * Decides whether the connection is kept open after the current request.
+   *
+   * @param connection The connection the request was received on
+   * @param version The HTTP version of the request
+   * @param connectionHeader The value of the Connection header, or null
+   * @see #isKeepAliveRequested(String,String)
+   */
+  private void setKeepAlive(PersistentConnection connection, String version, String connectionHeader) {
+    connection.setKeepAlive(KEEP_ALIVE && isKeepAliveRequested(version, connectionHeader)
+                            && connection == currentConnection.get()
+                            && connection.getRequests() + 1 < MAX_KEEP_ALIVE_REQUESTS);
+  }
+
+  /**
+   * Returns whether a client asks for its connection to be kept open.
+   * HTTP/1.1 connections are persistent unless the client sends
+   * "Connection: close", HTTP/1.0 connections only if the client sends
+   * "Connection: keep-alive".
+   *
+   * @param version The HTTP version of the request
+   * @param connectionHeader The value of the Connection header, or null
+   * @return true if the client wants the connection kept open
+   */
+  static boolean isKeepAliveRequested(String version, String connectionHeader) {
+    if (version.equals("HTTP/1.1")) {
+      return (connectionHeader == null) || ! connectionHeader.equalsIgnoreCase("close");
+    }
+    return (connectionHeader != null) && connectionHeader.equalsIgnoreCase("keep-alive");
+  }
+
+  /**
+   * Returns the headers announcing a kept-alive connection in a reply
+   *
+   * @param requests The number of requests already served on the connection
+   * @return the keep-alive headers
+   */
+  static String getKeepAliveHeaders(int requests) {
+    return "Connection: keep-alive\r\n"
+      + "Keep-Alive: timeout="+(KEEP_ALIVE_TIMEOUT/1000)+", max="+(MAX_KEEP_ALIVE_REQUESTS - requests - 1)+"\r\n";
   }
 
   /** 
@@ -235,14 +498,44 @@ public class HTTPServerSocket extends TCPServerSocket implements CommunicationsS
   /** 
    * This method generates an fatal message if a request can't
    * be handled properly, to the point where no contextual error message 
-   * can be sent as the reply.  NOT IMPLEMENTED YET, CURRENTLY RETURNS
-   * EMPTY STRING - AKD
+   * can be sent as the reply.  The message is an empty error reply that
+   * closes the connection, so a client keeping the connection alive doesn't
+   * wait for a reply that won't come.
    *
    * @return fatal error message
    * @see #getErrorMessage()
    */
   public String getFatalMessage() {
-    return new String("");
+    PersistentConnection connection = (PersistentConnection) currentConnection.get();
+    if (connection != null) {
+      connection.setKeepAlive(false);
+    }
+    return getFatalReply();
+  }
+
+  /**
+   * Returns an empty error reply that closes the connection
+   *
+   * @return the HTTP error reply
+   */
+  static String getFatalReply() {
+    return getErrorReply("500 Internal Server Error");
+  }
+
+  /**
+   * Returns an empty reply with the given status that closes the connection
+   *
+   * @param status Status code and reason phrase of the reply
+   * @return the HTTP error reply
+   */
+  static String getErrorReply(String status) {
+    StringBuffer sb = new StringBuffer();
+    sb.append("HTTP/1.0 "+status+"\r\n");
+    sb.append("Date: "+new Date()+"\r\n");
+    sb.append("Server: context/1.0\r\n");
+    sb.append("Connection: close\r\n");
+    sb.append("Content-length: 0\r\n\r\n");
+    return sb.toString();
   }
 
   /**
@@ -0,0 +1,341 @@
+package context.arch.comm.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+/**
+ * This class keeps the state of a connection handled by the
+ * NIOHTTPServerSocket: the bytes received and not yet parsed, the reply
+ * being written, and the keep-alive status of the connection.
+ *
+ * The requests are framed with their Content-Length, so several requests
+ * can be received on the same connection.
+ *
+ * @see context.arch.comm.protocol.NIOHTTPServerSocket
+ */
+public class NIOConnection {
+
+  /**
+   * The initial size of the input buffer
+   */
+  public static final int BUFFER_SIZE = 2048;
+
+  /**
+   * The maximum size of the request line and headers of a request is 8 KB
+   */
+  public static int MAX_HEADER_SIZE = 8192;
+
+  /**
+   * The maximum size of the body of a request is 4 MB
+   */
+  public static int MAX_BODY_SIZE = 4 * 1024 * 1024;
+
+  /**
+   * The charset the request headers are read with
+   */
+  public static final String REQUEST_CHARSET = HTTPServerSocket.REQUEST_CHARSET;
+
+  private SocketChannel channel;
+  private ByteBuffer input;
+  private ByteBuffer output = null;
+  private int requests = 0;
+  private long lastUsed;
+  private boolean keepAlive = false;
+  private boolean busy = false;
+
+  /**
+   * Constructor for a connection accepted by the server
+   *
+   * @param channel The accepted channel, may be null when the connection
+   * is only used to parse requests read from a blocking socket
+   */
+  public NIOConnection(SocketChannel channel) {
+    this.channel = channel;
+    this.input = ByteBuffer.allocate(BUFFER_SIZE);
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the channel of the connection
+   *
+   * @return the socket channel
+   */
+  public SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * Reads the available bytes from the channel into the input buffer
+   *
+   * @return the number of bytes read, -1 if the channel was closed
+   * @exception IOException if the channel can't be read
+   */
+  public int read() throws IOException {
+    if (! input.hasRemaining()) {
+      grow(input.capacity());
+    }
+    lastUsed = System.currentTimeMillis();
+    return channel.read(input);
+  }
+
+  /**
+   * Appends bytes read from a blocking stream to the input buffer
+   *
+   * @param bytes The bytes read
+   * @param offset The position of the first byte
+   * @param length The number of bytes
+   */
+  public void append(byte[] bytes, int offset, int length) {
+    if (input.remaining() < length) {
+      grow(length);
+    }
+    input.put(bytes, offset, length);
+  }
+
+  // Makes room for at least size more bytes in the input buffer
+  private void grow(int size) {
+    ByteBuffer bigger = ByteBuffer.allocate(Math.max(input.capacity() * 2, input.position() + size));
+    input.flip();
+    bigger.put(input);
+    input = bigger;
+  }
+
+  /**
+   * Parses the next complete request in the input buffer and removes it from
+   * the buffer. Returns null if the request hasn't been completely received yet.
+   *
+   * @return the request with the HTTP protocol stripped away, or null
+   * @exception context.arch.comm.protocol.RequestTooLargeException if the headers
+   *		are larger than MAX_HEADER_SIZE or the body larger than MAX_BODY_SIZE
+   * @exception context.arch.comm.protocol.ProtocolException if the request isn't a
+   *		valid GET or POST request
+   */
+  public RequestData parseRequest() throws ProtocolException {
+    byte[] bytes = input.array();
+    int limit = input.position();
+    int start = 0;
+    // skip the end of line left after the previous request
+    while (start < limit && (bytes[start] == '\r' || bytes[start] == '\n')) {
+      start++;
+    }
+    int headersEnd = -1;
+    int bodyStart = -1;
+    for (int i = start; i < limit && headersEnd < 0; i++) {
+      if (bytes[i] == '\n') {
+        if (i + 1 < limit && bytes[i+1] == '\n') {
+          headersEnd = i;
+          bodyStart = i + 2;
+        }
+        else if (i + 2 < limit && bytes[i+1] == '\r' && bytes[i+2] == '\n') {
+          headersEnd = i;
+          bodyStart = i + 3;
+        }
+      }
+    }
+    if (headersEnd < 0) {
+      if (limit - start > MAX_HEADER_SIZE) {
+        throw new RequestTooLargeException("headers larger than "+MAX_HEADER_SIZE+" bytes");
+      }
+      discard(start);
+      return null;
+    }
+    if (headersEnd - start > MAX_HEADER_SIZE) {
+      throw new RequestTooLargeException("headers larger than "+MAX_HEADER_SIZE+" bytes");
+    }
+
+    String headers;
+    try {
+      headers = new String(bytes, start, headersEnd - start, REQUEST_CHARSET);
+    } catch (java.io.UnsupportedEncodingException uee) {
+      throw new ProtocolException();
+    }
+    StringTokenizer lines = new StringTokenizer(headers, "\r\n");
+    if (! lines.hasMoreTokens()) {
+      throw new ProtocolException();
+    }
+    StringTokenizer tokenizer = new StringTokenizer(lines.nextToken());
+    if (! tokenizer.hasMoreTokens()) {
+      throw new ProtocolException();
+    }
+    String method = tokenizer.nextToken();
+    if (! tokenizer.hasMoreTokens()) {
+      throw new ProtocolException();
+    }
+    String file = tokenizer.nextToken();
+    String version = "";
+    if (tokenizer.hasMoreTokens()) {
+      version = tokenizer.nextToken();
+    }
+    int length = -1;
+    String connectionHeader = null;
+    String accept = null;
+    String contentType = null;
+    while (lines.hasMoreTokens()) {
+      String line = lines.nextToken();
+      if (HTTPServerSocket.isHeader(line, "Content-Length:")) {
+        try {
+          length = new Integer(line.substring(15).trim()).intValue();
+        } catch (NumberFormatException nfe) {
+          System.out.println("NIOConnection parseRequest error: "+nfe);
+          throw new ProtocolException();
+        }
+      }
+      else if (HTTPServerSocket.isHeader(line, "Connection:")) {
+        connectionHeader = line.substring(11).trim();
+      }
+      else if (HTTPServerSocket.isHeader(line, "Accept:")) {
+        accept = line.substring(7).trim();
+      }
+      else if (HTTPServerSocket.isHeader(line, "Content-Type:")) {
+        contentType = line.substring(13).trim();
+      }
+    }
+
+    RequestData data;
+    if (method.equals(HTTPServerSocket.GET)) {
+      data = new RequestData(HTTPServerSocket.GET, file, null);
+      discard(bodyStart);
+    }
+    else if (method.equals(HTTPServerSocket.POST)) {
+      if (length < 0) {
+        System.out.println("NIOConnection parseRequest: no Content-Length");
+        throw new ProtocolException();
+      }
+      if (length > MAX_BODY_SIZE) {
+        throw new RequestTooLargeException("body of "+length+" bytes larger than "+MAX_BODY_SIZE);
+      }
+      if (limit - bodyStart < length) {
+        discard(start);
+        return null;
+      }
+      // the input buffer is reused for the next requests: the body is copied
+      // as bytes and decoded when the request is handled
+      byte[] body = new byte[length];
+      System.arraycopy(bytes, bodyStart, body, 0, length);
+      try {
+        data = new RequestData(RequestData.DECODE, file,
+                               HTTPServerSocket.getReader(body, length,
+                                                          HTTPServerSocket.getCharset(contentType, REQUEST_CHARSET)));
+      } catch (java.io.UnsupportedEncodingException uee) {
+        System.out.println("NIOConnection parseRequest error: "+uee);
+        throw new ProtocolException();
+      }
+      discard(bodyStart + length);
+    }
+    else {
+      System.out.println("NIOConnection parseRequest: invalid protocol use");
+      throw new ProtocolException();
+    }
+    data.setAccept(accept);
+    keepAlive = HTTPServerSocket.KEEP_ALIVE
+      && HTTPServerSocket.isKeepAliveRequested(version, connectionHeader)
+      && requests + 1 < HTTPServerSocket.MAX_KEEP_ALIVE_REQUESTS;
+    return data;
+  }
+
+  // Removes the first count bytes of the input buffer
+  private void discard(int count) {
+    if (count > 0) {
+      input.flip();
+      input.position(count);
+      input.compact();
+    }
+  }
+
+  /**
+   * Sets the reply to write on the channel
+   *
+   * @param output The encoded reply
+   */
+  public void setOutput(ByteBuffer output) {
+    this.output = output;
+  }
+
+  /**
+   * Writes as much of the reply as the channel accepts
+   *
+   * @return true if the whole reply has been written
+   * @exception IOException if the channel can't be written
+   */
+  public boolean write() throws IOException {
+    channel.write(output);
+    lastUsed = System.currentTimeMillis();
+    if (output.hasRemaining()) {
+      return false;
+    }
+    output = null;
+    requests++;
+    return true;
+  }
+
+  /**
+   * Returns the number of requests served on this connection
+   *
+   * @return number of requests served
+   */
+  public int getRequests() {
+    return requests;
+  }
+
+  /**
+   * Returns whether the connection should be kept open after the current request
+   *
+   * @return true if the connection should be kept open
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Sets whether the connection should be kept open after the current request
+   *
+   * @param keepAlive true if the connection should be kept open
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * Returns whether a request of this connection is being handled
+   *
+   * @return true if a request is being handled
+   */
+  public boolean isBusy() {
+    return busy;
+  }
+
+  /**
+   * Sets whether a request of this connection is being handled
+   *
+   * @param busy true if a request is being handled
+   */
+  public void setBusy(boolean busy) {
+    this.busy = busy;
+  }
+
+  /**
+   * Returns true if the connection has not been used for the given time
+   *
+   * @param idleTimeout Idle time in milliseconds
+   * @return whether the connection has been idle longer than idleTimeout
+   */
+  public boolean isExpired(long idleTimeout) {
+    return (! busy) && (System.currentTimeMillis() - lastUsed) > idleTimeout;
+  }
+
+  /**
+   * Closes the connection
+   */
+  public void close() {
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException ioe) {
+      System.out.println("NIOConnection close error: "+ioe);
+    }
+  }
+
+}
@@ -0,0 +1,570 @@
+package context.arch.comm.protocol;
+
+import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Vector;
+
+import context.arch.comm.CommunicationsServer;
+import context.arch.comm.CommunicationsObject;
+import context.arch.comm.DataObject;
+import context.arch.comm.language.ParserObject;
+import context.arch.comm.ExecutionMode;
+import context.arch.util.SynchFIFO;
+
+/**
+ * This class listens for and handles HTTP requests with a single selector
+ * thread and non-blocking channels, instead of a thread per connection like
+ * HTTPServerSocket. Complete requests are handed to a fixed pool of worker
+ * threads that run them through the CommunicationsObject; the replies are
+ * written back by the selector thread.
+ *
+ * It is selected by giving CommunicationsObject.NIO_HTTP_SERVER as the server
+ * class of the CommunicationsObject. Connections are kept alive like with
+ * HTTPServerSocket. When the ExecutionMode is VIRTUAL_THREADS, each request
+ * runs on its own virtual thread instead of a worker thread.
+ *
+ * @see context.arch.comm.CommunicationsServer
+ * @see context.arch.comm.protocol.HTTPServerSocket
+ * @see context.arch.comm.protocol.NIOConnection
+ */
+public class NIOHTTPServerSocket implements CommunicationsServer, Runnable {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * Default port for HTTP communications is 80
+   */
+  public static final int DEFAULT_PORT = 80;
+
+  /**
+   * The protocol being used is HTTP
+   */
+  public static final String PROTOCOL = "HTTP";
+
+  /**
+   * The default number of worker threads is 10
+   */
+  public static int DEFAULT_WORKERS_NUMBER = 10;
+
+  /**
+   * The maximum number of complete requests waiting for a worker is 100.
+   * When there are more, the connection of a new request is closed.
+   */
+  public static int MAX_QUEUED_REQUESTS = 100;
+
+  /**
+   * The time in milliseconds between two checks for idle connections
+   */
+  private static final long SWEEP_PERIOD = 1000;
+
+  private int port;
+  private CommunicationsObject commObject;
+  private Selector selector = null;
+  private ServerSocketChannel serverChannel = null;
+  private volatile Thread runner = null;
+  private int workersNumber;
+  private Vector workers = new Vector();
+
+  // Connections whose request is complete, waiting for a worker
+  private SynchFIFO requests = new SynchFIFO();
+  // Connections whose reply is ready, waiting for the selector thread
+  private Vector replies = new Vector();
+
+  // Put in the requests queue to stop a worker thread
+  private static final Object STOP = new Object();
+
+  // The connection handled by the current worker thread
+  private static ThreadLocal currentConnection = new ThreadLocal();
+
+  /**
+   * Basic constructor for NIOHTTPServerSocket
+   *
+   * @param object Handle of the generic instantiating communications object
+   * @see #DEFAULT_PORT
+   */
+  public NIOHTTPServerSocket(CommunicationsObject object) {
+    this(object, new Integer(DEFAULT_PORT));
+  }
+
+  /**
+   * Constructor for NIOHTTPServerSocket with the given port
+   *
+   * @param object Handle of the generic instantiating communications object
+   * @param port Port to use to receive communications on
+   */
+  public NIOHTTPServerSocket(CommunicationsObject object, Integer port) {
+    this.commObject = object;
+    this.port = port.intValue();
+    this.workersNumber = DEFAULT_WORKERS_NUMBER;
+  }
+
+  /**
+   * Opens the server channel, and starts the selector thread and the
+   * worker threads.
+   */
+  public void start() {
+    if (runner == null) {
+      try {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      } catch (IOException ioe) {
+        System.out.println("NIOHTTPServerSocket init error: "+ioe + " on port number "+port);
+        return;
+      }
+      for (int i = 0; i < Math.max(1, workersNumber) && ! ExecutionMode.isThreadPerMessage(); i++) {
+        Thread worker = new Thread() {
+          public void run() {
+            work();
+          }
+        };
+        worker.setName("NIOHTTPServerSocket worker#" + i);
+        worker.setDaemon(true);
+        worker.start();
+        workers.addElement(worker);
+      }
+      runner = new Thread(this);
+      runner.start();
+    }
+  }
+
+  /**
+   * The selector loop: accepts connections, reads requests until they are
+   * complete, hands them to the workers and writes the replies.
+   */
+  public void run() {
+    long lastSweep = System.currentTimeMillis();
+    while (runner != null) {
+      try {
+        selector.select(SWEEP_PERIOD);
+        registerReplies();
+        Iterator keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = (SelectionKey) keys.next();
+          keys.remove();
+          if (! key.isValid()) {
+            continue;
+          }
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            }
+            else if (key.isReadable()) {
+              read(key);
+            }
+            else if (key.isWritable()) {
+              write(key);
+            }
+          } catch (RuntimeException re) {
+            // only this connection is dropped, the selector thread goes on
+            System.out.println("NIOHTTPServerSocket run Exception: "+re);
+            if (key.attachment() != null) {
+              close(key);
+            }
+          }
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastSweep > SWEEP_PERIOD) {
+          closeIdleConnections();
+          lastSweep = now;
+        }
+      } catch (IOException ioe) {
+        System.out.println("NIOHTTPServerSocket run IOException: "+ioe);
+      }
+    }
+    closeAll();
+  }
+
+  // Closes the server channel and all the connections, once the loop has stopped
+  private void closeAll() {
+    Iterator keys = selector.keys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = (SelectionKey) keys.next();
+      if (key.attachment() != null) {
+        ((NIOConnection) key.attachment()).close();
+      }
+    }
+    try {
+      serverChannel.close();
+      selector.close();
+    } catch (IOException ioe) {
+      System.out.println("NIOHTTPServerSocket quit error: "+ioe);
+    }
+  }
+
+  // Accepts a new connection and waits for its requests
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel != null) {
+      channel.configureBlocking(false);
+      channel.register(selector, SelectionKey.OP_READ, new NIOConnection(channel));
+    }
+  }
+
+  // Reads the available bytes and dispatches the request once it is complete
+  private void read(SelectionKey key) {
+    NIOConnection connection = (NIOConnection) key.attachment();
+    try {
+      if (connection.read() < 0) {
+        close(key);
+        return;
+      }
+    } catch (IOException ioe) {
+      close(key);
+      return;
+    }
+    dispatch(key);
+  }
+
+  // Hands the next complete request of the connection to a worker
+  private void dispatch(SelectionKey key) {
+    NIOConnection connection = (NIOConnection) key.attachment();
+    RequestData data;
+    try {
+      data = connection.parseRequest();
+    } catch (RequestTooLargeException rtle) {
+      System.out.println("NIOHTTPServerSocket dispatch: "+rtle.getMessage()+", closing connection");
+      reject(key, "413 Request Entity Too Large");
+      return;
+    } catch (ProtocolException pe) {
+      System.out.println("NIOHTTPServerSocket dispatch: invalid request, closing connection");
+      reject(key, "400 Bad Request");
+      return;
+    }
+    if (data != null) {
+      // stop reading until the reply has been written
+      key.interestOps(0);
+      connection.setBusy(true);
+      final Object[] request = new Object[] {key, data};
+      if (ExecutionMode.isThreadPerMessage()) {
+        ExecutionMode.startThread(new Runnable() {
+          public void run() {
+            handle(request);
+          }
+        }, "NIOHTTPServerSocket request");
+      }
+      else if (requests.size() >= MAX_QUEUED_REQUESTS) {
+        System.out.println("NIOHTTPServerSocket dispatch: too many queued requests, closing connection");
+        close(key);
+      }
+      else {
+        requests.put(request);
+      }
+    }
+  }
+
+  // Writes an error reply, without reading more of the request, and closes
+  // the connection once the reply is written
+  private void reject(SelectionKey key, String status) {
+    NIOConnection connection = (NIOConnection) key.attachment();
+    connection.setKeepAlive(false);
+    try {
+      connection.setOutput(ByteBuffer.wrap(HTTPServerSocket.getErrorReply(status).getBytes(HTTPServerSocket.REPLY_CHARSET)));
+    } catch (java.io.UnsupportedEncodingException uee) {
+      close(key);
+      return;
+    }
+    connection.setBusy(true);
+    key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  // Writes the reply and reads the next request if the connection is kept alive
+  private void write(SelectionKey key) {
+    NIOConnection connection = (NIOConnection) key.attachment();
+    try {
+      if (! connection.write()) {
+        return;
+      }
+    } catch (IOException ioe) {
+      close(key);
+      return;
+    }
+    connection.setBusy(false);
+    if (connection.isKeepAlive()) {
+      key.interestOps(SelectionKey.OP_READ);
+      // a following request may already have been received
+      dispatch(key);
+    }
+    else {
+      close(key);
+    }
+  }
+
+  // Asks the selector to write the replies prepared by the workers
+  private void registerReplies() {
+    synchronized (replies) {
+      for (int i = 0; i < replies.size(); i++) {
+        SelectionKey key = (SelectionKey) replies.elementAt(i);
+        if (key.isValid()) {
+          key.interestOps(SelectionKey.OP_WRITE);
+        }
+      }
+      replies.removeAllElements();
+    }
+  }
+
+  // Closes the connections that have been idle for too long
+  private void closeIdleConnections() {
+    Iterator keys = selector.keys().iterator();
+    while (keys.hasNext()) {
+      SelectionKey key = (SelectionKey) keys.next();
+      NIOConnection connection = (NIOConnection) key.attachment();
+      if (connection != null && connection.isExpired(HTTPServerSocket.KEEP_ALIVE_TIMEOUT)) {
+        close(key);
+      }
+    }
+  }
+
+  private void close(SelectionKey key) {
+    key.cancel();
+    ((NIOConnection) key.attachment()).close();
+  }
+
+  /**
+   * The loop run by the worker threads: each complete request is run through
+   * the CommunicationsObject and its reply is given back to the selector thread.
+   * The loop ends when quit() is called.
+   *
+   * @see context.arch.comm.CommunicationsObject#handleIncomingRequest(RequestData)
+   */
+  private void work() {
+    while (true) {
+      Object request = requests.getNext();
+      if (request == STOP) {
+        return;
+      }
+      handle((Object[]) request);
+    }
+  }
+
+  /**
+   * Runs a complete request through the CommunicationsObject and gives its
+   * reply back to the selector thread.  If the request fails with a runtime
+   * exception, the connection is closed once what was written of the reply
+   * has been sent.
+   *
+   * @param request The selection key of the connection and the RequestData
+   * @see context.arch.comm.CommunicationsObject#handleIncomingRequest(RequestData)
+   */
+  private void handle(Object[] request) {
+    SelectionKey key = (SelectionKey) request[0];
+    NIOConnection connection = (NIOConnection) key.attachment();
+    currentConnection.set(connection);
+    ReplyStream reply = new ReplyStream();
+    try {
+      Writer out = new OutputStreamWriter(reply, HTTPServerSocket.REPLY_CHARSET);
+      commObject.handleIncomingRequest((RequestData) request[1], out);
+      out.flush();
+    } catch (IOException ioe) {
+      System.out.println("NIOHTTPServerSocket handle IOException: "+ioe);
+    } catch (RuntimeException re) {
+      System.out.println("NIOHTTPServerSocket handle Exception: "+re);
+      connection.setKeepAlive(false);
+    } finally {
+      currentConnection.set(null);
+    }
+    if (DEBUG) {
+      System.out.println("NIOHTTPServerSocket reply: " + reply);
+    }
+    connection.setOutput(reply.getByteBuffer());
+    synchronized (replies) {
+      replies.addElement(key);
+    }
+    selector.wakeup();
+  }
+
+  /**
+   * Stream the replies are written to, whose bytes are handed to the
+   * connection without being copied
+   */
+  private static class ReplyStream extends ByteArrayOutputStream {
+
+    /**
+     * Returns a buffer wrapping the bytes written to this stream
+     *
+     * @return the buffer of the bytes written
+     */
+    ByteBuffer getByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+
+  /**
+   * This stub method handles a request on a blocking socket that wasn't
+   * accepted by this server. It calls the equivalent method in the
+   * CommunicationsObject and then closes the socket.
+   *
+   * @param dataSocket Socket to receive HTTP data from
+   * @see context.arch.comm.CommunicationsObject#handleIncomingRequest(java.net.Socket)
+   */
+  public void handleIncomingRequest(Socket dataSocket) {
+    commObject.handleIncomingRequest(dataSocket);
+    try {
+      dataSocket.close();
+    } catch (IOException ioe) {
+      System.out.println("Couldn't close socket: "+ioe);
+    }
+  }
+
+  /**
+   * Method that strips the HTTP protocol from a request read on a blocking
+   * socket. It only deals with GET and POST requests.
+   *
+   * @param data Socket the request is coming from
+   * @return the request with the HTTP protocol stripped away
+   * @exception context.arch.comm.protocol.ProtocolException if the protocol
+   *		can not be stripped away
+   */
+  public RequestData stripRequestProtocol(Socket data) throws ProtocolException {
+    NIOConnection connection = new NIOConnection(null);
+    byte[] buffer = new byte[NIOConnection.BUFFER_SIZE];
+    try {
+      InputStream in = data.getInputStream();
+      RequestData request = null;
+      while (request == null) {
+        int read = in.read(buffer);
+        if (read < 0) {
+          System.out.println("NIOHTTPServerSocket stripRequestProtocol: connection closed");
+          throw new ProtocolException();
+        }
+        connection.append(buffer, 0, read);
+        request = connection.parseRequest();
+      }
+      return request;
+    } catch (IOException ioe) {
+      System.out.println("NIOHTTPServerSocket stripRequestProtocol IOException: "+ioe);
+      throw new ProtocolException();
+    }
+  }
+
+  /**
+   * Method that takes a reply message and adds the necessary HTTP protocol
+   *
+   * @param data Reply to a received request
+   * @return the reply with the added HTTP protocol
+   * @exception context.arch.comm.protocol.ProtocolException if the protocol
+   *		can not be added
+   */
+  public String addReplyProtocol(String data) throws ProtocolException {
+    return getReplyHeader(HTTPServerSocket.getByteLength(data), ParserObject.getMessageContentType(data)) + data;
+  }
+
+  /**
+   * Method that writes the HTTP protocol followed by the reply message
+   *
+   * @param reply Encoded reply to a received request
+   * @param contentType Content type of the encoded reply
+   * @param out Writer to write the reply with the added HTTP protocol to
+   * @exception context.arch.comm.protocol.ProtocolException if the protocol
+   *		can not be added
+   * @exception java.io.IOException if the writer fails
+   */
+  public void addReplyProtocol(CharArrayWriter reply, String contentType, Writer out) throws ProtocolException, IOException {
+    out.write(getReplyHeader(HTTPServerSocket.getByteLength(reply), contentType));
+    reply.writeTo(out);
+  }
+
+  /**
+   * Returns the HTTP header of a reply
+   *
+   * @param length Length of the reply in bytes
+   * @param contentType Content type of the reply
+   * @return the HTTP header, ending with an empty line
+   */
+  private String getReplyHeader(int length, String contentType) {
+    StringBuffer sb = new StringBuffer();
+    sb.append("HTTP/1.0 200 OK\r\n");
+    sb.append("Date: "+new Date()+"\r\n");
+    sb.append("Server: context/1.0\r\n");
+    NIOConnection connection = (NIOConnection) currentConnection.get();
+    if (connection != null && connection.isKeepAlive()) {
+      sb.append(HTTPServerSocket.getKeepAliveHeaders(connection.getRequests()));
+    }
+    sb.append("Content-type: "+contentType+"; charset="+HTTPServerSocket.REPLY_CHARSET+"\r\n");
+    sb.append("Accept: "+ParserObject.ACCEPT+"\r\n");
+    sb.append("Content-length: "+length+"\r\n\r\n");
+    return sb.toString();
+  }
+
+  /**
+   * This method generates an error message if a request can't
+   * be handled properly.  Returns an empty DataObject like HTTPServerSocket.
+   *
+   * @return error message in the form of a DataObject
+   * @see #getFatalMessage()
+   */
+  public DataObject getErrorMessage() {
+    return new DataObject();
+  }
+
+  /**
+   * This method generates an fatal message if a request can't
+   * be handled properly.  Returns an empty error reply that closes the
+   * connection, like HTTPServerSocket.
+   *
+   * @return fatal error message
+   * @see #getErrorMessage()
+   */
+  public String getFatalMessage() {
+    NIOConnection connection = (NIOConnection) currentConnection.get();
+    if (connection != null) {
+      connection.setKeepAlive(false);
+    }
+    return HTTPServerSocket.getFatalReply();
+  }
+
+  /**
+   * This method stops the server from receiving more data, closes all
+   * the connections and stops the worker threads.
+   */
+  public void quit() {
+    if (runner != null) {
+      runner = null;
+      selector.wakeup();
+      // the queued requests won't be answered, their connections are closed
+      requests.removeAll();
+      for (int i = 0; i < workers.size(); i++) {
+        requests.put(STOP);
+      }
+      workers.removeAllElements();
+    }
+  }
+
+  /**
+   * Sets the number of worker threads. Must be called before start().
+   *
+   * @param workersNumber The number of worker threads
+   */
+  public void setWorkersNumber(int workersNumber) {
+    this.workersNumber = workersNumber;
+  }
+
+  /**
+   * Method to get the communications protocol being used
+   *
+   * @return communications protocol being used
+   * @see #PROTOCOL
+   */
+  public String getProtocol() {
+    return PROTOCOL;
+  }
+
+}
@@ -0,0 +1,309 @@
+package context.arch.comm.protocol;
+
+import java.net.Socket;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+
+/**
+ * This class wraps a socket that may carry several HTTP requests and
+ * replies (HTTP keep-alive). It keeps the buffered input stream of the socket
+ * so that data read ahead for one message is not lost for the next one,
+ * and keeps track of the number of messages exchanged and of the last time
+ * the connection was used.
+ *
+ * The headers are read line by line, one byte per character, and the body
+ * of a message is read as bytes in a buffer that can be reused for the next
+ * message: the body is only converted to characters when it is decoded.
+ *
+ * @see context.arch.comm.protocol.ConnectionPool
+ * @see context.arch.comm.protocol.HTTPServerSocket
+ * @see context.arch.comm.protocol.HTTPClientSocket
+ */
+public class PersistentConnection {
+
+  /**
+   * The size of the buffer used to read from the socket
+   */
+  public static final int BUFFER_SIZE = 2048;
+
+  /**
+   * The charset of the header lines
+   */
+  public static final String HEADER_CHARSET = "ISO-8859-1";
+
+  private Socket socket;
+  private BufferedInputStream input = null;
+  // buffer of the header line being read
+  private byte[] line = new byte[128];
+  // buffer of the body of the current message, reused from one message to the next
+  private byte[] body = null;
+  private String host;
+  private int port;
+  private int requests = 0;
+  private long lastUsed;
+  private boolean keepAlive = false;
+  private boolean received = false;
+
+  /**
+   * Constructor for a connection that was accepted by a server socket
+   *
+   * @param socket The connected socket
+   */
+  public PersistentConnection(Socket socket) {
+    this(socket, null, -1);
+  }
+
+  /**
+   * Constructor for a connection that was opened to a remote server
+   *
+   * @param socket The connected socket
+   * @param host Hostname of the remote server
+   * @param port Port number of the remote server
+   */
+  public PersistentConnection(Socket socket, String host, int port) {
+    this.socket = socket;
+    this.host = host;
+    this.port = port;
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns the underlying socket
+   *
+   * @return the connected socket
+   */
+  public Socket getSocket() {
+    return socket;
+  }
+
+  /**
+   * Returns the buffered input stream of the socket. The same stream is
+   * returned for every message exchanged on this connection.
+   *
+   * @return the buffered input stream of the socket
+   * @exception IOException if the input stream of the socket can't be opened
+   */
+  public BufferedInputStream getInputStream() throws IOException {
+    if (input == null) {
+      input = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+    }
+    return input;
+  }
+
+  /**
+   * Reads a header line, without its end of line
+   *
+   * @return the line, or null if the connection was closed before a line
+   * @exception IOException if the socket can't be read
+   */
+  public String readLine() throws IOException {
+    BufferedInputStream in = getInputStream();
+    int length = 0;
+    int c = in.read();
+    if (c == -1) {
+      return null;
+    }
+    while (c != -1 && c != '\n') {
+      if (c != '\r') {
+        received = true;
+      }
+      if (length == line.length) {
+        byte[] bigger = new byte[line.length * 2];
+        System.arraycopy(line, 0, bigger, 0, length);
+        line = bigger;
+      }
+      line[length++] = (byte) c;
+      c = in.read();
+    }
+    if (length > 0 && line[length - 1] == '\r') {
+      length--;
+    }
+    return new String(line, 0, length, HEADER_CHARSET);
+  }
+
+  /**
+   * Reads the body of a message.
+   *
+   * @param length The length of the body in bytes
+   * @param reuse true to read the body in the buffer of the connection, which
+   * is overwritten by the next message; false to read it in a new array
+   * @return the array holding the body in its first length bytes
+   * @exception IOException if the socket can't be read or is closed before
+   * the end of the body
+   */
+  public byte[] readBody(int length, boolean reuse) throws IOException {
+    byte[] bytes;
+    if (! reuse) {
+      bytes = new byte[length];
+    }
+    else {
+      if (body == null || body.length < length) {
+        body = new byte[Math.max(length, BUFFER_SIZE)];
+      }
+      bytes = body;
+    }
+    BufferedInputStream in = getInputStream();
+    int read = 0;
+    // only read what belongs to this message: the next one may follow on the same connection
+    while (read < length) {
+      int n = in.read(bytes, read, length - read);
+      if (n < 0) {
+        throw new IOException("could read only " + read + " bytes instead of " + length);
+      }
+      read += n;
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the hostname of the remote server, or null for accepted connections
+   *
+   * @return hostname of the remote server
+   */
+  public String getHost() {
+    return host;
+  }
+
+  /**
+   * Returns the port number of the remote server, or -1 for accepted connections
+   *
+   * @return port number of the remote server
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns the key identifying the remote end point of this connection
+   *
+   * @return host:port of the remote server
+   */
+  public String getKey() {
+    return getKey(host, port);
+  }
+
+  /**
+   * Returns the key identifying a remote end point
+   *
+   * @param host Hostname of the remote server
+   * @param port Port number of the remote server
+   * @return host:port of the remote server
+   */
+  public static String getKey(String host, int port) {
+    return host + ":" + port;
+  }
+
+  /**
+   * Returns the number of messages completed on this connection
+   *
+   * @return number of messages completed
+   */
+  public int getRequests() {
+    return requests;
+  }
+
+  /**
+   * Notifies the connection that a request/reply exchange has been completed
+   */
+  public void requestDone() {
+    requests++;
+    received = false;
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Returns whether a header byte of the current message has been read.  The
+   * ends of line left after the previous message are not counted.
+   *
+   * @return true if the current message has started to be received
+   */
+  public boolean hasReceived() {
+    return received;
+  }
+
+  /**
+   * Returns the time this connection was last used
+   *
+   * @return time in milliseconds
+   */
+  public long getLastUsed() {
+    return lastUsed;
+  }
+
+  /**
+   * Returns true if the connection has not been used for the given time
+   *
+   * @param idleTimeout Idle time in milliseconds
+   * @return whether the connection has been idle longer than idleTimeout
+   */
+  public boolean isExpired(long idleTimeout) {
+    return (System.currentTimeMillis() - lastUsed) > idleTimeout;
+  }
+
+  /**
+   * Returns whether the connection should be kept open after the current message
+   *
+   * @return true if the connection should be kept open
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Sets whether the connection should be kept open after the current message
+   *
+   * @param keepAlive true if the connection should be kept open
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * Blocks until the next message starts on this connection, skipping the
+   * end of lines left after the previous message. The wait is bounded by
+   * the socket timeout.
+   *
+   * @return true if a new message is available, false if the connection was
+   * closed by the remote end or has been idle for too long
+   */
+  public boolean awaitData() {
+    try {
+      BufferedInputStream in = getInputStream();
+      while (true) {
+        in.mark(1);
+        int c = in.read();
+        if (c == -1) {
+          return false;
+        }
+        if (c != '\r' && c != '\n') {
+          in.reset();
+          return true;
+        }
+      }
+    } catch (IOException ioe) {
+      // includes SocketTimeoutException when the connection is idle
+      return false;
+    }
+  }
+
+  /**
+   * Closes the connection
+   */
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException ioe) {
+      System.out.println("PersistentConnection close error: "+ioe);
+    }
+  }
+
+  /**
+   * Returns a printable version of this object
+   *
+   * @return the printable string
+   */
+  public String toString() {
+    return "PersistentConnection socket=" + socket + " - requests=" + requests;
+  }
+
+}
@@ -10,6 +10,7 @@ public class RequestData {
   private String type = null;
   private String line = null;
   private Reader data = null;
+  private String accept = null;
 
   /**
    * Specifies that this type of request requires decoding
@@ -88,6 +89,25 @@ public class RequestData {
   public void setType(String type) {
     this.type = type;
   }
+
+  /**
+   * Returns the content types accepted by the sender of this data, as
+   * given by its HTTP Accept header, or null if unknown
+   *
+   * @return the accepted content types
+   */
+  public String getAccept() {
+    return accept;
+  }
+
+  /**
+   * Sets the content types accepted by the sender of this data
+   *
+   * @param accept The accepted content types
+   */
+  public void setAccept(String accept) {
+    this.accept = accept;
+  }
   
   /**
    * Returns a string version of this object
@@ -99,6 +119,7 @@ public class RequestData {
     sb.append ("type=" + this.type);
     sb.append ("line=" + this.line);
     sb.append ("data=" + this.data);
+    sb.append ("accept=" + this.accept);
     return sb.toString ();
   }
   
@@ -0,0 +1,20 @@
+package context.arch.comm.protocol;
+
+/**
+ * This class implements the RequestTooLargeException.  This exception is
+ * thrown when the headers or the body of a request received are larger
+ * than the server accepts.
+ *
+ * @see context.arch.comm.protocol.NIOConnection
+ */
+public class RequestTooLargeException extends ProtocolException {
+
+  /** 
+   * Constructor for RequestTooLargeException with error message
+   *
+   * @param message Error message
+   */
+  public RequestTooLargeException(String message) { 
+    super(message);
+  }
+}
@@ -26,6 +26,7 @@ public class TCPClientSocket {
   private Socket data = null;
   protected int portNumber;
   protected String remoteServer;
+  protected int timeout = 0;
 
   /**
    *  Default constructor for TCPClientSocket, with the default port and remote server hostname
@@ -95,4 +96,24 @@ public class TCPClientSocket {
   public int getPort() {
     return portNumber;
   }
+
+  /**
+   * Sets the time to wait for the connection to the remote host and for
+   * its reply
+   * 
+   * @param timeout Time in milliseconds, 0 for no limit
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Returns the time to wait for the connection to the remote host and for
+   * its reply
+   * 
+   * @return Time in milliseconds, 0 for no limit
+   */
+  public int getTimeout() {
+    return timeout;
+  }
 }
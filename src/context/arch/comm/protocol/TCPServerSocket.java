@@ -6,13 +6,16 @@ import java.io.IOException;
 import java.util.Hashtable;
 import java.util.Enumeration;
 
+import context.arch.comm.ExecutionMode;
+
 /**
  * This class implements a threaded serversocket that accepts TCP packets.
  * It does nothing with the TCP packets themselves but can be subclassed
  * to do real work.  Whenever it receives data, it clones itself.  The original
  * class listens for more new connections while the clone handles the received
- * data.
+ * data. The clone runs on a thread started according to the ExecutionMode.
  *
+ * @see context.arch.comm.ExecutionMode
  * @see java.lang.Runnable
  * @see java.lang.Cloneable
  */
@@ -98,8 +101,7 @@ public class TCPServerSocket implements Runnable, Cloneable {
           TCPServerSocket newSocket = (TCPServerSocket) clone();
           newSocket.serverSocket = null;
           newSocket.data = dataSocket;
-	    newSocket.runner = new Thread(newSocket);
-          newSocket.runner.start();
+          newSocket.runner = ExecutionMode.startThread(newSocket, "TCPServerSocket port " + portNumber);
         } catch (IOException ioe) {
             System.out.println("TCPServerSocket run IOexception: "+ioe);
         } catch (CloneNotSupportedException cnse) {
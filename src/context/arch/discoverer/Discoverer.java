@@ -7,6 +7,7 @@
 package context.arch.discoverer;
 
 import java.util.ArrayList;
+import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.Vector;
 import java.util.logging.Level;
@@ -29,6 +30,7 @@ import context.arch.discoverer.componentDescription.PortElement;
 import context.arch.discoverer.componentDescription.SubscriberElement;
 import context.arch.discoverer.lease.Lease;
 import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.service.Services;
 import context.arch.storage.Attributes;
 import context.arch.subscriber.AbstractSubscriber;
@@ -162,6 +164,14 @@ public class Discoverer extends Widget {
    */
   public static final String DISCOVERER_REGISTRATION = "discovererRegistration";
   
+  /**
+   * Message tag used by components to send to the discoverer the descriptions
+   * of several components in one message. Each description is a
+   * DISCOVERER_REGISTRATION, with a lease to register the component, or
+   * without lease to update it.
+   */
+  public static final String DISCOVERER_BATCH_REGISTRATION = "discovererBatchRegistration";
+  
   /**
    * Message tag used by components to unregister from the discoverer
    */
@@ -487,6 +497,12 @@ public class Discoverer extends Widget {
    */
   protected DiscovererMediator mediator;
   
+  /**
+   * The index of the discoverer subscribers, used to find the subscribers
+   * interested in a new component
+   */
+  protected SubscriptionIndex subscriptionIndex = new SubscriptionIndex();
+  
   /**
    * Constructor that sets up internal variables for maintaining
    * the list of discoverer attributes, callbacks, and services and setting up
@@ -676,6 +692,7 @@ public class Discoverer extends Widget {
    * @return DataObject containing the results of the executed method
    * @see #LOOKUP_DISCOVERER
    * @see #DISCOVERER_REGISTRATION
+   * @see #DISCOVERER_BATCH_REGISTRATION
    * @see #DISCOVERER_UNREGISTRATION
    * @see #DISCOVERER_UPDATE
    * @see #DISCOVERER_QUERY
@@ -692,6 +709,9 @@ public class Discoverer extends Widget {
     else if (methodType.equals(DISCOVERER_REGISTRATION)) {
       return componentRegistration(data);
     }
+    else if (methodType.equals(DISCOVERER_BATCH_REGISTRATION)) {
+      return componentsRegistration(data);
+    }
     else if (methodType.equals(DISCOVERER_UNREGISTRATION)) {
       return componentUnregistration(data);
     }
@@ -814,9 +834,143 @@ public class Discoverer extends Widget {
     return error.toDataObject();
   }
   
+  /**
+   * This method handles a DISCOVERER_BATCH_REGISTRATION message.
+   * It registers or updates all the components of the message with one
+   * call to the mediator, then checks the subscribers for the registered
+   * components.
+   * The reply contains the first error, or NO_ERROR, and the error of each
+   * component in a REGISTERER tag with its REGISTERER_ID.  A description
+   * without a valid REGISTERER is skipped, and reported with a
+   * MISSING_PARAMETER_ERROR in a REGISTERER tag without REGISTERER_ID.
+   *
+   * @param data The DataObject containing the descriptions of the components
+   * @return DataObject The error codes
+   * @see #DISCOVERER_BATCH_REGISTRATION
+   */
+  protected DataObject componentsRegistration (DataObject data) {
+    println("Discoverer - componentsRegistration");
+    Error error = new Error(Error.NO_ERROR);
+    DataObject component = data.getDataObject(ID);
+    Vector v = new Vector();
+    
+    if (component == null) {
+      error.setError(Error.INVALID_ID_ERROR);
+    }
+    else {
+      String resultId = (String)(component.getValue().firstElement());
+      if (!resultId.equals(getId())) {
+        error.setError(Error.INVALID_ID_ERROR);
+      }
+      else {
+        Vector comps = new Vector();
+        Vector leases = new Vector();
+        Vector registered = new Vector();
+        Vector skipped = new Vector();
+        Vector children = data.getChildren();
+        for (int i = 0; i < children.size(); i++) {
+          DataObject registration = (DataObject) children.elementAt(i);
+          if (! registration.getName().equals(DISCOVERER_REGISTRATION)) {
+            continue;
+          }
+          DataObject registerer = registration.getDataObject (Discoverer.REGISTERER);
+          ComponentDescription comp = null;
+          if (registerer != null) {
+            try {
+              comp = ComponentDescription.dataObjectToComponentDescription(registerer);
+            } catch (RuntimeException re) {
+              System.out.println("Discoverer componentsRegistration Exception: "+re);
+            }
+          }
+          if (comp == null || comp.id == null) {
+            // the other descriptions of the batch are still handled
+            Vector vComp = new Vector();
+            vComp.addElement(new Error(Error.MISSING_PARAMETER_ERROR).toDataObject());
+            skipped.addElement(new DataObject(REGISTERER, vComp));
+            continue;
+          }
+          DataObject lease = registration.getDataObject (Lease.LEASE);
+          comps.addElement(comp);
+          if (lease != null) {
+            leases.addElement(Lease.dataObjectToLease(lease));
+            registered.addElement(comp);
+          }
+          else {
+            leases.addElement(null);
+          }
+        }
+        Vector errors = mediator.addAll (comps, leases); // Add to the database
+        for (int i = 0; i < comps.size(); i++) {
+          Error compError = (Error) errors.elementAt(i);
+          if (error.getError().equals(Error.NO_ERROR)) {
+            error.setError(compError.getError());
+          }
+          Vector vComp = new Vector();
+          vComp.addElement(new DataObject(REGISTERER_ID, ((ComponentDescription) comps.elementAt(i)).id));
+          vComp.addElement(compError.toDataObject());
+          v.addElement(new DataObject(REGISTERER, vComp));
+        }
+        if (! skipped.isEmpty()) {
+          if (error.getError().equals(Error.NO_ERROR)) {
+            error.setError(Error.MISSING_PARAMETER_ERROR);
+          }
+          v.addAll(skipped);
+        }
+        checkSubscribers(new Callback(Discoverer.NEW_COMPONENT, null), registered);
+      }
+    }
+    v.insertElementAt(error.toDataObject(), 0);
+    return new DataObject(DISCOVERER_BATCH_REGISTRATION, v);
+  }
+  
+  /**
+   * This method allows to send a message to all subscribers whose interests are
+   * for the components newly registered together.  The components fitting
+   * each subscriber query are found in one pass over the batch, then each
+   * subscriber gets a message for each of its components.
+   *
+   * @param components The ComponentDescription objects newly registered
+   * @return int The number of messages sent to subscribers
+   */
+  public int checkSubscribers(Callback callback, Vector components){
+    println("Discoverer <checkSubscribers> for " + components.size() + " components");
+    // DiscovererSubscriber -> Vector of the components fitting its query
+    Hashtable matches = new Hashtable();
+    Vector matching = new Vector();
+    for (int i = 0; i < components.size(); i++) {
+      ComponentDescription comp = (ComponentDescription) components.elementAt(i);
+      Vector candidates = subscriptionIndex.getCandidates (subscribers, callback.getName (), comp);
+      for (int j = 0; j < candidates.size(); j++) {
+        DiscovererSubscriber sub = (DiscovererSubscriber) candidates.elementAt(j);
+        if (callback.getName ().equals(sub.getSubscriptionCallback ()) && sub.getCompiledQuery ().process (comp)) {
+          Vector comps = (Vector) matches.get(sub);
+          if (comps == null) {
+            comps = new Vector();
+            matches.put(sub, comps);
+            matching.addElement(sub);
+          }
+          comps.addElement(comp);
+        }
+      }
+    }
+    int nbCorresponding = 0;
+    for (int i = 0; i < matching.size(); i++) {
+      DiscovererSubscriber sub = (DiscovererSubscriber) matching.elementAt(i);
+      Vector comps = (Vector) matches.get(sub);
+      for (int j = 0; j < comps.size(); j++) {
+        sendSubscriptionCallback(sub, (ComponentDescription) comps.elementAt(j));
+        nbCorresponding ++;
+      }
+    }
+    println("#of messages to the subscribers " +nbCorresponding);
+    return nbCorresponding;
+  }
+  
   /**
    * This method allows to send a message to all subscribers whose interests are
-   * for the new registered component.
+   * for the new registered component. The subscriptionIndex gives the
+   * subscribers whose query may fit the component, and only their queries
+   * are processed.
    *
    * @param comp The component newly registered
    * @return int The number of subscribers a message has been sent to
@@ -827,55 +981,25 @@ public class Discoverer extends Widget {
     
     DiscovererSubscriber sub;
     DataObject result;
-    AbstractQueryItem subQuery;
+    CompiledQuery subQuery;
     int nbCorresponding = 0;
-    for (int i=0; i < subscribers.numSubscribers(); i++) {
-      sub = (DiscovererSubscriber) subscribers.getSubscriberAt(i);
+    // Only the subscribers to the callback whose query may fit the component
+    Vector candidates = subscriptionIndex.getCandidates (subscribers, callback.getName (), comp);
+    for (int i=0; i < candidates.size(); i++) {
+      sub = (DiscovererSubscriber) candidates.elementAt(i);
       println("\nSub  id= " + sub.getSubscriptionId ()+" - query= " + sub.getQuery () +  " - sub callback " + sub.getSubscriptionCallback ());
       
       result = null;      // callback reply
       println("\n Test callbacks");
       if (callback.getName ().equals(sub.getSubscriptionCallback ())) {
         println("\ncallback are equal ");
-        subQuery = sub.getQuery ();
+        subQuery = sub.getCompiledQuery ();
         // Check if the component description corresponds to the subscriber query
         boolean resQuery = subQuery.process (comp);
         println("\nDisco result of checkSubs " + resQuery);
         if (resQuery == true){ 
           nbCorresponding ++;
-          DataObject subid = new DataObject(AbstractSubscriber.SUBSCRIBER_ID, sub.getSubscriptionId ());
-          Vector v = new Vector();
-          v.addElement(subid);
-          // If the discoSub wants a full description we give it to them, otherwise just the basic summary.
-          if (sub.isFullDescriptionResponse()) {
-            /**
-             * this is an ugly, ugly hack due to the fact that toDataObject()
-             * calls essentially type their return values without knowing what
-             * they will be used for! we will clean this up at some point by
-             * cleaning up the ComponentDescription code, but for now
-             * side effects are feared, so we stick to the hack.
-             */
-            Vector vComp = comp.toDataObject().getChildren();
-            v.addElement(new DataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENT,vComp));
-          } else {
-            v.addElement(comp.getBasicDataObject());
-          }
-          DataObject send = new DataObject(DiscovererSubscriber.SUBSCRIPTION_CALLBACK, v);
-          String host = sub.getSubscriberHostName ();
-          int port = new Integer(sub.getSubscriberPort ()).intValue();
-          // use independentUserRequest
-          try {
-            result = null;
-            LOGGER.info("Discoverer before independent");
-            IndependentCommunication ic = new IndependentCommunication (
-              new RequestObject(send, DiscovererSubscriber.SUBSCRIPTION_CALLBACK, host, port));
-            independentUserRequest (ic);
-            sub.resetErrors();
-          } catch (EncodeException ee) {
-            LOGGER.severe("Widget sendToSubscribers EncodeException: "+ee);
-          } catch (InvalidEncoderException iee) {
-            LOGGER.severe("Widget sendToSubscribers InvalidEncoderException: "+iee);
-          }
+          sendSubscriptionCallback(sub, comp);
         }
         else {
           println("\nthe query doesn't correspond to the comp");
@@ -885,6 +1009,48 @@ public class Discoverer extends Widget {
     println("#of sub that corresponds " +nbCorresponding);
     return nbCorresponding;
   }
+
+  /**
+   * Sends a SUBSCRIPTION_CALLBACK message with a component to a subscriber
+   * whose query fits the component
+   *
+   * @param sub The discoverer subscriber
+   * @param comp The component
+   */
+  private void sendSubscriptionCallback(DiscovererSubscriber sub, ComponentDescription comp){
+    DataObject subid = new DataObject(AbstractSubscriber.SUBSCRIBER_ID, sub.getSubscriptionId ());
+    Vector v = new Vector();
+    v.addElement(subid);
+    // If the discoSub wants a full description we give it to them, otherwise just the basic summary.
+    if (sub.isFullDescriptionResponse()) {
+      /**
+       * this is an ugly, ugly hack due to the fact that toDataObject()
+       * calls essentially type their return values without knowing what
+       * they will be used for! we will clean this up at some point by
+       * cleaning up the ComponentDescription code, but for now
+       * side effects are feared, so we stick to the hack.
+       */
+      Vector vComp = comp.toDataObject().getChildren();
+      v.addElement(new DataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENT,vComp));
+    } else {
+      v.addElement(comp.getBasicDataObject());
+    }
+    DataObject send = new DataObject(DiscovererSubscriber.SUBSCRIPTION_CALLBACK, v);
+    String host = sub.getSubscriberHostName ();
+    int port = new Integer(sub.getSubscriberPort ()).intValue();
+    // use independentUserRequest
+    try {
+      LOGGER.info("Discoverer before independent");
+      IndependentCommunication ic = new IndependentCommunication (
+        new RequestObject(send, DiscovererSubscriber.SUBSCRIPTION_CALLBACK, host, port));
+      independentUserRequest (ic);
+      sub.resetErrors();
+    } catch (EncodeException ee) {
+      LOGGER.severe("Widget sendToSubscribers EncodeException: "+ee);
+    } catch (InvalidEncoderException iee) {
+      LOGGER.severe("Widget sendToSubscribers InvalidEncoderException: "+iee);
+    }
+  }
   
   /**
    * This method is used to unregister a context component from the discoverer.
@@ -1007,6 +1173,9 @@ public class Discoverer extends Widget {
         }
         DiscovererSubscriber sub = new DiscovererSubscriber(data);
         println("Disco add sub " + sub.toString ());
+        if (DEBUG) {
+          System.out.println("Discoverer subscriber query plan:\n" + mediator.explain (sub.getQuery ()));
+        }
         // Add the subscriber
         subscribers.addSubscriber (sub);
         // Update the dataModel to say that the discoverer has a new subscriber
@@ -1026,9 +1195,15 @@ public class Discoverer extends Widget {
   /**
    * Handles a DISCOVERER_QUUERY message from components and 
    * returns a DataObject containing the identification of the response 
-   * and the first response.
+   * and the components matching the query.
    *
-   *To complete ...
+   * The message may set the DISCOVERER_QUERY_TYPE and MAXIMUM_RESULTS:
+   * with ALL_RESULTS (the default), at most MAXIMUM_RESULTS components are
+   * returned, all of them if it isn't set. With FIRST_RESULT, the first
+   * MAXIMUM_RESULTS components are returned with a QUERY_ID when there are
+   * more results, and a NEXT_RESULT message with this QUERY_ID returns the
+   * next ones. The reply gives the QUERY_TOTAL_ANSWERS and the QUERY_ORDER
+   * of its first component.
    *
    * @param data The DataObject containing the query
    * @return DataObject The first result of the query
@@ -1067,10 +1242,29 @@ public class Discoverer extends Widget {
         
         DataObject resp = null; //result
         
-        if (q != null){
+        // The type of reply: ALL_RESULTS by default, FIRST_RESULT to get the
+        // first results and a QUERY_ID to get the next ones with NEXT_RESULT
+        String type = getChildValue (data, DISCOVERER_QUERY_TYPE);
+        int maximum = 0;
+        String max = getChildValue (data, MAXIMUM_RESULTS);
+        if (max != null) {
+          try {
+            maximum = Integer.parseInt (max.trim ());
+          } catch (NumberFormatException nfe) {
+            System.out.println("Discoverer handleQuery NumberFormatException: "+nfe);
+          }
+        }
+        
+        if (NEXT_RESULT.equals (type)){
+          resp = mediator.nextResults (getChildValue (data, QUERY_ID), maximum);
+        }
+        else if (q != null){
           AbstractQueryItem query = AbstractQueryItem.fromDataObject (q);
+          if (DEBUG) {
+            System.out.println("Discoverer query plan:\n" + mediator.explain (query));
+          }
           // Searchs in the SearchEngine 
-          resp = mediator.search(query);
+          resp = mediator.search(query, maximum, FIRST_RESULT.equals (type));
         }
         
         if (resp == null) {
@@ -1089,6 +1283,21 @@ public class Discoverer extends Widget {
     return error.toDataObject();
   }
   
+  /**
+   * Returns the first value of a child of a DataObject, or null
+   *
+   * @param data The DataObject
+   * @param name The name of the child
+   * @return String
+   */
+  private String getChildValue(DataObject data, String name){
+    DataObject child = data.getChild (name);
+    if (child == null || child.getValue ().isEmpty ()){
+      return null;
+    }
+    return (String) child.getValue ().firstElement ();
+  }
+  
   /**
    * Returns the content of the search engine
    *
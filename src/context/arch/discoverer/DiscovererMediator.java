@@ -26,21 +26,18 @@ import context.arch.comm.RequestObject;
 import context.arch.subscriber.DiscovererSubscriber;
 
 import context.arch.comm.DataObject;
-import context.arch.comm.language.EncodeException;
 import context.arch.comm.language.DecodeException;
-import context.arch.comm.language.InvalidEncoderException;
 import context.arch.comm.language.InvalidDecoderException;
 
+import java.io.File;
 import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Vector;
 import java.util.Hashtable;
-import java.io.FileWriter;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.BitSet;
 
 /**
  * This mediator allows to handle the dialog between the discoverer and 
@@ -69,6 +66,27 @@ public class DiscovererMediator {
    */
   private AbstractDataModel dataModel;
   
+  /**
+   * The object that processes the queries on the data model
+   */
+  private QueryPlanner planner;
+  
+  /**
+   * The cursors of the queries whose results are sent in several pages:
+   * key=String query id => value=QueryCursor
+   */
+  private Hashtable cursors = new Hashtable();
+  
+  /**
+   * The counter used to build the query ids
+   */
+  private int queryCounter = 0;
+  
+  /**
+   * Time in milliseconds after which an unused query cursor is dropped
+   */
+  public static long QUERY_CURSOR_TIMEOUT = 5 * 60 * 1000;
+  
   /**
    * The object containing a timer that triggers the check of components' 
    * liveliness
@@ -89,10 +107,28 @@ public class DiscovererMediator {
   
   
   /** 
-   * The default name for the Discoverer database log file
+   * The name of the log file written by the previous versions, read when
+   * the discoverer is restarted
    */
   private String filename = "discoverer-database.log";
   
+  /**
+   * The journal of the registered components
+   */
+  private RegistrationJournal journal;
+  
+  /**
+   * The lock taken by the registrations around their change of the data model
+   * and their journal records, so that the journal gets the changes in the
+   * order of the data model. The queries don't take it.
+   */
+  private Object changeLock = new Object();
+  
+  /**
+   * The prober checking the components registered before a restart
+   */
+  private RegistrationProber prober = null;
+  
   /**
    * Creates new DiscovererMediator 
    *
@@ -101,11 +137,13 @@ public class DiscovererMediator {
    */
   public DiscovererMediator (Discoverer discoverer, boolean keepLogFile) {
     dataModel = new DiscovererDataModel();
+    planner = new QueryPlanner(dataModel);
     this.discoverer = discoverer;
     mh = (MessageHandler) discoverer;
     leasesKeeper = new LeasesKeeper(this);
     useLogFile = keepLogFile;
     filename = this.discoverer.getId () + "-database.log";
+    journal = new RegistrationJournal(this.discoverer.getId (), mh);
     
     setRegisteredComponents ();
     
@@ -120,26 +158,117 @@ public class DiscovererMediator {
    */
   public Error add(ComponentDescription comp, Lease lease){
     Error error = new Error(Error.NO_ERROR);
+    Integer[] indexes;
+    synchronized (changeLock){
+      // Replaces the component in one step, so that concurrent registrations
+      // of the same id don't add it twice
+      dataModel.lockWrite ();
+      try {
+        indexes = addComponent (comp);
+      } finally {
+        dataModel.unlockWrite ();
+      }
+      logComponent (comp, indexes);
+    }
+    addLease (indexes, lease);
+    
+    return error;
+  }
+  
+  /**
+   * This method allows to register or update several ComponentDescription
+   * objects at once: the data model is locked once for the whole list.
+   * A component given with a lease is registered as by add, and a component
+   * given without lease is updated as by update.
+   *
+   * @param components The ComponentDescription objects
+   * @param leases The Lease objects, in the same order. A null lease means
+   * that the component is updated
+   * @return Vector The Error of each component, in the same order
+   */
+  public Vector addAll(Vector components, Vector leases){
+    Vector errors = new Vector();
+    Integer[][] indexes = new Integer[components.size ()][];
+    synchronized (changeLock){
+      dataModel.lockWrite ();
+      try {
+        for (int i = 0 ; i < components.size () ; i++){
+          ComponentDescription comp = (ComponentDescription) components.elementAt (i);
+          if (leases.elementAt (i) != null){
+            indexes[i] = addComponent (comp);
+          }
+          else {
+            indexes[i] = new Integer[] {null, (Integer) dataModel.update (comp)};
+          }
+        }
+      } finally {
+        dataModel.unlockWrite ();
+      }
+      for (int i = 0 ; i < components.size () ; i++){
+        logComponent ((ComponentDescription) components.elementAt (i), indexes[i]);
+      }
+    }
+    for (int i = 0 ; i < components.size () ; i++){
+      Lease lease = (Lease) leases.elementAt (i);
+      if (lease != null){
+        addLease (indexes[i], lease);
+        errors.addElement (new Error(Error.NO_ERROR));
+      }
+      else {
+        errors.addElement (new Error(indexes[i][1] == null ? Error.ERROR_CODE : Error.NO_ERROR));
+      }
+    }
+    return errors;
+  }
+  
+  /**
+   * Registers a ComponentDescription object in the data model, replacing the
+   * one with the same id. The caller holds the write lock of the data model.
+   *
+   * @param comp the ComponentDescription object
+   * @return Integer[] The index of the replaced component, or null, and the
+   * index of the component
+   */
+  private Integer[] addComponent(ComponentDescription comp){
     // Gets the existing index if it exists
     Integer existingCompIndex = (Integer) dataModel.getIndexOf(comp.id);
     discoverer.println("\n\n+++Mediator add id=" + comp.id + " found=" + existingCompIndex);
     // If it already exists : removes it
     if (existingCompIndex != null){
       dataModel.remove (existingCompIndex);
-      if (useLogFile)
-        removeFromLog (comp);
-      leasesKeeper.removeLease (existingCompIndex);
     }
     // Now adds it
     Integer index = (Integer) dataModel.add(comp);
-    if (useLogFile)
-      addToLog (comp);
-    
-    // Registers the lease
-    lease.setComponentIndex(index);
+    return new Integer[] {existingCompIndex, index};
+  }
+  
+  /**
+   * Writes a change made by addComponent or by an update in the log file.
+   * The caller holds changeLock, so that the records are in the order of the
+   * changes of the data model.
+   *
+   * @param comp the ComponentDescription object
+   * @param indexes The indexes returned by addComponent
+   */
+  private void logComponent(ComponentDescription comp, Integer[] indexes){
+    if (! useLogFile || indexes[1] == null)
+      return;
+    if (indexes[0] != null)
+      removeFromLog (comp);
+    addToLog (comp);
+  }
+  
+  /**
+   * Replaces the lease of a component registered by addComponent
+   *
+   * @param indexes The indexes returned by addComponent
+   * @param lease The lease specified for the component
+   */
+  private void addLease(Integer[] indexes, Lease lease){
+    if (indexes[0] != null)
+      leasesKeeper.removeLease (indexes[0]);
+    lease.setComponentIndex(indexes[1]);
     leasesKeeper.addLease(lease);
-    
-    return error;
   }
   
   /**
@@ -170,50 +299,142 @@ public class DiscovererMediator {
    * matching the query
    */
   public DataObject search(AbstractQueryItem query){
-    int[][] tab = (int[][]) rawSearch(query);
+    return search(query, 0, false);
+  }
+  
+  /**
+   * Take a query and returns at most maximum of the corresponding components.
+   * If keepCursor is true and there are more results, the reply contains the
+   * QUERY_ID of a cursor that gives the next results with nextResults.
+   *
+   * @param query The abstractquery object
+   * @param maximum The maximum number of components returned, 0 for all
+   * @param keepCursor If true, keeps the results that are not returned
+   * @return DataObject Contains the component descriptions of the component 
+   * matching the query
+   * @see #nextResults(String,int)
+   */
+  public DataObject search(AbstractQueryItem query, int maximum, boolean keepCursor){
+    BitSet tab = (BitSet) rawSearch(query);
     //System.out.println("Mediator result of the search : " + QueryItem.arrayToString (tab));
+    QueryCursor cursor;
+    if (keepCursor && maximum > 0 && tab.cardinality () > maximum){
+      cursor = new QueryCursor(newQueryId (), tab);
+      cursors.put (cursor.getQueryId (), cursor);
+    }
+    else {
+      cursor = new QueryCursor(null, tab);
+    }
+    return getPage (cursor, maximum);
+  }
+  
+  /**
+   * Returns the next components matching a query whose first results have
+   * been returned by search
+   *
+   * @param queryId The QUERY_ID of the previous results
+   * @param maximum The maximum number of components returned, 0 for all
+   * @return DataObject Contains the component descriptions, or null if the
+   * query id isn't known or has expired
+   */
+  public DataObject nextResults(String queryId, int maximum){
+    QueryCursor cursor = (queryId == null) ? null : (QueryCursor) cursors.get (queryId);
+    if (cursor == null){
+      return null;
+    }
+    return getPage (cursor, maximum);
+  }
+  
+  /**
+   * Returns the next page of results of a cursor, and drops the cursor
+   * when it has no more results. Also drops the expired cursors.
+   *
+   * @param cursor The cursor
+   * @param maximum The maximum number of components returned, 0 for all
+   * @return DataObject
+   */
+  private DataObject getPage(QueryCursor cursor, int maximum){
+    removeExpiredCursors ();
     Vector content = new Vector();
-    Error err = new Error();
-    DataObject result = null;
-    int counter = 0 ; // # of responses
-    
-    for (int i = 0 ; i < tab.length ; i++){
-      if (tab[i][1] == 1) { // The component is selected
-        int index = tab[i][0];
-        //System.out.println("Number of the component selected " + index);
+    Hashtable qAtts = new Hashtable();
+    synchronized (cursor){
+      qAtts.put(Discoverer.QUERY_ORDER, Integer.toString (cursor.getSent ()));
+      int index;
+      while ((maximum <= 0 || content.size () < maximum) && (index = cursor.next ()) >= 0){
+        // The component is selected, unless it has been removed since the search
         ComponentDescription comp = this.getComponentDescription (new Integer(index));
-        DataObject doComp = comp.getBasicDataObject();
-        DataObject newContent = new DataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENT, doComp.getChildren ());
-        //System.out.println("\n\n a content = " + newContent);
-        content.addElement (newContent);
-        counter ++;
+        if (comp != null){
+          DataObject doComp = comp.getBasicDataObject();
+          content.addElement (new DataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENT, doComp.getChildren ()));
+        }
+      }
+      qAtts.put(Discoverer.QUERY_TOTAL_ANSWERS, Integer.toString (cursor.getTotal ()));
+      if (cursor.getQueryId () != null){
+        if (cursor.hasNext ()){
+          qAtts.put(Discoverer.QUERY_ID, cursor.getQueryId ());
+        }
+        else {
+          cursors.remove (cursor.getQueryId ());
+        }
       }
     }
-    Hashtable qAtts = new Hashtable();
-    qAtts.put(Discoverer.QUERY_TOTAL_ANSWERS, Integer.toString (counter));
-    result = new DataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENTS, qAtts, content);
-    return result;
+    return new DataObject(Discoverer.DISCOVERER_QUERY_REPLY_CONTENTS, qAtts, content);
   }
   
   /**
-   * Gets an AbstractQueryObject and returns a array with for each index
-   * of registered components a value yes/no to indicate if this component
-   * fits the query or not
+   * Returns a new query id
+   */
+  private synchronized String newQueryId(){
+    return discoverer.getId () + "_query_" + (queryCounter ++);
+  }
+  
+  /**
+   * Drops the query cursors that haven't been used for QUERY_CURSOR_TIMEOUT
+   */
+  private void removeExpiredCursors(){
+    Vector expired = new Vector();
+    Enumeration list = cursors.elements ();
+    QueryCursor cursor;
+    while (list.hasMoreElements ()){
+      cursor = (QueryCursor) list.nextElement ();
+      if (cursor.isExpired (QUERY_CURSOR_TIMEOUT)){
+        expired.addElement (cursor.getQueryId ());
+      }
+    }
+    for (int i = 0 ; i < expired.size () ; i++){
+      cursors.remove (expired.elementAt (i));
+    }
+  }
+  
+  /**
+   * Gets an AbstractQueryObject and returns the set of the indexes of the
+   * registered components that fit the query
    *
    * TO DO : complete the search to remove the widget included in server: USEFUL??
    *
    * @param query The abstract query object
-   * @return Object An int[][] array
+   * @return Object A BitSet
    */
   public Object rawSearch(AbstractQueryItem query){
     // Result from the data Model
-    Object result = query.process (dataModel);
+    Object result = planner.process (query);
     
     // Do some complementary process: for example, is a server has subscribed
     // to a widget.
     return result;
   }
   
+  /**
+   * Returns a printable version of the plan used to process a query: the
+   * indexes it uses and the order of the evaluation
+   *
+   * @param query The abstract query object
+   * @return String
+   */
+  public String explain(AbstractQueryItem query){
+    return planner.explain (query);
+  }
+  
   /**
    * Returns a printable version of this object: the database content, the
    * leases.
@@ -238,20 +459,33 @@ public class DiscovererMediator {
     Error error = new Error(Error.NO_ERROR);
     Integer index = null;
     String compId;
-    // Get the index of the component
-    if (stringOrInteger instanceof Integer){
-      index = (Integer) stringOrInteger;
+    Object removed;
+    synchronized (changeLock){
+      dataModel.lockWrite ();
+      try {
+        // Get the index of the component
+        if (stringOrInteger instanceof Integer){
+          index = (Integer) stringOrInteger;
+        }
+        else { 
+          index = (Integer) dataModel.getIndexOf ( (String) stringOrInteger);
+        }
+        // Remove it
+        removed = dataModel.remove (index);
+      } finally {
+        dataModel.unlockWrite ();
+      }
+      // Update the log file, in the order of the changes of the data model
+      if (removed != null && useLogFile){
+        removeFromLog ((ComponentDescription)removed);
+      }
     }
-    else { 
-      index = (Integer) dataModel.getIndexOf ( (String) stringOrInteger);
+    if (removed == null){
+      // already removed, by another request or when its lease expired
+      error.setError (Error.INVALID_REQUEST_ERROR);
+      return error;
     }
-    // Remove it
-    Object removed = dataModel.remove (index);
     compId = ((ComponentDescription) removed).id;
-    // Update the log file
-    if (removed != null && useLogFile){
-      removeFromLog ((ComponentDescription)removed);
-    }
     // Remove the lease
     leasesKeeper.removeLease (index);
     // Remove from the subscriber
@@ -263,8 +497,6 @@ public class DiscovererMediator {
       if (subId.startsWith (compId))
       discoverer.subscribers.removeSubscriber (dSub, true);
     }
-    if (removed == null)
-      error.setError (Error.INVALID_REQUEST_ERROR);
     return error;
   }
   
@@ -277,11 +509,13 @@ public class DiscovererMediator {
    */
   public Error update(ComponentDescription component, Lease lease){
     Error error = new Error(Error.NO_ERROR);
-    Integer index = (Integer) dataModel.update(component);
-    // Update the log file
-    if (useLogFile){
-      removeFromLog (component);
-      addToLog (component);
+    Integer index;
+    synchronized (changeLock){
+      index = (Integer) dataModel.update(component);
+      // Update the log file: the new description replaces the previous one
+      if (useLogFile && index != null){
+        addToLog (component);
+      }
     }
     if (index == null)
       error.setError (Error.ERROR_CODE);
@@ -343,73 +577,37 @@ public class DiscovererMediator {
   }
   
   /**
-   * Adds a component description to the log file
+   * Adds a component description to the log file. The description is
+   * written by the journal thread.
    *
    * @param comp The component description
    */
-  public synchronized void addToLog(ComponentDescription comp) {
-    writeLog(ENTRY_STRING+ADD_COMP, comp);
-  }
-  
-  /**
-   * Writes something to the log file
-   *
-   * @param header The header to write
-   * @param comp The component to write
-   */
-  private void writeLog(String header, ComponentDescription comp) {
-    try {
-      BufferedWriter writer = new BufferedWriter(new FileWriter(filename,true));
-      String out = new String(header+mh.encodeData(comp.toDataObject())+"\n");
-      writer.write(out,0,out.length());
-      writer.flush();
-      writer.close();
-    } catch (IOException ioe) {
-        System.out.println("DiscovererDataModel writeLog() IO: "+ioe);
-    } catch (EncodeException ee) {
-        System.out.println("DiscovererDataModel writeLog() Encode: "+ee);
-    } catch (InvalidEncoderException iee) {
-        System.out.println("DiscovererDataModel writeLog() InvalidEncoder: "+iee);
-    }
+  public void addToLog(ComponentDescription comp) {
+    journal.add (comp);
   }
   
   /**
    * Adds the information that a component is removed from the database into
-   * the log file
+   * the log file. The information is written by the journal thread.
    *
    * @param comp The component description to remove
    */
-  public synchronized void removeFromLog(ComponentDescription comp){
-    removeFromLog(ENTRY_STRING+REMOVE_COMP, comp);
+  public void removeFromLog(ComponentDescription comp){
+    journal.remove (comp);
   }
   
   /**
-   * Adds the remove information into the log file
-   *
-   * @param header The header information
-   * @param comp The component description removed
-   */
-  public void removeFromLog(String header, ComponentDescription comp){
-    try {
-      BufferedWriter writer = new BufferedWriter(new FileWriter(filename,true));
-      //System.out.println("\n\nDiscoDataModel <removeFromLog> comp " + comp);
-      //System.out.println("\nto dataObj " + comp.toDataObject ());
-      String out = new String(header+mh.encodeData(comp.toDataObject())+"\n");
-      writer.write(out,0,out.length());
-      writer.flush();
-      writer.close();
-    } catch (IOException ioe) {
-        System.out.println("DiscovererDataModel removeFromLog() IO: "+ioe);
-    } catch (EncodeException ee) {
-        System.out.println("DiscovererDataModel removeFromLog() Encode: "+ee);
-    } catch (InvalidEncoderException iee) {
-        System.out.println("DiscovererDataModel removeFromLog() InvalidEncoder: "+iee);
-    }
+   * Waits until the log file contains the changes made to the database
+   */
+  public void flushLog(){
+    journal.flush ();
   }
   
   /**
    * Retrieve the information from the log file, check the liveliness of the
-   * components and put them back into the database
+   * components and put them back into the database.
+   * The components are checked by a RegistrationProber, which registers them
+   * while the discoverer already handles the requests.
    */
   private void setRegisteredComponents(){
     // Get the list of component to restart
@@ -417,23 +615,23 @@ public class DiscovererMediator {
     if (obj != null){
       HashMap notCheckedComps = (HashMap) obj;
       // Check them to be sure they are still alive
-      Iterator list = notCheckedComps.values ().iterator ();
-      int i=0;
-      ComponentDescription comp;
-      // Uses an independent communication to send a PING
-      while (list.hasNext ()){
-        comp = (ComponentDescription) list.next ();
-        IndependentCommunication indComm = new IndependentCommunication(
-                                              new RequestObject(null,null, 
-                                                  comp.hostname,comp.port,comp.id), true);
-        indComm.setObjectToStore (comp);
-        indComm.setSenderClassId (Discoverer.DISCOVERER+Discoverer.REGISTERER+BaseObject.PING);
-        discoverer.pingComponent(indComm);
-        i ++;
+      if (! notCheckedComps.isEmpty ()){
+        prober = new RegistrationProber(this, discoverer, notCheckedComps.values ());
+        prober.start ();
       }
     }
   }
   
+  /**
+   * Returns the RegistrationProber checking the components registered before
+   * the restart of the discoverer, or null if there was no component to check
+   *
+   * @return RegistrationProber
+   */
+  public RegistrationProber getProber(){
+    return prober;
+  }
+  
   /**
    * Overrides the method that handle independent Reply. If the independent
    * communication has been sent by this class, this class handles it. Otherwise
@@ -470,11 +668,27 @@ public class DiscovererMediator {
   }
   
   /**
-   * Retrieve a list of component to restart from the log file
+   * Retrieve a list of component to restart from the journal, and from the
+   * log file of a previous version if there is one
    *
    * @return Object contains a HashMap object
    */
   private Object restartRegistrations() {
+    HashMap hash = new HashMap();
+    if (new File(filename).exists ()){
+      hash.putAll (readLogFile());
+    }
+    hash.putAll (journal.restart ());
+    return hash;
+  }
+  
+  /**
+   * Retrieve a list of component to restart from the text log file written
+   * by the previous versions, and deletes it
+   *
+   * @return HashMap
+   */
+  private HashMap readLogFile() {
     String log = new FileRead(filename).read();
     int index = log.indexOf(ENTRY_STRING);
     HashMap hash = new HashMap();
@@ -512,15 +726,7 @@ public class DiscovererMediator {
       }
       index = index2;
     }
-    try {
-      // Clear the content of the file
-      FileWriter fw = new FileWriter(filename,false);
-      fw.flush ();
-      fw.close ();
-    }
-    catch (IOException ioe) {
-      System.out.println("DiscovererDataModel writeLog() IO: "+ioe);
-    }
+    new File(filename).delete ();
     return hash;
   }
   
@@ -0,0 +1,126 @@
+/*
+ * DiscovererQueryResults.java
+ */
+
+package context.arch.discoverer;
+
+import context.arch.BaseObject;
+import context.arch.comm.DataObject;
+import context.arch.util.Error;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+/**
+ * This class enumerates the ComponentDescription objects returned by the
+ * discoverer for a query sent with BaseObject.discovererQuery(AbstractQueryItem,int).
+ * It holds one page of results at a time: when the page has been read and the
+ * discoverer has given a QUERY_ID for the next results, the next page is
+ * asked for with BaseObject.discovererQueryNext.
+ *
+ * @see context.arch.BaseObject#discovererQuery(context.arch.discoverer.querySystem.AbstractQueryItem,int)
+ * @see context.arch.discoverer.QueryCursor
+ */
+public class DiscovererQueryResults implements Enumeration {
+
+  /** The object sending the queries */
+  private BaseObject baseObject;
+
+  /** The number of results asked for in each message */
+  private int pageSize;
+
+  /** The id of the next results on the discoverer, null if there are none */
+  private String queryId = null;
+
+  /** The DISCOVERER_QUERY_REPLY_CONTENT objects of the current page */
+  private Vector page = null;
+
+  /** The position of the next result in the page */
+  private int position = 0;
+
+  /** The total number of results of the query */
+  private int total = 0;
+
+  /**
+   * Creates a new DiscovererQueryResults
+   *
+   * @param baseObject The object that sent the query
+   * @param answer The DISCOVERER_QUERY_REPLY_CONTENTS of the first page
+   * @param pageSize The number of results asked for in each message
+   */
+  public DiscovererQueryResults (BaseObject baseObject, DataObject answer, int pageSize) {
+    this.baseObject = baseObject;
+    this.pageSize = pageSize;
+    setPage(answer);
+  }
+
+  /**
+   * Reads a page of results
+   */
+  private void setPage (DataObject answer){
+    position = 0;
+    queryId = null;
+    page = null;
+    if (answer == null){
+      return;
+    }
+    page = answer.getChildren ();
+    Hashtable atts = answer.getAttributes ();
+    if (atts != null){
+      queryId = (String) atts.get (Discoverer.QUERY_ID);
+      String answers = (String) atts.get (Discoverer.QUERY_TOTAL_ANSWERS);
+      if (answers != null){
+        try {
+          total = Integer.parseInt (answers);
+        } catch (NumberFormatException nfe) {
+          System.out.println("DiscovererQueryResults setPage NumberFormatException: "+nfe);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the total number of results of the query, as given by the discoverer
+   *
+   * @return int
+   */
+  public int getTotalAnswers (){
+    return total;
+  }
+
+  /**
+   * Returns true if there are more results, asking the discoverer for the
+   * next page if the current one has been read
+   *
+   * @return boolean
+   */
+  public boolean hasMoreElements (){
+    while ((page == null || position >= page.size ()) && queryId != null){
+      DataObject result = baseObject.discovererQueryNext (queryId, pageSize);
+      if (result == null || result.getDataObject (Error.ERROR_CODE) != null){
+        System.out.println("DiscovererQueryResults hasMoreElements: no next results for " + queryId);
+        setPage(null);
+      }
+      else {
+        setPage(result.getDataObject (Discoverer.DISCOVERER_QUERY_REPLY_CONTENTS));
+      }
+    }
+    return page != null && position < page.size ();
+  }
+
+  /**
+   * Returns the next result
+   *
+   * @return Object The ComponentDescription of the next result
+   * @exception java.util.NoSuchElementException if there are no more results
+   */
+  public Object nextElement (){
+    if (! hasMoreElements ()){
+      throw new NoSuchElementException("DiscovererQueryResults");
+    }
+    return ComponentDescription.dataObjectToComponentDescription ((DataObject) page.elementAt (position ++));
+  }
+
+}
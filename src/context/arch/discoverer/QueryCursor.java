@@ -0,0 +1,126 @@
+/*
+ * QueryCursor.java
+ */
+
+package context.arch.discoverer;
+
+import java.util.BitSet;
+
+/**
+ * This class keeps the results of a discoverer query that are sent in
+ * several pages: the indexes of the matching components, and the position
+ * of the next one to send.
+ *
+ * A cursor has an id sent with each page of results so that the caller can
+ * ask for the next page with a NEXT_RESULT query. The DiscovererMediator
+ * drops the cursors once their last page is sent, or when they haven't been
+ * used for DiscovererMediator.QUERY_CURSOR_TIMEOUT.
+ *
+ * @see context.arch.discoverer.DiscovererMediator
+ */
+public class QueryCursor {
+
+  /** The id of the cursor, null if the results are sent in one page */
+  private String queryId;
+
+  /** The indexes of the components matching the query */
+  private BitSet results;
+
+  /** The total number of components matching the query */
+  private int total;
+
+  /** The index of the next component to send, -1 if there is none */
+  private int next;
+
+  /** The number of results already sent */
+  private int sent = 0;
+
+  /** The last time the cursor was used */
+  private long lastUsed;
+
+  /**
+   * Creates a new QueryCursor
+   *
+   * @param queryId The id of the cursor, or null
+   * @param results The indexes of the components matching the query
+   */
+  public QueryCursor (String queryId, BitSet results) {
+    this.queryId = queryId;
+    this.results = results;
+    this.total = results.cardinality ();
+    this.next = results.nextSetBit (0);
+    this.lastUsed = System.currentTimeMillis ();
+  }
+
+  /**
+   * Returns the id of the cursor
+   *
+   * @return String
+   */
+  public String getQueryId (){
+    return queryId;
+  }
+
+  /**
+   * Returns the total number of components matching the query
+   *
+   * @return int
+   */
+  public int getTotal (){
+    return total;
+  }
+
+  /**
+   * Returns the number of results already sent, which is the order of
+   * the next result
+   *
+   * @return int
+   */
+  public int getSent (){
+    return sent;
+  }
+
+  /**
+   * Returns true if there are results not sent yet
+   *
+   * @return boolean
+   */
+  public boolean hasNext (){
+    return next >= 0;
+  }
+
+  /**
+   * Returns the index of the next component to send, and moves to the
+   * following one
+   *
+   * @return int The index, or -1 if all the results have been sent
+   */
+  public int next (){
+    int index = next;
+    if (index >= 0){
+      next = results.nextSetBit (index + 1);
+      sent ++;
+      lastUsed = System.currentTimeMillis ();
+    }
+    return index;
+  }
+
+  /**
+   * Returns true if the cursor hasn't been used for the given time
+   *
+   * @param timeout Time in milliseconds
+   * @return boolean
+   */
+  public boolean isExpired (long timeout){
+    return System.currentTimeMillis () - lastUsed > timeout;
+  }
+
+  /**
+   * Returns a printable version of this object
+   *
+   * @return String
+   */
+  public String toString (){
+    return "QueryCursor id=" + queryId + " sent=" + sent + "/" + total;
+  }
+}
@@ -0,0 +1,444 @@
+/*
+ * RegistrationJournal.java
+ */
+
+package context.arch.discoverer;
+
+import context.arch.comm.DataObject;
+import context.arch.comm.language.DecodeException;
+import context.arch.comm.language.EncodeException;
+import context.arch.comm.language.InvalidDecoderException;
+import context.arch.comm.language.InvalidEncoderException;
+import context.arch.comm.language.MessageHandler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+/**
+ * This class keeps the journal of the components registered by a discoverer,
+ * so that the discoverer can register them again when it is restarted.
+ *
+ * The registrations and removals are queued by the request threads, and
+ * written by a journal thread: all the records queued while the previous
+ * ones were written are written with one FileChannel write, and forced to
+ * the disk once. A record is:
+ *   type (byte) - component id (UTF) - length (int) - content (bytes) - CRC32 (int)
+ * where the content of an ADD record is the encoded ComponentDescription,
+ * and the content of a REMOVE record is empty. The CRC32 is computed on the
+ * type, the id and the content, so a damaged type byte doesn't turn an ADD
+ * into a REMOVE.
+ *
+ * When the journal has more than SNAPSHOT_RECORDS records and more than twice
+ * as many records as registered components, the journal thread writes a
+ * snapshot of the registered components, in a new file renamed over the
+ * previous snapshot, and empties the journal. So the restart reads the
+ * snapshot and a journal shorter than SNAPSHOT_RECORDS records, and decodes
+ * only the components still registered.
+ *
+ * The records not written yet are lost if the discoverer process dies: the
+ * journal thread is stopped cleanly by close, called by a shutdown hook.
+ *
+ * @see context.arch.discoverer.DiscovererMediator
+ */
+public class RegistrationJournal implements Runnable {
+
+  /**
+   * Debug flag. Set to true to see the journal writes.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * Number of journal records before a snapshot is taken
+   */
+  public static int SNAPSHOT_RECORDS = 1000;
+
+  /**
+   * If true, the journal is forced to the disk after each write
+   */
+  public static boolean FORCE = true;
+
+  /** Type of the record of a registered component */
+  private static final byte ADD = 1;
+
+  /** Type of the record of a removed component */
+  private static final byte REMOVE = 2;
+
+  /** The largest content of a record read from a file */
+  private static final int MAX_RECORD = 16 * 1024 * 1024;
+
+  /** The charset of the contents of the records */
+  private static final String CHARSET = "UTF-8";
+
+  /** The content of a REMOVE record */
+  private static final byte[] EMPTY = new byte[0];
+
+  /** The journal file */
+  private File journalFile;
+
+  /** The snapshot file */
+  private File snapshotFile;
+
+  /** The object encoding and decoding the ComponentDescriptions */
+  private MessageHandler mh;
+
+  /** The channel of the journal file, opened by start */
+  private FileChannel channel = null;
+
+  /** The records not written yet: Object[] {Byte type, String id, DataObject} */
+  private Vector pending = new Vector();
+
+  /** True while the journal thread writes records taken from pending */
+  private boolean writing = false;
+
+  /** The encoded registered components: id -> byte[] content of their ADD record */
+  private Hashtable registered = new Hashtable();
+
+  /** The number of records in the journal file */
+  private int journalRecords = 0;
+
+  /** The journal thread */
+  private Thread runner = null;
+
+  /** True when close has been called */
+  private boolean closed = false;
+
+  /**
+   * Creates a new RegistrationJournal
+   *
+   * @param name The name the file names start with
+   * @param mh The object encoding and decoding the ComponentDescriptions
+   */
+  public RegistrationJournal (String name, MessageHandler mh) {
+    this.journalFile = new File(name + "-database.journal");
+    this.snapshotFile = new File(name + "-database.snapshot");
+    this.mh = mh;
+  }
+
+  /**
+   * Reads the components registered in the snapshot and the journal, empties
+   * them, and starts the journal thread. The components read are not kept in
+   * the journal: they are journaled again when they are registered again.
+   *
+   * @return HashMap The ComponentDescriptions read: component id -> ComponentDescription
+   */
+  public synchronized HashMap restart (){
+    HashMap contents = new HashMap();
+    read(snapshotFile, contents);
+    read(journalFile, contents);
+    HashMap result = new HashMap();
+    Iterator list = contents.entrySet ().iterator ();
+    while (list.hasNext ()){
+      Map.Entry entry = (Map.Entry) list.next ();
+      try {
+        String xml = new String((byte[]) entry.getValue (), CHARSET);
+        ComponentDescription comp = ComponentDescription.dataObjectToComponentDescription (mh.decodeData (new StringReader(xml)));
+        result.put (entry.getKey (), comp);
+      } catch (IOException ioe) {
+        System.out.println("RegistrationJournal restart IO: "+ioe);
+      } catch (DecodeException de) {
+        System.out.println("RegistrationJournal restart Decode: "+de);
+      } catch (InvalidDecoderException ide) {
+        System.out.println("RegistrationJournal restart InvalidDecoder: "+ide);
+      }
+    }
+    snapshotFile.delete ();
+    start();
+    return result;
+  }
+
+  /**
+   * Opens the journal file, emptied, and starts the journal thread
+   */
+  private void start (){
+    if (runner != null){
+      return;
+    }
+    try {
+      channel = new RandomAccessFile(journalFile, "rw").getChannel ();
+      channel.truncate (0);
+    } catch (IOException ioe) {
+      System.out.println("RegistrationJournal start IO: "+ioe);
+      channel = null;
+    }
+    runner = new Thread(this);
+    runner.setName ("RegistrationJournal " + journalFile.getName ());
+    runner.setDaemon (true);
+    runner.start ();
+    Runtime.getRuntime ().addShutdownHook (new Thread() {
+      public void run() {
+        close();
+      }
+    });
+  }
+
+  /**
+   * Queues the registration of a component
+   *
+   * @param comp The component
+   */
+  public void add (ComponentDescription comp){
+    queue(ADD, comp.id, comp.toDataObject ());
+  }
+
+  /**
+   * Queues the removal of a component
+   *
+   * @param comp The component
+   */
+  public void remove (ComponentDescription comp){
+    queue(REMOVE, comp.id, null);
+  }
+
+  /**
+   * Queues a record for the journal thread
+   */
+  private synchronized void queue (byte type, String id, DataObject data){
+    if (closed || id == null){
+      return;
+    }
+    pending.addElement (new Object[] {new Byte(type), id, data});
+    notifyAll ();
+  }
+
+  /**
+   * Waits until the records queued have been written
+   */
+  public synchronized void flush (){
+    while ((! pending.isEmpty () || writing) && runner != null && runner.isAlive ()){
+      try {
+        wait ();
+      } catch (InterruptedException ie) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Writes the records queued, stops the journal thread and closes the
+   * journal file
+   */
+  public void close (){
+    synchronized (this){
+      if (closed){
+        return;
+      }
+      flush();
+      closed = true;
+      notifyAll ();
+    }
+    try {
+      if (runner != null && runner != Thread.currentThread ()){
+        runner.join ();
+      }
+      if (channel != null){
+        channel.close ();
+      }
+    } catch (InterruptedException ie) {
+    } catch (IOException ioe) {
+      System.out.println("RegistrationJournal close IO: "+ioe);
+    }
+  }
+
+  /**
+   * The journal thread: writes the queued records, all the records queued
+   * during a write being written by the next one
+   */
+  public void run (){
+    Vector batch;
+    while (true){
+      synchronized (this){
+        writing = false;
+        notifyAll ();
+        while (pending.isEmpty () && ! closed){
+          try {
+            wait ();
+          } catch (InterruptedException ie) {
+          }
+        }
+        if (pending.isEmpty () && closed){
+          return;
+        }
+        batch = pending;
+        pending = new Vector();
+        writing = true;
+      }
+      write(batch);
+    }
+  }
+
+  /**
+   * Writes a batch of records to the journal, and takes a snapshot if the
+   * journal is long enough
+   */
+  private void write (Vector batch){
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int records = 0;
+    for (int i = 0 ; i < batch.size () ; i++){
+      Object[] record = (Object[]) batch.elementAt (i);
+      byte type = ((Byte) record[0]).byteValue ();
+      String id = (String) record[1];
+      try {
+        byte[] content = EMPTY;
+        if (type == ADD){
+          content = mh.encodeData ((DataObject) record[2]).getBytes (CHARSET);
+          registered.put (id, content);
+        }
+        else {
+          registered.remove (id);
+        }
+        writeRecord(out, type, id, content);
+        records ++;
+      } catch (IOException ioe) {
+        System.out.println("RegistrationJournal write IO: "+ioe);
+      } catch (EncodeException ee) {
+        System.out.println("RegistrationJournal write Encode: "+ee);
+      } catch (InvalidEncoderException iee) {
+        System.out.println("RegistrationJournal write InvalidEncoder: "+iee);
+      }
+    }
+    if (channel == null){
+      return;
+    }
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap (bytes.toByteArray ());
+      while (buffer.hasRemaining ()){
+        channel.write (buffer);
+      }
+      if (FORCE){
+        channel.force (false);
+      }
+      journalRecords += records;
+      if (DEBUG) {
+        System.out.println("RegistrationJournal write " + records + " records, " + journalRecords + " in journal");
+      }
+      if (journalRecords > SNAPSHOT_RECORDS && journalRecords > 2 * registered.size ()){
+        snapshot();
+      }
+    } catch (IOException ioe) {
+      System.out.println("RegistrationJournal write IO: "+ioe);
+    }
+  }
+
+  /**
+   * Writes the registered components in a new snapshot, and empties the journal
+   */
+  private void snapshot () throws IOException {
+    File temp = new File(snapshotFile.getPath () + ".tmp");
+    FileOutputStream file = new FileOutputStream(temp);
+    try {
+      DataOutputStream out = new DataOutputStream(new java.io.BufferedOutputStream(file));
+      Enumeration list = registered.keys ();
+      while (list.hasMoreElements ()){
+        String id = (String) list.nextElement ();
+        writeRecord(out, ADD, id, (byte[]) registered.get (id));
+      }
+      out.flush ();
+      file.getChannel ().force (false);
+    } finally {
+      file.close ();
+    }
+    if (! temp.renameTo (snapshotFile)){
+      snapshotFile.delete ();
+      if (! temp.renameTo (snapshotFile)){
+        throw new IOException("can't rename " + temp + " to " + snapshotFile);
+      }
+    }
+    channel.truncate (0);
+    channel.position (0);
+    if (DEBUG) {
+      System.out.println("RegistrationJournal snapshot of " + registered.size () + " components, " + journalRecords + " records dropped");
+    }
+    journalRecords = 0;
+  }
+
+  /**
+   * Writes a record
+   */
+  private static void writeRecord (DataOutputStream out, byte type, String id, byte[] content) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update (type);
+    crc.update (id.getBytes (CHARSET));
+    crc.update (content);
+    out.writeByte (type);
+    out.writeUTF (id);
+    out.writeInt (content.length);
+    out.write (content);
+    out.writeInt ((int) crc.getValue ());
+  }
+
+  /**
+   * Reads the records of a file into a table of component id -> content of
+   * the last ADD record. The reading stops at the first incomplete or damaged
+   * record, the end of a journal that was being written.
+   */
+  private void read (File f, HashMap contents){
+    if (! f.exists ()){
+      return;
+    }
+    DataInputStream in = null;
+    int records = 0;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+      CRC32 crc = new CRC32();
+      while (true){
+        byte type = in.readByte ();
+        String id = in.readUTF ();
+        int length = in.readInt ();
+        if ((type != ADD && type != REMOVE) || length < 0 || length > MAX_RECORD){
+          System.out.println("RegistrationJournal read: damaged record in " + f);
+          break;
+        }
+        byte[] content = new byte[length];
+        in.readFully (content);
+        crc.reset ();
+        crc.update (type);
+        crc.update (id.getBytes (CHARSET));
+        crc.update (content);
+        if (in.readInt () != (int) crc.getValue ()){
+          System.out.println("RegistrationJournal read: damaged record in " + f);
+          break;
+        }
+        if (type == ADD){
+          contents.put (id, content);
+        }
+        else {
+          contents.remove (id);
+        }
+        records ++;
+      }
+    } catch (EOFException eofe) {
+      // end of the file
+    } catch (IOException ioe) {
+      System.out.println("RegistrationJournal read IO: "+ioe);
+    } finally {
+      try {
+        if (in != null)
+          in.close ();
+      } catch (IOException ioe) {
+      }
+    }
+    if (DEBUG) {
+      System.out.println("RegistrationJournal read " + records + " records from " + f);
+    }
+  }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * RegistrationProber.java
+ */
+
+package context.arch.discoverer;
+
+import context.arch.BaseObject;
+import context.arch.comm.DataObject;
+import context.arch.comm.RequestObject;
+import context.arch.comm.protocol.ProtocolException;
+import context.arch.discoverer.lease.Lease;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * This class checks that the components registered before a restart of the
+ * discoverer are still alive, and registers them again.
+ *
+ * The components are grouped by hostname. PROBERS_NUMBER prober threads,
+ * independent from the ClientsPool of the discoverer, take the hosts one at a
+ * time and PING their components one after the other, waiting at most TIMEOUT
+ * milliseconds for each connection and reply. If a host can't be reached,
+ * its other components are not pinged, and a host that accepts the
+ * connections but is slow to reply is given at most HOST_TIMEOUT
+ * milliseconds, so that it doesn't keep a thread from the other hosts.
+ * Each component that answers is added
+ * to the data model as soon as its reply is received, so the discoverer
+ * answers the queries while the components are checked.
+ *
+ * @see context.arch.discoverer.DiscovererMediator
+ */
+public class RegistrationProber implements Runnable {
+
+  /**
+   * Debug flag. Set to true to see the result of each ping.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * The maximum number of prober threads
+   */
+  public static int PROBERS_NUMBER = 8;
+
+  /**
+   * The time in milliseconds to wait for the connection to a component and
+   * for its reply
+   */
+  public static int TIMEOUT = 5000;
+
+  /**
+   * The time in milliseconds spent at most on the components of one host.
+   * The components not pinged by then are counted as not answering.
+   */
+  public static int HOST_TIMEOUT = 30000;
+
+  /** The mediator registering the components */
+  private DiscovererMediator mediator;
+
+  /** The discoverer sending the PINGs */
+  private BaseObject discoverer;
+
+  /** The hosts to check: each element is a Vector of ComponentDescription */
+  private Vector hosts = new Vector();
+
+  /** The number of components to check */
+  private int total = 0;
+
+  /** The number of components registered again */
+  private int alive = 0;
+
+  /** The number of components that did not answer */
+  private int dead = 0;
+
+  /** The number of prober threads still running */
+  private int running = 0;
+
+  /**
+   * Creates a new RegistrationProber
+   *
+   * @param mediator The mediator registering the components
+   * @param discoverer The discoverer sending the PINGs
+   * @param components The ComponentDescriptions to check
+   */
+  public RegistrationProber (DiscovererMediator mediator, BaseObject discoverer, Collection components) {
+    this.mediator = mediator;
+    this.discoverer = discoverer;
+    Hashtable byHost = new Hashtable();
+    Iterator list = components.iterator ();
+    while (list.hasNext ()){
+      ComponentDescription comp = (ComponentDescription) list.next ();
+      String host = String.valueOf (comp.hostname).toLowerCase ();
+      Vector v = (Vector) byHost.get (host);
+      if (v == null){
+        v = new Vector();
+        byHost.put (host, v);
+        hosts.addElement (v);
+      }
+      v.addElement (comp);
+      total ++;
+    }
+  }
+
+  /**
+   * Starts the prober threads and returns without waiting for them
+   */
+  public synchronized void start (){
+    int n = Math.min (Math.max (1, PROBERS_NUMBER), hosts.size ());
+    for (int i = 0 ; i < n ; i ++){
+      Thread t = new Thread(this, "RegistrationProber#" + i);
+      t.setDaemon (true);
+      running ++;
+      t.start ();
+    }
+    System.out.println("RegistrationProber <start> checks " + total + " components on "
+                       + hosts.size () + " hosts with " + n + " threads");
+  }
+
+  /**
+   * Checks the hosts until there is no more host to check
+   */
+  public void run (){
+    Vector host;
+    while ((host = nextHost ()) != null){
+      probe (host);
+    }
+    synchronized (this){
+      running --;
+      if (running == 0){
+        System.out.println("RegistrationProber <run> " + alive + " components registered again, "
+                           + dead + " components do not answer");
+        notifyAll ();
+      }
+    }
+  }
+
+  /**
+   * Returns the next host to check, or null
+   *
+   * @return Vector The ComponentDescriptions of the host
+   */
+  private synchronized Vector nextHost (){
+    if (hosts.isEmpty ()){
+      return null;
+    }
+    return (Vector) hosts.remove (hosts.size () - 1);
+  }
+
+  /**
+   * Pings the components of a host one after the other until HOST_TIMEOUT,
+   * and registers the components that answer
+   *
+   * @param host The ComponentDescriptions of the host
+   */
+  private void probe (Vector host){
+    boolean reachable = true;
+    long deadline = System.currentTimeMillis () + HOST_TIMEOUT;
+    for (int i = 0 ; i < host.size () ; i ++){
+      ComponentDescription comp = (ComponentDescription) host.elementAt (i);
+      boolean answered = false;
+      long left = deadline - System.currentTimeMillis ();
+      if (reachable && left > 0){
+        try {
+          answered = ping (comp, (int) Math.min (TIMEOUT, left)) != null;
+        } catch (ConnectException ce) {
+          // the host is reachable, but nothing listens on the port
+        } catch (UnknownHostException uhe) {
+          reachable = false;
+        } catch (NoRouteToHostException nrthe) {
+          reachable = false;
+        } catch (SocketTimeoutException ste) {
+          // the connection timed out: the host is down
+          reachable = false;
+        } catch (ProtocolException pe) {
+          // the reply failed or timed out: only this component is lost
+          if (DEBUG) {
+            System.out.println("RegistrationProber <probe> ProtocolException: " + pe);
+          }
+        } catch (Exception e) {
+          if (DEBUG) {
+            System.out.println("RegistrationProber <probe> Exception: " + e);
+          }
+        }
+      }
+      if (answered){
+        mediator.add (comp, new Lease());
+      }
+      synchronized (this){
+        if (answered)
+          alive ++;
+        else
+          dead ++;
+      }
+      if (DEBUG) {
+        System.out.println("RegistrationProber <probe> " + comp.id + (answered ? " is alive" : " does not answer"));
+      }
+    }
+  }
+
+  /**
+   * Sends a PING to a component. The connection errors are thrown as they
+   * are, and the errors of the reply, a timeout included, as a
+   * ProtocolException.
+   *
+   * @param comp The component
+   * @param timeout The time in milliseconds to wait for the connection and
+   * for the reply
+   * @return DataObject The reply, or null
+   */
+  private DataObject ping (ComponentDescription comp, int timeout) throws Exception {
+    Vector v = new Vector();
+    v.addElement (new DataObject(BaseObject.ID, comp.id));
+    DataObject ping = new DataObject(BaseObject.PING, v);
+    RequestObject request = new RequestObject(ping, BaseObject.PING, comp.hostname, comp.port, comp.id);
+    request.setTimeout (timeout);
+    return discoverer.userRequest (request);
+  }
+
+  /**
+   * Waits until all the components have been checked
+   *
+   * @param millis The maximum time to wait in milliseconds, 0 to wait until the end
+   * @return boolean True if all the components have been checked
+   */
+  public synchronized boolean waitForEnd (long millis){
+    long end = System.currentTimeMillis () + millis;
+    while (running > 0 || ! hosts.isEmpty ()){
+      long wait = millis == 0 ? 0 : end - System.currentTimeMillis ();
+      if (millis != 0 && wait <= 0){
+        return false;
+      }
+      try {
+        wait (wait);
+      } catch (InterruptedException ie) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
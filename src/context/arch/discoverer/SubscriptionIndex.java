@@ -0,0 +1,405 @@
+/*
+ * SubscriptionIndex.java
+ */
+
+package context.arch.discoverer;
+
+import context.arch.discoverer.componentDescription.AbstractDescriptionElement;
+import context.arch.discoverer.componentDescription.ClassnameElement;
+import context.arch.discoverer.componentDescription.ConstantAttributeElement;
+import context.arch.discoverer.componentDescription.HostnameElement;
+import context.arch.discoverer.componentDescription.IdElement;
+import context.arch.discoverer.componentDescription.PortElement;
+import context.arch.discoverer.componentDescription.TypeElement;
+import context.arch.discoverer.dataModel.AbstractIndexTableImpl;
+import context.arch.discoverer.querySystem.AbstractBooleanQueryItem;
+import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.ANDQueryItem;
+import context.arch.discoverer.querySystem.ORQueryItem;
+import context.arch.discoverer.querySystem.QueryItem;
+import context.arch.discoverer.querySystem.comparison.Equal;
+import context.arch.storage.Attribute;
+import context.arch.subscriber.AbstractSubscriber;
+import context.arch.subscriber.DiscovererSubscriber;
+import context.arch.subscriber.Subscribers;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Vector;
+
+/**
+ * This class indexes the DiscovererSubscribers of a discoverer, so that only
+ * the subscribers that may be interested in a new component have their
+ * query processed on it.
+ *
+ * The query of each subscriber is compiled into the Equal comparisons on an
+ * indexed field (id, type, classname, hostname, port or constant attribute
+ * name) that a component must fit for the query to be true: for an AND, the
+ * keys of one of its children, for an OR, the keys of both children. The
+ * subscriber is stored under these keys, for its callback. The subscribers
+ * whose query has no such comparisons (a NOT, a range comparison...) are
+ * candidates for every component.
+ *
+ * The keys of a value are its lower case String and its number, if it is one,
+ * since Equal compares the Strings ignoring the case, and the numbers.
+ *
+ * The index follows the Subscribers of the discoverer: when they change,
+ * the new subscribers are compiled and the removed ones are dropped.
+ *
+ * @see context.arch.discoverer.Discoverer#checkSubscribers
+ */
+public class SubscriptionIndex {
+
+  /**
+   * Debug flag. Set to true to see the candidate subscribers.
+   */
+  public static boolean DEBUG = false;
+
+  /** The element names of the indexed fields */
+  private static final String[] INDEXED_ELEMENTS = {
+    IdElement.ID_ELEMENT,
+    TypeElement.TYPE_ELEMENT,
+    ClassnameElement.CLASSNAME_ELEMENT,
+    HostnameElement.HOSTNAME_ELEMENT,
+    PortElement.PORT_ELEMENT,
+    ConstantAttributeElement.CONST_ATT_NAME_ELEMENT
+  };
+
+  /** The Subscribers the index has been built from */
+  private Subscribers subscribers = null;
+
+  /** The modification count of the Subscribers when the index was updated */
+  private int modificationCount = -1;
+
+  /** The indexed subscribers: subscription id -> DiscovererSubscriber */
+  private Hashtable indexed = new Hashtable();
+
+  /**
+   * The subscribers by callback: callback name -> Hashtable of
+   * element name -> Hashtable of key -> Vector of DiscovererSubscriber
+   */
+  private Hashtable callbacks = new Hashtable();
+
+  /**
+   * The subscribers without keys by callback: callback name -> Vector of
+   * DiscovererSubscriber
+   */
+  private Hashtable unindexed = new Hashtable();
+
+  /**
+   * Creates a new SubscriptionIndex
+   */
+  public SubscriptionIndex () {
+  }
+
+  /**
+   * Returns the discoverer subscribers to the callback whose query may be true
+   * for the component. The query of each candidate must still be processed
+   * on the component.
+   *
+   * @param subs The subscribers of the discoverer
+   * @param callback The name of the callback
+   * @param comp The new component
+   * @return Vector The candidate DiscovererSubscribers
+   */
+  public synchronized Vector getCandidates (Subscribers subs, String callback, ComponentDescription comp){
+    update(subs);
+    Vector result = new Vector();
+    Hashtable found = new Hashtable();
+    Vector others = (Vector) unindexed.get (callback);
+    if (others != null){
+      addCandidates(others, found, result);
+    }
+    Hashtable elements = (Hashtable) callbacks.get (callback);
+    if (elements != null){
+      Hashtable keys;
+      for (int i = 0 ; i < INDEXED_ELEMENTS.length ; i++){
+        keys = (Hashtable) elements.get (INDEXED_ELEMENTS[i]);
+        if (keys != null){
+          Vector values = getComponentValues(INDEXED_ELEMENTS[i], comp);
+          for (int j = 0 ; j < values.size () ; j++){
+            addCandidates(keys, values.elementAt (j), found, result);
+          }
+        }
+      }
+    }
+    if (DEBUG) {
+      System.out.println("SubscriptionIndex getCandidates " + result.size () + "/" + indexed.size () + " for " + callback);
+    }
+    return result;
+  }
+
+  /**
+   * Adds the subscribers stored under the keys of a value
+   */
+  private void addCandidates (Hashtable keys, Object value, Hashtable found, Vector result){
+    Vector v = (Vector) keys.get (value.toString ().toLowerCase ());
+    if (v != null){
+      addCandidates(v, found, result);
+    }
+    Double number = AbstractIndexTableImpl.toNumber (value);
+    if (number != null){
+      v = (Vector) keys.get (number);
+      if (v != null){
+        addCandidates(v, found, result);
+      }
+    }
+  }
+
+  /**
+   * Adds subscribers not added yet
+   */
+  private void addCandidates (Vector subs, Hashtable found, Vector result){
+    DiscovererSubscriber sub;
+    for (int i = 0 ; i < subs.size () ; i++){
+      sub = (DiscovererSubscriber) subs.elementAt (i);
+      if (found.put (sub, sub) == null){
+        result.addElement (sub);
+      }
+    }
+  }
+
+  /**
+   * Returns the values of a component for an indexed field
+   */
+  private Vector getComponentValues (String element, ComponentDescription comp){
+    Vector result = new Vector();
+    if (element.equals (IdElement.ID_ELEMENT)){
+      addValue(comp.id, result);
+    }
+    else if (element.equals (TypeElement.TYPE_ELEMENT)){
+      addValue(comp.type, result);
+    }
+    else if (element.equals (ClassnameElement.CLASSNAME_ELEMENT)){
+      addValue(comp.classname, result);
+    }
+    else if (element.equals (HostnameElement.HOSTNAME_ELEMENT)){
+      addValue(comp.hostname, result);
+      addValue(comp.hostaddress, result);
+    }
+    else if (element.equals (PortElement.PORT_ELEMENT)){
+      addValue(Integer.toString (comp.port), result);
+    }
+    else if (element.equals (ConstantAttributeElement.CONST_ATT_NAME_ELEMENT)){
+      if (comp.getConstantAttributes () != null){
+        Iterator list = comp.getConstantAttributes ().iterator ();
+        while (list.hasNext ()){
+          addValue(((Attribute) list.next ()).getName (), result);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds a value that is not null
+   */
+  private void addValue (Object value, Vector result){
+    if (value != null){
+      result.addElement (value);
+    }
+  }
+
+  /**
+   * Updates the index if the subscribers have changed since the last update:
+   * the new discoverer subscribers are added, and the removed ones dropped.
+   */
+  private void update (Subscribers subs){
+    if (subs == subscribers && subs.getModificationCount () == modificationCount){
+      return;
+    }
+    if (subs != subscribers){
+      indexed.clear ();
+      callbacks.clear ();
+      unindexed.clear ();
+      subscribers = subs;
+    }
+    synchronized (subs){
+      modificationCount = subs.getModificationCount ();
+      Hashtable current = new Hashtable();
+      AbstractSubscriber sub;
+      for (int i = 0 ; i < subs.numSubscribers () ; i++){
+        sub = subs.getSubscriberAt (i);
+        if (sub instanceof DiscovererSubscriber){
+          current.put (sub.getSubscriptionId (), sub);
+          if (indexed.get (sub.getSubscriptionId ()) != sub){
+            remove(sub.getSubscriptionId ());
+            add((DiscovererSubscriber) sub);
+          }
+        }
+      }
+      Vector removed = new Vector();
+      Enumeration ids = indexed.keys ();
+      Object id;
+      while (ids.hasMoreElements ()){
+        id = ids.nextElement ();
+        if (! current.containsKey (id)){
+          removed.addElement (id);
+        }
+      }
+      for (int i = 0 ; i < removed.size () ; i++){
+        remove((String) removed.elementAt (i));
+      }
+    }
+  }
+
+  /**
+   * Stores a subscriber under the keys of its query
+   */
+  private void add (DiscovererSubscriber sub){
+    indexed.put (sub.getSubscriptionId (), sub);
+    String callback = sub.getSubscriptionCallback ();
+    Vector keys = sub.getQuery () == null ? null : getKeys(sub.getQuery ());
+    if (keys == null){
+      Vector others = (Vector) unindexed.get (callback);
+      if (others == null){
+        others = new Vector();
+        unindexed.put (callback, others);
+      }
+      others.addElement (sub);
+      return;
+    }
+    Hashtable elements = (Hashtable) callbacks.get (callback);
+    if (elements == null){
+      elements = new Hashtable();
+      callbacks.put (callback, elements);
+    }
+    AbstractDescriptionElement element;
+    for (int i = 0 ; i < keys.size () ; i++){
+      element = (AbstractDescriptionElement) keys.elementAt (i);
+      String name = element.getElementName ();
+      if (name.equals (ConstantAttributeElement.CONST_ATT_NAME_VALUE_ELEMENT)){
+        name = ConstantAttributeElement.CONST_ATT_NAME_ELEMENT;
+      }
+      Hashtable values = (Hashtable) elements.get (name);
+      if (values == null){
+        values = new Hashtable();
+        elements.put (name, values);
+      }
+      Object value = getKeyValue(element);
+      addKey(values, value.toString ().toLowerCase (), sub);
+      Double number = AbstractIndexTableImpl.toNumber (value);
+      if (number != null){
+        addKey(values, number, sub);
+      }
+    }
+  }
+
+  /**
+   * Stores a subscriber under a key
+   */
+  private void addKey (Hashtable values, Object key, DiscovererSubscriber sub){
+    Vector v = (Vector) values.get (key);
+    if (v == null){
+      v = new Vector(2);
+      values.put (key, v);
+    }
+    if (! v.contains (sub)){
+      v.addElement (sub);
+    }
+  }
+
+  /**
+   * Drops a subscriber from the index
+   */
+  private void remove (String subscriptionId){
+    DiscovererSubscriber sub = (DiscovererSubscriber) indexed.remove (subscriptionId);
+    if (sub == null){
+      return;
+    }
+    Vector others = (Vector) unindexed.get (sub.getSubscriptionCallback ());
+    if (others != null){
+      others.removeElement (sub);
+    }
+    Hashtable elements = (Hashtable) callbacks.get (sub.getSubscriptionCallback ());
+    if (elements != null){
+      Enumeration list = elements.elements ();
+      while (list.hasMoreElements ()){
+        Hashtable values = (Hashtable) list.nextElement ();
+        Vector emptyKeys = new Vector();
+        Enumeration keys = values.keys ();
+        while (keys.hasMoreElements ()){
+          Object key = keys.nextElement ();
+          Vector v = (Vector) values.get (key);
+          v.removeElement (sub);
+          if (v.isEmpty ()){
+            emptyKeys.addElement (key);
+          }
+        }
+        for (int i = 0 ; i < emptyKeys.size () ; i++){
+          values.remove (emptyKeys.elementAt (i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the Equal comparisons on an indexed field such that a component
+   * fitting the query fits at least one of them, or null if there are none.
+   *
+   * @param query The query of a subscriber
+   * @return Vector The AbstractDescriptionElements of the comparisons, or null
+   */
+  public static Vector getKeys (AbstractQueryItem query){
+    if (query instanceof ANDQueryItem){
+      AbstractBooleanQueryItem and = (AbstractBooleanQueryItem) query;
+      Vector left = getKeys(and.getLeft ());
+      Vector right = getKeys(and.getRight ());
+      if (left == null || (right != null && right.size () < left.size ())){
+        return right;
+      }
+      return left;
+    }
+    else if (query instanceof ORQueryItem){
+      AbstractBooleanQueryItem or = (AbstractBooleanQueryItem) query;
+      Vector left = getKeys(or.getLeft ());
+      Vector right = getKeys(or.getRight ());
+      if (left == null || right == null){
+        return null;
+      }
+      left.addAll (right);
+      return left;
+    }
+    else if (query instanceof QueryItem){
+      QueryItem item = (QueryItem) query;
+      if (! item.getComparison ().getComparisonName ().equals (Equal.EQUAL)
+          || getKeyValue(item.getElementToMatch ()) == null){
+        return null;
+      }
+      Vector result = new Vector();
+      result.addElement (item.getElementToMatch ());
+      return result;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the value a component must have for an indexed field to fit an
+   * Equal comparison with the element, or null if the field isn't indexed
+   */
+  private static Object getKeyValue (AbstractDescriptionElement element){
+    String name = element.getElementName ();
+    Object value = element.getValue ();
+    if (value == null || name == null){
+      return null;
+    }
+    if (name.equals (ConstantAttributeElement.CONST_ATT_NAME_ELEMENT)
+        || name.equals (ConstantAttributeElement.CONST_ATT_NAME_VALUE_ELEMENT)){
+      // the name of the attribute, before the separator
+      String s = value.toString ();
+      int separator = s.indexOf (ConstantAttributeElement.SEPARATOR);
+      if (separator == 0){
+        return null;
+      }
+      return separator > 0 ? s.substring (0, separator) : s;
+    }
+    for (int i = 0 ; i < INDEXED_ELEMENTS.length ; i++){
+      if (name.equals (INDEXED_ELEMENTS[i])){
+        return value;
+      }
+    }
+    return null;
+  }
+
+}
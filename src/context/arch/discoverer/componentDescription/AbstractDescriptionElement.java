@@ -7,6 +7,7 @@
 package context.arch.discoverer.componentDescription;
 
 import context.arch.discoverer.querySystem.comparison.AbstractComparison;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.comm.DataObject;
 
 import java.util.Vector;
@@ -82,6 +83,20 @@ public abstract class AbstractDescriptionElement {
    */
   public abstract boolean processQueryItem(Object componentDescription, AbstractComparison comparison);
   
+  /**
+   * Returns the compiled version of a QueryItem on this element: a
+   * CompiledQuery returning the same result as processQueryItem, with the
+   * comparison prepared for the value of this element. This implementation
+   * compares the field returned by extractElement, or each element of the
+   * field if it is a Collection.
+   *
+   * @param comparison The comparison to use
+   * @return CompiledQuery
+   */
+  public CompiledQuery compile(AbstractComparison comparison){
+    return new CompiledDescriptionElement(this, comparison.compile (getValue ()));
+  }
+  
   /** Returns a printable version */
   public String toString(){
     return getElementName() + " " + getValue();
@@ -3,10 +3,13 @@ package context.arch.discoverer.componentDescription;
 import context.arch.storage.Attribute;
 import context.arch.storage.AttributeNameValue;
 import context.arch.discoverer.querySystem.comparison.AbstractComparison;
+import context.arch.discoverer.querySystem.CompiledQuery;
+import context.arch.discoverer.querySystem.QueryItem;
 
 import java.util.StringTokenizer;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * 
@@ -163,6 +166,23 @@ public abstract class AttributeElement extends AbstractDescriptionElement {
     return result;
   }
   
+  /**
+   * Returns the compiled version of a QueryItem on this element, with the
+   * name and the value searched split once
+   */
+  public CompiledQuery compile(AbstractComparison comparison){
+    String name;
+    String val;
+    try {
+      name = getAttName();
+      val = getAttValue();
+    } catch (NoSuchElementException nsee) {
+      // an incomplete value: processQueryItem reports it on each component
+      return CompiledQuery.interpreted (new QueryItem(this, comparison));
+    }
+    return new CompiledAttributeElement(this, name, name == null ? null : comparison.compile (name),
+                                        val == null ? null : comparison.compile (val), type);
+  }
   
   public String toString(){
     return "Name=" + this.getElementName () + " value=" + this.getValue ();
@@ -0,0 +1,105 @@
+/*
+ * CompiledAttributeElement.java
+ */
+
+package context.arch.discoverer.componentDescription;
+
+import context.arch.discoverer.querySystem.CompiledQuery;
+import context.arch.discoverer.querySystem.comparison.CompiledComparison;
+import context.arch.storage.Attribute;
+import context.arch.storage.AttributeNameValue;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * This class is the compiled version of a QueryItem on an AttributeElement:
+ * the name and the value searched are split once from the value of the
+ * element, and the comparison is prepared for them. The attributes of the
+ * component are compared as AttributeElement.processQueryItem does.
+ *
+ * @see context.arch.discoverer.componentDescription.AttributeElement#compile
+ */
+public class CompiledAttributeElement extends CompiledQuery {
+
+  /** The attribute element */
+  private final AttributeElement element;
+
+  /** The name of the attribute searched, or null */
+  private final String name;
+
+  /** The comparison prepared for the name, if the value is null */
+  private final CompiledComparison nameComparison;
+
+  /** The comparison prepared for the value searched, or null */
+  private final CompiledComparison valueComparison;
+
+  /** The type of the attribute searched, or null */
+  private final String type;
+
+  /**
+   * Creates a new CompiledAttributeElement
+   *
+   * @param element The attribute element
+   * @param name The name of the attribute searched, or null
+   * @param nameComparison The comparison prepared for the name
+   * @param valueComparison The comparison prepared for the value searched, or null
+   * @param type The type of the attribute searched, or null
+   */
+  public CompiledAttributeElement (AttributeElement element, String name, CompiledComparison nameComparison,
+                                   CompiledComparison valueComparison, String type) {
+    this.element = element;
+    this.name = name;
+    this.nameComparison = nameComparison;
+    this.valueComparison = valueComparison;
+    this.type = type;
+  }
+
+  /**
+   * Returns true if an attribute of the component fits the element
+   *
+   * @param component The ComponentDescription
+   * @return boolean
+   */
+  public boolean process (Object component){
+    boolean result = false;
+    if (name == null && valueComparison == null){
+      return false;
+    }
+    Iterator list = ((Collection) element.extractElement (component)).iterator ();
+    // Compare the names
+    if (valueComparison == null){
+      while (list.hasNext ()){
+        Attribute a = (Attribute) list.next ();
+        result = nameComparison.compare (a.getName ());
+        if (result && (type == null || type.equals (a.getType ()))) break;
+      }
+    }
+    // Compare the values, and the names if there is one
+    else {
+      while (list.hasNext ()){
+        try {
+          AttributeNameValue anv = (AttributeNameValue) list.next ();
+          result = (name == null || anv.getName ().equalsIgnoreCase (name))
+            && valueComparison.compare (anv.getValue ());
+          if (result && (type == null || type.equals (anv.getType ()))) break;
+        } catch (ClassCastException cce) {
+          //if this specific Attribute was not an AttributeNameValue, just skip it
+          continue;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a printable version of this object
+   *
+   * @return String
+   */
+  public String toString (){
+    return element.getElementName () + " " + (valueComparison == null ? nameComparison : valueComparison)
+      + (name != null && valueComparison != null ? " name " + name : "");
+  }
+
+}
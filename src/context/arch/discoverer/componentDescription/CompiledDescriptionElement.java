@@ -0,0 +1,78 @@
+/*
+ * CompiledDescriptionElement.java
+ */
+
+package context.arch.discoverer.componentDescription;
+
+import context.arch.discoverer.querySystem.CompiledQuery;
+import context.arch.discoverer.querySystem.comparison.CompiledComparison;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * This class is the compiled version of a QueryItem: it compares the field
+ * of the component given by the description element to the value of the
+ * query, with the comparison prepared for this value. When the field is a
+ * Collection, the component fits the query if one of its elements does.
+ *
+ * @see context.arch.discoverer.componentDescription.AbstractDescriptionElement#compile
+ */
+public class CompiledDescriptionElement extends CompiledQuery {
+
+  /** The description element */
+  protected final AbstractDescriptionElement element;
+
+  /** The comparison prepared for the value of the element */
+  protected final CompiledComparison comparison;
+
+  /**
+   * Creates a new CompiledDescriptionElement
+   *
+   * @param element The description element
+   * @param comparison The comparison prepared for the value of the element
+   */
+  public CompiledDescriptionElement (AbstractDescriptionElement element, CompiledComparison comparison) {
+    this.element = element;
+    this.comparison = comparison;
+  }
+
+  /**
+   * Returns true if the field of the component fits the comparison
+   *
+   * @param component The ComponentDescription
+   * @return boolean
+   */
+  public boolean process (Object component){
+    return compare(element.extractElement (component));
+  }
+
+  /**
+   * Compares a value of the component, or each element of a Collection
+   * until one fits the comparison
+   *
+   * @param value The value of the component
+   * @return boolean
+   */
+  protected boolean compare (Object value){
+    if (value instanceof Collection){
+      Iterator list = ((Collection) value).iterator ();
+      while (list.hasNext ()){
+        if (comparison.compare (list.next ()))
+          return true;
+      }
+      return false;
+    }
+    return comparison.compare (value);
+  }
+
+  /**
+   * Returns a printable version of this object
+   *
+   * @return String
+   */
+  public String toString (){
+    return element.getElementName () + " " + comparison;
+  }
+
+}
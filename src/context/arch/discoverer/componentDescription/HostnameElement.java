@@ -7,6 +7,7 @@
 package context.arch.discoverer.componentDescription;
 
 import context.arch.discoverer.querySystem.comparison.AbstractComparison;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.discoverer.ComponentDescription;
 
 /**
@@ -43,6 +44,19 @@ public class HostnameElement extends AbstractDescriptionElement {
     return (String)((ComponentDescription) componentDescription).hostname;
   }
   
+  /**
+   * Returns the compiled version of a QueryItem on this element, comparing
+   * the hostname and the hostaddress
+   */
+  public CompiledQuery compile(AbstractComparison comparison){
+    return new CompiledDescriptionElement(this, comparison.compile (getValue ())) {
+      public boolean process(Object componentDescription){
+        return compare(((ComponentDescription) componentDescription).hostname)
+          || compare(((ComponentDescription) componentDescription).hostaddress);
+      }
+    };
+  }
+
   public boolean processQueryItem(Object componentDescription, AbstractComparison operator){
     return ( operator.compare(  ((ComponentDescription) componentDescription).hostname,
                               this.getValue ())
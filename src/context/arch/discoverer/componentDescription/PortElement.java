@@ -7,6 +7,7 @@
 package context.arch.discoverer.componentDescription;
 
 import context.arch.discoverer.querySystem.comparison.AbstractComparison;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.discoverer.ComponentDescription;
 
 /**
@@ -43,6 +44,18 @@ public class PortElement extends AbstractDescriptionElement {
     return Integer.toString(((ComponentDescription) componentDescription).port);
   }
   
+  /**
+   * Returns the compiled version of a QueryItem on this element, comparing
+   * the port as an Integer like processQueryItem
+   */
+  public CompiledQuery compile(AbstractComparison comparison){
+    return new CompiledDescriptionElement(this, comparison.compile (getValue ())) {
+      public boolean process(Object componentDescription){
+        return compare(new Integer(((ComponentDescription) componentDescription).port));
+      }
+    };
+  }
+
   public boolean processQueryItem(Object componentDescription, AbstractComparison operator){
     ComponentDescription comp = (ComponentDescription) componentDescription;
     int port = comp.port;
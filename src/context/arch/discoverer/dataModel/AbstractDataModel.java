@@ -9,8 +9,16 @@ package context.arch.discoverer.dataModel;
 import java.util.Hashtable;
 import java.util.HashMap;
 import java.util.Enumeration;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * A data model is read by the queries and modified by the registrations
+ * from several threads. The subclasses take the write lock of the model
+ * while they modify it, and the queries take the read lock while they read
+ * several index tables, so that they see the model between two changes.
+ * The locks are reentrant: a caller can take the write lock to make several
+ * changes in one step.
  *
  * @author  Agathe
  */
@@ -23,7 +31,12 @@ public abstract class AbstractDataModel {
    */
   protected Hashtable nameToIndexTableIF; 
   
-  private int numberOfElement = 0;
+  private volatile int numberOfElement = 0;
+  
+  /**
+   * The lock of the data model
+   */
+  private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
     
   /**
    *
@@ -32,6 +45,36 @@ public abstract class AbstractDataModel {
     nameToIndexTableIF = new Hashtable();
   }
   
+  /**
+   * Takes the read lock of the data model: the model isn't modified until
+   * unlockRead is called
+   */
+  public void lockRead(){
+    lock.readLock ().lock ();
+  }
+  
+  /**
+   * Releases the read lock of the data model
+   */
+  public void unlockRead(){
+    lock.readLock ().unlock ();
+  }
+  
+  /**
+   * Takes the write lock of the data model: the model isn't read by other
+   * threads until unlockWrite is called
+   */
+  public void lockWrite(){
+    lock.writeLock ().lock ();
+  }
+  
+  /**
+   * Releases the write lock of the data model
+   */
+  public void unlockWrite(){
+    lock.writeLock ().unlock ();
+  }
+  
   /**
    *
    */
@@ -82,9 +125,20 @@ public abstract class AbstractDataModel {
   }
   
   /**
+   * Returns an empty set of component indexes, used by the queries to
+   * collect the indexes of the components that match them
+   *
+   * @return BitSet
+   */
+  public abstract BitSet getEmptySet();
+  
+  /**
+   * Returns the set of the indexes of the currently stored components.
+   * The returned set is a copy the caller may modify.
    *
+   * @return BitSet
    */
-  public abstract Object getEmptyArray();
+  public abstract BitSet getIndexSet();
   
   public void incNbElements(){
     this.numberOfElement ++;
@@ -7,8 +7,14 @@
 package context.arch.discoverer.dataModel;
 
 import java.util.Hashtable;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.Vector;
 
 /**
+ * Besides the Hashtable of its keys, an index table keeps its numeric keys
+ * sorted by value, so that the range comparisons of the queries look up
+ * a part of the sorted keys instead of comparing every key.
  *
  * @author  Agathe
  */
@@ -19,6 +25,11 @@ public abstract class AbstractIndexTableImpl extends Hashtable implements IndexT
    */
   protected String name;
 
+  /**
+   * The numeric keys : key=Double => value=Vector of the keys
+   */
+  private TreeMap numericKeys = new TreeMap();
+
   /**
    *
    */
@@ -52,6 +63,116 @@ public abstract class AbstractIndexTableImpl extends Hashtable implements IndexT
     return sb.toString ();
   }
   
+  /**
+   * Adds a key to the table, and to the numeric keys if it is a number
+   *
+   * @param key
+   * @param value
+   * @return Object The previous value of the key
+   */
+  public synchronized Object put (Object key, Object value){
+    Object previous = super.put (key, value);
+    if (previous == null){
+      Double number = toNumber (key);
+      if (number != null){
+        Vector keys = (Vector) numericKeys.get (number);
+        if (keys == null){
+          keys = new Vector(1);
+          numericKeys.put (number, keys);
+        }
+        keys.addElement (key);
+      }
+    }
+    return previous;
+  }
+  
+  /**
+   * Removes a key from the table and from the numeric keys
+   *
+   * @param key
+   * @return Object The value of the key
+   */
+  public synchronized Object remove (Object key){
+    Object previous = super.remove (key);
+    if (previous != null){
+      Double number = toNumber (key);
+      if (number != null){
+        Vector keys = (Vector) numericKeys.get (number);
+        if (keys != null){
+          keys.removeElement (key);
+          if (keys.isEmpty ())
+            numericKeys.remove (number);
+        }
+      }
+    }
+    return previous;
+  }
+  
+  /**
+   * Removes all keys
+   */
+  public synchronized void clear (){
+    super.clear ();
+    numericKeys.clear ();
+  }
+  
+  /**
+   * Returns the numeric keys sorted by value: key=Double => value=Vector
+   * of the keys having this value.
+   *
+   * @return SortedMap
+   */
+  public SortedMap getNumericKeys (){
+    return numericKeys;
+  }
+  
+  /**
+   * Returns the number value of a key or of a value searched by a query,
+   * the way the comparisons convert Strings, or null if it isn't a number.
+   *
+   * @param object The key or value
+   * @return Double
+   */
+  public static Double toNumber (Object object){
+    if (object == null)
+      return null;
+    if (object instanceof Number){
+      return normalize (((Number) object).doubleValue ());
+    }
+    String s = object.toString ().trim ();
+    if (s.length () == 0 || "+-.0123456789I".indexOf (s.charAt (0)) < 0)
+      return null;
+    try {
+      return normalize (Double.valueOf (s).doubleValue ());
+    }
+    catch (NumberFormatException nfe) {
+      return null;
+    }
+  }
+  
+  /**
+   * Returns the key an index table stores a value under: the String of the
+   * value in lower case, as the index tables build their keys.
+   *
+   * @param value The value searched by a query
+   * @return String
+   */
+  public static String toKey (Object value){
+    if (value == null)
+      return null;
+    return value.toString ().toLowerCase ();
+  }
+  
+  /**
+   * Returns a Double, with -0.0 turned into 0.0, or null for NaN that
+   * isn't ordered
+   */
+  private static Double normalize (double d){
+    if (Double.isNaN (d))
+      return null;
+    return new Double (d + 0.0);
+  }
+  
   /**
    * Returns the element of the object key that is used as the key of the 
    * indexTable.
@@ -8,6 +8,8 @@ package context.arch.discoverer.dataModel;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.BitSet;
+import java.util.Vector;
 
 import context.arch.discoverer.ComponentDescription;
 import context.arch.discoverer.componentDescription.CallbackElement;
@@ -22,6 +24,11 @@ import context.arch.discoverer.componentDescription.PortElement;
 import context.arch.discoverer.componentDescription.ServiceElement;
 import context.arch.discoverer.componentDescription.SubscriberElement;
 import context.arch.discoverer.componentDescription.TypeElement;
+import context.arch.discoverer.querySystem.ANDQueryItem;
+import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.ORQueryItem;
+import context.arch.discoverer.querySystem.QueryItem;
+import context.arch.discoverer.querySystem.QueryPlanner;
 
 
 /**
@@ -58,6 +65,9 @@ public class DiscovererDataModel extends AbstractDataModel {
    * key = Integer(index) => value=ComponentDescription */
   private Hashtable components;
   
+  /** The indexes of the stored ComponentDescription objects */
+  private BitSet indexes;
+  
   /** Field inherited from AbstractDataModel : stores the Hashtable */
   // protected HashMap nameToIndexTableIF;
   
@@ -72,6 +82,7 @@ public class DiscovererDataModel extends AbstractDataModel {
   public DiscovererDataModel () {
     super();
     components = new Hashtable();
+    indexes = new BitSet();
     
     // nameToIndexTableIF is inherited from the AbstractDataModel class
     // Here a put the index tables : the key is the name of the table
@@ -102,11 +113,15 @@ public class DiscovererDataModel extends AbstractDataModel {
    * @return Integer
    */
   public Object add(Object componentDescription){
-    int index = this.nextIndex;
-    Integer intIndex = new Integer(index);
-    add(componentDescription, intIndex);
-    this.nextIndex ++;
-    return intIndex;
+    lockWrite ();
+    try {
+      Integer intIndex = new Integer(this.nextIndex);
+      add(componentDescription, intIndex);
+      this.nextIndex ++;
+      return intIndex;
+    } finally {
+      unlockWrite ();
+    }
   }
 
   /**
@@ -121,6 +136,7 @@ public class DiscovererDataModel extends AbstractDataModel {
     ComponentDescription comp = (ComponentDescription) componentDescription;
     if (comp != null) {
       components.put((Integer)index, comp);
+      indexes.set(((Integer)index).intValue());
       addToIndexTableIF (comp,(Integer) index);
       incNbElements();
       return index;
@@ -133,14 +149,23 @@ public class DiscovererDataModel extends AbstractDataModel {
    * Update all hashtable (general and index tables) to add a new component
    *
    * @param componentDescription The new component to add
-   * @return the Integer corresponding to the index of the component
+   * @return the Integer corresponding to the index of the component, null
+   * if the component isn't stored
    */
   public Object update(Object componentDescription){
     ComponentDescription comp = (ComponentDescription) componentDescription;
-    Integer index = (Integer) getIndexOf (comp.id);
-    remove (index);
-    add(comp, index);
-    return index;
+    lockWrite ();
+    try {
+      Integer index = (Integer) getIndexOf (comp.id);
+      if (index == null){
+        return null;
+      }
+      remove (index);
+      add(comp, index);
+      return index;
+    } finally {
+      unlockWrite ();
+    }
   }
   
   
@@ -175,10 +200,17 @@ public class DiscovererDataModel extends AbstractDataModel {
   }
   
   /**
+   * Returns the indexes of the stored components
    *
+   * @return Enumeration of Integer
    */
   public Enumeration getIndexKeys(){
-    return components.keys ();
+    lockRead ();
+    try {
+      return new Vector(components.keySet ()).elements ();
+    } finally {
+      unlockRead ();
+    }
   }
 
   
@@ -188,23 +220,30 @@ public class DiscovererDataModel extends AbstractDataModel {
    * @return Object The removed object (ComponentDescription)
    */
   public Object remove (Object objectIndexOrId){
-    Integer index = null;
-    if (objectIndexOrId instanceof Integer) {
-      index = (Integer) objectIndexOrId;
-    }
-    else if (objectIndexOrId instanceof String){
-      index = (Integer) getIndexOf (objectIndexOrId);
-    }
-    if (index != null){
+    lockWrite ();
+    try {
+      Integer index = null;
+      if (objectIndexOrId instanceof Integer) {
+        index = (Integer) objectIndexOrId;
+      }
+      else if (objectIndexOrId instanceof String){
+        index = (Integer) getIndexOf (objectIndexOrId);
+      }
+      if (index == null){
+        return null;
+      }
       // remove from the all component descriptions
       ComponentDescription removed = (ComponentDescription) components.remove (index);
-      // remove from the index tables
-      removeFromIndexTableIF(removed, index);
-      decNbElements();
+      if (removed != null){
+        indexes.clear(index.intValue());
+        // remove from the index tables
+        removeFromIndexTableIF(removed, index);
+        decNbElements();
+      }
       return removed;
+    } finally {
+      unlockWrite ();
     }
-    return null;
-  
   }
   
   /**
@@ -239,6 +278,18 @@ public class DiscovererDataModel extends AbstractDataModel {
    *
    */
   public String toString(){
+    lockRead ();
+    try {
+      return toStringLocked ();
+    } finally {
+      unlockRead ();
+    }
+  }
+  
+  /**
+   * Returns a printable version of the data model, the read lock being taken
+   */
+  private String toStringLocked(){
     StringBuffer sb = new StringBuffer("DiscovererDataModel - ");
     sb.append ("Nb Elements=" + this.getNumberOfElements() + "\n\n");
     sb.append ("\n" + nameToIndexTableIF.get (ID_INDEX));
@@ -259,64 +310,158 @@ public class DiscovererDataModel extends AbstractDataModel {
   }
   
   /**
-   * Returns a empty hashmap that contains as key the index of the currently
-   * stored components, and as value, false.
+   * Returns an empty set of component indexes, large enough for the
+   * indexes of the currently stored components.
    *
-   * @return HashMap
+   * @return BitSet
    */
-  public Object getEmptyArray(){
-    int size = components.size ();
-    // THAT
-    //long l1 = System.currentTimeMillis();
-    
-    int [][] array = new int[size][2];
-    Enumeration keys = components.keys ();
-    for (int i = 0 ; i < size ; i ++ ){
-      array[i][0] = ((Integer)keys.nextElement ()).intValue();
-      array[i][1] = 0;
-    }
-    //long l2 = System.currentTimeMillis();
-    return array;
-    
-    /*// OR
-    if (size <1 ) size = 1;
-    HashMap hash = new HashMap(size);
-    Enumeration list2 = components.keys ();
-    while (list2.hasMoreElements ()){
-      hash.put (list2.nextElement (), new Boolean(false));
-    }
-    
-    long l3 = System.currentTimeMillis();
-    System.out.println("l1= " + l1 + " l2= " + l2 + " l3= " + l3); 
-    System.out.println("first " + (l2-l1));
-    System.out.println("second " + (l3-l2));
-    
-    return hash;
-     */
+  public BitSet getEmptySet(){
+    return new BitSet(nextIndex);
   }
   
-
+  /**
+   * Returns a copy of the set of the indexes of the currently stored
+   * components.
+   *
+   * @return BitSet
+   */
+  public BitSet getIndexSet(){
+    lockRead ();
+    try {
+      return (BitSet) indexes.clone ();
+    } finally {
+      unlockRead ();
+    }
+  }
   
+  /**
+   * Stress test of the read/write lock of the data model: writer threads
+   * update components while reader threads process queries, and the readers
+   * check that each result is consistent with one state of the data model.
+   * Each update moves a component from type widget on hostA to type server on
+   * hostB or back, and another thread adds and removes components of type
+   * other. The readers check that:
+   * - no component is a widget on hostB or a server on hostA,
+   * - the widgets and the servers, counted by two queries under one read
+   *   lock, are all the updated components.
+   * Arguments: duration in seconds (5), number of components (200), readers
+   * (4) and writers (2).
+   */
   public static void main (String args[]){
-    AbstractDataModel data = new DiscovererDataModel();
-    ComponentDescription comp = new ComponentDescription();
-    comp.id = "agathe";
-    comp.port = 1524;
-    comp.classname = "battestini";
-    comp.hostname = "orleans";
-    comp.hostaddress = "120.32.36.39";
-    comp.location = "AH";
-    comp.type = "girl";
-    
-    System.out.println("comp = " + comp);
-    
-    data.add(comp);
-    for (int i = 0 ; i < 100 ; i ++){
-      data.add(comp);
+    final int seconds = args.length > 0 ? Integer.parseInt (args[0]) : 5;
+    final int n = args.length > 1 ? Integer.parseInt (args[1]) : 200;
+    int numReaders = args.length > 2 ? Integer.parseInt (args[2]) : 4;
+    int numWriters = args.length > 3 ? Integer.parseInt (args[3]) : 2;
+    final DiscovererDataModel dataModel = new DiscovererDataModel();
+    for (int i = 0 ; i < n ; i ++){
+      dataModel.add (newComponent("comp" + i, i % 2 == 0));
     }
-    
-    
-    System.out.println(data.toString());
+    final QueryPlanner planner = new QueryPlanner(dataModel);
+    final AbstractQueryItem widgets = new QueryItem(new TypeElement("widget"));
+    final AbstractQueryItem servers = new QueryItem(new TypeElement("server"));
+    final AbstractQueryItem mixed = new ORQueryItem(
+      new ANDQueryItem(widgets, new QueryItem(new HostnameElement("hostB"))),
+      new ANDQueryItem(servers, new QueryItem(new HostnameElement("hostA"))));
+    final long end = System.currentTimeMillis () + seconds * 1000L;
+    // reads, updates and errors
+    final long[] counts = new long[3];
+
+    Vector threads = new Vector();
+    for (int r = 0 ; r < numReaders ; r ++){
+      threads.addElement (new Thread() {
+        public void run(){
+          long reads = 0;
+          while (System.currentTimeMillis () < end){
+            String error = null;
+            try {
+              BitSet wrong = planner.process (mixed);
+              int found;
+              dataModel.lockRead ();
+              try {
+                found = planner.process (widgets).cardinality () + planner.process (servers).cardinality ();
+              } finally {
+                dataModel.unlockRead ();
+              }
+              if (!wrong.isEmpty ()){
+                error = "half updated components " + wrong;
+              }
+              else if (found != n){
+                error = found + " widgets and servers instead of " + n;
+              }
+            } catch (RuntimeException re){
+              error = re.toString ();
+            }
+            reads ++;
+            if (error != null){
+              System.out.println("DiscovererDataModel main error: " + error);
+              synchronized (counts){
+                counts[2] ++;
+              }
+            }
+          }
+          synchronized (counts){
+            counts[0] += reads;
+          }
+        }
+      });
+    }
+    for (int w = 0 ; w < numWriters ; w ++){
+      final int first = w;
+      final int step = numWriters;
+      threads.addElement (new Thread() {
+        public void run(){
+          long updates = 0;
+          boolean widget = true;
+          while (System.currentTimeMillis () < end){
+            for (int i = first ; i < n ; i += step){
+              dataModel.update (newComponent("comp" + i, (i % 2 == 0) != widget));
+              updates ++;
+            }
+            widget = !widget;
+          }
+          synchronized (counts){
+            counts[1] += updates;
+          }
+        }
+      });
+    }
+    threads.addElement (new Thread() {
+      public void run(){
+        int i = 0;
+        while (System.currentTimeMillis () < end){
+          ComponentDescription comp = newComponent("other" + (i ++), true);
+          comp.type = "other";
+          dataModel.add (comp);
+          dataModel.remove (comp.id);
+        }
+      }
+    });
+
+    for (int i = 0 ; i < threads.size () ; i ++){
+      ((Thread) threads.elementAt (i)).start ();
+    }
+    for (int i = 0 ; i < threads.size () ; i ++){
+      try {
+        ((Thread) threads.elementAt (i)).join ();
+      } catch (InterruptedException ie){
+      }
+    }
+    System.out.println(numReaders + " readers, " + numWriters + " writers, " + n + " components, " + seconds + " s: "
+                       + counts[0] + " reads, " + counts[1] + " updates, " + counts[2] + " errors");
+  }
+
+  /**
+   * Returns a component of the stress test: a widget on hostA or a server on hostB
+   */
+  private static ComponentDescription newComponent (String id, boolean widget){
+    ComponentDescription comp = new ComponentDescription();
+    comp.id = id;
+    comp.classname = "context.apps.Test";
+    comp.type = widget ? "widget" : "server";
+    comp.hostname = widget ? "hostA" : "hostB";
+    comp.hostaddress = widget ? "10.0.0.1" : "10.0.0.2";
+    comp.port = 1520;
+    return comp;
   }
 }// class end
 
@@ -7,6 +7,7 @@
 package context.arch.discoverer.dataModel;
 
 import java.util.Enumeration;
+import java.util.SortedMap;
 
 /**
  *
@@ -97,6 +98,13 @@ public interface IndexTableIF {
    */
   public Enumeration keys();
   
+  /**
+   * Returns the keys of this table that are numbers, sorted by value:
+   * key=Double => value=Vector of the keys having this value.
+   * The numbers are parsed once, when the keys are added.
+   */
+  public SortedMap getNumericKeys();
+  
   /*
   abstract void removeValue(Object key);
   
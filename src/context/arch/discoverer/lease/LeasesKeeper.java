@@ -6,10 +6,9 @@
 
 package context.arch.discoverer.lease;
 
+import context.arch.discoverer.ComponentDescription;
 import context.arch.discoverer.DiscovererMediator;
 
-import java.util.Timer;
-import java.util.Vector;
 import java.util.Hashtable;
 import java.util.Enumeration;
 import java.util.ArrayList;
@@ -24,7 +23,8 @@ import java.util.ArrayList;
  * xx minutes as defined in the Lease class by
  * the constant Lease.TIME_SLOT_MILLIS.
  * If the LeaseKeeper detects the end of a lease, it sends it to the discoverer
- * that will send a checking message to the component. 
+ * that will send a checking message to the component. The leases that end
+ * at the same time are sent host by host.
  *
  * @author  Agathe
  * @see context.arch.discoverer.lease.LeasesWatcher
@@ -70,18 +70,37 @@ public class LeasesKeeper {
   public void addLease(Lease lease){
     lease.setStartDate(); 
     leases.put (lease.getComponentIndex (), lease);
-    watcher.putLeases (leases);
+    watcher.schedule (lease);
   }
 
   /**
    * This method allows to send a list of leases that should end to the 
-   * discoverer.
+   * discoverer. The components are grouped by hostname, and the discoverer
+   * gets the list of components of one host at a time.
    *
    * @param listOfLeaseEnd The leases to send to the discoverer
    */
   public void leaseEndNotificationTo(ArrayList listOfLeaseEnd){
     //System.out.println("LeasesKeeper <leaseEndNotification> - lease=" + listOfLeaseEnd);
-    mediator.sendLeaseEndNotificationTo(listOfLeaseEnd);
+    Hashtable hosts = new Hashtable();
+    ArrayList hostList = new ArrayList();
+    for (int i = 0 ; i < listOfLeaseEnd.size () ; i++){
+      Integer index = (Integer) listOfLeaseEnd.get (i);
+      ComponentDescription comp = mediator.getComponentDescription (index);
+      if (comp == null)
+        continue;
+      String host = String.valueOf (comp.hostname).toLowerCase ();
+      ArrayList components = (ArrayList) hosts.get (host);
+      if (components == null){
+        components = new ArrayList();
+        hosts.put (host, components);
+        hostList.add (host);
+      }
+      components.add (index);
+    }
+    for (int i = 0 ; i < hostList.size () ; i++){
+      mediator.sendLeaseEndNotificationTo((ArrayList) hosts.get (hostList.get (i)));
+    }
     //System.out.println("has sent it to the disco");
 }
 
@@ -94,12 +113,9 @@ public class LeasesKeeper {
    */
   public synchronized Lease removeLease(Integer indexToRemove){
     System.out.println("LeaseKeeper <removeLease>");
-    Integer result = null;
     Lease l = null;
-    if ((result = contains(indexToRemove)) != null){
-      l = (Lease) leases.remove (result);
-      System.out.println("LeasesKeeper <removeLease> new leases ="+leases);
-      watcher.putLeases (leases);
+    if (indexToRemove != null && (l = (Lease) leases.remove (indexToRemove)) != null){
+      watcher.cancel (l);
     }
     return l;
   }
@@ -111,12 +127,8 @@ public class LeasesKeeper {
    * @return boolean True if this object contains componentIndex
    */
   public synchronized Integer contains(Integer componentIndex){
-    Enumeration list = leases.keys ();
-    while (list.hasMoreElements ()){
-      Integer ind = (Integer) list.nextElement ();
-      if (ind.equals (componentIndex)){
-        return ind;
-      }
+    if (componentIndex != null && leases.containsKey (componentIndex)){
+      return componentIndex;
     }
     return null;
   }
@@ -151,7 +163,7 @@ public class LeasesKeeper {
     if (o != null) {
       renewal.setStartDate ();
       leases.put (renewal.getComponentIndex (), renewal);
-      watcher.putLeases (leases);
+      watcher.schedule (renewal);
       return true;
     }
     // Return false cause lease not found
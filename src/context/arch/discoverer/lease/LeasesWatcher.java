@@ -6,12 +6,8 @@
 
 package context.arch.discoverer.lease;
 
-import context.arch.discoverer.Discoverer;
-
-import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Vector;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Enumeration;
@@ -20,13 +16,38 @@ import java.util.Calendar;
 /**
  * This class is used to watch for all context components leases
  * each xx time, as defined by Lease.TIME_SLOT_MILLIS, and then send
- * to the LeasesKeeper object an
- * Enumeration of all component index whose lease expires.
+ * to the LeasesKeeper object the list of all component index whose
+ * lease expires.
+ *
+ * The leases are kept in a hashed timing wheel: the end date of a lease is
+ * converted into a number of time slots (its deadline), and the lease is put
+ * in the bucket deadline % WHEEL_SIZE. Each time slot, the watcher only looks
+ * at the bucket of the current time slot, so a lease is only examined when it
+ * may expire, and not at each time slot. Adding, renewing or removing a lease
+ * moves one entry from a bucket to another.
+ *
+ * A lease that has expired stays in the wheel: it is checked again
+ * NOTIFICATION_RETRY time slots later, in case the component has not
+ * answered the lease end notification. It leaves the wheel when the lease is
+ * renewed or removed, or when its component is no more registered.
  *
  * @author  Agathe
  */
 public class LeasesWatcher {
-  
+
+  /**
+   * The number of buckets of the timing wheel. With one bucket per time slot,
+   * a lease shorter than WHEEL_SIZE time slots is only examined when it
+   * expires.
+   */
+  public static int WHEEL_SIZE = 1024;
+
+  /**
+   * The number of time slots to wait before sending a new lease end
+   * notification to a component that has not renewed its lease
+   */
+  public static int NOTIFICATION_RETRY = 2;
+
   /**
    * The timer object that waits for Lease.TIME_SLOT_MILLIS minutes to start
    * the leases watching
@@ -34,17 +55,29 @@ public class LeasesWatcher {
    * @see context.arch.discoverer.lease.Lease#TIME_SLOT_MILLIS
    */
   private Timer timer;
-  
+
   /**
    * The LeasesKeeper object
    */
   protected LeasesKeeper keeper;
-  
+
+  /**
+   * The buckets of the timing wheel. Each bucket associates the component
+   * (Integer)index -> Deadline object
+   */
+  protected Hashtable[] wheel;
+
+  /**
+   * The deadlines of all watched leases, associates the component
+   * (Integer)index -> Deadline object
+   */
+  protected Hashtable deadlines;
+
   /**
-   * The vector containing the lease objects
+   * The last time slot examined
    */
-  protected Vector leases;
-  
+  protected long currentSlot;
+
   /**
    * Creates new LeasesWatcher
    *
@@ -52,79 +85,174 @@ public class LeasesWatcher {
    */
   public LeasesWatcher(LeasesKeeper leasesKeeper) {
     keeper = leasesKeeper;
-    
-    int delay = 2 * (int) Lease.TIME_SLOT_MILLIS;
+
+    wheel = new Hashtable[WHEEL_SIZE];
+    for (int i = 0 ; i < wheel.length ; i++){
+      wheel[i] = new Hashtable();
+    }
+    deadlines = new Hashtable();
+    currentSlot = toSlot(System.currentTimeMillis());
+
+    int delay = (int) Lease.TIME_SLOT_MILLIS;
     // Creates a new xx minutes Timer
     timer = new Timer();
     timer.schedule(new TimerTask() {
-        
+
         @Override
         public void run() {
             watchLeases();
-            
+
         }
-    }, new Date(), delay);
+    }, delay, delay);
 
     System.out.println("LeasesWatcher <init> The timer ("+ delay +")has started... at " + Calendar.getInstance().getTime());
   }
-  
+
   /**
    * Stops the timer when this object is destroyed
    */
   protected void finalize(){
     timer.cancel();
   }
-  
-  
+
   /**
+   * Returns the time slot containing a date
    *
+   * @param millis The date in milliseconds
+   * @return long The number of the time slot
+   */
+  protected static long toSlot(long millis){
+    return millis / Lease.TIME_SLOT_MILLIS;
+  }
+
+  /**
+   * Takes the leases that expire in the time slots elapsed since the last
+   * call, and sends their component index to the LeasesKeeper object
    */
   protected void watchLeases(){
-    System.out.println("\n\n\n\n-----LeasesWatcher <watchLeases> The timer has expired time= " + Calendar.getInstance().getTime());
-    if (leases != null) {
-      // Take the current date
-      Calendar currentDate = Calendar.getInstance();
-      // The result vector that will contain  index of the component to which
-      // the discoverer has to send a lease end notification message
-      ArrayList result = new ArrayList();
-      
-      // Checks all leases, if the lease expires, add the context component index to the vector
-      Enumeration list = leases.elements();
+    ArrayList expired = takeExpiredLeases(toSlot(System.currentTimeMillis()));
+    if (expired.isEmpty()){
+      return;
+    }
+    System.out.println("\n-----LeasesWatcher <watchLeases> " + expired.size() + " lease(s) expired time= " + Calendar.getInstance().getTime());
+
+    // The result vector that will contain  index of the component to which
+    // the discoverer has to send a lease end notification message
+    ArrayList result = new ArrayList();
+    for (int i = 0 ; i < expired.size() ; i++){
+      Lease l = (Lease) expired.get(i);
+      //Tests if the lease corresponds to an existing component description
+      if (keeper.existingComponentDescription(l.getComponentIndex())){
+        result.add(l.getComponentIndex());
+      }
+      else {
+        cancel(l);
+      }
+    }
+    if (! result.isEmpty()){
+      // Sends the list of leases terms to the LeasesKeeper
+      keeper.leaseEndNotificationTo(result);
+    }
+  }
+
+  /**
+   * Returns the leases whose deadline is in a time slot from the last one
+   * examined to the given one, and puts them back in the wheel to be checked
+   * again NOTIFICATION_RETRY time slots later.
+   *
+   * @param slot The current time slot
+   * @return ArrayList The expired Lease objects
+   */
+  protected synchronized ArrayList takeExpiredLeases(long slot){
+    ArrayList expired = new ArrayList();
+    // If the timer has been late, examines all the time slots it missed, but
+    // each bucket only once
+    long first = Math.max(currentSlot + 1, slot - wheel.length + 1);
+    for (long s = first ; s <= slot ; s++){
+      Hashtable bucket = wheel[(int) (s % wheel.length)];
+      Enumeration list = bucket.elements();
       while (list.hasMoreElements()){
-        Lease l = (Lease) list.nextElement();
-        //Tests if the lease corresponds to an existing component description
-        if (keeper.existingComponentDescription(l.getComponentIndex())){
-          // this commented code is the original: we don't check the components before the end of the lease
-          /*Calendar date = l.getEndDate();
-          if (date.before (currentDate)){
-            // Adds the index
-            result.add (l.getComponentIndex());
-          }*/
-          Calendar date = l.getEndDate();
-          // Adds the index
-          result.add(l.getComponentIndex());
+        Deadline d = (Deadline) list.nextElement();
+        if (d.slot <= slot){
+          expired.add(d.lease);
         }
       }
-      if (! result.isEmpty()){
-        // Sends the Enumeration of leases terms to the LeasesKeeper
-        keeper.leaseEndNotificationTo(result);
-      }
     }
+    currentSlot = Math.max(currentSlot, slot);
+    for (int i = 0 ; i < expired.size() ; i++){
+      put((Lease) expired.get(i), currentSlot + NOTIFICATION_RETRY);
+    }
+    return expired;
+  }
+
+  /**
+   * Watches a lease until its end date. If the lease of the same component
+   * was watched, it is replaced.
+   *
+   * @param lease The lease, with its start date set
+   */
+  public synchronized void schedule(Lease lease){
+    long slot = currentSlot + 1;
+    if (lease.getEndDate() != null){
+      slot = Math.max(slot, toSlot(lease.getEndDate().getTime().getTime()));
+    }
+    put(lease, slot);
   }
-  
+
   /**
-   * This method allows to copy the current leases into the object the
-   * LeasesWatcher will watch.
+   * Stops watching the lease of a component
    *
-   * @param currentLeases The vector object containing the leases
-   */
-  synchronized protected void putLeases(Hashtable currentLeases){
-    //System.out.println("LeasesWatcher <putLeases> " + currentLeases);
-    leases = null;
-    // Does a copy of the object
-    if (currentLeases != null) {
-      leases = new Vector(currentLeases.values());
+   * @param lease The lease
+   */
+  public synchronized void cancel(Lease lease){
+    Deadline d = (Deadline) deadlines.remove(lease.getComponentIndex());
+    if (d != null){
+      wheel[(int) (d.slot % wheel.length)].remove(lease.getComponentIndex());
     }
   }
-  
+
+  /**
+   * Puts a lease in the bucket of a time slot, and removes it from its
+   * previous bucket
+   *
+   * @param lease The lease
+   * @param slot The time slot
+   */
+  private void put(Lease lease, long slot){
+    Integer index = lease.getComponentIndex();
+    Deadline d = (Deadline) deadlines.get(index);
+    if (d == null){
+      d = new Deadline();
+      deadlines.put(index, d);
+    }
+    else {
+      wheel[(int) (d.slot % wheel.length)].remove(index);
+    }
+    d.lease = lease;
+    d.slot = slot;
+    wheel[(int) (slot % wheel.length)].put(index, d);
+  }
+
+  /**
+   * Returns the number of watched leases
+   *
+   * @return int
+   */
+  public synchronized int size(){
+    return deadlines.size();
+  }
+
+  /**
+   * The deadline of a lease in the timing wheel
+   */
+  protected static class Deadline {
+
+    /** The lease */
+    Lease lease;
+
+    /** The time slot in which the lease ends */
+    long slot;
+
+  }
+
 }// class end
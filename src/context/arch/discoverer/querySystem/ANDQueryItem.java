@@ -9,6 +9,7 @@ package context.arch.discoverer.querySystem;
 import context.arch.discoverer.dataModel.AbstractDataModel;
 
 import java.util.HashMap;
+import java.util.BitSet;
 
 /**
  *
@@ -27,14 +28,9 @@ public class ANDQueryItem extends AbstractBooleanQueryItem{
    * Perform a AND 
    */
   public Object process(AbstractDataModel dataModel){
-    int [][] leftResult = (int [][]) left.process (dataModel);
-    int [][] rightResult = (int [][]) right.process (dataModel);
-    
-    int size = leftResult.length;
-    for (int i = 0 ; i < size ; i ++){
-      leftResult[i][1] = leftResult[i][1] & rightResult[i][1];
-    }
-    
+    BitSet leftResult = (BitSet) left.process (dataModel);
+    BitSet rightResult = (BitSet) right.process (dataModel);
+    leftResult.and (rightResult);
     return leftResult;
   }
   
@@ -46,5 +42,12 @@ public class ANDQueryItem extends AbstractBooleanQueryItem{
     boolean rightResult = right.process (component);
     return leftResult && rightResult;
   }
+  
+  /**
+   * Returns the AND of the compiled children
+   */
+  public CompiledQuery compile(){
+    return CompiledQuery.and (left.compile (), right.compile ());
+  }
     
 }
@@ -79,6 +79,24 @@ public abstract class AbstractBooleanQueryItem extends AbstractQueryItem {
     return booleanCondition;
   }
   
+  /**
+   * Returns the left query item
+   *
+   * @return AbstractQueryItem
+   */
+  public AbstractQueryItem getLeft(){
+    return left;
+  }
+  
+  /**
+   * Returns the right query item, null for a NOT
+   *
+   * @return AbstractQueryItem
+   */
+  public AbstractQueryItem getRight(){
+    return right;
+  }
+  
   /**
    * Returns a printable version of this object
    */
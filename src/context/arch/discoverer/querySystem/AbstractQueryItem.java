@@ -10,6 +10,7 @@ import context.arch.discoverer.dataModel.AbstractDataModel;
 import context.arch.comm.DataObject;
 
 import java.util.HashMap;
+import java.util.BitSet;
 
 /**
  * Design pattern : Composite
@@ -32,9 +33,9 @@ import java.util.HashMap;
  * A AbstractBooleanQueryItem is just a node that contains 1 or 2 other
  * AbstractQueryItem objects.
  *
- * A query is a tree. To process a query, the leaves of this tree returns an
- * array that contains for all existing components in the data model, if each
- * components suits the query or not (0 or 1).
+ * A query is a tree. To process a query, the leaves of this tree return a
+ * BitSet of the indexes of the components of the data model that suit the
+ * query, and the boolean nodes combine the sets of their children.
  *
  * Example of query :
  * QueryItem q1 = new QueryItem(new IdElement("PersonNamePresence2_rigatoni_1655")); // by default Equal()
@@ -85,12 +86,11 @@ public abstract class AbstractQueryItem {
   public static final String ABSTRACT_QUERY_ITEM = "abstractQueryItem";
 
   /**
-   * This method allows to process an 2D array that contains in the first
-   * column the index of the component stored in the data model, and in 
-   * the second column a integer value : 0 or 1 for false or true.
+   * This method allows to process a BitSet that contains the indexes of
+   * the components stored in the data model that fit this query.
    *
    * @param dataModel
-   * @return Object
+   * @return Object A BitSet
    */
   public abstract Object process(AbstractDataModel dataModel);
   
@@ -102,6 +102,18 @@ public abstract class AbstractQueryItem {
    */
   public abstract boolean process(Object component);
   
+  /**
+   * Returns this query prepared to be processed on many components: the
+   * process(Object) method of the CompiledQuery returns the same result as
+   * the one of this query. This implementation returns a CompiledQuery that
+   * calls process(Object).
+   *
+   * @return CompiledQuery
+   */
+  public CompiledQuery compile(){
+    return CompiledQuery.interpreted (this);
+  }
+  
   /**
    * Returns a printable version of this object
    *
@@ -116,11 +128,11 @@ public abstract class AbstractQueryItem {
    * @return String
    */
   public static String arrayToString(Object table){
-    if(table instanceof int[][]){
-      int [][] tab = (int [][])table;
+    if(table instanceof BitSet){
+      BitSet tab = (BitSet)table;
       StringBuffer sb = new StringBuffer();
-      for (int i = 0 ; i < tab.length ; i++){
-        sb.append ("\n" + tab[i][0] + " -> " + tab[i][1]);
+      for (int i = tab.nextSetBit (0) ; i >= 0 ; i = tab.nextSetBit (i+1)){
+        sb.append ("\n" + i + " -> 1");
       }
       return sb.toString ();
     }
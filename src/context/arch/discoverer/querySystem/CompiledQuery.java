@@ -0,0 +1,181 @@
+/*
+ * CompiledQuery.java
+ */
+
+package context.arch.discoverer.querySystem;
+
+import context.arch.discoverer.ComponentDescription;
+import context.arch.discoverer.componentDescription.ClassnameElement;
+import context.arch.discoverer.componentDescription.ConstantAttributeElement;
+import context.arch.discoverer.componentDescription.HostnameElement;
+import context.arch.discoverer.componentDescription.PortElement;
+import context.arch.discoverer.componentDescription.TypeElement;
+import context.arch.discoverer.querySystem.comparison.GreaterEqual;
+import context.arch.storage.AttributeNameValue;
+
+/**
+ * A CompiledQuery is an AbstractQueryItem prepared to be processed on many
+ * components, one at a time: AbstractQueryItem.compile returns a tree of
+ * CompiledQuery objects whose process(Object) method returns the same result
+ * as the process(Object) method of the query.
+ *
+ * The leaves are built by the description elements, with the comparison
+ * prepared for the value of the query, and the values of the attribute
+ * elements split once. The AND and OR nodes stop as soon as their result is
+ * known.
+ *
+ * A query is compiled once, and kept with the object that uses it
+ * (Subscriber, DiscovererSubscriber, EnactorReference) while the query
+ * doesn't change.
+ *
+ * @see context.arch.discoverer.querySystem.AbstractQueryItem#compile
+ * @see context.arch.discoverer.querySystem.comparison.CompiledComparison
+ */
+public abstract class CompiledQuery {
+
+  /**
+   * Returns true if a component fits the query
+   *
+   * @param component The component
+   * @return boolean
+   */
+  public abstract boolean process(Object component);
+
+  /**
+   * Returns a CompiledQuery that processes a query with its own
+   * process(Object) method
+   *
+   * @param query The query
+   * @return CompiledQuery
+   */
+  public static CompiledQuery interpreted(AbstractQueryItem query){
+    return new Interpreted(query);
+  }
+
+  /**
+   * Returns the AND of two compiled queries
+   */
+  static CompiledQuery and(CompiledQuery left, CompiledQuery right){
+    return new And(left, right);
+  }
+
+  /**
+   * Returns the OR of two compiled queries
+   */
+  static CompiledQuery or(CompiledQuery left, CompiledQuery right){
+    return new Or(left, right);
+  }
+
+  /**
+   * Returns the NOT of a compiled query
+   */
+  static CompiledQuery not(CompiledQuery query){
+    return new Not(query);
+  }
+
+  /** A query processed with its own process(Object) method */
+  private static class Interpreted extends CompiledQuery {
+    private final AbstractQueryItem query;
+    Interpreted(AbstractQueryItem query){
+      this.query = query;
+    }
+    public boolean process(Object component){
+      return query.process (component);
+    }
+    public String toString(){
+      return query.toString ();
+    }
+  }
+
+  /** The AND of two compiled queries */
+  private static class And extends CompiledQuery {
+    private final CompiledQuery left;
+    private final CompiledQuery right;
+    And(CompiledQuery left, CompiledQuery right){
+      this.left = left;
+      this.right = right;
+    }
+    public boolean process(Object component){
+      return left.process (component) && right.process (component);
+    }
+    public String toString(){
+      return "(" + left + " AND " + right + ")";
+    }
+  }
+
+  /** The OR of two compiled queries */
+  private static class Or extends CompiledQuery {
+    private final CompiledQuery left;
+    private final CompiledQuery right;
+    Or(CompiledQuery left, CompiledQuery right){
+      this.left = left;
+      this.right = right;
+    }
+    public boolean process(Object component){
+      return left.process (component) || right.process (component);
+    }
+    public String toString(){
+      return "(" + left + " OR " + right + ")";
+    }
+  }
+
+  /** The NOT of a compiled query */
+  private static class Not extends CompiledQuery {
+    private final CompiledQuery query;
+    Not(CompiledQuery query){
+      this.query = query;
+    }
+    public boolean process(Object component){
+      return ! query.process (component);
+    }
+    public String toString(){
+      return "NOT " + query;
+    }
+  }
+
+  /**
+   * Compares the time to process a query on a component with
+   * AbstractQueryItem.process(Object) and with its CompiledQuery
+   */
+  public static void main (String args[]){
+    int n = args.length > 0 ? Integer.parseInt (args[0]) : 200000;
+    ComponentDescription comp = new ComponentDescription();
+    comp.id = "PersonPresence_rigatoni_1520";
+    comp.classname = "context.apps.PersonPresence";
+    comp.hostname = "rigatoni";
+    comp.hostaddress = "130.207.12.5";
+    comp.port = 1520;
+    comp.type = "widget";
+    comp.getConstantAttributes ().add (new AttributeNameValue("location", "Room 383", "String"));
+    comp.getConstantAttributes ().add (new AttributeNameValue("floor", "3", "Integer"));
+
+    AbstractQueryItem query = new ANDQueryItem(
+      new ORQueryItem(new QueryItem(new TypeElement("Widget")),
+                      new QueryItem(new ClassnameElement("context.apps.Other"))),
+      new ANDQueryItem(new QueryItem(new PortElement("1500"), new GreaterEqual()),
+                       new ANDQueryItem(new QueryItem(new HostnameElement("130.207.12.5")),
+                                        new QueryItem(new ConstantAttributeElement("location", "room 383")))));
+    CompiledQuery compiled = query.compile ();
+    System.out.println("query = " + query);
+    System.out.println("compiled = " + compiled);
+    System.out.println("results: interpreted " + query.process (comp) + " compiled " + compiled.process (comp));
+
+    for (int round = 0 ; round < 3 ; round ++){
+      long start = System.currentTimeMillis ();
+      int found = 0;
+      for (int i = 0 ; i < n ; i ++){
+        if (query.process (comp))
+          found ++;
+      }
+      long interpreted = System.currentTimeMillis () - start;
+      start = System.currentTimeMillis ();
+      for (int i = 0 ; i < n ; i ++){
+        if (compiled.process (comp))
+          found ++;
+      }
+      long time = System.currentTimeMillis () - start;
+      System.out.println(n + " evaluations: interpreted " + interpreted + " ms, compiled " + time + " ms (" + found + ")");
+    }
+  }
+
+}
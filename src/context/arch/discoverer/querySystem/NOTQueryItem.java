@@ -9,6 +9,7 @@ package context.arch.discoverer.querySystem;
 import context.arch.discoverer.dataModel.AbstractDataModel;
 
 import java.util.HashMap;
+import java.util.BitSet;
 
 /**
  *
@@ -27,14 +28,11 @@ public class NOTQueryItem extends AbstractBooleanQueryItem{
    * Perform a NOT
    */
   public Object process(AbstractDataModel dataModel){
-    int [][] leftResult = (int [][]) left.process (dataModel);
-    
-    int size = leftResult.length;
-    for (int i = 0 ; i < size ; i ++){
-      leftResult[i][1] = (leftResult[i][1] + 1) % 2 ;
-    }
-    
-    return leftResult;
+    BitSet leftResult = (BitSet) left.process (dataModel);
+    // the complement among the stored components
+    BitSet result = dataModel.getIndexSet ();
+    result.andNot (leftResult);
+    return result;
   }
   
   /**
@@ -43,4 +41,11 @@ public class NOTQueryItem extends AbstractBooleanQueryItem{
   public boolean process(Object component){
     return ! left.process (component);
   }
+  
+  /**
+   * Returns the NOT of the compiled child
+   */
+  public CompiledQuery compile(){
+    return CompiledQuery.not (left.compile ());
+  }
 }
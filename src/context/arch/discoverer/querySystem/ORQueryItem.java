@@ -9,6 +9,7 @@ package context.arch.discoverer.querySystem;
 import context.arch.discoverer.dataModel.AbstractDataModel;
 
 import java.util.HashMap;
+import java.util.BitSet;
 
 /**
  *
@@ -27,14 +28,9 @@ public class ORQueryItem extends AbstractBooleanQueryItem{
    * Perform an OR
    */
   public Object process(AbstractDataModel dataModel){
-    int [][] leftResult = (int [][]) left.process (dataModel);
-    int [][] rightResult = (int [][]) right.process (dataModel);
-    
-    int size = leftResult.length;
-    for (int i = 0 ; i < size ; i ++){
-      leftResult[i][1] = leftResult[i][1] | rightResult[i][1];
-    }
-    
+    BitSet leftResult = (BitSet) left.process (dataModel);
+    BitSet rightResult = (BitSet) right.process (dataModel);
+    leftResult.or (rightResult);
     return leftResult;
   }
    
@@ -47,4 +43,11 @@ public class ORQueryItem extends AbstractBooleanQueryItem{
     return leftResult || rightResult;
   }
   
+  /**
+   * Returns the OR of the compiled children
+   */
+  public CompiledQuery compile(){
+    return CompiledQuery.or (left.compile (), right.compile ());
+  }
+  
 }//class end
@@ -11,6 +11,7 @@ import context.arch.discoverer.querySystem.comparison.AbstractComparison;
 import context.arch.discoverer.querySystem.comparison.Equal;
 import context.arch.discoverer.componentDescription.AbstractDescriptionElement;
 import context.arch.discoverer.dataModel.IndexTableIF;
+import context.arch.discoverer.dataModel.AbstractIndexTableImpl;
 import context.arch.comm.DataObject;
 
 import java.util.HashMap;
@@ -18,6 +19,7 @@ import java.util.Collection;
 import java.util.Vector;
 import java.util.Iterator;
 import java.util.Enumeration;
+import java.util.BitSet;
 
 /**
  *
@@ -52,13 +54,45 @@ public class QueryItem extends AbstractQueryItem {
     this(element, new Equal());
   }
   
+  /**
+   * Returns the description element and the value searched
+   *
+   * @return AbstractDescriptionElement
+   */
+  public AbstractDescriptionElement getElementToMatch(){
+    return elementToMatch;
+  }
+  
+  /**
+   * Returns the type of comparison
+   *
+   * @return AbstractComparison
+   */
+  public AbstractComparison getComparison(){
+    return comparison;
+  }
+  
   /**
    * This method allows to perform the query
+   *
+   * @return BitSet The indexes of the matching components
    */
   public Object process(AbstractDataModel dataModel){
-    //0 get an empty HashMap from the dataModel that has as key the element index
-    // and as value : true or false
-    int [][] array = (int [][]) dataModel.getEmptyArray ();
+    return process(dataModel, null);
+  }
+
+  /**
+   * This method performs the query on some of the components of the data
+   * model, matching them through the index table like process(AbstractDataModel)
+   *
+   * @param dataModel The data model
+   * @param candidates The indexes of the components to keep if they match, or
+   * null to keep all the matching components
+   * @return BitSet The indexes of the matching components among the candidates
+   */
+  public BitSet process(AbstractDataModel dataModel, BitSet candidates){
+    //0 get an empty set of component indexes from the dataModel
+    BitSet array = dataModel.getEmptySet ();
     //1 get the hashtable corresponding to elToMatch
     //System.out.println("\n\nGet index of " + elementToMatch.getElementName()); 
     IndexTableIF table = dataModel.getIndexTableIFCorrespondingTo (elementToMatch.getElementName ());
@@ -66,22 +100,15 @@ public class QueryItem extends AbstractQueryItem {
     if (table != null) {
       // 2-1 If the comparison type is equal => get directly the value
       if (comparison.getComparisonName ().equals (Equal.EQUAL)){
-        Object result = table.get(elementToMatch.getValue ());
-        processResult(array, result);
+        Object result = table.get(AbstractIndexTableImpl.toKey (elementToMatch.getValue ()));
+        processResult(array, result, candidates);
       }//end 2-1
       
-      // 2-2 Else handle the comparison type
+      // 2-2 Else get the keys that fit the comparison type
       else {
-        Enumeration keys = table.keys();
-        String temp;
-        String toMatch = (String) elementToMatch.getValue ();
-        Object obj;
-        while (keys.hasMoreElements ()){
-          temp = (String) keys.nextElement ();
-          if (comparison.compare(temp, toMatch)){
-            obj = table.get(temp);
-            processResult(array, obj);
-          }
+        Vector keys = comparison.getMatchingKeys (table, elementToMatch.getValue ());
+        for (int i = 0 ; i < keys.size () ; i++){
+          processResult(array, table.get(keys.elementAt (i)), candidates);
         }
       }// end 2-2
     }
@@ -103,25 +130,28 @@ public class QueryItem extends AbstractQueryItem {
   }
   
   /**
+   * Returns this query prepared by the description element, with the
+   * comparison prepared for its value
    *
+   * @return CompiledQuery
    */
-  private void processResult(int [][] arrayToFill, Object containsElements){
+  public CompiledQuery compile(){
+    return elementToMatch.compile (comparison);
+  }
+  
+  /**
+   *
+   */
+  private void processResult(BitSet arrayToFill, Object containsElements, BitSet candidates){
     if (containsElements != null){
       if (containsElements instanceof Integer){
-        int el = ((Integer)containsElements).intValue();
-        int index;
-        if ( (index = indexOf(arrayToFill, el)) > -1 )
-          arrayToFill[index][1] = 1;
+        set(arrayToFill, ((Integer)containsElements).intValue(), candidates);
       }
       else if (containsElements instanceof Collection){
         Collection c = (Collection) containsElements;
         Iterator list = c.iterator ();
-        Integer temp;
-        int index;
         while (list.hasNext ()){
-          temp = (Integer) list.next ();
-          if ( (index = indexOf(arrayToFill, temp.intValue())) > -1 )
-            arrayToFill[index][1] = 1;
+          set(arrayToFill, ((Integer) list.next ()).intValue(), candidates);
         }
       }
       else {
@@ -129,6 +159,15 @@ public class QueryItem extends AbstractQueryItem {
       }
     }
   }
+
+  /**
+   * Sets an index if it is one of the candidates
+   */
+  private void set(BitSet arrayToFill, int index, BitSet candidates){
+    if (candidates == null || candidates.get (index)){
+      arrayToFill.set (index);
+    }
+  }
   
   /**
    *
@@ -140,15 +179,6 @@ public class QueryItem extends AbstractQueryItem {
     return sb.toString ();
   }
   
-  private int indexOf(int[][] table, int searchedElement){
-    int res;
-    for (int i = 0 ; i < table.length ; i++){
-      if (table[i][0] == searchedElement)
-        return i;
-    }
-    return -1;
-  }
-  
   /**
    *
    */
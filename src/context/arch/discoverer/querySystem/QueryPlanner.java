@@ -0,0 +1,336 @@
+/*
+ * QueryPlanner.java
+ */
+
+package context.arch.discoverer.querySystem;
+
+import context.arch.discoverer.ComponentDescription;
+import context.arch.discoverer.componentDescription.IdElement;
+import context.arch.discoverer.componentDescription.TypeElement;
+import context.arch.discoverer.dataModel.AbstractDataModel;
+import context.arch.discoverer.dataModel.AbstractIndexTableImpl;
+import context.arch.discoverer.dataModel.DiscovererDataModel;
+import context.arch.discoverer.dataModel.IndexTableIF;
+import context.arch.discoverer.querySystem.comparison.AbstractComparison;
+import context.arch.discoverer.querySystem.comparison.Equal;
+import context.arch.discoverer.querySystem.comparison.Different;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * This class processes an AbstractQueryItem tree on a data model, choosing
+ * the order of the evaluation from the number of components each node is
+ * expected to select:
+ * - a QueryItem with the Equal comparison selects the components its index
+ *   table returns for the value, a Different comparison all the others, and
+ *   a range comparison 1 / RANGE_SELECTIVITY of the components,
+ * - an ANDQueryItem evaluates the child that selects the fewer components
+ *   first, and stops if it selects nothing. The other child only keeps the
+ *   selected components that it matches, through the same index tables, so
+ *   the result doesn't depend on the evaluation order.
+ * - an ORQueryItem evaluates the child that selects the more components
+ *   first, and stops if it selects all the components.
+ *
+ * explain returns the plan of a query: the index used by each QueryItem,
+ * the estimated number of components of each node and the evaluation order.
+ *
+ * @see context.arch.discoverer.querySystem.AbstractQueryItem
+ */
+public class QueryPlanner {
+
+  /**
+   * Debug flag. Set to true to see the plan of the processed queries.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * A range comparison is expected to select 1 / RANGE_SELECTIVITY of the components
+   */
+  public static int RANGE_SELECTIVITY = 3;
+
+  /** The data model the queries are processed on */
+  private AbstractDataModel dataModel;
+
+  /**
+   * Creates a new QueryPlanner
+   *
+   * @param dataModel The data model the queries are processed on
+   */
+  public QueryPlanner (AbstractDataModel dataModel) {
+    this.dataModel = dataModel;
+  }
+
+  /**
+   * Returns the indexes of the components of the data model that fit a query.
+   * The read lock of the data model is taken during the evaluation, so the
+   * result is consistent with one state of the data model.
+   *
+   * @param query The query
+   * @return BitSet
+   */
+  public BitSet process (AbstractQueryItem query){
+    dataModel.lockRead ();
+    try {
+      if (DEBUG) {
+        System.out.println("QueryPlanner process:\n" + explain(query));
+      }
+      return evaluate(query);
+    } finally {
+      dataModel.unlockRead ();
+    }
+  }
+
+  /**
+   * Evaluates a node of a query
+   */
+  private BitSet evaluate (AbstractQueryItem query){
+    if (query instanceof ANDQueryItem){
+      AbstractBooleanQueryItem and = (AbstractBooleanQueryItem) query;
+      AbstractQueryItem first = and.left;
+      AbstractQueryItem second = and.right;
+      if (estimate(first) > estimate(second)){
+        first = and.right;
+        second = and.left;
+      }
+      BitSet result = evaluate(first);
+      if (result.isEmpty ()){
+        return result;
+      }
+      return filter(result, second);
+    }
+    else if (query instanceof ORQueryItem){
+      AbstractBooleanQueryItem or = (AbstractBooleanQueryItem) query;
+      AbstractQueryItem first = or.left;
+      AbstractQueryItem second = or.right;
+      if (estimate(first) < estimate(second)){
+        first = or.right;
+        second = or.left;
+      }
+      BitSet result = evaluate(first);
+      if (result.cardinality () >= dataModel.getNbElements ()){
+        return result;
+      }
+      result.or (evaluate(second));
+      return result;
+    }
+    else if (query instanceof NOTQueryItem){
+      BitSet result = dataModel.getIndexSet ();
+      result.andNot (evaluate(((AbstractBooleanQueryItem) query).left));
+      return result;
+    }
+    return (BitSet) query.process (dataModel);
+  }
+
+  /**
+   * Keeps the candidate components that fit a query.  The components are
+   * matched through the index tables like in evaluate, and the QueryItems
+   * only set the candidates they match.
+   */
+  private BitSet filter (BitSet candidates, AbstractQueryItem query){
+    if (candidates.isEmpty ()){
+      return candidates;
+    }
+    if (query instanceof ANDQueryItem){
+      AbstractBooleanQueryItem and = (AbstractBooleanQueryItem) query;
+      AbstractQueryItem first = and.left;
+      AbstractQueryItem second = and.right;
+      if (estimate(first) > estimate(second)){
+        first = and.right;
+        second = and.left;
+      }
+      return filter(filter(candidates, first), second);
+    }
+    else if (query instanceof ORQueryItem){
+      AbstractBooleanQueryItem or = (AbstractBooleanQueryItem) query;
+      BitSet result = filter((BitSet) candidates.clone (), or.left);
+      candidates.andNot (result);
+      result.or (filter(candidates, or.right));
+      return result;
+    }
+    else if (query instanceof NOTQueryItem){
+      BitSet matching = filter((BitSet) candidates.clone (), ((AbstractBooleanQueryItem) query).left);
+      candidates.andNot (matching);
+      return candidates;
+    }
+    else if (query instanceof QueryItem){
+      return ((QueryItem) query).process (dataModel, candidates);
+    }
+    candidates.and ((BitSet) query.process (dataModel));
+    return candidates;
+  }
+
+  /**
+   * Returns the number of components a query is expected to select
+   *
+   * @param query The query
+   * @return int
+   */
+  public int estimate (AbstractQueryItem query){
+    int all = dataModel.getNbElements ();
+    if (query instanceof ANDQueryItem){
+      AbstractBooleanQueryItem and = (AbstractBooleanQueryItem) query;
+      return Math.min (estimate(and.left), estimate(and.right));
+    }
+    else if (query instanceof ORQueryItem){
+      AbstractBooleanQueryItem or = (AbstractBooleanQueryItem) query;
+      return Math.min (all, estimate(or.left) + estimate(or.right));
+    }
+    else if (query instanceof NOTQueryItem){
+      return Math.max (0, all - estimate(((AbstractBooleanQueryItem) query).left));
+    }
+    else if (query instanceof QueryItem){
+      QueryItem item = (QueryItem) query;
+      IndexTableIF table = getIndexTable(item);
+      if (table == null){
+        return 0;
+      }
+      String comparison = item.getComparison ().getComparisonName ();
+      String key = AbstractIndexTableImpl.toKey (item.getElementToMatch ().getValue ());
+      if (comparison.equals (Equal.EQUAL)){
+        return count(table.get (key));
+      }
+      else if (comparison.equals (Different.DIFFERENT)){
+        return Math.max (0, all - count(table.get (key)));
+      }
+      return all / RANGE_SELECTIVITY;
+    }
+    return all;
+  }
+
+  /**
+   * Returns the number of components in the value of an index table
+   */
+  private int count (Object components){
+    if (components instanceof Integer){
+      return 1;
+    }
+    else if (components instanceof Collection){
+      return ((Collection) components).size ();
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the index table a QueryItem uses, or null if there is none
+   */
+  private IndexTableIF getIndexTable (QueryItem item){
+    return dataModel.getIndexTableIFCorrespondingTo (item.getElementToMatch ().getElementName ());
+  }
+
+  /**
+   * Returns a printable version of the plan of a query
+   *
+   * @param query The query
+   * @return String
+   */
+  public String explain (AbstractQueryItem query){
+    StringBuffer sb = new StringBuffer();
+    dataModel.lockRead ();
+    try {
+      explain(query, "", sb);
+    } finally {
+      dataModel.unlockRead ();
+    }
+    return sb.toString ();
+  }
+
+  /**
+   * Appends the plan of a node of a query
+   */
+  private void explain (AbstractQueryItem query, String indent, StringBuffer sb){
+    sb.append (indent);
+    if (query instanceof ANDQueryItem || query instanceof ORQueryItem){
+      AbstractBooleanQueryItem bool = (AbstractBooleanQueryItem) query;
+      AbstractQueryItem first = bool.left;
+      AbstractQueryItem second = bool.right;
+      boolean and = query instanceof ANDQueryItem;
+      if (and ? estimate(first) > estimate(second) : estimate(first) < estimate(second)){
+        first = bool.right;
+        second = bool.left;
+      }
+      sb.append (and ? "AND" : "OR");
+      sb.append (" estimate=" + estimate(query));
+      if (and){
+        sb.append (" : second matched on the components selected by the first");
+      }
+      sb.append ("\n");
+      explain(first, indent + "  ", sb);
+      explain(second, indent + "  ", sb);
+    }
+    else if (query instanceof NOTQueryItem){
+      sb.append ("NOT estimate=" + estimate(query) + "\n");
+      explain(((AbstractBooleanQueryItem) query).left, indent + "  ", sb);
+    }
+    else if (query instanceof QueryItem){
+      QueryItem item = (QueryItem) query;
+      AbstractComparison comparison = item.getComparison ();
+      sb.append (item.getElementToMatch ().getElementName ());
+      sb.append (" " + comparison.getComparisonName ());
+      sb.append (" " + item.getElementToMatch ().getValue ());
+      sb.append (" estimate=" + estimate(query));
+      if (getIndexTable(item) == null){
+        sb.append (" : no index, selects nothing");
+      }
+      else if (comparison.getComparisonName ().equals (Equal.EQUAL)){
+        sb.append (" : key lookup in index " + getIndexTable(item).getName ());
+      }
+      else {
+        sb.append (" : matching keys of index " + getIndexTable(item).getName ());
+      }
+      sb.append ("\n");
+    }
+    else {
+      sb.append (query + "\n");
+    }
+  }
+
+  /**
+   * Test of the estimates and of the results of the planner for components
+   * and query values in mixed case: the index tables are keyed in lower case,
+   * and the comparisons ignore the case.
+   */
+  public static void main (String args[]){
+    DiscovererDataModel dataModel = new DiscovererDataModel();
+    String[] types = {"Widget", "widget", "SERVER", "Interpreter"};
+    for (int i = 0 ; i < 8 ; i ++){
+      ComponentDescription comp = new ComponentDescription();
+      comp.id = "PersonPresence_Rigatoni_" + (1520 + i);
+      comp.classname = "context.apps.Test";
+      comp.type = types[i % types.length];
+      comp.hostname = "Rigatoni";
+      comp.hostaddress = "10.0.0.1";
+      comp.port = 1520 + i;
+      dataModel.add (comp);
+    }
+    QueryPlanner planner = new QueryPlanner(dataModel);
+    // a value kept in mixed case, as the elements that don't lower case it
+    AbstractQueryItem mixedId = new QueryItem(new IdElement() {
+      {
+        value = "personPRESENCE_rigatoni_1521";
+      }
+    });
+    Object[][] tests = {
+      {new QueryItem(new TypeElement("WIDGET")), new Integer(4)},
+      {new QueryItem(new TypeElement("server")), new Integer(2)},
+      {new QueryItem(new IdElement("PersonPresence_Rigatoni_1523")), new Integer(1)},
+      {mixedId, new Integer(1)},
+      {new QueryItem(new TypeElement("Widget"), new Different()), new Integer(4)},
+      {new ANDQueryItem(mixedId, new QueryItem(new TypeElement("wIdGeT"))), new Integer(1)},
+    };
+    int errors = 0;
+    for (int i = 0 ; i < tests.length ; i ++){
+      AbstractQueryItem query = (AbstractQueryItem) tests[i][0];
+      int expected = ((Integer) tests[i][1]).intValue ();
+      int found = planner.process (query).cardinality ();
+      int estimated = planner.estimate (query);
+      if (found != expected || estimated != expected){
+        System.out.println("QueryPlanner main error: " + query + " found " + found + " estimated " + estimated
+                           + " instead of " + expected);
+        errors ++;
+      }
+    }
+    System.out.println(errors == 0 ? "all tests ok" : errors + " errors");
+  }
+
+}
@@ -7,6 +7,14 @@
 package context.arch.discoverer.querySystem.comparison;
 
 import context.arch.comm.DataObject;
+import context.arch.discoverer.dataModel.IndexTableIF;
+import context.arch.discoverer.dataModel.AbstractIndexTableImpl;
+
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.Vector;
 
 /**
  *
@@ -45,6 +53,92 @@ public abstract class AbstractComparison {
    * @return boolean The result of the comparison
    */
   public abstract boolean compare(Object o1, Object o2);
+  
+  /**
+   * Returns this comparison prepared for the value of a query, to compare
+   * the values of many components to it
+   *
+   * @param value The value of the query
+   * @return CompiledComparison
+   */
+  public CompiledComparison compile(Object value){
+    return new CompiledComparison(this, value);
+  }
+
+  /**
+   * Returns the keys of an index table that fit this comparison with the
+   * searched value, as compare(key, value) does. This implementation compares
+   * every key; the range comparisons override it to look up the numeric
+   * keys of the table.
+   *
+   * @param table The index table
+   * @param value The searched value
+   * @return Vector The matching keys
+   */
+  public Vector getMatchingKeys(IndexTableIF table, Object value){
+    Vector result = new Vector();
+    synchronized (table){
+      Enumeration keys = table.keys ();
+      Object key;
+      while (keys.hasMoreElements ()){
+        key = keys.nextElement ();
+        if (compare(key, value))
+          result.addElement (key);
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Adds the keys of an index table equal to the searched value, as
+   * Equal.compare finds them: the same String ignoring case, or the same number
+   *
+   * @param table The index table
+   * @param value The searched value
+   * @param number The searched value as a number, or null
+   * @param result The Vector the keys are added to
+   */
+  protected static void addEqualKeys(IndexTableIF table, Object value, Double number, Vector result){
+    String key = value.toString ().toLowerCase ();
+    if (table.containsKey (key))
+      result.addElement (key);
+    if (number != null){
+      Vector keys = (Vector) table.getNumericKeys ().get (number);
+      if (keys != null){
+        for (int i = 0 ; i < keys.size () ; i++){
+          if (! keys.elementAt (i).equals (key))
+            result.addElement (keys.elementAt (i));
+        }
+      }
+    }
+  }
+  
+  /**
+   * Adds the keys of a part of the numeric keys of an index table
+   *
+   * @param numericKeys The part of the numeric keys
+   * @param except The number whose keys are not added, or null
+   * @param result The Vector the keys are added to
+   */
+  protected static void addKeys(SortedMap numericKeys, Double except, Vector result){
+    Iterator list = numericKeys.entrySet ().iterator ();
+    Map.Entry entry;
+    while (list.hasNext ()){
+      entry = (Map.Entry) list.next ();
+      if (! entry.getKey ().equals (except))
+        result.addAll ((Vector) entry.getValue ());
+    }
+  }
+  
+  /**
+   * Returns the searched value as a number, or null if it isn't a number
+   *
+   * @param value The searched value
+   * @return Double
+   */
+  protected static Double toNumber(Object value){
+    return AbstractIndexTableImpl.toNumber (value);
+  }
 
   public String toString(){
     return getComparisonName();
@@ -0,0 +1,130 @@
+/*
+ * CompiledComparison.java
+ */
+
+package context.arch.discoverer.querySystem.comparison;
+
+import context.arch.discoverer.dataModel.AbstractIndexTableImpl;
+
+/**
+ * This class compares the values of components to the value of a query,
+ * with a comparison prepared once for this value: the value is kept as a
+ * String and as a number, so it isn't converted at each comparison.
+ *
+ * When the value of the query is a String and the value of the component
+ * a String or an Integer, as the fields of a ComponentDescription, the result
+ * is the one of the comparison classes:
+ * - Equal: the same String ignoring the case, or the same number,
+ * - Different: not Equal,
+ * - Greater, Lower: the value of the component converted to a number is
+ *   greater, lower than the number of the query,
+ * - GreaterEqual, LowerEqual: Greater or Equal, Lower or Equal.
+ * Other values, and other comparison classes, are compared with the
+ * compare method of the comparison.
+ *
+ * @see context.arch.discoverer.querySystem.comparison.AbstractComparison#compile
+ */
+public class CompiledComparison {
+
+  /** The comparison */
+  private final AbstractComparison comparison;
+
+  /** The value of the query */
+  private final Object value;
+
+  /** The value of the query if it is a String, else null */
+  private final String text;
+
+  /** The value of the query as a number, or null */
+  private final Double number;
+
+  private final boolean equal;
+  private final boolean different;
+  private final boolean greater;
+  private final boolean lower;
+
+  /**
+   * Creates a new CompiledComparison
+   *
+   * @param comparison The comparison
+   * @param value The value of the query the components are compared to
+   */
+  public CompiledComparison (AbstractComparison comparison, Object value) {
+    this.comparison = comparison;
+    this.value = value;
+    this.text = value instanceof String ? (String) value : null;
+    this.number = text == null ? null : AbstractIndexTableImpl.toNumber (text);
+    Class c = comparison.getClass ();
+    this.equal = c == Equal.class || c == GreaterEqual.class || c == LowerEqual.class;
+    this.different = c == Different.class;
+    this.greater = c == Greater.class || c == GreaterEqual.class;
+    this.lower = c == Lower.class || c == LowerEqual.class;
+  }
+
+  /**
+   * Compares the value of a component to the value of the query, as
+   * comparison.compare(componentValue, value) does
+   *
+   * @param componentValue The value of the component
+   * @return boolean The result of the comparison
+   */
+  public boolean compare (Object componentValue){
+    if (text == null || ! (equal || different || greater || lower)
+        || ! (componentValue instanceof String || componentValue instanceof Integer)){
+      return comparison.compare (componentValue, value);
+    }
+    String s = componentValue.toString ();
+    if (different){
+      return ! isEqual(s, null);
+    }
+    Double d = null;
+    if (number != null && (greater || lower)){
+      d = AbstractIndexTableImpl.toNumber (s);
+      if (d != null){
+        if (greater && d.doubleValue () > number.doubleValue ())
+          return true;
+        if (lower && d.doubleValue () < number.doubleValue ())
+          return true;
+      }
+    }
+    return equal && isEqual(s, d);
+  }
+
+  /**
+   * Returns true if a String is equal to the value of the query
+   *
+   * @param s The String
+   * @param d The String as a number if it has already been converted, or null
+   */
+  private boolean isEqual (String s, Double d){
+    if (s.equalsIgnoreCase (text)){
+      return true;
+    }
+    if (number == null){
+      return false;
+    }
+    if (d == null){
+      d = AbstractIndexTableImpl.toNumber (s);
+    }
+    return d != null && d.doubleValue () == number.doubleValue ();
+  }
+
+  /**
+   * Returns the comparison
+   *
+   * @return AbstractComparison
+   */
+  public AbstractComparison getComparison (){
+    return comparison;
+  }
+
+  /**
+   * Returns a printable version of this object
+   *
+   * @return String
+   */
+  public String toString (){
+    return comparison.getComparisonName () + " " + value;
+  }
+
+}
@@ -6,6 +6,11 @@
 
 package context.arch.discoverer.querySystem.comparison;
 
+import context.arch.discoverer.dataModel.IndexTableIF;
+
+import java.util.Enumeration;
+import java.util.Vector;
+
 /**
  *
  * @author  Agathe
@@ -31,4 +36,29 @@ public class Different extends AbstractComparison {
     return ! e.compare (o1, o2);
   }
 
+  /**
+   * Returns the keys of an index table different from the searched value:
+   * all the keys but the equal ones
+   *
+   * @param table The index table
+   * @param value The searched value
+   * @return Vector The matching keys
+   */
+  public Vector getMatchingKeys (IndexTableIF table, Object value){
+    Vector equal = new Vector();
+    Vector result = new Vector();
+    Double number = toNumber (value);
+    synchronized (table){
+      addEqualKeys (table, value, number, equal);
+      Enumeration keys = table.keys ();
+      Object key;
+      while (keys.hasMoreElements ()){
+        key = keys.nextElement ();
+        if (! equal.contains (key))
+          result.addElement (key);
+      }
+    }
+    return result;
+  }
+
 }
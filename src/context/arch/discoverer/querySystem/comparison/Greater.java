@@ -6,6 +6,10 @@
 
 package context.arch.discoverer.querySystem.comparison;
 
+import context.arch.discoverer.dataModel.IndexTableIF;
+
+import java.util.Vector;
+
 /**
  *
  * @author  Agathe
@@ -94,6 +98,24 @@ public class Greater extends AbstractComparison {
     return result;
   }
   
+  /**
+   * Returns the numeric keys of an index table greater than the searched value
+   *
+   * @param table The index table
+   * @param value The searched value
+   * @return Vector The matching keys
+   */
+  public Vector getMatchingKeys (IndexTableIF table, Object value){
+    Vector result = new Vector();
+    Double number = toNumber (value);
+    if (number != null){
+      synchronized (table){
+        addKeys (table.getNumericKeys ().tailMap (number), number, result);
+      }
+    }
+    return result;
+  }
+  
   /********************************************/
   public static void main (String args[]){
     Double i1 = new Double(1540);
@@ -6,6 +6,10 @@
 
 package context.arch.discoverer.querySystem.comparison;
 
+import context.arch.discoverer.dataModel.IndexTableIF;
+
+import java.util.Vector;
+
 /**
  *
  * @author  Agathe
@@ -33,4 +37,22 @@ public class Lower extends AbstractComparison {
     return result;
   }
 
+  /**
+   * Returns the numeric keys of an index table lower than the searched value
+   *
+   * @param table The index table
+   * @param value The searched value
+   * @return Vector The matching keys
+   */
+  public Vector getMatchingKeys (IndexTableIF table, Object value){
+    Vector result = new Vector();
+    Double number = toNumber (value);
+    if (number != null){
+      synchronized (table){
+        addKeys (table.getNumericKeys ().headMap (number), null, result);
+      }
+    }
+    return result;
+  }
+
 }
@@ -6,6 +6,10 @@
 
 package context.arch.discoverer.querySystem.comparison;
 
+import context.arch.discoverer.dataModel.IndexTableIF;
+
+import java.util.Vector;
+
 /**
  *
  * @author  Agathe
@@ -35,4 +39,22 @@ public class LowerEqual extends AbstractComparison {
     return result;
   }
 
+  /**
+   * Returns the keys of an index table lower than or equal to the searched value
+   *
+   * @param table The index table
+   * @param value The searched value
+   * @return Vector The matching keys
+   */
+  public Vector getMatchingKeys (IndexTableIF table, Object value){
+    Vector result = new Vector();
+    Double number = toNumber (value);
+    synchronized (table){
+      addEqualKeys (table, value, number, result);
+      if (number != null)
+        addKeys (table.getNumericKeys ().headMap (number), null, result);
+    }
+    return result;
+  }
+
 }
@@ -2,6 +2,7 @@ package context.arch.enactor;
 
 import context.arch.discoverer.ComponentDescription;
 import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.CompiledQuery;
 
 /**
  * Fully describes a widget via a set of attributes, and a set of conditions on
@@ -14,6 +15,8 @@ import context.arch.discoverer.querySystem.AbstractQueryItem;
  */
 public abstract class EnactorReference {
   protected AbstractQueryItem descriptionQuery;
+  /** The compiled descriptionQuery, null until it is used */
+  private CompiledQuery compiledDescriptionQuery;
   protected Enactor enactor;
 
   public void setEnactor(Enactor r) {
@@ -24,14 +27,27 @@ public abstract class EnactorReference {
     return enactor;
   }
   
-  public void setDescriptionQuery(AbstractQueryItem dq) {
+  public synchronized void setDescriptionQuery(AbstractQueryItem dq) {
     descriptionQuery = dq;
+    compiledDescriptionQuery = null;
   }
   
   public AbstractQueryItem getDescriptionQuery() {
     return descriptionQuery;
   }
   
+  /**
+   * Returns the compiled descriptionQuery, compiled the first time it is used
+   * 
+   * @return the compiled descriptionQuery, or null if there is none
+   */
+  public synchronized CompiledQuery getCompiledDescriptionQuery() {
+    if (compiledDescriptionQuery == null && descriptionQuery != null) {
+      compiledDescriptionQuery = descriptionQuery.compile();
+    }
+    return compiledDescriptionQuery;
+  }
+  
   /**
    * This method is called when a new batch of state data concerning a widget
    * should be evaluated by this EnactorReference.
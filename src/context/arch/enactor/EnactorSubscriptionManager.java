@@ -15,6 +15,7 @@ import context.arch.discoverer.ComponentDescription;
 import context.arch.discoverer.Discoverer;
 import context.arch.discoverer.componentDescription.TypeElement;
 import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.discoverer.querySystem.ORQueryItem;
 import context.arch.discoverer.querySystem.QueryItem;
 import context.arch.handler.Handler;
@@ -194,7 +195,7 @@ public class EnactorSubscriptionManager implements Handler {
         Iterator i = wre.getWidgetReferences().iterator();
         while (i.hasNext()) {
           EnactorReference wr = (EnactorReference)i.next();
-          AbstractQueryItem aqi = wr.getDescriptionQuery();
+          CompiledQuery aqi = wr.getCompiledDescriptionQuery();
           if (aqi != null && aqi.process(cd)) {
             wr.evaluateComponent(subscriptionId, cd);
           }
@@ -230,7 +231,7 @@ public class EnactorSubscriptionManager implements Handler {
     while (i.hasNext()) {
       EnactorReference rwr = (EnactorReference) i.next();
       //TODO gather all descriptionQueries in the widget before subscribing
-      if (rwr.getDescriptionQuery().process(cd)) {
+      if (rwr.getCompiledDescriptionQuery().process(cd)) {
         subscribe(cd,rwr);
       }
     }
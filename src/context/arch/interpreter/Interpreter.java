@@ -121,8 +121,8 @@ public abstract class Interpreter extends BaseObject {
    * @see #interpretData(AttributeNameValues)
    */
   public DataObject callInterpreter(DataObject data, String error) {
-    Vector v = new Vector();
-    DataObject result = new DataObject(INTERPRET_REPLY,v);
+    DataObject result = new DataObject(INTERPRET_REPLY);
+    Vector v = result.getValue();
     Attributes dataToInterpret = null;
     Error err = new Error(error);
     if (err.getError() == null) {
@@ -457,18 +457,32 @@ public abstract class Server extends Widget implements Handler {
    * @author Agathe
    */
   protected void addCallback (WidgetHandle handle){
-    // Add that to widgets
-    widgets.addWidgetHandle (handle);
-    
+    WidgetHandles handles = new WidgetHandles();
+    handles.addWidgetHandle (handle);
+    addCallbacks (handles);
+  }
+  
+  /**
+   * This method allows to subscribe to several new widgets, and then to
+   * update the discoverer once
+   *
+   * @param handles The widgets to subscribe to
+   */
+  protected void addCallbacks (WidgetHandles handles){
     Callbacks calls = new Callbacks();
-    
-    // Get the callbacks and subscribe
-    addWidgetCallbacksSubscription (handle, calls);
+    for (int i = 0; i < handles.size (); i++) {
+      WidgetHandle handle = handles.getWidgetHandleAt (i);
+      // Add that to widgets
+      widgets.addWidgetHandle (handle);
+      
+      // Get the callbacks and subscribe
+      addWidgetCallbacksSubscription (handle, calls);
+    }
     
     // Add the calls to callbacks
     callbacks.addCallbacks (calls);
     
-    //Update the discoverer
+    //Update the discoverer once for all the widgets
     if (discoverer != null){
       this.discovererUpdate ();
     }
@@ -524,13 +538,13 @@ public abstract class Server extends Widget implements Handler {
   protected DataObject queryWidget(DataObject query, boolean update, String error) {
       System.out.println(query);
     DataObject result = null;
-    Vector v = new Vector();
     if (update) {
-      result = new DataObject(UPDATE_AND_QUERY_REPLY, v);
+      result = new DataObject(UPDATE_AND_QUERY_REPLY);
     }
     else {
-      result = new DataObject(QUERY_REPLY, v);
+      result = new DataObject(QUERY_REPLY);
     }
+    Vector v = result.getValue();
 
     Attributes atts = new Attributes(query);
     Error err = new Error(error);
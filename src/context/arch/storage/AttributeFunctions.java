@@ -52,9 +52,8 @@ public class AttributeFunctions extends Vector {
     if (atts == null) {
       return;
     }
-    Vector v = atts.getChildren();
-    for (int i=0; i<v.size(); i++) {
-      addAttributeFunction(new AttributeFunction((DataObject)v.elementAt(i)));
+    for (int i=0, n=atts.countChildren(); i<n; i++) {
+      addAttributeFunction(new AttributeFunction(atts.getChildAt(i)));
     }
   }
 
@@ -56,9 +56,8 @@ public class Attributes extends Vector {
     if (atts == null) {
       return;
     }
-    Vector v = atts.getChildren();
-    for (int i=0; i<v.size(); i++) {
-      DataObject dobj = (DataObject)v.elementAt(i);
+    for (int i=0, n=atts.countChildren(); i<n; i++) {
+      DataObject dobj = atts.getChildAt(i);
       String dobjName = dobj.getName();
       if (Attribute.ATTRIBUTE.equals(dobjName)) {
         addAttribute(new Attribute(dobj));
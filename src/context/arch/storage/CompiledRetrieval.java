@@ -0,0 +1,326 @@
+package context.arch.storage;
+
+import java.util.Vector;
+import java.util.Hashtable;
+import java.util.Enumeration;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * A CompiledRetrieval is the SQL query of a Retrieval, prepared once for all
+ * the retrievals with the same attribute functions and the same conditions
+ * attributes and compare flags (the shape of the retrieval).  The condition
+ * values are parameters of the query, set with their attribute type by bind.
+ *
+ * With a max or min function, the rows with the max or min value are selected
+ * in the same query, by a subselect on the same conditions:
+ *   SELECT ... FROM table WHERE conditions AND att = (SELECT max(att) FROM table WHERE conditions)
+ *
+ * The attribute names are translated to the column names of the database
+ * when the retrieval is compiled, and the types of the results are kept with
+ * the query.
+ *
+ * @see context.arch.storage.VectorStorage
+ */
+class CompiledRetrieval {
+
+  private String sql;
+  private boolean special;
+  private String[] conditionTypes;
+  private String[] resultNames;
+  private String[] resultTypes;
+  private AttributeFunctions attNames;
+  private String[] attTypes;
+
+  /**
+   * Returns the shape of a retrieval: its attribute functions, and the
+   * attributes and compare flags of its conditions
+   *
+   * @param retrieval The retrieval
+   * @return String that is the same for the retrievals compiled into the same query
+   */
+  static String getKey(Retrieval retrieval) {
+    StringBuffer key = new StringBuffer();
+    AttributeFunctions atts = retrieval.getAttributeFunctions();
+    if (atts != null) {
+      for (int i=0; i<atts.numAttributeFunctions(); i++) {
+        AttributeFunction af = atts.getAttributeFunctionAt(i);
+        key.append(af.getName()).append('/').append(af.getFunction()).append(',');
+      }
+    }
+    key.append('|');
+    Conditions conditions = retrieval.getConditions();
+    if (conditions != null) {
+      for (int i=0; i<conditions.numConditions(); i++) {
+        Condition condition = conditions.getConditionAt(i);
+        key.append(condition.getAttribute()).append('/').append(condition.getCompare()).append(',');
+      }
+    }
+    return key.toString();
+  }
+
+  /**
+   * Compiles a retrieval into a SQL query on a table
+   *
+   * @param table Name of the table
+   * @param attributes Attributes stored in the table
+   * @param attributeTypes Hashtable containing the column names and their types
+   * @param retrieval The retrieval
+   * @return the compiled retrieval, or null if the retrieval has no attribute or
+   *         refers to an unknown attribute
+   */
+  static CompiledRetrieval compile(String table, Attributes attributes, Hashtable attributeTypes, Retrieval retrieval) {
+    AttributeFunctions atts = retrieval.getAttributeFunctions();
+    if (atts == null || atts.numAttributeFunctions() == 0) {
+      return null;
+    }
+    // if all attributes requested, get name of each and put into atts
+    if (atts.getAttributeFunctionAt(0).getName().equals(AttributeFunctions.ALL)) {
+      atts = new AttributeFunctions();
+      for (int i=0; i<attributes.numAttributes(); i++) {
+        atts.addAttributeFunction(attributes.getAttributeAt(i).getName());
+      }
+    }
+    // for each attribute, fix name for database use and check if struct data
+    AttributeFunctions newAtts = new AttributeFunctions();
+    String[] attTypes = new String[atts.numAttributeFunctions()];
+    for (int j=0; j<atts.numAttributeFunctions(); j++) {
+      AttributeFunction att = atts.getAttributeFunctionAt(j);
+      String name = toColumn(att.getName());
+      String type = (String)attributeTypes.get(name);
+      if (type == null) {
+        return null;
+      }
+      attTypes[j] = type;
+      // if struct data, flatten struct data and put into newAtts
+      if (type.equals(Attribute.STRUCT)) {
+        Hashtable flatAtts = attributes.getAttribute(att.getName()).getSubAttributes().toTypesHashtable(att.getName());
+        for (Enumeration e = flatAtts.keys(); e.hasMoreElements();) {
+          name = (String)e.nextElement();
+          if (!(flatAtts.get(name).equals(Attribute.STRUCT))) {
+            newAtts.addAttributeFunction(toColumn(name),AttributeFunction.DEFAULT_TYPE,AttributeFunction.FUNCTION_NONE);
+          }
+        }
+      }
+      else {
+        newAtts.addAttributeFunction(name,AttributeFunction.DEFAULT_TYPE,att.getFunction());
+      }
+    }
+
+    CompiledRetrieval query = new CompiledRetrieval();
+    query.attNames = atts;
+    query.attTypes = attTypes;
+    int n = newAtts.numAttributeFunctions();
+    query.resultNames = new String[n];
+    query.resultTypes = new String[n];
+    StringBuffer statement = new StringBuffer("SELECT ");
+    AttributeFunction specialAtt = null;
+    for (int i=0; i<n; i++) {
+      AttributeFunction af = newAtts.getAttributeFunctionAt(i);
+      String func = af.getFunction();
+      if (i != 0) {
+        statement.append(",");
+      }
+      if (func == null || func.equals(AttributeFunction.FUNCTION_NONE) ||
+          func.equals(AttributeFunction.FUNCTION_MAX) || func.equals(AttributeFunction.FUNCTION_MIN)) {
+        statement.append(af.getName());
+      }
+      else {
+        statement.append(func+"("+af.getName()+")");
+      }
+      if (specialAtt == null && func != null &&
+          (func.equals(AttributeFunction.FUNCTION_MAX) || func.equals(AttributeFunction.FUNCTION_MIN))) {
+        specialAtt = af;
+      }
+      query.resultNames[i] = af.getName().replace(VectorStorage.NEW_SEPARATOR,VectorStorage.OLD_SEPARATOR);
+      query.resultTypes[i] = (String)attributeTypes.get(af.getName());
+    }
+    statement.append(" FROM "+table);
+
+    StringBuffer where = new StringBuffer();
+    Conditions conditions = retrieval.getConditions();
+    int numConditions = conditions == null ? 0 : conditions.numConditions();
+    String[] types = new String[numConditions];
+    for (int i=0; i<numConditions; i++) {
+      Condition condition = conditions.getConditionAt(i);
+      String name = toColumn(condition.getAttribute());
+      types[i] = (String)attributeTypes.get(name);
+      if (types[i] == null) {
+        return null;
+      }
+      where.append(i == 0 ? " WHERE " : " AND ");
+      where.append(name);
+      switch (condition.getCompare()) {
+        case Storage.LESSTHAN:         where.append("<");
+                                       break;
+        case Storage.LESSTHANEQUAL:    where.append("<=");
+                                       break;
+        case Storage.GREATERTHAN:      where.append(">");
+                                       break;
+        case Storage.GREATERTHANEQUAL: where.append(">=");
+                                       break;
+        case Storage.EQUAL:            where.append("=");
+                                       break;
+      }
+      where.append("?");
+    }
+    statement.append(where.toString());
+
+    if (specialAtt != null) {
+      query.special = true;
+      statement.append(numConditions == 0 ? " WHERE " : " AND ");
+      statement.append(specialAtt.getName()+" = (SELECT "+specialAtt.getFunction()+"("+specialAtt.getName()+") FROM "+table);
+      statement.append(where.toString());
+      statement.append(")");
+      query.conditionTypes = new String[2*numConditions];
+      System.arraycopy(types, 0, query.conditionTypes, 0, numConditions);
+      System.arraycopy(types, 0, query.conditionTypes, numConditions, numConditions);
+    }
+    else {
+      query.conditionTypes = types;
+    }
+    query.sql = statement.toString();
+    return query;
+  }
+
+  /**
+   * Returns the column name of an attribute
+   *
+   * @param name Name of the attribute
+   * @return name of the column
+   */
+  private static String toColumn(String name) {
+    return name.replace(VectorStorage.OLD_SEPARATOR,VectorStorage.NEW_SEPARATOR);
+  }
+
+  /**
+   * Sets the parameters of the prepared query to the values of the conditions
+   * of a retrieval with the same shape
+   *
+   * @param pstmt The statement prepared with getSQL
+   * @param conditions The conditions of the retrieval
+   * @throws SQLException when a parameter can't be set
+   */
+  void bind(PreparedStatement pstmt, Conditions conditions) throws SQLException {
+    int numConditions = conditions == null ? 0 : conditions.numConditions();
+    for (int i=0; i<conditionTypes.length; i++) {
+      Condition condition = conditions.getConditionAt(i % numConditions);
+      setParameter(pstmt, i+1, condition.getValue(), conditionTypes[i]);
+    }
+  }
+
+  /**
+   * Returns the SQL query, with ? for the condition values
+   *
+   * @return SQL query
+   */
+  String getSQL() {
+    return sql;
+  }
+
+  /**
+   * Returns true if the query selects the rows with a max or min value
+   *
+   * @return whether the retrieval has a max or min function
+   */
+  boolean isSpecial() {
+    return special;
+  }
+
+  /**
+   * Returns the attribute names of the results, with STRUCT attributes
+   * not flattened
+   *
+   * @return AttributeFunctions of the results
+   */
+  AttributeFunctions getAttributeNames() {
+    return attNames;
+  }
+
+  /**
+   * Returns the types of the attributes of the results
+   *
+   * @return types of the attributes returned by getAttributeNames
+   */
+  String[] getAttributeTypes() {
+    return attTypes;
+  }
+
+  /**
+   * Returns the attribute names of the columns of the query
+   *
+   * @return names of the flattened attributes
+   */
+  String[] getResultNames() {
+    return resultNames;
+  }
+
+  /**
+   * Returns the types of the columns of the query
+   *
+   * @return types of the flattened attributes
+   */
+  String[] getResultTypes() {
+    return resultTypes;
+  }
+
+  /**
+   * This method sets a parameter of a prepared statement to a value of the
+   * given attribute type.  A value that can't be converted to the type is set
+   * as a String, to be converted by the database.
+   *
+   * @param pstmt The prepared statement
+   * @param index Index of the parameter
+   * @param value The value, or null
+   * @param type Type of the attribute
+   * @throws SQLException when the parameter can't be set
+   */
+  static void setParameter(PreparedStatement pstmt, int index, Object value, String type) throws SQLException {
+    if (value == null) {
+      if (type.equals(Attribute.INT) || type.equals(Attribute.STRUCT)) {
+        pstmt.setNull(index, Types.INTEGER);
+      }
+      else if (type.equals(Attribute.SHORT)) {
+        pstmt.setNull(index, Types.SMALLINT);
+      }
+      else if (type.equals(Attribute.LONG)) {
+        pstmt.setNull(index, Types.BIGINT);
+      }
+      else if (type.equals(Attribute.FLOAT)) {
+        pstmt.setNull(index, Types.FLOAT);
+      }
+      else if (type.equals(Attribute.DOUBLE)) {
+        pstmt.setNull(index, Types.DOUBLE);
+      }
+      else {
+        pstmt.setNull(index, Types.VARCHAR);
+      }
+      return;
+    }
+    String s = value.toString().trim();
+    try {
+      if (type.equals(Attribute.INT) || type.equals(Attribute.STRUCT)) {
+        pstmt.setInt(index, Integer.parseInt(s));
+      }
+      else if (type.equals(Attribute.SHORT)) {
+        pstmt.setShort(index, Short.parseShort(s));
+      }
+      else if (type.equals(Attribute.LONG)) {
+        pstmt.setLong(index, Long.parseLong(s));
+      }
+      else if (type.equals(Attribute.FLOAT)) {
+        pstmt.setFloat(index, Float.parseFloat(s));
+      }
+      else if (type.equals(Attribute.DOUBLE)) {
+        pstmt.setDouble(index, Double.parseDouble(s));
+      }
+      else {
+        pstmt.setString(index, value.toString());
+      }
+    } catch (NumberFormatException nfe) {
+        pstmt.setString(index, value.toString());
+    }
+  }
+
+}
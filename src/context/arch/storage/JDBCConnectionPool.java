@@ -0,0 +1,263 @@
+package context.arch.storage;
+
+import java.util.Vector;
+import java.util.Hashtable;
+import java.util.Enumeration;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * This class keeps the idle database connections so that the successive
+ * operations of the storage objects reuse the same connections instead of
+ * opening a new one for every statement.
+ *
+ * A connection is taken with getConnection and given back with
+ * releaseConnection once the operation is done. It is dropped when it has
+ * been idle for more than the idle timeout, or when there are already enough
+ * idle connections.
+ *
+ * The pool also keeps the prepared statements of each connection, so a
+ * statement prepared once is reused each time its connection is taken again.
+ *
+ * @see context.arch.storage.VectorStorage
+ * @see context.arch.comm.protocol.ConnectionPool
+ */
+public class JDBCConnectionPool {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * The default maximum number of idle connections kept is 4
+   */
+  public static int DEFAULT_MAX_IDLE = 4;
+
+  /**
+   * The default idle timeout is 60 seconds
+   */
+  public static long DEFAULT_IDLE_TIMEOUT = 60000;
+
+  /**
+   * The maximum number of prepared statements kept per connection is 64
+   */
+  public static int MAX_STATEMENTS = 64;
+
+  // Vector of IdleConnection, the most recently used last
+  private Vector idle;
+  // Connection -> Hashtable of sql -> PreparedStatement
+  private Hashtable statements = new Hashtable();
+  private String url;
+  private String user;
+  private String password;
+  private int maxIdle;
+  private long idleTimeout;
+
+  /**
+   * Basic constructor using the default limits
+   *
+   * @param url Url of the database
+   * @param user Username to connect with
+   * @param password Password to connect with
+   * @see #DEFAULT_MAX_IDLE
+   * @see #DEFAULT_IDLE_TIMEOUT
+   */
+  public JDBCConnectionPool(String url, String user, String password) {
+    this(url, user, password, DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT);
+  }
+
+  /**
+   * Constructor with user-specified limits
+   *
+   * @param url Url of the database
+   * @param user Username to connect with
+   * @param password Password to connect with
+   * @param maxIdle Maximum number of idle connections kept
+   * @param idleTimeout Time in milliseconds after which an idle connection is closed
+   */
+  public JDBCConnectionPool(String url, String user, String password, int maxIdle, long idleTimeout) {
+    this.idle = new Vector();
+    this.url = url;
+    this.user = user;
+    this.password = password;
+    this.maxIdle = maxIdle;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Returns an idle connection, or a new connection if there is none.
+   * Expired connections found on the way are closed.
+   *
+   * @return a connection to the database
+   * @exception SQLException if a new connection can't be opened
+   */
+  public Connection getConnection() throws SQLException {
+    long now = System.currentTimeMillis();
+    while (true) {
+      IdleConnection connection;
+      synchronized (this) {
+        if (idle.isEmpty()) {
+          break;
+        }
+        connection = (IdleConnection) idle.remove(idle.size() - 1);
+      }
+      boolean closed;
+      try {
+        closed = connection.connection.isClosed();
+      } catch (SQLException sqle) {
+        closed = true;
+      }
+      if (connection.since + idleTimeout < now || closed) {
+        close(connection.connection);
+      }
+      else {
+        if (DEBUG) {
+          System.out.println("JDBCConnectionPool reusing " + connection.connection);
+        }
+        return connection.connection;
+      }
+    }
+    if (DEBUG) {
+      System.out.println("JDBCConnectionPool opening a connection to " + url);
+    }
+    return DriverManager.getConnection(url, user, password);
+  }
+
+  /**
+   * Gives back a connection after an operation. The connection is kept for
+   * later use, or closed if there are enough idle connections. A connection
+   * given back must be in auto-commit mode.
+   *
+   * @param connection The connection to give back, or null
+   */
+  public void releaseConnection(Connection connection) {
+    if (connection == null) {
+      return;
+    }
+    synchronized (this) {
+      if (idle.size() < maxIdle) {
+        idle.addElement(new IdleConnection(connection));
+        return;
+      }
+    }
+    close(connection);
+  }
+
+  /**
+   * Returns a prepared statement of a connection taken from this pool.  The
+   * statement is kept with the connection, and must not be closed by the
+   * caller.  When the connection has too many statements, they are closed and
+   * the cache starts again.
+   *
+   * @param connection A connection taken from this pool
+   * @param sql The SQL statement, with ? for the parameters
+   * @return the prepared statement
+   * @exception SQLException if the statement can't be prepared
+   */
+  public PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+    Hashtable cache;
+    synchronized (this) {
+      cache = (Hashtable) statements.get(connection);
+      if (cache == null) {
+        cache = new Hashtable();
+        statements.put(connection, cache);
+      }
+    }
+    PreparedStatement statement = (PreparedStatement) cache.get(sql);
+    if (statement == null) {
+      if (cache.size() >= MAX_STATEMENTS) {
+        closeStatements(cache);
+      }
+      statement = connection.prepareStatement(sql);
+      cache.put(sql, statement);
+      if (DEBUG) {
+        System.out.println("JDBCConnectionPool prepared " + sql);
+      }
+    }
+    return statement;
+  }
+
+  /**
+   * Closes a connection taken from this pool that can't be given back, and
+   * its prepared statements
+   *
+   * @param connection The connection, or null
+   */
+  public void discardConnection(Connection connection) {
+    if (connection != null) {
+      close(connection);
+    }
+  }
+
+  /**
+   * Closes the statements of a cache and empties it
+   *
+   * @param cache Hashtable of sql -> PreparedStatement
+   */
+  private void closeStatements(Hashtable cache) {
+    for (Enumeration e = cache.elements(); e.hasMoreElements();) {
+      try {
+        ((PreparedStatement) e.nextElement()).close();
+      } catch (SQLException sqle) {
+      }
+    }
+    cache.clear();
+  }
+
+  /**
+   * Closes all the idle connections
+   */
+  public void closeAll() {
+    Vector connections;
+    synchronized (this) {
+      connections = idle;
+      idle = new Vector();
+    }
+    for (int i = 0; i < connections.size(); i++) {
+      close(((IdleConnection) connections.elementAt(i)).connection);
+    }
+  }
+
+  /**
+   * Closes a connection and its prepared statements, ignoring the errors
+   *
+   * @param connection The connection to close
+   */
+  private void close(Connection connection) {
+    Hashtable cache;
+    synchronized (this) {
+      cache = (Hashtable) statements.remove(connection);
+    }
+    if (cache != null) {
+      closeStatements(cache);
+    }
+    try {
+      connection.close();
+    } catch (SQLException sqle) {
+        if (DEBUG) {
+          System.out.println("JDBCConnectionPool close SQL: " + sqle);
+        }
+    }
+  }
+
+  /**
+   * An idle connection, with the time it was given back
+   */
+  private static class IdleConnection {
+
+    /** The connection */
+    Connection connection;
+
+    /** The time the connection was given back */
+    long since;
+
+    IdleConnection(Connection connection) {
+      this.connection = connection;
+      this.since = System.currentTimeMillis();
+    }
+  }
+
+}
@@ -0,0 +1,308 @@
+package context.arch.storage;
+
+import java.util.Hashtable;
+
+/**
+ * This class keeps the most recent Attributes stored by a StorageObject in a
+ * fixed-size ring buffer, to answer the retrievals on recent data without the
+ * storage class.
+ *
+ * The buffer knows the largest timestamp that may be in the storage but not in
+ * the buffer (its floor).  A retrieval is answered by the buffer when all the
+ * rows it can return are in the buffer:
+ *  - when it has a condition "timestamp greater than" (or greater or equal, or
+ *    equal) a value above the floor, like the last N seconds of data.
+ *  - when its first max or min function is the max of the timestamp, like the
+ *    last value, and a row above the floor matches its conditions.
+ * The other retrievals return null, and are sent to the storage class.
+ *
+ * The timestamps must increase with the stored Attributes.  When an older
+ * timestamp is stored, the buffer is emptied and its floor moved up.
+ *
+ * As a WriteBehindQueue listener, the buffer keeps the Attributes accepted by
+ * the queue, and removes those the queue drops or fails to store.
+ *
+ * @see context.arch.storage.StorageObject
+ * @see context.arch.storage.RetrievalProcessor
+ */
+public class RecentAttributes implements RetrievalProcessor.Rows, WriteBehindQueue.Listener {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * The attribute the buffer is ordered on
+   */
+  public static final String TIMESTAMP = TimeSeriesStorage.TIMESTAMP;
+
+  // flattened values of the rows: column name -> Long, Double or String
+  private Hashtable[] rows;
+  private long[] timestamps;
+  // the Attributes each row was added from
+  private Attributes[] sources;
+  private int start = 0;
+  private int count = 0;
+  private long floor = Long.MAX_VALUE;
+  private Hashtable attributeTypes = null;
+  private RetrievalProcessor processor = null;
+
+  /**
+   * Constructor that sets the size of the buffer
+   *
+   * @param capacity Number of Attributes kept
+   */
+  public RecentAttributes(int capacity) {
+    rows = new Hashtable[Math.max(1, capacity)];
+    timestamps = new long[rows.length];
+    sources = new Attributes[rows.length];
+  }
+
+  /**
+   * Sets the attributes of the stored data, and the floor of the buffer.
+   * The buffer is emptied.  If the attributes have no timestamp, the buffer
+   * answers no retrieval.
+   *
+   * @param attributes Attributes object containing attributes and type info
+   * @param attTypes Flattened hashtable version of Attributes
+   * @param floor The largest timestamp in the storage, or Long.MIN_VALUE if it is empty
+   */
+  public synchronized void setAttributes(Attributes attributes, Hashtable attTypes, long floor) {
+    start = 0;
+    count = 0;
+    sources = new Attributes[rows.length];
+    this.floor = floor;
+    if (attTypes.get(TIMESTAMP) == null) {
+      attributeTypes = null;
+      processor = null;
+    }
+    else {
+      attributeTypes = attTypes;
+      processor = new RetrievalProcessor(attributes, attTypes);
+    }
+  }
+
+  /**
+   * Adds Attributes to the buffer, replacing the oldest ones if it is full
+   *
+   * @param atts Attributes stored
+   */
+  public synchronized void add(Attributes atts) {
+    if (processor == null) {
+      return;
+    }
+    Hashtable values = new Hashtable();
+    flatten(atts, "", values);
+    Long time = (Long)values.get(TIMESTAMP);
+    if (time == null || time.longValue() < floor || (count > 0 && time.longValue() < timestamps[(start+count-1) % rows.length])) {
+      // the order is broken: nothing in the buffer can be trusted to be complete
+      for (int i=0; i<count; i++) {
+        floor = Math.max(floor, timestamps[(start+i) % rows.length]);
+      }
+      if (time != null) {
+        floor = Math.max(floor, time.longValue());
+      }
+      start = 0;
+      count = 0;
+      sources = new Attributes[rows.length];
+      if (DEBUG) {
+        System.out.println("RecentAttributes emptied, floor="+floor);
+      }
+      return;
+    }
+    if (count == rows.length) {
+      floor = Math.max(floor, timestamps[start]);
+      sources[start] = null;
+      start = (start+1) % rows.length;
+      count--;
+    }
+    int index = (start+count) % rows.length;
+    rows[index] = values;
+    timestamps[index] = time.longValue();
+    sources[index] = atts;
+    count++;
+  }
+
+  /**
+   * Removes Attributes from the buffer, when they won't be stored
+   *
+   * @param atts Attributes given to add
+   */
+  public synchronized void remove(Attributes atts) {
+    for (int i=count-1; i>=0; i--) {
+      if (sources[(start+i) % rows.length] == atts) {
+        for (int j=i; j<count-1; j++) {
+          int index = (start+j) % rows.length;
+          int next = (start+j+1) % rows.length;
+          rows[index] = rows[next];
+          timestamps[index] = timestamps[next];
+          sources[index] = sources[next];
+        }
+        count--;
+        int last = (start+count) % rows.length;
+        rows[last] = null;
+        sources[last] = null;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Adds Attributes accepted by the WriteBehindQueue
+   *
+   * @param atts Attributes put in the queue
+   */
+  public void queued(Attributes atts) {
+    add(atts);
+  }
+
+  /**
+   * Removes Attributes dropped by the WriteBehindQueue
+   *
+   * @param atts Attributes that won't be stored
+   */
+  public void dropped(Attributes atts) {
+    remove(atts);
+  }
+
+  /**
+   * Puts the values of the flattened attributes in the given hashtable,
+   * converted to the objects compared by the RetrievalProcessor
+   *
+   * @param atts Attributes to flatten
+   * @param prefix Structure name of the attributes
+   * @param values Hashtable to put the values in
+   */
+  private void flatten(Attributes atts, String prefix, Hashtable values) {
+    for (int i=0; i<atts.numAttributes(); i++) {
+      Attribute attr = atts.getAttributeAt(i);
+      if (!(attr instanceof AttributeNameValue)) {
+        continue;
+      }
+      AttributeNameValue att = (AttributeNameValue)attr;
+      String name = prefix+att.getName();
+      if (Attribute.STRUCT.equals(att.getType()) && att.getValue() instanceof Attributes) {
+        Attributes subAtts = (Attributes)att.getValue();
+        values.put(name, new Long(subAtts.numAttributes()));
+        flatten(subAtts, name+Attributes.SEPARATOR_STRING, values);
+      }
+      else {
+        String type = (String)attributeTypes.get(name);
+        Object value = RetrievalProcessor.toColumnValue(att.getValue(), type == null ? att.getType() : type);
+        if (value != null) {
+          values.put(name, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the Attributes matching the Retrieval if the buffer contains all
+   * of them, or null if the retrieval must be sent to the storage class.
+   *
+   * @param retrieval Retrieval object containing conditions for data retrieval
+   * @return RetrievalResults containing Attributes objects that match the given conditions, or null
+   */
+  public synchronized RetrievalResults retrieveAttributes(Retrieval retrieval) {
+    if (processor == null || count == 0) {
+      return null;
+    }
+    AttributeFunctions atts = retrieval.getAttributeFunctions();
+    Conditions conditions = retrieval.getConditions();
+    if (atts == null || atts.numAttributeFunctions() == 0 ||
+        (conditions != null && conditions.getORConditions() != null)) {
+      return null;
+    }
+
+    RetrievalResults results = null;
+    if (isRecentWindow(conditions)) {
+      results = processor.process(retrieval, this, 0, count);
+    }
+    else if (isLastValue(atts)) {
+      int first = 0;
+      while (first < count && timestamps[(start+first) % rows.length] <= floor) {
+        first++;
+      }
+      results = processor.process(retrieval, this, first, count);
+      if (results != null && results.size() == 0) {
+        results = null;
+      }
+    }
+    if (DEBUG) {
+      System.out.println("RecentAttributes "+(results == null ? "can't answer " : "answers ")+retrieval);
+    }
+    return results;
+  }
+
+  /**
+   * Returns true if a condition keeps only timestamps above the floor
+   *
+   * @param conditions Conditions of the retrieval
+   * @return whether all the rows matching the conditions are in the buffer
+   */
+  private boolean isRecentWindow(Conditions conditions) {
+    if (conditions == null) {
+      return false;
+    }
+    for (int i=0; i<conditions.numConditions(); i++) {
+      Condition condition = conditions.getConditionAt(i);
+      if (!TIMESTAMP.equals(condition.getAttribute())) {
+        continue;
+      }
+      Object value = RetrievalProcessor.toColumnValue(condition.getValue(), Attribute.DOUBLE);
+      if (value == null) {
+        continue;
+      }
+      double time = ((Double)value).doubleValue();
+      switch (condition.getCompare()) {
+        case Storage.GREATERTHAN:      if (time >= floor) return true;
+                                       break;
+        case Storage.GREATERTHANEQUAL:
+        case Storage.EQUAL:            if (time > floor) return true;
+                                       break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if the first max or min function is the max of the timestamp
+   *
+   * @param atts AttributeFunctions of the retrieval
+   * @return whether the retrieval asks for the last values
+   */
+  private boolean isLastValue(AttributeFunctions atts) {
+    for (int i=0; i<atts.numAttributeFunctions(); i++) {
+      AttributeFunction af = atts.getAttributeFunctionAt(i);
+      if (AttributeFunction.FUNCTION_MAX.equals(af.getFunction())) {
+        return TIMESTAMP.equals(af.getName());
+      }
+      if (AttributeFunction.FUNCTION_MIN.equals(af.getFunction())) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the value of a column in a row of the buffer
+   *
+   * @param column Name of the flattened attribute
+   * @param row Number of the row, from the oldest
+   * @return Long, Double or String value, or null if the row has no value
+   */
+  public Object getValue(String column, int row) {
+    return rows[(start+row) % rows.length].get(column);
+  }
+
+  /**
+   * Returns the number of Attributes in the buffer
+   *
+   * @return the number of Attributes
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+}
@@ -0,0 +1,426 @@
+package context.arch.storage;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+/**
+ * This class processes a Retrieval on rows of attribute values held in
+ * memory or in local files, with the results VectorStorage gets from its
+ * SQL queries:
+ *  - the conditions are ANDed, and compare numbers for the numeric attributes
+ *    and Strings for the others. A missing value never fits a condition.
+ *  - STRUCT attributes are retrieved with all their sub-attributes.
+ *  - with a max or min function, only the rows whose value of the first max
+ *    or min attribute is the max or min of the rows fitting the conditions
+ *    are kept.
+ *  - with a count, avg or sum function, the result is one row with these
+ *    functions computed on the rows fitting the conditions, and the values
+ *    of the first of them for the other attributes.
+ * The values in the results are Strings, as read from a database.
+ *
+ * The rows are given by a Rows object, whose columns are the names of the
+ * flattened attributes (as given by Attributes.toTypesHashtable).
+ *
+ * @see context.arch.storage.TimeSeriesStorage
+ */
+public class RetrievalProcessor {
+
+  /**
+   * The interface of the rows a Retrieval is processed on
+   */
+  public interface Rows {
+
+    /**
+     * Returns the value of a column in a row
+     *
+     * @param column Name of the flattened attribute
+     * @param row Number of the row
+     * @return Long, Double or String value, or null if the row has no value
+     */
+    public Object getValue(String column, int row);
+  }
+
+  private Attributes attributes;
+  private Hashtable attributeTypes;
+
+  /**
+   * Constructor that sets the attributes the rows contain
+   *
+   * @param attributes Attributes object containing attributes and type info
+   * @param attributeTypes Hashtable containing the flattened names and their types
+   */
+  public RetrievalProcessor(Attributes attributes, Hashtable attributeTypes) {
+    this.attributes = attributes;
+    this.attributeTypes = attributeTypes;
+  }
+
+  /**
+   * Returns true if the values of an attribute type are stored as Long
+   *
+   * @param type Type of the attribute
+   * @return whether the type is an integer type
+   */
+  public static boolean isInteger(String type) {
+    return Attribute.INT.equals(type) || Attribute.SHORT.equals(type) || Attribute.LONG.equals(type);
+  }
+
+  /**
+   * Returns true if the values of an attribute type are stored as Double
+   *
+   * @param type Type of the attribute
+   * @return whether the type is a floating point type
+   */
+  public static boolean isReal(String type) {
+    return Attribute.FLOAT.equals(type) || Attribute.DOUBLE.equals(type);
+  }
+
+  /**
+   * Converts a value to the object stored for an attribute type: a Long for
+   * the integer types, a Double for the floating point types, and a String
+   * for the others.
+   *
+   * @param value Value to convert
+   * @param type Type of the attribute
+   * @return the converted value, or null if it can't be converted
+   */
+  public static Object toColumnValue(Object value, String type) {
+    if (value == null) {
+      return null;
+    }
+    if (isInteger(type)) {
+      if (value instanceof Number) {
+        return new Long(((Number)value).longValue());
+      }
+      String s = value.toString().trim();
+      try {
+        return new Long(Long.parseLong(s));
+      } catch (NumberFormatException nfe) {
+        try {
+          return new Long((long)Double.parseDouble(s));
+        } catch (NumberFormatException nfe2) {
+          return null;
+        }
+      }
+    }
+    else if (isReal(type)) {
+      if (value instanceof Number) {
+        return new Double(((Number)value).doubleValue());
+      }
+      try {
+        return new Double(Double.parseDouble(value.toString().trim()));
+      } catch (NumberFormatException nfe) {
+        return null;
+      }
+    }
+    return value.toString();
+  }
+
+  /**
+   * This method returns the attributes of the rows from first (included) to
+   * last (excluded) that match the given conditions in the Retrieval object.
+   *
+   * @param retrieval Retrieval object containing conditions for data retrieval
+   * @param rows The rows to retrieve the data from
+   * @param first Number of the first row
+   * @param last Number of the row after the last one
+   * @return RetrievalResults containing Attributes objects that match the given conditions,
+   *         or null if the retrieval can't be processed or nothing is found with a max or min
+   */
+  public RetrievalResults process(Retrieval retrieval, Rows rows, int first, int last) {
+    AttributeFunctions atts = retrieval.getAttributeFunctions();
+    if (atts == null || atts.numAttributeFunctions() == 0) {
+      return null;
+    }
+    // if all attributes requested, get name of each and put into atts
+    if (atts.getAttributeFunctionAt(0).getName().equals(AttributeFunctions.ALL)) {
+      atts = new AttributeFunctions();
+      for (int i=0; i<attributes.numAttributes(); i++) {
+        atts.addAttributeFunction(attributes.getAttributeAt(i).getName());
+      }
+    }
+    // the columns to read and their functions, with the struct data flattened
+    AttributeFunctions columns = new AttributeFunctions();
+    for (int j=0; j<atts.numAttributeFunctions(); j++) {
+      AttributeFunction att = atts.getAttributeFunctionAt(j);
+      String type = (String)attributeTypes.get(att.getName());
+      if (type == null) {
+        return null;
+      }
+      if (type.equals(Attribute.STRUCT)) {
+        Hashtable flatAtts = attributes.getAttribute(att.getName()).getSubAttributes().toTypesHashtable(att.getName());
+        for (Enumeration e = flatAtts.keys(); e.hasMoreElements();) {
+          String name = (String)e.nextElement();
+          if (!(flatAtts.get(name).equals(Attribute.STRUCT))) {
+            columns.addAttributeFunction(name,AttributeFunction.DEFAULT_TYPE,AttributeFunction.FUNCTION_NONE);
+          }
+        }
+      }
+      else {
+        columns.addAttributeFunction(att.getName(),AttributeFunction.DEFAULT_TYPE,att.getFunction());
+      }
+    }
+
+    Conditions conditions = retrieval.getConditions();
+    if (conditions == null) {
+      conditions = new Conditions();
+    }
+    for (int i=0; i<conditions.numConditions(); i++) {
+      if (attributeTypes.get(conditions.getConditionAt(i).getAttribute()) == null) {
+        return null;
+      }
+    }
+
+    // the max or min of the first attribute with one of these functions
+    Condition special = null;
+    for (int i=0; i<columns.numAttributeFunctions() && special == null; i++) {
+      AttributeFunction af = columns.getAttributeFunctionAt(i);
+      boolean max = AttributeFunction.FUNCTION_MAX.equals(af.getFunction());
+      if (max || AttributeFunction.FUNCTION_MIN.equals(af.getFunction())) {
+        Object best = null;
+        for (int row=first; row<last; row++) {
+          if (matches(conditions, null, rows, row)) {
+            Object value = rows.getValue(af.getName(), row);
+            if (value != null && (best == null || (compare(value, best) > 0) == max && compare(value, best) != 0)) {
+              best = value;
+            }
+          }
+        }
+        if (best == null) {
+          return null;
+        }
+        special = new Condition(af.getName(), Storage.EQUAL, best);
+      }
+    }
+
+    boolean aggregate = false;
+    for (int i=0; i<columns.numAttributeFunctions(); i++) {
+      if (isAggregate(columns.getAttributeFunctionAt(i).getFunction())) {
+        aggregate = true;
+      }
+    }
+
+    AttributeFunctions attNames = retrieval.getAttributeFunctions();
+    if (attNames.getAttributeFunctionAt(0).getName().equals(Attributes.ALL)) {
+      attNames = atts;
+    }
+
+    RetrievalResults results = new RetrievalResults();
+    if (aggregate) {
+      Hashtable values = aggregate(columns, conditions, special, rows, first, last);
+      addResult(results, attNames, values);
+    }
+    else {
+      for (int row=first; row<last; row++) {
+        if (matches(conditions, special, rows, row)) {
+          Hashtable values = new Hashtable();
+          for (int i=0; i<columns.numAttributeFunctions(); i++) {
+            String name = columns.getAttributeFunctionAt(i).getName();
+            Object value = rows.getValue(name, row);
+            if (value != null) {
+              values.put(name, value.toString());
+            }
+          }
+          addResult(results, attNames, values);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Returns true if the function computes one value from all the rows
+   *
+   * @param function Name of the function
+   * @return whether the function is count, avg or sum
+   */
+  private static boolean isAggregate(String function) {
+    return AttributeFunction.FUNCTION_COUNT.equals(function) || AttributeFunction.FUNCTION_AVG.equals(function)
+      || AttributeFunction.FUNCTION_SUM.equals(function);
+  }
+
+  /**
+   * Computes the values of the columns on the rows matching the conditions:
+   * the count, avg or sum of the values for these functions, and the value of
+   * the first row for the others.
+   *
+   * @return Hashtable containing the column names and String values
+   */
+  private Hashtable aggregate(AttributeFunctions columns, Conditions conditions, Condition special,
+                              Rows rows, int first, int last) {
+    int n = columns.numAttributeFunctions();
+    long[] counts = new long[n];
+    double[] sums = new double[n];
+    boolean[] real = new boolean[n];
+    Hashtable values = new Hashtable();
+    boolean firstRow = true;
+    for (int row=first; row<last; row++) {
+      if (! matches(conditions, special, rows, row)) {
+        continue;
+      }
+      for (int i=0; i<n; i++) {
+        AttributeFunction af = columns.getAttributeFunctionAt(i);
+        Object value = rows.getValue(af.getName(), row);
+        if (isAggregate(af.getFunction())) {
+          if (value != null) {
+            counts[i]++;
+            if (value instanceof Number) {
+              sums[i] += ((Number)value).doubleValue();
+              real[i] |= value instanceof Double;
+            }
+            else {
+              Object number = toColumnValue(value, Attribute.DOUBLE);
+              if (number != null) {
+                sums[i] += ((Double)number).doubleValue();
+                real[i] = true;
+              }
+            }
+          }
+        }
+        else if (firstRow && value != null) {
+          values.put(af.getName(), value.toString());
+        }
+      }
+      firstRow = false;
+    }
+    for (int i=0; i<n; i++) {
+      AttributeFunction af = columns.getAttributeFunctionAt(i);
+      String function = af.getFunction();
+      if (AttributeFunction.FUNCTION_COUNT.equals(function)) {
+        values.put(af.getName(), Long.toString(counts[i]));
+      }
+      else if (counts[i] > 0 && AttributeFunction.FUNCTION_SUM.equals(function)) {
+        values.put(af.getName(), real[i] ? Double.toString(sums[i]) : Long.toString((long)sums[i]));
+      }
+      else if (counts[i] > 0 && AttributeFunction.FUNCTION_AVG.equals(function)) {
+        values.put(af.getName(), Double.toString(sums[i] / counts[i]));
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Adds the requested attributes of a row to the results, if it has one
+   *
+   * @param results The results
+   * @param attNames The requested attributes
+   * @param values Hashtable containing the column names and String values of the row
+   */
+  private void addResult(RetrievalResults results, AttributeFunctions attNames, Hashtable values) {
+    Attributes newAttValues = new Attributes();
+    for (int k=0; k<attNames.numAttributeFunctions(); k++) {
+      String attName = attNames.getAttributeFunctionAt(k).getName();
+      String type = (String)attributeTypes.get(attName);
+      if (Attribute.STRUCT.equals(type)) {
+        newAttValues.addAttributeNameValue(getAttributeNameValue(attName, values));
+      }
+      else if (values.get(attName) != null) {
+        newAttValues.addAttributeNameValue(new AttributeNameValue(attName, values.get(attName), type));
+      }
+    }
+    if (newAttValues.numAttributes() != 0) {
+      results.addAttributes(newAttValues);
+    }
+  }
+
+  /**
+   * This method takes an attribute name (whose attribute type is STRUCT)
+   * and returns the complete attribute information for it.
+   *
+   * @param name Full name of the attribute
+   * @param values Hashtable containing all the values of a row
+   * @return AttributeNameValue containing all the STRUCT's values in a hierarchical
+   *         format
+   */
+  private AttributeNameValue getAttributeNameValue(String name, Hashtable values) {
+    Attribute att = attributes.getAttribute(name);
+    if (att.getType().equals(Attribute.STRUCT)) {
+      Attributes atts = (Attributes)att.getSubAttributes();
+      Attributes newAtts = new Attributes();
+      for (int i=0; i<atts.numAttributes(); i++) {
+        Attribute subAtt = atts.getAttributeAt(i);
+        newAtts.addAttributeNameValue(getAttributeNameValue(name+Attributes.SEPARATOR_STRING+subAtt.getName(),values));
+      }
+      return new AttributeNameValue(name,newAtts,Attribute.STRUCT);
+    }
+    else {
+      return new AttributeNameValue(name,values.get(name),att.getType());
+    }
+  }
+
+  /**
+   * Returns true if a row matches all the conditions
+   *
+   * @param conditions Conditions to check
+   * @param special Additional condition, or null
+   * @param rows The rows
+   * @param row Number of the row
+   * @return whether the row matches
+   */
+  private boolean matches(Conditions conditions, Condition special, Rows rows, int row) {
+    for (int i=0; i<conditions.numConditions(); i++) {
+      if (! matches(conditions.getConditionAt(i), rows, row)) {
+        return false;
+      }
+    }
+    return special == null || matches(special, rows, row);
+  }
+
+  /**
+   * Returns true if a row matches a condition
+   *
+   * @param condition Condition to check
+   * @param rows The rows
+   * @param row Number of the row
+   * @return whether the row matches
+   */
+  private boolean matches(Condition condition, Rows rows, int row) {
+    Object value = rows.getValue(condition.getAttribute(), row);
+    if (value == null) {
+      return false;
+    }
+    Object ref = condition.getValue();
+    if (! (value instanceof String)) {
+      ref = toColumnValue(ref, Attribute.DOUBLE);
+      if (ref == null) {
+        return false;
+      }
+    }
+    else if (ref == null) {
+      return false;
+    }
+    return matches(condition.getCompare(), compare(value, ref));
+  }
+
+  /**
+   * Returns true if the result of a comparison fits the compare flag
+   *
+   * @param compare Compare flag as defined in Storage
+   * @param result Result of the comparison of the value of a row to the value of the condition
+   * @return whether the comparison fits
+   */
+  public static boolean matches(int compare, int result) {
+    switch (compare) {
+      case Storage.LESSTHAN:         return result < 0;
+      case Storage.LESSTHANEQUAL:    return result <= 0;
+      case Storage.GREATERTHAN:      return result > 0;
+      case Storage.GREATERTHANEQUAL: return result >= 0;
+      case Storage.EQUAL:            return result == 0;
+    }
+    return false;
+  }
+
+  /**
+   * Compares two values: numbers are compared as double, other values as String
+   *
+   * @return negative, zero or positive
+   */
+  private static int compare(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) {
+      double da = ((Number)a).doubleValue();
+      double db = ((Number)b).doubleValue();
+      return da < db ? -1 : (da > db ? 1 : 0);
+    }
+    return a.toString().compareTo(b.toString());
+  }
+
+}
@@ -5,7 +5,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.DriverManager;
 
 //import gwe.sql.gweMysqlDriver;
 
@@ -16,21 +15,46 @@ import context.arch.util.Constants;
  * This class allows storage and retrieval of data in String, Integer, Long, Float,
  * Double, or Short format.  It uses a default storage class 
  * (context.arch.storage.VectorStorage), but can use any given storage class that
- * implements the Storage interface.
+ * implements the Storage interface, like context.arch.storage.TimeSeriesStorage
+ * that keeps the data in local files instead of a database.
+ *
+ * The data is stored through a WriteBehindQueue, so the caller doesn't wait for
+ * the storage class.  The retrievals wait for the queued data to be stored,
+ * except those on recent data, answered by the RecentAttributes kept in memory.
  * 
  * @see context.arch.storage.Storage
+ * @see context.arch.storage.TimeSeriesStorage
  */
 public class StorageObject {
 
   private Attributes lastStored = null;
   private String storageClass = "";
   private Storage storage = null;
+  private WriteBehindQueue queue = null;
+  private RecentAttributes recent = null;
 
   /**
    * Tag for debugging.
    */
   private static final boolean DEBUG = false;
 
+  /**
+   * Whether the data is stored through a WriteBehindQueue, so that storing
+   * doesn't wait for the storage class.  Set to false to store the data on
+   * the caller's thread.
+   *
+   * @see context.arch.storage.WriteBehindQueue
+   */
+  public static boolean WRITE_BEHIND = true;
+
+  /**
+   * The number of recent Attributes kept in memory to answer the retrievals
+   * on recent data.  Set to 0 to send all the retrievals to the storage class.
+   *
+   * @see context.arch.storage.RecentAttributes
+   */
+  public static int RECENT_CAPACITY = 100;
+
   /**
    * Tag for retrieving data
    */
@@ -81,6 +105,11 @@ public class StorageObject {
    */
   public static final String PASSWORD = "writing";
 
+  /**
+   * The pool of the connections to the default url
+   */
+  public static final JDBCConnectionPool CONNECTION_POOL = new JDBCConnectionPool(URL, USER, PASSWORD);
+
   /**
    * The default storage class is context.arch.storage.VectorStorage
    */
@@ -127,8 +156,8 @@ public class StorageObject {
     try {
       if (storageClass.equals("context.arch.storage.VectorStorage")) {
         Class.forName("gwe.sql.gweMysqlDriver");
-        Connection con = DriverManager.getConnection(URL, USER, PASSWORD);
-        con.close();
+        Connection con = CONNECTION_POOL.getConnection();
+        CONNECTION_POOL.releaseConnection(con);
       }
 
       if (System.getProperty("os.name").equals(Constants.WINCE)) {
@@ -142,6 +171,15 @@ public class StorageObject {
         objects[0] = table;
         storage = (Storage)constructor.newInstance(objects);
       }
+      if (WRITE_BEHIND) {
+        queue = new WriteBehindQueue(storage, table);
+      }
+      if (RECENT_CAPACITY > 0) {
+        recent = new RecentAttributes(RECENT_CAPACITY);
+        if (queue != null) {
+          queue.setListener(recent);
+        }
+      }
     } catch (NoSuchMethodException nsme) {
         System.out.println("StorageObject NoSuchMethod: "+nsme);
         throw new InvalidStorageException(storageClass);
@@ -174,9 +212,11 @@ public class StorageObject {
    */
   public StorageObject(String storageClass, String table, Integer flushType, Long flushCondition) throws InvalidStorageException {
     try {
-      Class.forName("gwe.sql.gweMysqlDriver");
-      Connection con = DriverManager.getConnection(URL, USER, PASSWORD);
-      con.close();
+      if (storageClass.equals("context.arch.storage.VectorStorage")) {
+        Class.forName("gwe.sql.gweMysqlDriver");
+        Connection con = CONNECTION_POOL.getConnection();
+        CONNECTION_POOL.releaseConnection(con);
+      }
 
       Class[] classes = new Class[3];
       classes[0] = Class.forName("java.lang.String");
@@ -188,6 +228,15 @@ public class StorageObject {
       objects[1] = flushType;
       objects[2] = flushCondition;
       storage = (Storage)constructor.newInstance(objects);
+      if (WRITE_BEHIND) {
+        queue = new WriteBehindQueue(storage, table);
+      }
+      if (RECENT_CAPACITY > 0) {
+        recent = new RecentAttributes(RECENT_CAPACITY);
+        if (queue != null) {
+          queue.setListener(recent);
+        }
+      }
     } catch (NoSuchMethodException nsme) {
         System.out.println("StorageObject NoSuchMethod: "+nsme);
         throw new InvalidStorageException(storageClass);
@@ -213,7 +262,9 @@ public class StorageObject {
    * This method stores the given AttributeNameValues object and checks whether the locally
    * stored data should be flushed to persistent storage.  It is a stub method that
    * simply calls the store(), checkFlushCondition() and flushStorage() methods in the 
-   * Storage interface.
+   * Storage interface.  With a WriteBehindQueue, these methods are called by the
+   * writer thread of the queue.  The RecentAttributes only keep the Attributes
+   * accepted by the queue or stored.
    *
    * @param atts AttributeNameValues to store
    * @see context.arch.storage.Storage#store(context.arch.storage.AttributeNameValues)
@@ -221,9 +272,18 @@ public class StorageObject {
    * @see context.arch.storage.Storage#checkFlushCondition()
    */
   public void store(Attributes atts) {
-    storage.store(atts);
-    if (storage.checkFlushCondition()) {
-      storage.flushStorage();
+    if (queue != null) {
+      // the queue adds the Attributes to the RecentAttributes if it accepts them
+      queue.put(atts);
+    }
+    else {
+      storage.store(atts);
+      if (recent != null) {
+        recent.add(atts);
+      }
+      if (storage.checkFlushCondition()) {
+        storage.flushStorage();
+      }
     }
     lastStored = atts;
   }
@@ -253,28 +313,56 @@ public class StorageObject {
   }
 
   /**
-   * Flushes the locally stored data to persistent storage
+   * Flushes the locally stored data to persistent storage.  With a
+   * WriteBehindQueue, the flush is done by the writer thread of the queue.
    */
   public void flushStorage() {
-    storage.flushStorage();
+    if (queue != null) {
+      queue.flush();
+    }
+    else {
+      storage.flushStorage();
+    }
+  }
+
+  /**
+   * Returns the WriteBehindQueue used to store the data, to get its metrics
+   * or change its settings
+   *
+   * @return the WriteBehindQueue, or null if the data is stored on the caller's thread
+   */
+  public WriteBehindQueue getWriteBehindQueue() {
+    return queue;
   }
 
   /**
    * This method returns a vector containing AttributeNameValues objects that matches
-   * the given conditions in the Retrieval object  
+   * the given conditions in the Retrieval object.  The retrievals on recent data
+   * are answered by the RecentAttributes, without the storage class.
    * 
    * @param retrieval Retrieval object that contains conditions for retrievalcompare Flag that dictates the type of comparison
    * @return RetrievalResults containing AttributeNameValues objects that matches the given compare
    *         flag and value
    */
   public RetrievalResults retrieveAttributes(Retrieval retrieval) {
+    if (recent != null) {
+      RetrievalResults results = recent.retrieveAttributes(retrieval);
+      if (results != null) {
+        return results;
+      }
+    }
+    if (queue != null) {
+      queue.drain();
+    }
     return storage.retrieveAttributes(retrieval);
   }
 
   /**
    * This method returns a vector containing AttributeNameValues objects that matches
    * the given conditions in the Retrieval object, and that the given requestorId
-   * is allowed to have access to
+   * is allowed to have access to.  The retrievals on recent data are answered
+   * by the RecentAttributes, as by retrieveAttributes(Retrieval): the storage
+   * classes don't restrict the access of the requestors.
    * 
    * @param accessorId Id of the "user" trying to retrieve data
    * @param retrieval Retrieval object that contains conditions for retrievalcompare Flag that dictates the type of comparison
@@ -282,6 +370,15 @@ public class StorageObject {
    *         flag and value
    */
   public RetrievalResults retrieveAttributes(String requestorId, Retrieval retrieval) {
+    if (recent != null) {
+      RetrievalResults results = recent.retrieveAttributes(retrieval);
+      if (results != null) {
+        return results;
+      }
+    }
+    if (queue != null) {
+      queue.drain();
+    }
     return storage.retrieveAttributes(requestorId, retrieval);
   }
 
@@ -292,7 +389,39 @@ public class StorageObject {
    * @param attributeTypes Hashtable containing attributes and type info
    */
   public void setAttributes(Attributes attributes, Hashtable attributeTypes) {
+    if (queue != null) {
+      queue.drain();
+    }
     storage.setAttributes(attributes, attributeTypes);
+    if (recent != null) {
+      long floor = Long.MAX_VALUE;
+      if (attributeTypes.get(RecentAttributes.TIMESTAMP) != null) {
+        floor = getLastTimestamp();
+      }
+      recent.setAttributes(attributes, attributeTypes, floor);
+    }
+  }
+
+  /**
+   * Returns the largest timestamp in the storage
+   *
+   * @return the largest timestamp, Long.MIN_VALUE if the storage is empty, or
+   *         Long.MAX_VALUE if it can't be read
+   */
+  private long getLastTimestamp() {
+    try {
+      AttributeFunctions afs = new AttributeFunctions();
+      afs.addAttributeFunction(RecentAttributes.TIMESTAMP, Attribute.LONG, AttributeFunction.FUNCTION_MAX);
+      RetrievalResults results = storage.retrieveAttributes(new Retrieval(afs, new Conditions()));
+      if (results == null || results.numAttributeNameValues() == 0) {
+        return Long.MIN_VALUE;
+      }
+      AttributeNameValue time = results.getAttributesAt(0).getAttributeNameValue(RecentAttributes.TIMESTAMP);
+      return Long.parseLong(time.getValue().toString().trim());
+    } catch (RuntimeException re) {
+        System.out.println("StorageObject getLastTimestamp Exception: "+re);
+    }
+    return Long.MAX_VALUE;
   }
 
 }
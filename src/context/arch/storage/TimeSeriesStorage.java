@@ -0,0 +1,597 @@
+package context.arch.storage;
+
+import java.util.Vector;
+import java.util.Hashtable;
+import java.util.Enumeration;
+import java.util.Date;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import context.arch.widget.Widget;
+
+/**
+ * This class allows storage and retrieval of data in String, Integer, Long, Float,
+ * Double, or Short format, without a database.  It implements the Storage interface
+ * with an append-only store in local files: each table is a directory, with one
+ * memory-mapped file per flattened attribute (column), and the stored Attributes are
+ * appended as rows.  The retrievals are processed locally by a RetrievalProcessor,
+ * with the conditions and attribute functions of VectorStorage.
+ *
+ * The values are kept in 8 bytes slots: a long for the INT, SHORT, LONG and STRUCT
+ * attributes, a double for the FLOAT and DOUBLE attributes, and the offset of the
+ * value in a strings file for the other attributes.  The number of rows is written
+ * after the values of a new row, so a row is either complete or not seen.
+ *
+ * As long as the timestamps are stored in increasing order, the conditions on the
+ * timestamp attribute are resolved by a binary search, and only the rows in the
+ * time range are read.
+ *
+ * The data is written to the files by the operating system; flushStorage forces it
+ * to the disk.
+ *
+ * @see context.arch.storage.RetrievalProcessor
+ */
+public class TimeSeriesStorage implements Storage {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  private static final boolean DEBUG = false;
+
+  /**
+   * The directory containing the tables
+   */
+  public static String DIRECTORY = "storage";
+
+  /**
+   * Default flush type is by number of stores
+   */
+  public static final int DEFAULT_FLUSH_TYPE = DATA;
+
+  /**
+   * Default flush condition is 100 (i.e. flush after 100 stores)
+   */
+  public static final long DEFAULT_FLUSH_CONDITION = 100;
+
+  /**
+   * The attribute the rows are sorted on
+   */
+  public static final String TIMESTAMP = Widget.TIMESTAMP;
+
+  /**
+   * Name of the file containing the names and types of the columns
+   */
+  private static final String COLUMNS_FILE = "columns";
+
+  /**
+   * Name of the file containing the number of rows and whether they are sorted
+   */
+  private static final String ROWS_FILE = "rows";
+
+  /**
+   * The value stored for a missing long value
+   */
+  private static final long NULL_LONG = Long.MIN_VALUE;
+
+  /**
+   * The initial size of the mapped files
+   */
+  private static final int INITIAL_SIZE = 8192;
+
+  private Hashtable attributeTypes = new Hashtable();
+  private Attributes attributes;
+  private long lastFlush = 0;
+  private long numStored = 0;
+  private int flushType;
+  private long flushCondition;
+  private String table;
+  private File directory;
+  private Hashtable columns = new Hashtable();
+  private Vector columnList = new Vector();
+  private MappedFile rowsFile;
+  private int numRows;
+  private boolean sorted;
+  private long lastTimestamp = Long.MIN_VALUE;
+  private RetrievalProcessor processor;
+
+  /**
+   * Basic constructor that uses the default flush condition
+   *
+   * @param table Name of table to use
+   * @exception IOException if the files of the table can't be opened
+   */
+  public TimeSeriesStorage(String table) throws IOException {
+    this(table,new Integer(DEFAULT_FLUSH_TYPE),new Long(DEFAULT_FLUSH_CONDITION));
+  }
+
+  /**
+   * Basic constructor that uses the given flush type and condition
+   *
+   * @param table Name of table to use
+   * @param flushType Flush to disk based on TIME or DATA
+   * @param flushCondition Condition to flush the mapped files to disk
+   * @exception IOException if the files of the table can't be opened
+   */
+  public TimeSeriesStorage(String tableName, Integer flushType, Long flushCondition) throws IOException {
+    table = tableName.replace(' ','_');
+    this.flushType = flushType.intValue();
+    this.flushCondition = flushCondition.longValue();
+    if (this.flushType == TIME) {
+      lastFlush = new Date().getTime();
+    }
+    open();
+  }
+
+  /**
+   * Opens the files of the table, and creates them if they don't exist
+   *
+   * @exception IOException if the files can't be opened
+   */
+  private void open() throws IOException {
+    directory = new File(DIRECTORY, table);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("can't create "+directory);
+    }
+    File rows = new File(directory, ROWS_FILE);
+    boolean created = !rows.exists();
+    rowsFile = new MappedFile(rows, 16);
+    if (created) {
+      rowsFile.buffer.putLong(0, 0);
+      rowsFile.buffer.putLong(8, 1);
+    }
+    numRows = (int)rowsFile.buffer.getLong(0);
+    sorted = rowsFile.buffer.getLong(8) != 0;
+
+    File columnsFile = new File(directory, COLUMNS_FILE);
+    if (columnsFile.exists()) {
+      RandomAccessFile in = new RandomAccessFile(columnsFile, "r");
+      String line;
+      while ((line = in.readLine()) != null) {
+        int tab = line.indexOf('\t');
+        if (tab > 0) {
+          openColumn(line.substring(0,tab), line.substring(tab+1));
+        }
+      }
+      in.close();
+    }
+    Column timestamp = (Column)columns.get(TIMESTAMP);
+    if (timestamp != null && numRows > 0) {
+      Object last = timestamp.getValue(numRows-1);
+      if (last instanceof Long) {
+        lastTimestamp = ((Long)last).longValue();
+      }
+    }
+    if (DEBUG) {
+      System.out.println("TimeSeriesStorage opened "+directory+" with "+numRows+" rows");
+    }
+  }
+
+  /**
+   * Opens the files of a column
+   *
+   * @param name Name of the flattened attribute
+   * @param type Type of the attribute
+   * @return the column
+   * @exception IOException if the files can't be opened
+   */
+  private Column openColumn(String name, String type) throws IOException {
+    Column column = new Column(name, type, columnList.size());
+    columns.put(name, column);
+    columnList.addElement(column);
+    if (attributeTypes.get(name) == null) {
+      attributeTypes.put(name, type);
+    }
+    return column;
+  }
+
+  /**
+   * Adds a column to the table, with no value in the existing rows
+   *
+   * @param name Name of the flattened attribute
+   * @param type Type of the attribute
+   * @return the column
+   * @exception IOException if the files can't be created
+   */
+  private Column addColumn(String name, String type) throws IOException {
+    Column column = openColumn(name, type);
+    for (int row=0; row<numRows; row++) {
+      column.setValue(row, null);
+    }
+    RandomAccessFile out = new RandomAccessFile(new File(directory, COLUMNS_FILE), "rw");
+    out.seek(out.length());
+    out.writeBytes(name+"\t"+type+"\n");
+    out.close();
+    return column;
+  }
+
+  /**
+   * This method stores the given Attributes object
+   *
+   * @param atts Attributes to store
+   */
+  public synchronized void store(Attributes atts) {
+    Hashtable values = new Hashtable();
+    Hashtable types = new Hashtable();
+    flatten(atts, "", values, types);
+    try {
+      for (Enumeration e = types.keys(); e.hasMoreElements();) {
+        String name = (String)e.nextElement();
+        if (columns.get(name) == null) {
+          addColumn(name, (String)types.get(name));
+        }
+      }
+      for (int i=0; i<columnList.size(); i++) {
+        Column column = (Column)columnList.elementAt(i);
+        column.setValue(numRows, values.get(column.name));
+      }
+    } catch (IOException ioe) {
+        System.out.println("TimeSeriesStorage store() IO: "+ioe);
+        return;
+    }
+
+    Column timestamp = (Column)columns.get(TIMESTAMP);
+    Object time = timestamp == null ? null : timestamp.getValue(numRows);
+    if (sorted) {
+      if (time instanceof Long && ((Long)time).longValue() >= lastTimestamp) {
+        lastTimestamp = ((Long)time).longValue();
+      }
+      else {
+        sorted = false;
+        rowsFile.buffer.putLong(8, 0);
+      }
+    }
+    numRows++;
+    rowsFile.buffer.putLong(0, numRows);
+    numStored++;
+  }
+
+  /**
+   * Puts the values and types of the flattened attributes in the given hashtables
+   *
+   * @param atts Attributes to flatten
+   * @param prefix Structure name of the attributes
+   * @param values Hashtable to put the values in
+   * @param types Hashtable to put the types in
+   */
+  private void flatten(Attributes atts, String prefix, Hashtable values, Hashtable types) {
+    for (int i=0; i<atts.numAttributes(); i++) {
+      Attribute attr = atts.getAttributeAt(i);
+      if (!(attr instanceof AttributeNameValue)) {
+        continue;
+      }
+      AttributeNameValue att = (AttributeNameValue)attr;
+      String name = prefix+att.getName();
+      String type = (String)attributeTypes.get(name);
+      if (type == null) {
+        type = att.getType();
+      }
+      types.put(name, type);
+      if (Attribute.STRUCT.equals(att.getType()) && att.getValue() instanceof Attributes) {
+        Attributes subAtts = (Attributes)att.getValue();
+        values.put(name, new Long(subAtts.numAttributes()));
+        flatten(subAtts, name+Attributes.SEPARATOR_STRING, values, types);
+      }
+      else if (att.getValue() != null) {
+        values.put(name, att.getValue());
+      }
+    }
+  }
+
+  /**
+   * This method returns a Vector containing AttributeNameValue objects that match
+   * the given conditions in the Retrieval object. It takes in the accessorId of the
+   * "user" requesting the information, but does nothing with it currently.
+   *
+   * @param accessorId Id of the "user" trying to retrieve the data
+   * @param retrieval Retrievals object containing conditions for data retrieval
+   * @return RetrievalResults containing AttributeNameValues objects that match the given conditions
+   */
+  public RetrievalResults retrieveAttributes(String accessorId, Retrieval retrieval) {
+    return retrieveAttributes(retrieval);
+  }
+
+  /**
+   * This method returns a Vector containing AttributeNameValue objects that match
+   * the given conditions in the Retrieval object.
+   *
+   * @param retrieval Retrievals object containing conditions for data retrieval
+   * @return RetrievalResults containing AttributeNameValues objects that match the given conditions
+   */
+  public synchronized RetrievalResults retrieveAttributes(Retrieval retrieval) {
+    if (attributes == null) {
+      return null;
+    }
+    int first = 0;
+    int last = numRows;
+    Column timestamp = (Column)columns.get(TIMESTAMP);
+    Conditions conditions = retrieval.getConditions();
+    if (sorted && timestamp != null && conditions != null) {
+      for (int i=0; i<conditions.numConditions(); i++) {
+        Condition condition = conditions.getConditionAt(i);
+        if (!TIMESTAMP.equals(condition.getAttribute())) {
+          continue;
+        }
+        Object value = RetrievalProcessor.toColumnValue(condition.getValue(), Attribute.DOUBLE);
+        if (value == null) {
+          continue;
+        }
+        double time = ((Double)value).doubleValue();
+        switch (condition.getCompare()) {
+          case LESSTHAN:         last = Math.min(last, search(timestamp, time, false));
+                                 break;
+          case LESSTHANEQUAL:    last = Math.min(last, search(timestamp, time, true));
+                                 break;
+          case GREATERTHAN:      first = Math.max(first, search(timestamp, time, true));
+                                 break;
+          case GREATERTHANEQUAL: first = Math.max(first, search(timestamp, time, false));
+                                 break;
+          case EQUAL:            first = Math.max(first, search(timestamp, time, false));
+                                 last = Math.min(last, search(timestamp, time, true));
+                                 break;
+        }
+      }
+    }
+    if (DEBUG) {
+      System.out.println("TimeSeriesStorage retrieves rows "+first+" to "+last+" of "+numRows);
+    }
+    return processor.process(retrieval, new Rows(), first, Math.max(first, last));
+  }
+
+  /**
+   * Returns the first row whose timestamp is greater than the given time, or
+   * greater or equal if after is false
+   *
+   * @param timestamp The timestamp column
+   * @param time The time to search
+   * @param after Whether the rows with the given time are before the result
+   * @return the number of the row, or the number of rows
+   */
+  private int search(Column timestamp, double time, boolean after) {
+    int low = 0;
+    int high = numRows;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      long value = timestamp.data.buffer.getLong(middle*8);
+      if (value < time || (after && value == time)) {
+        low = middle+1;
+      }
+      else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Checks condition under which the mapped files are forced to disk.
+   */
+  public boolean checkFlushCondition() {
+    if (flushType == TIME) {
+      long tmp = new Date().getTime();
+      if (lastFlush + flushCondition <= tmp) {
+        return true;
+      }
+    }
+    else if (flushType == DATA) {
+      if (flushCondition <= numStored) {
+        if (DEBUG) {
+          System.out.println("flush is true");
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Forces the stored data to disk
+   */
+  public synchronized void flushStorage() {
+    if (numStored == 0) {
+      return;
+    }
+
+    if (DEBUG) {
+      System.out.println("flushing");
+    }
+
+    for (int i=0; i<columnList.size(); i++) {
+      Column column = (Column)columnList.elementAt(i);
+      column.data.buffer.force();
+      if (column.strings != null) {
+        column.strings.buffer.force();
+      }
+    }
+    rowsFile.buffer.force();
+    numStored = 0;
+    lastFlush = new Date().getTime();
+  }
+
+  /**
+   * This method sets the attributes to use for storage.  The attributes
+   * are used to set up the columns of the table.
+   *
+   * @param attributes Attributes object containing  attributes and type info
+   * @param attTypes Flattened hashtable version of Attributes
+   */
+  public synchronized void setAttributes(Attributes attributes, Hashtable attTypes) {
+    this.attributes = attributes;
+    for (Enumeration e = attTypes.keys(); e.hasMoreElements();) {
+      String name = (String)e.nextElement();
+      attributeTypes.put(name, attTypes.get(name));
+    }
+    try {
+      for (Enumeration e = attTypes.keys(); e.hasMoreElements();) {
+        String name = (String)e.nextElement();
+        if (columns.get(name) == null) {
+          addColumn(name, (String)attTypes.get(name));
+        }
+      }
+    } catch (IOException ioe) {
+        System.out.println("TimeSeriesStorage setAttributes() IO: "+ioe);
+    }
+    processor = new RetrievalProcessor(attributes, attributeTypes);
+  }
+
+  /**
+   * The rows of the table, as seen by the RetrievalProcessor
+   */
+  private class Rows implements RetrievalProcessor.Rows {
+    public Object getValue(String name, int row) {
+      Column column = (Column)columns.get(name);
+      if (column == null) {
+        return null;
+      }
+      return column.getValue(row);
+    }
+  }
+
+  /**
+   * A column of the table: the 8 bytes slots of the values, and the strings
+   * for the String values
+   */
+  private class Column {
+
+    /** Name of the flattened attribute */
+    String name;
+
+    /** Type of the attribute */
+    String type;
+
+    /** Whether the values are longs */
+    boolean integer;
+
+    /** Whether the values are doubles */
+    boolean real;
+
+    /** The slots of the values */
+    MappedFile data;
+
+    /** The String values, with their used size in the first 8 bytes */
+    MappedFile strings;
+
+    Column(String name, String type, int index) throws IOException {
+      this.name = name;
+      this.type = type;
+      integer = RetrievalProcessor.isInteger(type) || Attribute.STRUCT.equals(type);
+      real = RetrievalProcessor.isReal(type);
+      data = new MappedFile(new File(directory, index+".col"), (numRows+1)*8);
+      if (!integer && !real) {
+        File file = new File(directory, index+".str");
+        boolean created = !file.exists();
+        strings = new MappedFile(file, INITIAL_SIZE);
+        if (created) {
+          strings.buffer.putLong(0, 8);
+        }
+      }
+    }
+
+    /**
+     * Returns the value of a row
+     *
+     * @param row Number of the row
+     * @return Long, Double or String value, or null
+     */
+    Object getValue(int row) {
+      long slot = data.buffer.getLong(row*8);
+      if (integer) {
+        return slot == NULL_LONG ? null : new Long(slot);
+      }
+      if (real) {
+        double d = Double.longBitsToDouble(slot);
+        return Double.isNaN(d) ? null : new Double(d);
+      }
+      if (slot < 0) {
+        return null;
+      }
+      int length = strings.buffer.getInt((int)slot);
+      byte[] bytes = new byte[length];
+      for (int i=0; i<length; i++) {
+        bytes[i] = strings.buffer.get((int)slot+4+i);
+      }
+      try {
+        return new String(bytes, "UTF-8");
+      } catch (UnsupportedEncodingException uee) {
+          return new String(bytes);
+      }
+    }
+
+    /**
+     * Sets the value of a row
+     *
+     * @param row Number of the row
+     * @param value Value to store, or null
+     * @exception IOException if the files can't be extended
+     */
+    void setValue(int row, Object value) throws IOException {
+      value = RetrievalProcessor.toColumnValue(value, integer ? Attribute.LONG : type);
+      data.ensure((row+1)*8);
+      long slot;
+      if (integer) {
+        slot = value == null ? NULL_LONG : ((Long)value).longValue();
+      }
+      else if (real) {
+        slot = Double.doubleToLongBits(value == null ? Double.NaN : ((Double)value).doubleValue());
+      }
+      else if (value == null) {
+        slot = -1;
+      }
+      else {
+        byte[] bytes = ((String)value).getBytes("UTF-8");
+        int used = (int)strings.buffer.getLong(0);
+        strings.ensure(used+4+bytes.length);
+        strings.buffer.putInt(used, bytes.length);
+        for (int i=0; i<bytes.length; i++) {
+          strings.buffer.put(used+4+i, bytes[i]);
+        }
+        strings.buffer.putLong(0, used+4+bytes.length);
+        slot = used;
+      }
+      data.buffer.putLong(row*8, slot);
+    }
+  }
+
+  /**
+   * A file mapped in memory, whose size is doubled when it is too small
+   */
+  private static class MappedFile {
+
+    /** The file */
+    RandomAccessFile file;
+
+    /** The mapped content of the file */
+    MappedByteBuffer buffer;
+
+    MappedFile(File f, int size) throws IOException {
+      file = new RandomAccessFile(f, "rw");
+      map((int)Math.max(size, file.length()));
+    }
+
+    /**
+     * Makes sure the given number of bytes are mapped
+     *
+     * @param size Number of bytes
+     * @exception IOException if the file can't be extended
+     */
+    void ensure(int size) throws IOException {
+      if (size > buffer.capacity()) {
+        map(Math.max(size, Math.max(INITIAL_SIZE, buffer.capacity()*2)));
+      }
+    }
+
+    /**
+     * Maps the given number of bytes of the file, and extends it if needed
+     *
+     * @param size Number of bytes
+     * @exception IOException if the file can't be mapped
+     */
+    private void map(int size) throws IOException {
+      buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+}
@@ -4,9 +4,9 @@ import java.util.Vector;
 import java.util.Hashtable;
 import java.util.Enumeration;
 import java.util.Date;
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
@@ -17,6 +17,18 @@ import java.sql.SQLException;
  * Double, or Short format.  It implements the Storage interface, using a Vector to
  * store data temporarily.  It can flush locally stored data to persistent data upon 
  * request.
+ *
+ * The flushed data is written by a flusher thread, so the caller of flushStorage
+ * doesn't wait for the database: all the data waiting to be written is inserted
+ * with prepared statement batches, in one transaction.  The connections to the
+ * database are taken from StorageObject.CONNECTION_POOL.
+ *
+ * The retrievals are compiled into SQL queries with parameters for the
+ * condition values, and the compiled queries are kept for the next retrievals
+ * with the same attributes and conditions.
+ *
+ * @see context.arch.storage.JDBCConnectionPool
+ * @see context.arch.storage.CompiledRetrieval
  */
 public class VectorStorage implements Storage {
 
@@ -30,6 +42,9 @@ public class VectorStorage implements Storage {
   private String table;
   private boolean firstTime = true;
   private Vector data;
+  private Vector pending = new Vector();
+  private Thread flusher = null;
+  private Hashtable queries = new Hashtable();
 
   /**
    * Debug flag. Set to true to see debug messages.
@@ -46,6 +61,11 @@ public class VectorStorage implements Storage {
    */
   public static final long DEFAULT_FLUSH_CONDITION = 2;
 
+  /**
+   * Maximum number of compiled retrievals kept
+   */
+  public static int MAX_QUERIES = 128;
+
   /**
    * Separator used in structured info
    */
@@ -105,7 +125,7 @@ public class VectorStorage implements Storage {
    *
    * @param atts AttributeNameValues to store
    */
-  public void store(Attributes atts) {
+  public synchronized void store(Attributes atts) {
     data.addElement(atts);
     numStored++;
   }
@@ -132,213 +152,27 @@ public class VectorStorage implements Storage {
    */
   public RetrievalResults retrieveAttributes(Retrieval retrieval) {
     flushStorage();
-    StringBuffer statement = new StringBuffer("SELECT ");
-    AttributeFunctions atts = retrieval.getAttributeFunctions();
-    AttributeFunctions newAtts = new AttributeFunctions();
-    if (atts.numAttributeFunctions() == 0) {
+    waitForFlush();
+    CompiledRetrieval query = compile(retrieval);
+    if (query == null) {
       return null;
     }
-    else {
-      // if all attributes requested, get name of each and put into atts
-      if (atts.getAttributeFunctionAt(0).getName().equals(AttributeFunctions.ALL)) {
-        atts = new AttributeFunctions();
-        for (int i=0; i<attributes.numAttributes(); i++) {
-          atts.addAttributeFunction(attributes.getAttributeAt(i).getName());
-        }
-      }
-      // for each attribute, fix name for database use and check if struct data
-      for (int j=0; j<atts.numAttributeFunctions(); j++) {
-        AttributeFunction att = atts.getAttributeFunctionAt(j);
-        String name = att.getName().replace(OLD_SEPARATOR,NEW_SEPARATOR);
-        // if struct data, flatten struct data and put into newAtts
-        if (((String)attributeTypes.get(name)).equals(Attribute.STRUCT)) {
-          Hashtable flatAtts = ((Attributes)attributes.getAttribute(att.getName()).getSubAttributes()).toTypesHashtable(att.getName());
-          for (Enumeration e = flatAtts.keys(); e.hasMoreElements();) {
-            name = (String)e.nextElement();
-            String type = (String)flatAtts.get(name);
-            if (!(type.equals(Attribute.STRUCT))) {
-              newAtts.addAttributeFunction(name.replace(OLD_SEPARATOR,NEW_SEPARATOR),AttributeFunction.DEFAULT_TYPE,AttributeFunction.FUNCTION_NONE);
-            }
-          }
-        }
-        // els if not struct data, put attribute into newAtts
-        else {
-          newAtts.addAttributeFunction(name,AttributeFunction.DEFAULT_TYPE,att.getFunction());
-        }
-      }
-    }
-
-    boolean special = false;
-    AttributeFunctions specialAtts = new AttributeFunctions();
-    for (int i=0; i<newAtts.numAttributeFunctions(); i++) {
-      AttributeFunction af = newAtts.getAttributeFunctionAt(i);
-      if ((af.getFunction().equals(AttributeFunction.FUNCTION_MAX)) || (af.getFunction().equals(AttributeFunction.FUNCTION_MIN))) {
-        if (!special) {
-          specialAtts.addAttributeFunction(af.getName(),af.getFunction());
-          statement.append(af.getFunction()+"("+af.getName()+")");
-          special = true;
-        }
-      }
-    }
-
-    if (special) {
-      statement.append(" FROM "+table);
- 
-      boolean where = false;
-      Conditions conditions = retrieval.getConditions();
-      for (int i=0; i<conditions.numConditions(); i++) {
-        if (i == 0) { 
-          statement.append(" WHERE ");
-          where = true;
-        }
-        else {
-          statement.append(" AND ");
-        }
-        Condition condition = conditions.getConditionAt(i);
-        statement.append (condition.getAttribute().replace(OLD_SEPARATOR,NEW_SEPARATOR));
-        switch (condition.getCompare()) {
-          case LESSTHAN:         statement.append("<");
-                                 break;
-          case LESSTHANEQUAL:    statement.append("<=");
-                                 break;
-          case GREATERTHAN:      statement.append(">");
-                                 break;
-          case GREATERTHANEQUAL: statement.append(">=");
-                                 break;
-          case EQUAL:            statement.append("=");
-                                 break;
-        }
-        if (((String)attributeTypes.get(condition.getAttribute().replace(OLD_SEPARATOR,NEW_SEPARATOR))).equals(Attribute.STRING)) {
-          statement.append("'"+condition.getValue().toString()+"'");
-        }
-        else {
-          statement.append(condition.getValue().toString());
-        }   
-      }
-
-      statement.append("\n");
-
-      Vector preResults = executeRetrieveQuery(specialAtts, statement.toString());
-
-      if (preResults == null) {
-        return null;
-      }
-
-      RetrievalResults results = new RetrievalResults();
-      AttributeFunctions attNames = specialAtts;
-      for (int j=0; j<preResults.size(); j++) {
-        Hashtable resultAtts = (Hashtable)preResults.elementAt(j);
-        Attributes newAttValues = new Attributes();
-        for (int k=0; k<attNames.numAttributeFunctions(); k++) {
-          String attName = attNames.getAttributeFunctionAt(k).getName();
-          AttributeNameValue newAttValue = (AttributeNameValue)resultAtts.get(attName);
-          if (newAttValue.getValue() != null) {
-            newAttValues.addAttributeNameValue(newAttValue);
-          }
-        }
-        if (newAttValues.numAttributes() != 0) {
-          results.addAttributes(newAttValues);
-        }
-      }
-      if (results.numAttributeNameValues() != 0) {
-        Attributes anvs = results.getAttributesAt(0);
-        Attribute anv = anvs.getAttributeAt(0);
-        if (anv instanceof AttributeNameValue) {
-          conditions.addCondition(anv.getName(),EQUAL,((AttributeNameValue)anv).getValue());
-        }
-      }
-      else {
-        return null;
-      }
-      statement = new StringBuffer("SELECT ");
-    }
-
-    AttributeFunction af = newAtts.getAttributeFunctionAt(0);
-    String func = af.getFunction();
-    if (func == null) {
-      statement.append(af.getName());
-    }
-    else {
-      if ((func.equals(AttributeFunction.FUNCTION_NONE)) || 
-          (func.equals(AttributeFunction.FUNCTION_MAX)) || 
-          (func.equals(AttributeFunction.FUNCTION_MIN))) {
-          statement.append(af.getName());
-      }
-      else {
-        statement.append(func+"("+af.getName()+")");
-      }
-    }
-    for (int i=1; i<newAtts.numAttributeFunctions(); i++) {
-      af = newAtts.getAttributeFunctionAt(i);
-      func = af.getFunction();
-      if (func == null) {
-        statement.append(","+af.getName());
-      }
-      if ((func.equals(AttributeFunction.FUNCTION_NONE)) || 
-          (func.equals(AttributeFunction.FUNCTION_MAX)) || 
-          (func.equals(AttributeFunction.FUNCTION_MIN))) {
-        statement.append(","+af.getName());
-      }
-      else {
-        statement.append(","+func+"("+af.getName()+")");
-      }
-    }
-    statement.append(" FROM "+table);
 
-    boolean where = false;
-    Conditions conditions = retrieval.getConditions();
-    for (int i=0; i<conditions.numConditions(); i++) {
-      if (i == 0) { 
-        statement.append(" WHERE ");
-        where = true;
-      }
-      else {
-        statement.append(" AND ");
-      }
-      Condition condition = conditions.getConditionAt(i);
-      statement.append (condition.getAttribute().replace(OLD_SEPARATOR,NEW_SEPARATOR));
-      switch (condition.getCompare()) {
-        case LESSTHAN:         statement.append("<");
-                               break;
-        case LESSTHANEQUAL:    statement.append("<=");
-                               break;
-        case GREATERTHAN:      statement.append(">");
-                               break;
-        case GREATERTHANEQUAL: statement.append(">=");
-                               break;
-        case EQUAL:            statement.append("=");
-                               break;
-      }
-      if (((String)attributeTypes.get(condition.getAttribute().replace(OLD_SEPARATOR,NEW_SEPARATOR))).equals(Attribute.STRING)) {
-        statement.append("'"+condition.getValue().toString()+"'");
-      }
-      else {
-        statement.append(condition.getValue().toString());
-      }   
-    }
-
-    statement.append("\n");
-
-    Vector preResults = executeRetrieveQuery(newAtts, statement.toString());
+    Vector preResults = executeRetrieveQuery(query, retrieval.getConditions());
 
     if (preResults == null) {
       return null;
     }
 
     RetrievalResults results = new RetrievalResults();
-    AttributeFunctions attNames = retrieval.getAttributeFunctions();
-    if (attNames.getAttributeFunctionAt(0).getName().equals(Attributes.ALL)) {
-      attNames = new AttributeFunctions();
-      for (int i=0; i<attributes.numAttributes(); i++) {
-        attNames.addAttributeFunction(attributes.getAttributeAt(i).getName());
-      }
-    }
+    AttributeFunctions attNames = query.getAttributeNames();
+    String[] attTypes = query.getAttributeTypes();
     for (int j=0; j<preResults.size(); j++) {
       Hashtable resultAtts = (Hashtable)preResults.elementAt(j);
       Attributes newAttValues = new Attributes();
       for (int k=0; k<attNames.numAttributeFunctions(); k++) {
         String attName = attNames.getAttributeFunctionAt(k).getName();
-        if (((String)attributeTypes.get(attName.replace(OLD_SEPARATOR,NEW_SEPARATOR))).equals(Attribute.STRUCT)) {
+        if (attTypes[k].equals(Attribute.STRUCT)) {
           AttributeNameValue newAttValue = getAttributeNameValue(attName,resultAtts);
           if (newAttValue.getValue() != null) {
             newAttValues.addAttributeNameValue(newAttValue);
@@ -355,9 +189,37 @@ public class VectorStorage implements Storage {
         results.addAttributes(newAttValues);
       }
     }
+    // nothing has the max or min value if no row matches the conditions
+    if (query.isSpecial() && results.numAttributeNameValues() == 0) {
+      return null;
+    }
     return results;
   }
 
+  /**
+   * Returns the compiled query of a retrieval, from the cache of the queries
+   * compiled for the retrievals with the same shape
+   *
+   * @param retrieval Retrieval object containing conditions for data retrieval
+   * @return the compiled query, or null if the retrieval can't be compiled
+   */
+  private CompiledRetrieval compile(Retrieval retrieval) {
+    String key = CompiledRetrieval.getKey(retrieval);
+    synchronized (queries) {
+      CompiledRetrieval query = (CompiledRetrieval)queries.get(key);
+      if (query == null) {
+        query = CompiledRetrieval.compile(table, attributes, attributeTypes, retrieval);
+        if (query != null) {
+          if (queries.size() >= MAX_QUERIES) {
+            queries.clear();
+          }
+          queries.put(key, query);
+        }
+      }
+      return query;
+    }
+  }
+
   /**
    * This method takes an attribute name (whose attribute type is STRUCT)
    * and returns the complete attribute information for it.
@@ -426,10 +288,12 @@ public class VectorStorage implements Storage {
   }
 
   /**
-   * Flushes local data to persistent storage
+   * Flushes local data to persistent storage.  The data is handed to the
+   * flusher thread, and this method returns without waiting for it to be
+   * written.  The data a previous flush couldn't write is written again.
    */
-  public void flushStorage() {
-    if (data.size() == 0) {
+  public synchronized void flushStorage() {
+    if (data.size() == 0 && pending.size() == 0) {
       return;
     }
 
@@ -437,67 +301,210 @@ public class VectorStorage implements Storage {
       System.out.println("flushing");
     }
 
+    if (data.size() != 0) {
+      pending.addElement(data);
+      resetForFlush();
+    }
+    if (flusher == null) {
+      flusher = new Thread(new Runnable() {
+        public void run() {
+          flushPending();
+        }
+      }, "VectorStorage flusher "+table);
+      flusher.start();
+    }
+  }
+
+  /**
+   * Waits until the flushed data has been written to persistent storage
+   */
+  public synchronized void waitForFlush() {
+    while (flusher != null) {
+      try {
+        wait();
+      } catch (InterruptedException ie) {
+          return;
+      }
+    }
+  }
+
+  /**
+   * Writes the flushed data to persistent storage until there is no more
+   * data waiting.  It is run by the flusher thread, which ends when the
+   * data is written.  If the database can't be reached, the rows are put
+   * back in front of the data waiting and the thread ends: they are written
+   * by the next flush.
+   */
+  private void flushPending() {
+    while (true) {
+      Vector rows = new Vector();
+      synchronized (this) {
+        if (pending.size() == 0) {
+          flusher = null;
+          notifyAll();
+          return;
+        }
+        for (int i=0; i<pending.size(); i++) {
+          rows.addAll((Vector)pending.elementAt(i));
+        }
+        pending = new Vector();
+      }
+      Vector left = writeRows(rows);
+      if (left != null) {
+        synchronized (this) {
+          pending.insertElementAt(left, 0);
+          flusher = null;
+          notifyAll();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * This private method inserts data into the database in one transaction.
+   * If the transaction fails, the rows are inserted one at a time, so that
+   * a row the database refuses doesn't prevent the others from being stored.
+   *
+   * @param rows Vector of Attributes to put in the database
+   * @return the rows that are not written because the database can't be
+   *         reached, or null
+   */
+  private Vector writeRows(Vector rows) {
+    Connection con = null;
     try {
       if (firstTime) {
-        firstTime = false;
         if (!(tableExists(table))) {
           createTable();
         }
+        firstTime = false;
       } 
+      con = StorageObject.CONNECTION_POOL.getConnection();
+    } catch(SQLException sqle) {
+        System.out.println("VectorStorage flushStorage() SQL: "+sqle);
+        return rows;
+    }
 
-      Connection con = DriverManager.getConnection(StorageObject.URL, StorageObject.USER, StorageObject.PASSWORD);
-      Statement stmt = con.createStatement();
-      for (int i=0; i<data.size(); i++) {
-        Attributes atts = (Attributes)data.elementAt(i);
-        String statement = createInsertStatement(atts);
-        stmt.executeUpdate(statement);
+    boolean written = false;
+    try {
+      con.setAutoCommit(false);
+      insertRows(con, rows);
+      con.commit();
+      written = true;
+      if (DEBUG) {
+        System.out.println("VectorStorage wrote "+rows.size()+" rows in one transaction");
       }
-      stmt.close();
-      con.close();
-
     } catch(SQLException sqle) {
         System.out.println("VectorStorage flushStorage() SQL: "+sqle);
+        try {
+          con.rollback();
+        } catch(SQLException sqle2) {
+            System.out.println("VectorStorage flushStorage() rollback SQL: "+sqle2);
+        }
+    }
+
+    try {
+      con.setAutoCommit(true);
+    } catch(SQLException sqle) {
+        StorageObject.CONNECTION_POOL.discardConnection(con);
+        return written ? null : rows;
+    }
+    if (!written) {
+      for (int i=0; i<rows.size(); i++) {
+        Vector row = new Vector();
+        row.addElement(rows.elementAt(i));
+        try {
+          insertRows(con, row);
+        } catch(SQLException sqle) {
+            System.out.println("VectorStorage flushStorage() SQL: "+sqle);
+            if (isClosed(con)) {
+              // the connection is lost, not the row refused
+              StorageObject.CONNECTION_POOL.discardConnection(con);
+              return new Vector(rows.subList(i, rows.size()));
+            }
+        }
+      }
+    }
+    StorageObject.CONNECTION_POOL.releaseConnection(con);
+    return null;
+  }
+
+  /**
+   * Tells whether a connection is closed, or can't tell it is open
+   *
+   * @param con The connection
+   * @return true if the connection is closed
+   */
+  private boolean isClosed(Connection con) {
+    try {
+      return con.isClosed();
+    } catch(SQLException sqle) {
+        return true;
+    }
+  }
+
+  /**
+   * This private method inserts data into the database.  The Attributes
+   * with the same attributes are inserted with one prepared statement batch.
+   *
+   * @param con Connection to the database
+   * @param rows Vector of Attributes to put in the database
+   * @throws SQLException when the insertion fails
+   */
+  private void insertRows(Connection con, Vector rows) throws SQLException {
+    Hashtable statements = new Hashtable();
+    try {
+      Vector order = new Vector();
+      for (int i=0; i<rows.size(); i++) {
+        Vector names = new Vector();
+        Vector values = new Vector();
+        Vector types = new Vector();
+        addInsertValues((Attributes)rows.elementAt(i), "", names, values, types);
+        if (names.size() == 0) {
+          continue;
+        }
+        String statement = createInsertStatement(names);
+        PreparedStatement pstmt = (PreparedStatement)statements.get(statement);
+        if (pstmt == null) {
+          pstmt = con.prepareStatement(statement);
+          statements.put(statement, pstmt);
+          order.addElement(pstmt);
+        }
+        for (int j=0; j<values.size(); j++) {
+          CompiledRetrieval.setParameter(pstmt, j+1, values.elementAt(j), (String)types.elementAt(j));
+        }
+        pstmt.addBatch();
+      }
+      for (int i=0; i<order.size(); i++) {
+        ((PreparedStatement)order.elementAt(i)).executeBatch();
+      }
+    } finally {
+        for (Enumeration e = statements.elements(); e.hasMoreElements();) {
+          try {
+            ((PreparedStatement)e.nextElement()).close();
+          } catch(SQLException sqle) {
+          }
+        }
     }
-    resetForFlush();
   }
 
   /**
    * This private method creates and returns a SQL statement for inserting
-   * data into a database.
+   * data into a database, with a parameter for each column.
    *
-   * @param atts AttributeNameValues to put in the database
+   * @param names Vector of the column names
    * @return SQL statement for inserting the attributes into a database
    */
-  private String createInsertStatement(Attributes atts) {
+  private String createInsertStatement(Vector names) {
     StringBuffer statement = new StringBuffer("insert into "+ table +" (");
     StringBuffer values = new StringBuffer(" values (");
-    for (int j=0; j<atts.numAttributes(); j++) {
-      Attribute attr = atts.getAttributeAt(j);
-      AttributeNameValue att = null;
-      if (attr instanceof AttributeNameValue) {
-        att = (AttributeNameValue) attr;
-      } else {
-        continue;
-      }
+    for (int j=0; j<names.size(); j++) {
       if (j != 0) {
         statement.append(",");
         values.append(",");
       }
-      statement.append(att.getName());
-      if (att.getType().equals(Attribute.STRING)) {
-        values.append("'"+att.getValue()+"'");
-      }
-      else if (att.getType().equals(Attribute.STRUCT)) {
-        Attributes subAtts = (Attributes)att.getValue();
-        values.append(subAtts.numAttributes());
-        String subResult = createSubInsertStatement(subAtts,att.getName()+NEW_SEPARATOR);
-        int index = subResult.indexOf("()");
-        statement.append(subResult.substring(0,index));
-        values.append(subResult.substring(index+2));
-      }
-      else {
-        values.append(att.getValue());
-      }
+      statement.append(names.elementAt(j));
+      values.append("?");
     }
     values.append(")");
     statement.append(")"+values.toString());
@@ -505,15 +512,17 @@ public class VectorStorage implements Storage {
   }
   
   /**
-   * This private method creates and returns a SQL statement for inserting
-   * data into a database.  It uses prefix information for structures.
+   * This private method puts the column names, values and types of the given
+   * attributes in the given Vectors.  The value of a STRUCT attribute is its
+   * number of sub-attributes, which follow it with the struct name as prefix.
    *
    * @param atts AttributeNameValues to put in the database
-   * @return SQL statement for inserting the attributes into a database
+   * @param prefix to use for structure info
+   * @param names Vector to put the column names in
+   * @param values Vector to put the values in
+   * @param types Vector to put the types in
    */
-  private String createSubInsertStatement(Attributes atts, String prefix) {
-    StringBuffer statement = new StringBuffer();
-    StringBuffer values = new StringBuffer();
+  private void addInsertValues(Attributes atts, String prefix, Vector names, Vector values, Vector types) {
     for (int j=0; j<atts.numAttributes(); j++) {
       Attribute attr = atts.getAttributeAt(j);
       AttributeNameValue att = null;
@@ -522,26 +531,20 @@ public class VectorStorage implements Storage {
       } else {
         continue;
       }
-      statement.append(","+prefix+att.getName());
-      if (att.getType().equals(Attribute.STRING)) {
-        values.append(",'"+att.getValue()+"'");
-      }
-      else if (att.getType().equals(Attribute.STRUCT)) {
+      String name = prefix+att.getName();
+      names.addElement(name);
+      types.addElement(att.getType());
+      if (att.getType().equals(Attribute.STRUCT)) {
         Attributes subAtts = (Attributes)att.getValue();
-        values.append(","+subAtts.numAttributes());
-        String subResult = createSubInsertStatement(subAtts,prefix+NEW_SEPARATOR_STRING+att.getName()+NEW_SEPARATOR);
-        int index = subResult.indexOf("()");
-        statement.append(subResult.substring(0,index));
-        values.append(subResult.substring(index+2));
+        values.addElement(new Integer(subAtts.numAttributes()));
+        addInsertValues(subAtts,name+NEW_SEPARATOR_STRING,names,values,types);
       }
       else {
-        values.append(","+att.getValue());
+        values.addElement(att.getValue());
       }
     }
-    statement.append("()"+values.toString());
-    return statement.toString();
   }
-   
+
   /** 
    * This private method resets the data for local storage.  It should be called
    * after data is flushed to persistent storage.
@@ -557,35 +560,43 @@ public class VectorStorage implements Storage {
    * of AttributeNameValues objects that match the query, if any.  If the query fails for
    * any reason, null is returned
    *
-   * @param attnames Vector of attribute names to return
-   * @param query SELECT query to execute on the database
+   * @param query Compiled query to execute on the database
+   * @param conditions Conditions containing the values of the query parameters
    * @return Vector of AttributeNameValues objects that the query returns 
    */
-  private Vector executeRetrieveQuery(AttributeFunctions atts, String query) {
+  private Vector executeRetrieveQuery(CompiledRetrieval query, Conditions conditions) {
+    Connection con = null;
+    boolean failed = true;
     try {
-      Connection con = DriverManager.getConnection(StorageObject.URL, StorageObject.USER, StorageObject.PASSWORD);
-      Statement stmt = con.createStatement();
-      ResultSet rs = stmt.executeQuery(query);
+      con = StorageObject.CONNECTION_POOL.getConnection();
+      PreparedStatement pstmt = StorageObject.CONNECTION_POOL.prepareStatement(con, query.getSQL());
+      query.bind(pstmt, conditions);
+      ResultSet rs = pstmt.executeQuery();
 
+      String[] names = query.getResultNames();
+      String[] types = query.getResultTypes();
       Vector v = new Vector();
       while (rs.next()) {
         Hashtable returnAtts = new Hashtable();
-        for (int i=0; i<atts.numAttributeFunctions(); i++) {
-          AttributeFunction att = atts.getAttributeFunctionAt(i);
-          String name = att.getName();
-          String type = (String)attributeTypes.get(name);
+        for (int i=0; i<names.length; i++) {
           String value = (String)rs.getString(i+1);
-          name = name.replace(NEW_SEPARATOR,OLD_SEPARATOR);
-          returnAtts.put(name,new AttributeNameValue(name, value, type));
+          returnAtts.put(names[i],new AttributeNameValue(names[i], value, types[i]));
         }
         v.addElement(returnAtts);
       }
       rs.close();
-      stmt.close();
-      con.close();
+      failed = false;
       return v;       
     } catch(SQLException sqle) {
         System.out.println("VectorStorage executeRetrieveQuery SQL: "+sqle);
+    } finally {
+        // after an error, the connection and its prepared statements may be unusable
+        if (failed) {
+          StorageObject.CONNECTION_POOL.discardConnection(con);
+        }
+        else {
+          StorageObject.CONNECTION_POOL.releaseConnection(con);
+        }
     }
     return null;  
   }
@@ -599,20 +610,22 @@ public class VectorStorage implements Storage {
    * @throws SQLException when problems with check occur
    */
   private boolean tableExists(String tablename) throws SQLException {
-    Connection con = DriverManager.getConnection(StorageObject.URL, StorageObject.USER, StorageObject.PASSWORD);
-    Statement stmt = con.createStatement();
+    Connection con = StorageObject.CONNECTION_POOL.getConnection();
+    try {
+      Statement stmt = con.createStatement();
 
-    ResultSet rs = stmt.executeQuery("SHOW TABLES");
-    while(rs.next()) {
-      String result = rs.getString(1);
-      if (result.equals(tablename)) {
-        return true;
+      ResultSet rs = stmt.executeQuery("SHOW TABLES");
+      boolean exists = false;
+      while(rs.next() && !exists) {
+        String result = rs.getString(1);
+        exists = result.equals(tablename);
       }
+      rs.close();
+      stmt.close();
+      return exists;
+    } finally {
+        StorageObject.CONNECTION_POOL.releaseConnection(con);
     }
-    rs.close();
-    stmt.close();
-    con.close();
-    return false;
   }
 
   /**
@@ -625,15 +638,18 @@ public class VectorStorage implements Storage {
    */
   private Hashtable getTypeInfo(String tablename) throws SQLException {
     Hashtable hash = new Hashtable();
-    Connection con = DriverManager.getConnection(StorageObject.URL, StorageObject.USER, StorageObject.PASSWORD);
-    Statement stmt = con.createStatement();
-    ResultSet rs = stmt.executeQuery("SELECT * FROM "+tablename);
-    while (rs.next()) {
-      hash.put(rs.getString(1),rs.getString(2));
-    }
-    rs.close();
-    stmt.close();
-    con.close();
+    Connection con = StorageObject.CONNECTION_POOL.getConnection();
+    try {
+      Statement stmt = con.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT * FROM "+tablename);
+      while (rs.next()) {
+        hash.put(rs.getString(1),rs.getString(2));
+      }
+      rs.close();
+      stmt.close();
+    } finally {
+        StorageObject.CONNECTION_POOL.releaseConnection(con);
+    }
     return hash;
   }
 
@@ -679,11 +695,14 @@ public class VectorStorage implements Storage {
       }
     }
 
-    Connection con = DriverManager.getConnection(StorageObject.URL, StorageObject.USER, StorageObject.PASSWORD);
-    Statement stmt = con.createStatement();
-    stmt.executeUpdate(sb.toString());
-    stmt.close();
-    con.close();
+    Connection con = StorageObject.CONNECTION_POOL.getConnection();
+    try {
+      Statement stmt = con.createStatement();
+      stmt.executeUpdate(sb.toString());
+      stmt.close();
+    } finally {
+        StorageObject.CONNECTION_POOL.releaseConnection(con);
+    }
   }
 
   /**
@@ -700,6 +719,9 @@ public class VectorStorage implements Storage {
       attributeTypes.put(name.replace(OLD_SEPARATOR,NEW_SEPARATOR), attTypes.get(name));
     }
     this.attributes = attributes;
+    synchronized (queries) {
+      queries.clear();
+    }
   }
   
 }
@@ -0,0 +1,446 @@
+package context.arch.storage;
+
+import java.util.Vector;
+
+/**
+ * This class is a bounded queue between a StorageObject and its Storage, so
+ * that storing data doesn't wait for the storage and its flushes.
+ *
+ * The Attributes put in the queue are stored by a writer thread, by batches
+ * of at most batchSize Attributes.  The writer waits at most maxDelay
+ * milliseconds for a batch to fill, then stores it and flushes the storage if
+ * its flush condition is true.  The writer thread is started when data is put
+ * in the queue, and ends when the queue is empty.
+ *
+ * When the queue is full, the policy decides what happens to new data: BLOCK
+ * makes the caller wait for room in the queue, DROP_NEWEST drops the new
+ * Attributes, and DROP_OLDEST drops the oldest Attributes of the queue.
+ *
+ * The queue keeps metrics on its depth, the dropped Attributes and the time
+ * taken to store and flush each batch.
+ *
+ * A Listener is told of the Attributes accepted by the queue, and of the
+ * accepted Attributes that won't be stored because they were dropped or
+ * their storage failed.
+ *
+ * @see context.arch.storage.StorageObject
+ */
+public class WriteBehindQueue implements Runnable {
+
+  /**
+   * Debug flag. Set to true to see debug messages.
+   */
+  public static boolean DEBUG = false;
+
+  /**
+   * Policy that makes the caller wait when the queue is full
+   */
+  public static final int BLOCK = 0;
+
+  /**
+   * Policy that drops the new Attributes when the queue is full
+   */
+  public static final int DROP_NEWEST = 1;
+
+  /**
+   * Policy that drops the oldest Attributes when the queue is full
+   */
+  public static final int DROP_OLDEST = 2;
+
+  /**
+   * The default maximum number of Attributes in the queue is 1000
+   */
+  public static int DEFAULT_CAPACITY = 1000;
+
+  /**
+   * The default maximum number of Attributes stored in one batch is 50
+   */
+  public static int DEFAULT_BATCH_SIZE = 50;
+
+  /**
+   * The default maximum time to wait for a batch to fill is 500 milliseconds
+   */
+  public static long DEFAULT_MAX_DELAY = 500;
+
+  /**
+   * The default policy is to block the caller
+   */
+  public static int DEFAULT_POLICY = BLOCK;
+
+  private Storage storage;
+  private String name;
+  private Vector queue = new Vector();
+  private int capacity;
+  private int batchSize;
+  private long maxDelay;
+  private int policy;
+  private Thread writer = null;
+  private boolean writing = false;
+  private Listener listener = null;
+  private boolean flushRequested = false;
+  // number of the last flush requested, and of the last flush done by the writer
+  private long flushGeneration = 0;
+  private long flushedGeneration = 0;
+
+  private int maxDepth = 0;
+  private long enqueued = 0;
+  private long dropped = 0;
+  private long written = 0;
+  private long batches = 0;
+  private long totalLatency = 0;
+  private long maxLatency = 0;
+  private long lastLatency = 0;
+
+  /**
+   * Basic constructor using the default settings
+   *
+   * @param storage The storage to write to
+   * @param name Name of the queue, used for the writer thread
+   * @see #DEFAULT_CAPACITY
+   * @see #DEFAULT_BATCH_SIZE
+   * @see #DEFAULT_MAX_DELAY
+   * @see #DEFAULT_POLICY
+   */
+  public WriteBehindQueue(Storage storage, String name) {
+    this(storage, name, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY, DEFAULT_POLICY);
+  }
+
+  /**
+   * Constructor with user-specified settings
+   *
+   * @param storage The storage to write to
+   * @param name Name of the queue, used for the writer thread
+   * @param capacity Maximum number of Attributes in the queue
+   * @param batchSize Maximum number of Attributes stored in one batch
+   * @param maxDelay Maximum time in milliseconds to wait for a batch to fill
+   * @param policy BLOCK, DROP_NEWEST or DROP_OLDEST
+   */
+  public WriteBehindQueue(Storage storage, String name, int capacity, int batchSize, long maxDelay, int policy) {
+    this.storage = storage;
+    this.name = name;
+    this.capacity = Math.max(1, capacity);
+    this.batchSize = Math.max(1, batchSize);
+    this.maxDelay = maxDelay;
+    this.policy = policy;
+  }
+
+  /**
+   * Puts Attributes in the queue, to be stored by the writer thread.  If the
+   * queue is full, the policy decides whether the caller waits, or which
+   * Attributes are dropped.
+   *
+   * @param atts Attributes to store
+   * @return whether the given Attributes have been put in the queue
+   */
+  public synchronized boolean put(Attributes atts) {
+    while (queue.size() >= capacity) {
+      if (policy == DROP_NEWEST) {
+        dropped++;
+        return false;
+      }
+      else if (policy == DROP_OLDEST) {
+        Attributes oldest = (Attributes)queue.elementAt(0);
+        queue.removeElementAt(0);
+        dropped++;
+        if (listener != null) {
+          listener.dropped(oldest);
+        }
+      }
+      else {
+        try {
+          wait();
+        } catch (InterruptedException ie) {
+            dropped++;
+            return false;
+        }
+      }
+    }
+    queue.addElement(atts);
+    enqueued++;
+    if (listener != null) {
+      listener.queued(atts);
+    }
+    maxDepth = Math.max(maxDepth, queue.size());
+    startWriter();
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Asks the writer thread to store the queued Attributes without waiting
+   * for a batch to fill, and to flush the storage.  The caller doesn't wait.
+   */
+  public synchronized void flush() {
+    flushRequested = true;
+    flushGeneration++;
+    startWriter();
+    notifyAll();
+  }
+
+  /**
+   * Waits until all the queued Attributes have been stored and the storage
+   * flushed.  The writer counts the flushes it has done, so the caller waits
+   * for the flush it requested and not only for the queue to be empty.
+   */
+  public synchronized void drain() {
+    if (queue.isEmpty() && !writing && !flushRequested) {
+      return;
+    }
+    flush();
+    long generation = flushGeneration;
+    while (flushedGeneration < generation) {
+      try {
+        wait();
+      } catch (InterruptedException ie) {
+          return;
+      }
+    }
+  }
+
+  /**
+   * Starts the writer thread if it is not running.  The thread is not a
+   * daemon, so the queued data is stored before the program exits.
+   */
+  private void startWriter() {
+    if (writer == null) {
+      writer = new Thread(this, "WriteBehindQueue "+name);
+      writer.start();
+    }
+  }
+
+  /**
+   * Stores the queued Attributes by batches until the queue is empty
+   */
+  public void run() {
+    while (true) {
+      Vector batch = new Vector();
+      boolean flush;
+      long generation = 0;
+      synchronized (this) {
+        long end = System.currentTimeMillis() + maxDelay;
+        long delay = maxDelay;
+        while (!queue.isEmpty() && queue.size() < batchSize && !flushRequested && delay > 0) {
+          try {
+            wait(delay);
+          } catch (InterruptedException ie) {
+              break;
+          }
+          delay = end - System.currentTimeMillis();
+        }
+        if (queue.isEmpty() && !flushRequested) {
+          writer = null;
+          notifyAll();
+          return;
+        }
+        int n = Math.min(batchSize, queue.size());
+        for (int i=0; i<n; i++) {
+          batch.addElement(queue.elementAt(i));
+        }
+        for (int i=0; i<n; i++) {
+          queue.removeElementAt(0);
+        }
+        flush = flushRequested && queue.isEmpty();
+        if (flush) {
+          flushRequested = false;
+          generation = flushGeneration;
+        }
+        writing = true;
+        notifyAll();
+      }
+
+      long start = System.currentTimeMillis();
+      int stored = 0;
+      try {
+        for (; stored<batch.size(); stored++) {
+          storage.store((Attributes)batch.elementAt(stored));
+        }
+        if (flush || storage.checkFlushCondition()) {
+          storage.flushStorage();
+        }
+      } catch (RuntimeException re) {
+          System.out.println("WriteBehindQueue run Exception: "+re);
+      }
+      Listener failed;
+      synchronized (this) {
+        failed = listener;
+      }
+      if (failed != null) {
+        for (int i=stored; i<batch.size(); i++) {
+          failed.dropped((Attributes)batch.elementAt(i));
+        }
+      }
+      long latency = System.currentTimeMillis() - start;
+
+      synchronized (this) {
+        writing = false;
+        if (flush) {
+          flushedGeneration = generation;
+        }
+        written += batch.size();
+        batches++;
+        lastLatency = latency;
+        totalLatency += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        notifyAll();
+      }
+      if (DEBUG) {
+        System.out.println("WriteBehindQueue stored "+batch.size()+" in "+latency+" ms, "+this);
+      }
+    }
+  }
+
+  /**
+   * Sets the listener told of the Attributes accepted and dropped by the queue
+   *
+   * @param listener The listener, or null
+   */
+  public synchronized void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets the maximum number of Attributes stored in one batch
+   *
+   * @param batchSize Maximum number of Attributes
+   */
+  public synchronized void setBatchSize(int batchSize) {
+    this.batchSize = Math.max(1, batchSize);
+    notifyAll();
+  }
+
+  /**
+   * Sets the maximum time to wait for a batch to fill
+   *
+   * @param maxDelay Time in milliseconds
+   */
+  public synchronized void setMaxDelay(long maxDelay) {
+    this.maxDelay = maxDelay;
+    notifyAll();
+  }
+
+  /**
+   * Sets the policy used when the queue is full
+   *
+   * @param policy BLOCK, DROP_NEWEST or DROP_OLDEST
+   */
+  public synchronized void setPolicy(int policy) {
+    this.policy = policy;
+    notifyAll();
+  }
+
+  /**
+   * Returns the number of Attributes waiting in the queue
+   *
+   * @return the depth of the queue
+   */
+  public synchronized int getDepth() {
+    return queue.size();
+  }
+
+  /**
+   * Returns the largest number of Attributes that have been waiting in the queue
+   *
+   * @return the maximum depth of the queue
+   */
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * Returns the number of Attributes put in the queue
+   *
+   * @return the number of Attributes put
+   */
+  public synchronized long getEnqueued() {
+    return enqueued;
+  }
+
+  /**
+   * Returns the number of Attributes dropped because the queue was full
+   *
+   * @return the number of Attributes dropped
+   */
+  public synchronized long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * Returns the number of Attributes given to the storage
+   *
+   * @return the number of Attributes stored
+   */
+  public synchronized long getWritten() {
+    return written;
+  }
+
+  /**
+   * Returns the number of batches given to the storage
+   *
+   * @return the number of batches
+   */
+  public synchronized long getBatches() {
+    return batches;
+  }
+
+  /**
+   * Returns the time taken to store and flush the last batch
+   *
+   * @return the latency in milliseconds
+   */
+  public synchronized long getLastFlushLatency() {
+    return lastLatency;
+  }
+
+  /**
+   * Returns the largest time taken to store and flush a batch
+   *
+   * @return the latency in milliseconds
+   */
+  public synchronized long getMaxFlushLatency() {
+    return maxLatency;
+  }
+
+  /**
+   * Returns the average time taken to store and flush a batch
+   *
+   * @return the latency in milliseconds
+   */
+  public synchronized double getAverageFlushLatency() {
+    return batches == 0 ? 0 : (double)totalLatency / batches;
+  }
+
+  /**
+   * Returns the metrics of the queue
+   *
+   * @return String
+   */
+  public synchronized String toString() {
+    return "WriteBehindQueue "+name+" depth="+queue.size()+" maxDepth="+maxDepth+" enqueued="+enqueued
+      +" dropped="+dropped+" written="+written+" batches="+batches+" lastLatency="+lastLatency
+      +" maxLatency="+maxLatency+" avgLatency="+getAverageFlushLatency();
+  }
+
+  /**
+   * Interface of the objects told of the Attributes accepted and dropped by a
+   * WriteBehindQueue.  Its methods are called by the thread putting the
+   * Attributes, with the queue locked, or by the writer thread.
+   */
+  public interface Listener {
+
+    /**
+     * Called when Attributes are accepted by the queue
+     *
+     * @param atts Attributes put in the queue
+     */
+    public void queued(Attributes atts);
+
+    /**
+     * Called when accepted Attributes won't be stored, because they were
+     * dropped from the queue or their storage failed
+     *
+     * @param atts Attributes that won't be stored
+     */
+    public void dropped(Attributes atts);
+  }
+
+}
@@ -2,6 +2,7 @@ package context.arch.subscriber;
 
 import context.arch.comm.DataObject;
 import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.discoverer.Discoverer;
 
 import java.util.Vector;
@@ -28,6 +29,8 @@ public class DiscovererSubscriber extends AbstractSubscriber {
    * These fields are specific to Susbcriber 
    */
   private AbstractQueryItem query;
+  /** The compiled query, null until it is used */
+  private CompiledQuery compiledQuery;
   private boolean fullDescriptionResponse = false;
 
   /**
@@ -102,8 +105,9 @@ public class DiscovererSubscriber extends AbstractSubscriber {
    *
    * @param conditions Subscription conditions used for notification
    */
-  public void setQuery(AbstractQueryItem query){
+  public synchronized void setQuery(AbstractQueryItem query){
     this.query = query;
+    this.compiledQuery = null;
   }
 
   /**
@@ -114,6 +118,18 @@ public class DiscovererSubscriber extends AbstractSubscriber {
   public AbstractQueryItem getQuery() {
     return query;
   }
+
+  /**
+   * Returns the compiled subscription query, compiled the first time it is used
+   *
+   * @return compiled subscription query, or null if there is none
+   */
+  public synchronized CompiledQuery getCompiledQuery() {
+    if (compiledQuery == null && query != null) {
+      compiledQuery = query.compile();
+    }
+    return compiledQuery;
+  }
   
   /**
    * Sets whether or not this subscriber wishes to receive full information
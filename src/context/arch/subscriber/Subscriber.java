@@ -3,6 +3,7 @@ package context.arch.subscriber;
 import context.arch.storage.Attributes;
 import context.arch.comm.DataObject;
 import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.CompiledQuery;
 
 import java.util.Vector;
 
@@ -21,6 +22,8 @@ public class Subscriber extends AbstractSubscriber {
    * and attributes
    */
   private AbstractQueryItem condition;
+  /** The compiled condition, null until it is used */
+  private CompiledQuery compiledCondition;
   private Attributes attributes;
 
   /**
@@ -101,8 +104,9 @@ public class Subscriber extends AbstractSubscriber {
    *
    * @param conditions Subscription conditions used for notification
    */
-  public void setCondition(AbstractQueryItem condition) {
+  public synchronized void setCondition(AbstractQueryItem condition) {
     this.condition = condition;
+    this.compiledCondition = null;
   }
 
   /**
@@ -114,6 +118,19 @@ public class Subscriber extends AbstractSubscriber {
     return condition;
   }
 
+  /**
+   * Returns the compiled subscription conditions, compiled the first time
+   * they are used
+   *
+   * @return compiled subscription conditions, or null if there are none
+   */
+  public synchronized CompiledQuery getCompiledCondition() {
+    if (compiledCondition == null && condition != null) {
+      compiledCondition = condition.compile();
+    }
+    return compiledCondition;
+  }
+
   /**
    * Sets the attributes to return to the subscriber
    *
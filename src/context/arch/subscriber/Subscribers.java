@@ -320,6 +320,15 @@ public class Subscribers extends Vector {
     return size();
   }
   
+  /**
+   * Returns the number of times subscribers have been added to or removed
+   * from the list, so that an object indexing the subscribers knows when
+   * they have changed
+   */
+  public synchronized int getModificationCount() {
+    return modCount;
+  }
+  
   /**
    * Converts to a DataObject.
    *
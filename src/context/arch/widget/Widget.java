@@ -13,7 +13,7 @@ import context.arch.comm.clients.IndependentCommunication;
 import context.arch.comm.language.EncodeException;
 import context.arch.comm.language.InvalidEncoderException;
 import context.arch.discoverer.Discoverer;
-import context.arch.discoverer.querySystem.AbstractQueryItem;
+import context.arch.discoverer.querySystem.CompiledQuery;
 import context.arch.service.Service;
 import context.arch.service.Services;
 import context.arch.service.helper.FunctionDescription;
@@ -687,13 +687,13 @@ public abstract class Widget extends BaseObject {
   protected DataObject queryWidget(DataObject query, boolean update, String error) {
     debugprintln(DEBUG, "Widget queryWidget query:"+query.toString() + "\nerror:"+ error);
     DataObject result = null;
-    Vector v = new Vector();
     if (update) {
-      result = new DataObject(UPDATE_AND_QUERY_REPLY, v);
+      result = new DataObject(UPDATE_AND_QUERY_REPLY);
     }
     else {
-      result = new DataObject(QUERY_REPLY, v);
+      result = new DataObject(QUERY_REPLY);
     }
+    Vector v = result.getValue();
     
     Attributes atts = new Attributes(query);
     Error err = new Error(error);
@@ -713,10 +713,10 @@ public abstract class Widget extends BaseObject {
     if (update) {
       updateWidgetInformation();
     }
+    Attributes values = null;
     if (storage != null) {
-      storage.flushStorage();
+      values = storage.retrieveLastAttributes();
     }
-    Attributes values = storage.retrieveLastAttributes();
     
     if (values != null) {
       Attributes subset = (Attributes) values.getSubset(atts);
@@ -928,7 +928,7 @@ public abstract class Widget extends BaseObject {
       debugprintln(DEBUG, "Widget <sendToSubs> test callback="+callback + " ?? equal to sub call=" + sub.getSubscriptionCallback ());
       if (callback.equals(sub.getSubscriptionCallback())) {
         // Checks if the subscriber has specified conditions
-        if (dataValid(call, sub.getCondition())) {
+        if (dataValid(call, sub.getCompiledCondition())) {
           debugprintln(DEBUG, "Widget <sendToSubscribers> datavalid TRUE");
           Attributes callAtts = call.getAttributes();
           Attributes subAtts = attributes.getSubset(callAtts).getSubset(sub.getAttributes());
@@ -1005,7 +1005,7 @@ public abstract class Widget extends BaseObject {
    * @param conditions Conditions to validate against
    * @return whether the data falls within the given conditions
    */
-  private boolean dataValid(Callback callback, AbstractQueryItem condition) {
+  private boolean dataValid(Callback callback, CompiledQuery condition) {
     return (condition == null) ? true : condition.process(getComponentDescription());
   }
     